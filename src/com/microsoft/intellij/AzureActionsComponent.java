@@ -26,6 +26,7 @@ import com.intellij.openapi.actionSystem.ActionManager;
 import com.intellij.openapi.actionSystem.DefaultActionGroup;
 import com.intellij.openapi.actionSystem.IdeActions;
 import com.intellij.openapi.components.ApplicationComponent;
+import com.microsoft.intellij.util.AzureExecutor;
 import org.jetbrains.annotations.NotNull;
 
 public class AzureActionsComponent implements ApplicationComponent {
@@ -45,5 +46,6 @@ public class AzureActionsComponent implements ApplicationComponent {
     }
 
     public void disposeComponent() {
+        AzureExecutor.shutdown();
     }
 }
\ No newline at end of file
@@ -26,20 +26,21 @@ import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.components.AbstractProjectComponent;
 import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleManager;
-import com.intellij.openapi.module.ModuleTypeId;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.util.PlatformUtils;
 import com.interopbridges.tools.windowsazure.WindowsAzureProjectManager;
 import com.microsoft.applicationinsights.preference.ApplicationInsightsResource;
 import com.microsoft.applicationinsights.preference.ApplicationInsightsResourceRegistry;
-import com.microsoft.intellij.ui.libraries.AILibraryHandler;
+import com.microsoft.intellij.rest.FakeAzureServer;
 import com.microsoft.intellij.ui.libraries.AzureLibrary;
 import com.microsoft.intellij.ui.messages.AzureBundle;
 import com.microsoft.intellij.util.AppInsightsCustomEvent;
-import com.microsoft.intellij.util.PluginUtil;
+import com.microsoft.intellij.util.InstrumentationKeyIndex;
+import com.microsoft.intellij.util.PluginResourceInstaller;
+import com.microsoft.intellij.util.ProjectManagerCache;
+import com.microsoft.intellij.util.RoleFolderIndex;
 import com.microsoft.intellij.util.WAHelper;
 import com.microsoftopentechnologies.azurecommons.util.WAEclipseHelperMethods;
 import com.microsoftopentechnologies.azurecommons.xmlhandling.DataOperations;
@@ -47,7 +48,6 @@ import com.microsoftopentechnologies.azurecommons.deploy.DeploymentEventArgs;
 import com.microsoftopentechnologies.azurecommons.deploy.DeploymentEventListener;
 import com.microsoftopentechnologies.azurecommons.wacommonutil.FileUtil;
 import com.microsoftopentechnologies.azurecommons.xmlhandling.ParseXMLUtilMethods;
-import com.microsoftopentechnologies.windowsazure.tools.cspack.Utils;
 
 import javax.swing.event.EventListenerList;
 import java.io.File;
@@ -101,10 +101,12 @@ public class AzurePlugin extends AbstractProjectComponent {
     }
 
     public void projectOpened() {
+        RoleFolderIndex.getInstance(project).indexModules();
         initializeAIRegistry();
     }
 
     public void projectClosed() {
+        LOG.info(ProjectManagerCache.getInstance(project).toString());
     }
 
     /**
@@ -115,6 +117,8 @@ public class AzurePlugin extends AbstractProjectComponent {
         if (!IS_ANDROID_STUDIO) {
             LOG.info("Starting Azure Plugin");
             try {
+                // local stand-in for Azure, only when asked for with -Dazure.toolkit.fakeAzure
+                FakeAzureServer.startIfConfigured();
                 azureSettings.loadStorage();
                 //this code is for copying componentset.xml in plugins folder
                 copyPluginComponents();
@@ -165,28 +169,32 @@ public class AzurePlugin extends AbstractProjectComponent {
     private void initializeAIRegistry() {
         try {
             AzureSettings.getSafeInstance(project).loadAppInsights();
-            Module[] modules = ModuleManager.getInstance(project).getModules();
-            for (Module module : modules) {
-                if (module != null && module.isLoaded() && ModuleTypeId.JAVA_MODULE.equals(module.getOptionValue(Module.ELEMENT_TYPE))) {
-                    String aiXMLPath = String.format("%s%s%s", PluginUtil.getModulePath(module), File.separator, message("aiXMLPath"));
-                    if (new File(aiXMLPath).exists()) {
-                        AILibraryHandler handler = new AILibraryHandler();
-                        handler.parseAIConfXmlPath(aiXMLPath);
-                        String key = handler.getAIInstrumentationKey();
-                        if (key != null && !key.isEmpty()) {
+            // keys are read from module files in background, registry is updated on dispatch thread
+            InstrumentationKeyIndex.getInstance(project).indexModules(new Runnable() {
+                @Override
+                public void run() {
+                    final List<String> keys = InstrumentationKeyIndex.getInstance(project).getInUseKeys();
+                    ApplicationManager.getApplication().invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (project.isDisposed()) {
+                                return;
+                            }
                             String unknown = message("unknown");
                             List<ApplicationInsightsResource> list =
                                     ApplicationInsightsResourceRegistry.getAppInsightsResrcList();
-                            ApplicationInsightsResource resourceToAdd = new ApplicationInsightsResource(
-                                    key, key, unknown, unknown, unknown, unknown, false);
-                            if (!list.contains(resourceToAdd)) {
-                                ApplicationInsightsResourceRegistry.getAppInsightsResrcList().add(resourceToAdd);
+                            for (String key : keys) {
+                                ApplicationInsightsResource resourceToAdd = new ApplicationInsightsResource(
+                                        key, key, unknown, unknown, unknown, unknown, false);
+                                if (!list.contains(resourceToAdd)) {
+                                    list.add(resourceToAdd);
+                                }
                             }
+                            AzureSettings.getSafeInstance(project).saveAppInsights();
                         }
-                    }
+                    });
                 }
-            }
-            AzureSettings.getSafeInstance(project).saveAppInsights();
+            });
         } catch (Exception ex) {
             AzurePlugin.log(ex.getMessage(), ex);
         }
@@ -242,44 +250,38 @@ public class AzurePlugin extends AbstractProjectComponent {
     /**
      * Copies MS Open Tech Tools for Azure
      * related files in azure-toolkit-for-intellij plugin folder at startup.
+     * Files are copied in background and only when they changed, see {@link PluginResourceInstaller}.
      */
     private void copyPluginComponents() {
-        try {
-            String pluginInstLoc = String.format("%s%s%s", PathManager.getPluginsPath(), File.separator, PLUGIN_ID);
-
-            String cmpntFile = String.format("%s%s%s", pluginInstLoc,
-                    File.separator, AzureBundle.message("cmpntFileName"));
-            String starterKit = String.format("%s%s%s", pluginInstLoc,
-                    File.separator, AzureBundle.message("starterKitFileName"));
-            String enctFile = String.format("%s%s%s", pluginInstLoc,
-                    File.separator, message("encFileName"));
-            String prefFile = String.format("%s%s%s", pluginInstLoc,
-                    File.separator, AzureBundle.message("prefFileName"));
-
-            // upgrade component sets and preference sets
-            upgradePluginComponent(cmpntFile, AzureBundle.message("cmpntFileEntry"), AzureBundle.message("oldCmpntFileEntry"), COMPONENTSETS_TYPE);
-            upgradePluginComponent(prefFile, AzureBundle.message("prefFileEntry"), AzureBundle.message("oldPrefFileEntry"), PREFERENCESETS_TYPE);
-
-            // Check for WAStarterKitForJava.zip
-            if (new File(starterKit).exists()) {
-                new File(starterKit).delete();
-            }
-            // Check for encutil.exe
-            if (new File(enctFile).exists()) {
-                new File(enctFile).delete();
-            }
-            copyResourceFile(message("starterKitEntry"), starterKit);
-            copyResourceFile(message("encFileName"), enctFile);
-            for (AzureLibrary azureLibrary : AzureLibrary.LIBRARIES) {
-                if (!new File(pluginInstLoc + File.separator + azureLibrary.getLocation()).exists()) {
-                    for (String entryName : Utils.getJarEntries(pluginInstLoc + File.separator + "lib" + File.separator + PLUGIN_ID + ".jar", azureLibrary.getLocation())) {
-                        new File(pluginInstLoc + File.separator + entryName).getParentFile().mkdirs();
-                        copyResourceFile(entryName, pluginInstLoc + File.separator + entryName);
-                    }
-                }
-            }
-        } catch (Exception e) {
-            LOG.error(e.getMessage(), e);
+        String pluginInstLoc = String.format("%s%s%s", PathManager.getPluginsPath(), File.separator, PLUGIN_ID);
+        PluginResourceInstaller installer = new PluginResourceInstaller(new File(pluginInstLoc),
+                new File(pluginInstLoc + File.separator + "lib" + File.separator + PLUGIN_ID + ".jar"));
+        // upgrade component sets and preference sets, they may be modified by user
+        installer.add(AzureBundle.message("cmpntFileEntry"), AzureBundle.message("cmpntFileName"),
+                new PluginComponentInstaller(AzureBundle.message("oldCmpntFileEntry"), COMPONENTSETS_TYPE));
+        installer.add(AzureBundle.message("prefFileEntry"), AzureBundle.message("prefFileName"),
+                new PluginComponentInstaller(AzureBundle.message("oldPrefFileEntry"), PREFERENCESETS_TYPE));
+        // WAStarterKitForJava.zip and encutil.exe
+        installer.add(message("starterKitEntry"), AzureBundle.message("starterKitFileName"));
+        installer.add(message("encFileName"), message("encFileName"));
+        for (AzureLibrary azureLibrary : AzureLibrary.LIBRARIES) {
+            installer.addJarDirectory(azureLibrary.getLocation());
+        }
+        installer.start();
+    }
+
+    private class PluginComponentInstaller implements PluginResourceInstaller.Installer {
+        private final String oldResource;
+        private final String componentType;
+
+        private PluginComponentInstaller(String oldResource, String componentType) {
+            this.oldResource = oldResource;
+            this.componentType = componentType;
+        }
+
+        @Override
+        public void install(String resourceName, File target) throws Exception {
+            upgradePluginComponent(target.getPath(), resourceName, oldResource, componentType);
         }
     }
 
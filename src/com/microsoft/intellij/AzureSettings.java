@@ -24,18 +24,23 @@ package com.microsoft.intellij;
 import com.intellij.openapi.components.*;
 import com.intellij.openapi.project.Project;
 import com.intellij.util.xmlb.XmlSerializerUtil;
+import com.intellij.util.xmlb.annotations.AbstractCollection;
+import com.intellij.util.xmlb.annotations.Tag;
 import com.microsoft.applicationinsights.preference.ApplicationInsightsResource;
 import com.microsoft.applicationinsights.preference.ApplicationInsightsResourceRegistry;
+import com.microsoft.intellij.util.AzureExecutor;
 import com.microsoft.intellij.wizards.WizardCacheManager;
 import com.microsoftopentechnologies.azurecommons.deploy.tasks.LoadingAccoutListener;
 import com.microsoftopentechnologies.azurecommons.deploy.util.PublishData;
-import com.microsoftopentechnologies.azurecommons.exception.RestAPIException;
 import com.microsoftopentechnologies.azurecommons.storageregistry.StorageAccount;
 import com.microsoftopentechnologies.azurecommons.storageregistry.StorageAccountRegistry;
 import org.apache.xmlbeans.impl.util.Base64;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import static com.microsoft.intellij.AzurePlugin.log;
 import static com.microsoft.intellij.ui.messages.AzureBundle.message;
@@ -70,19 +75,17 @@ public class AzureSettings implements PersistentStateComponent<AzureSettings.Sta
 
     public void loadStorage() {
         try {
-            if (myState.storageAccount != null) {
-                byte[] data = Base64.decode(myState.storageAccount.getBytes());
-                ByteArrayInputStream buffer = new ByteArrayInputStream(data);
-                ObjectInput input = new ObjectInputStream(buffer);
-                try {
-                    StorageAccount[] storageAccs = (StorageAccount[]) input.readObject();
-                    for (StorageAccount str : storageAccs) {
-                        if (!StorageAccountRegistry.getStrgList().contains(str)) {
-                            StorageAccountRegistry.getStrgList().add(str);
-                        }
-                    }
-                } finally {
-                    input.close();
+            List<StorageAccount> storageAccs = new ArrayList<StorageAccount>();
+            if (myState.storageAccounts != null) {
+                for (SettingsRecords.StorageAccountRecord record : myState.storageAccounts) {
+                    storageAccs.add(record.toStorageAccount());
+                }
+            } else if (myState.storageAccount != null) {
+                storageAccs.addAll(Arrays.asList((StorageAccount[]) readLegacyState(myState.storageAccount)));
+            }
+            for (StorageAccount str : storageAccs) {
+                if (!StorageAccountRegistry.getStrgList().contains(str)) {
+                    StorageAccountRegistry.getStrgList().add(str);
                 }
             }
         } catch (ClassNotFoundException ex) {
@@ -94,19 +97,17 @@ public class AzureSettings implements PersistentStateComponent<AzureSettings.Sta
 
     public void loadAppInsights() {
         try {
-            if (myState.appInsights != null) {
-                byte[] data = Base64.decode(myState.appInsights.getBytes());
-                ByteArrayInputStream buffer = new ByteArrayInputStream(data);
-                ObjectInput input = new ObjectInputStream(buffer);
-                try {
-                    ApplicationInsightsResource[] resources = (ApplicationInsightsResource[]) input.readObject();
-                    for (ApplicationInsightsResource resource : resources) {
-                        if (!ApplicationInsightsResourceRegistry.getAppInsightsResrcList().contains(resource)) {
-                            ApplicationInsightsResourceRegistry.getAppInsightsResrcList().add(resource);
-                        }
-                    }
-                } finally {
-                    input.close();
+            List<ApplicationInsightsResource> resources = new ArrayList<ApplicationInsightsResource>();
+            if (myState.appInsightsResources != null) {
+                for (SettingsRecords.AppInsightsRecord record : myState.appInsightsResources) {
+                    resources.add(record.toResource());
+                }
+            } else if (myState.appInsights != null) {
+                resources.addAll(Arrays.asList((ApplicationInsightsResource[]) readLegacyState(myState.appInsights)));
+            }
+            for (ApplicationInsightsResource resource : resources) {
+                if (!ApplicationInsightsResourceRegistry.getAppInsightsResrcList().contains(resource)) {
+                    ApplicationInsightsResourceRegistry.getAppInsightsResrcList().add(resource);
                 }
             }
         } catch (ClassNotFoundException ex) {
@@ -118,23 +119,18 @@ public class AzureSettings implements PersistentStateComponent<AzureSettings.Sta
 
     public void loadPublishDatas(LoadingAccoutListener listener) {
         try {
-            if (myState.publishProfile != null) {
-                byte[] data = Base64.decode(myState.publishProfile.getBytes());
-                ByteArrayInputStream buffer = new ByteArrayInputStream(data);
-                ObjectInput input = new ObjectInputStream(buffer);
-                try {
-                    PublishData[] publishDatas = (PublishData[]) input.readObject();
-                    listener.setNumberOfAccounts(publishDatas.length);
-                    for (PublishData pd : publishDatas) {
-                        try {
-                            WizardCacheManager.cachePublishData(null, pd, listener);
-                        } catch (RestAPIException e) {
-                            log(message("error"), e);
-                        }
-                    }
-                } finally {
-                    input.close();
+            PublishData[] publishDatas = null;
+            if (myState.publishProfiles != null) {
+                publishDatas = new PublishData[myState.publishProfiles.size()];
+                for (int i = 0; i < publishDatas.length; i++) {
+                    publishDatas[i] = myState.publishProfiles.get(i).toPublishData();
                 }
+            } else if (myState.publishProfile != null) {
+                publishDatas = (PublishData[]) readLegacyState(myState.publishProfile);
+            }
+            if (publishDatas != null) {
+                listener.setNumberOfAccounts(publishDatas.length);
+                loadPublishDatasInParallel(publishDatas, listener);
             }
         } catch (IOException e) {
             log(message("error"), e);
@@ -143,77 +139,103 @@ public class AzureSettings implements PersistentStateComponent<AzureSettings.Sta
         }
     }
 
-    public void saveStorage() {
+    /**
+     * Loads all publish datas concurrently and then adds them to cache at once
+     * in their original order, so later profiles still win on duplicate subscriptions.
+     * Resources of each profile are loaded in parallel too, on nested pool of {@link AzureExecutor}.
+     */
+    private void loadPublishDatasInParallel(PublishData[] publishDatas, final LoadingAccoutListener listener) {
+        long start = System.currentTimeMillis();
+        final long[] loadMillis = new long[publishDatas.length];
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < publishDatas.length; i++) {
+            final PublishData pd = publishDatas[i];
+            final int index = i;
+            futures.add(AzureExecutor.getInstance().submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    long profileStart = System.currentTimeMillis();
+                    try {
+                        return WizardCacheManager.loadPublishData(null, pd, listener);
+                    } finally {
+                        loadMillis[index] = System.currentTimeMillis() - profileStart;
+                    }
+                }
+            }));
+        }
         try {
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-            ObjectOutput output = new ObjectOutputStream(buffer);
-            List<StorageAccount> data = StorageAccountRegistry.getStrgList();
-            /*
-             * Sort list according to storage account name.
-			 */
-            Collections.sort(data);
-            StorageAccount[] dataArray = new StorageAccount[data.size()];
-            int i = 0;
-            for (StorageAccount pd1 : data) {
-                dataArray[i] = pd1;
-                i++;
+            List<PublishData> loaded = new ArrayList<PublishData>();
+            for (int i = 0; i < publishDatas.length; i++) {
+                try {
+                    if (futures.get(i).get()) {
+                        loaded.add(publishDatas[i]);
+                    }
+                } catch (ExecutionException e) {
+                    log(message("error"), e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                }
             }
-            try {
-                output.writeObject(dataArray);
-            } finally {
-                output.close();
+            WizardCacheManager.addPublishDatas(loaded);
+            log(String.format("Loaded %d publish profiles in %d ms, per profile %s ms; %s", publishDatas.length,
+                    System.currentTimeMillis() - start, Arrays.toString(loadMillis), AzureExecutor.getInstance()));
+        } catch (InterruptedException e) {
+            for (Future<Boolean> future : futures) {
+                future.cancel(true);
             }
-            myState.storageAccount = new String(Base64.encode(buffer.toByteArray()));
-        } catch (IOException e) {
-            log(message("err"), e);
+            Thread.currentThread().interrupt();
         }
     }
 
+    public void saveStorage() {
+        List<StorageAccount> data = StorageAccountRegistry.getStrgList();
+        /*
+         * Sort list according to storage account name.
+		 */
+        Collections.sort(data);
+        List<SettingsRecords.StorageAccountRecord> records = new ArrayList<SettingsRecords.StorageAccountRecord>(data.size());
+        for (StorageAccount account : data) {
+            records.add(SettingsRecords.StorageAccountRecord.of(account));
+        }
+        myState.storageAccounts = records;
+        myState.storageAccount = null;
+        myState.formatVersion = SettingsRecords.FORMAT_VERSION;
+    }
+
     public void saveAppInsights() {
-        try {
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-            ObjectOutput output = new ObjectOutputStream(buffer);
-            List<ApplicationInsightsResource> data = ApplicationInsightsResourceRegistry.getAppInsightsResrcList();
-            /*
-			 * Sort list according to application insights resource name.
-			 */
-            Collections.sort(data);
-            ApplicationInsightsResource[] dataArray = new ApplicationInsightsResource[data.size()];
-            int i = 0;
-            for (ApplicationInsightsResource pd1 : data) {
-                dataArray[i] = pd1;
-                i++;
-            }
-            try {
-                output.writeObject(dataArray);
-            } finally {
-                output.close();
-            }
-            myState.appInsights = new String(Base64.encode(buffer.toByteArray()));
-        } catch (IOException e) {
-            log(message("err"), e);
+        List<ApplicationInsightsResource> data = ApplicationInsightsResourceRegistry.getAppInsightsResrcList();
+        /*
+         * Sort list according to application insights resource name.
+		 */
+        Collections.sort(data);
+        List<SettingsRecords.AppInsightsRecord> records = new ArrayList<SettingsRecords.AppInsightsRecord>(data.size());
+        for (ApplicationInsightsResource resource : data) {
+            records.add(SettingsRecords.AppInsightsRecord.of(resource));
         }
+        myState.appInsightsResources = records;
+        myState.appInsights = null;
+        myState.formatVersion = SettingsRecords.FORMAT_VERSION;
     }
 
     public void savePublishDatas() {
+        Collection<PublishData> data = WizardCacheManager.getPublishDatas();
+        List<SettingsRecords.PublishProfileRecord> records = new ArrayList<SettingsRecords.PublishProfileRecord>(data.size());
+        for (PublishData pd : data) {
+            records.add(SettingsRecords.PublishProfileRecord.of(pd.getPublishProfile()));
+        }
+        myState.publishProfiles = records;
+        myState.publishProfile = null;
+        myState.formatVersion = SettingsRecords.FORMAT_VERSION;
+    }
+
+    /**
+     * Reads section written by versions which stored Java serialized arrays encoded with Base64.
+     */
+    static Object readLegacyState(String value) throws IOException, ClassNotFoundException {
+        byte[] data = Base64.decode(value.getBytes());
+        ObjectInput input = new ObjectInputStream(new ByteArrayInputStream(data));
         try {
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-            ObjectOutput output = new ObjectOutputStream(buffer);
-            Collection<PublishData> data = WizardCacheManager.getPublishDatas();
-            PublishData[] dataArray = new PublishData[data.size()];
-            int i = 0;
-            for (PublishData pd1 : data) {
-                dataArray[i] = new PublishData();
-                dataArray[i++].setPublishProfile(pd1.getPublishProfile());
-            }
-            try {
-                output.writeObject(dataArray);
-            } finally {
-                output.close();
-            }
-            myState.publishProfile = new String(Base64.encode(buffer.toByteArray()));
-        } catch (IOException e) {
-            e.printStackTrace();
+            return input.readObject();
+        } finally {
+            input.close();
         }
     }
 
@@ -226,9 +248,23 @@ public class AzureSettings implements PersistentStateComponent<AzureSettings.Sta
     }
 
     public static class State {
+        public int formatVersion;
+        /*
+         * Java serialized sections written before formatVersion 1.
+         * Read only when section has no records yet, cleared when section is saved.
+         */
         public String storageAccount;
         public String appInsights;
         public String publishProfile;
+        @Tag("storageAccounts")
+        @AbstractCollection(surroundWithTag = false)
+        public List<SettingsRecords.StorageAccountRecord> storageAccounts;
+        @Tag("appInsightsResources")
+        @AbstractCollection(surroundWithTag = false)
+        public List<SettingsRecords.AppInsightsRecord> appInsightsResources;
+        @Tag("publishProfiles")
+        @AbstractCollection(surroundWithTag = false)
+        public List<SettingsRecords.PublishProfileRecord> publishProfiles;
         public Map<String, String> deployCache = new HashMap<String, String>();
     }
 }
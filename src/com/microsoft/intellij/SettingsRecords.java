@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij;
+
+import com.intellij.util.xmlb.annotations.AbstractCollection;
+import com.intellij.util.xmlb.annotations.Attribute;
+import com.intellij.util.xmlb.annotations.Tag;
+import com.microsoft.applicationinsights.preference.ApplicationInsightsResource;
+import com.microsoftopentechnologies.azurecommons.deploy.util.PublishData;
+import com.microsoftopentechnologies.azurecommons.deploy.util.PublishProfile;
+import com.microsoftopentechnologies.azurecommons.storageregistry.StorageAccount;
+import com.microsoftopentechnologies.azuremanagementutil.model.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records {@link AzureSettings} keeps in project file, one XML element per storage account,
+ * Application Insights resource and publish profile. Unlike Java serialization they do not
+ * depend on class names of library model objects and unchanged records are written unchanged.
+ */
+public final class SettingsRecords {
+    /**
+     * Version of records layout, stored in {@link AzureSettings.State#formatVersion}.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private SettingsRecords() {
+    }
+
+    @Tag("storageAccount")
+    public static class StorageAccountRecord {
+        @Attribute("name")
+        public String name;
+        @Attribute("key")
+        public String key;
+        @Attribute("url")
+        public String url;
+
+        public static StorageAccountRecord of(StorageAccount account) {
+            StorageAccountRecord record = new StorageAccountRecord();
+            record.name = account.getStrgName();
+            record.key = account.getStrgKey();
+            record.url = account.getStrgUrl();
+            return record;
+        }
+
+        public StorageAccount toStorageAccount() {
+            return new StorageAccount(name, key, url);
+        }
+    }
+
+    @Tag("appInsightsResource")
+    public static class AppInsightsRecord {
+        @Attribute("name")
+        public String name;
+        @Attribute("instrumentationKey")
+        public String instrumentationKey;
+        @Attribute("subscriptionName")
+        public String subscriptionName;
+        @Attribute("subscriptionId")
+        public String subscriptionId;
+        @Attribute("location")
+        public String location;
+        @Attribute("resourceGroup")
+        public String resourceGroup;
+        @Attribute("imported")
+        public boolean imported;
+
+        public static AppInsightsRecord of(ApplicationInsightsResource resource) {
+            AppInsightsRecord record = new AppInsightsRecord();
+            record.name = resource.getResourceName();
+            record.instrumentationKey = resource.getInstrumentationKey();
+            record.subscriptionName = resource.getSubscriptionName();
+            record.subscriptionId = resource.getSubscriptionId();
+            record.location = resource.getLocation();
+            record.resourceGroup = resource.getResourceGroup();
+            record.imported = resource.isImported();
+            return record;
+        }
+
+        public ApplicationInsightsResource toResource() {
+            return new ApplicationInsightsResource(name, instrumentationKey, subscriptionName, subscriptionId,
+                    location, resourceGroup, imported);
+        }
+    }
+
+    @Tag("publishProfile")
+    public static class PublishProfileRecord {
+        @Attribute("publishMethod")
+        public String publishMethod;
+        @Attribute("url")
+        public String url;
+        @Attribute("schemaVersion")
+        public String schemaVersion;
+        @Attribute("managementCertificate")
+        public String managementCertificate;
+        @Attribute("password")
+        public String password;
+        @Tag("subscriptions")
+        @AbstractCollection(surroundWithTag = false)
+        public List<SubscriptionRecord> subscriptions = new ArrayList<SubscriptionRecord>();
+
+        public static PublishProfileRecord of(PublishProfile profile) {
+            PublishProfileRecord record = new PublishProfileRecord();
+            record.publishMethod = profile.getPublishMethod();
+            record.url = profile.getUrl();
+            record.schemaVersion = profile.getSchemaVersion();
+            record.managementCertificate = profile.getManagementCertificate();
+            record.password = profile.getPassword();
+            for (Subscription subscription : profile.getSubscriptions()) {
+                record.subscriptions.add(SubscriptionRecord.of(subscription));
+            }
+            return record;
+        }
+
+        public PublishData toPublishData() {
+            PublishProfile profile = new PublishProfile();
+            profile.setPublishMethod(publishMethod);
+            profile.setUrl(url);
+            profile.setSchemaVersion(schemaVersion);
+            profile.setManagementCertificate(managementCertificate);
+            profile.setPassword(password);
+            List<Subscription> profileSubscriptions = new ArrayList<Subscription>();
+            for (SubscriptionRecord subscription : subscriptions) {
+                profileSubscriptions.add(subscription.toSubscription());
+            }
+            profile.setSubscriptions(profileSubscriptions);
+            PublishData publishData = new PublishData();
+            publishData.setPublishProfile(profile);
+            return publishData;
+        }
+    }
+
+    @Tag("subscription")
+    public static class SubscriptionRecord {
+        @Attribute("id")
+        public String id;
+        @Attribute("name")
+        public String name;
+        @Attribute("status")
+        public String status;
+        @Attribute("accountAdmin")
+        public String accountAdminLiveEmailId;
+        @Attribute("serviceAdmin")
+        public String serviceAdminLiveEmailId;
+        @Attribute("maxCoreCount")
+        public int maxCoreCount;
+        @Attribute("maxStorageAccounts")
+        public int maxStorageAccounts;
+        @Attribute("maxHostedServices")
+        public int maxHostedServices;
+        @Attribute("currentCoreCount")
+        public int currentCoreCount;
+        @Attribute("currentStorageAccounts")
+        public int currentStorageAccounts;
+        @Attribute("currentHostedServices")
+        public int currentHostedServices;
+        @Attribute("serviceManagementUrl")
+        public String serviceManagementUrl;
+        @Attribute("managementCertificate")
+        public String managementCertificate;
+
+        public static SubscriptionRecord of(Subscription subscription) {
+            SubscriptionRecord record = new SubscriptionRecord();
+            record.id = subscription.getId();
+            record.name = subscription.getName();
+            record.status = subscription.getSubscriptionStatus();
+            record.accountAdminLiveEmailId = subscription.getAccountAdminLiveEmailId();
+            record.serviceAdminLiveEmailId = subscription.getServiceAdminLiveEmailId();
+            record.maxCoreCount = subscription.getMaxCoreCount();
+            record.maxStorageAccounts = subscription.getMaxStorageAccounts();
+            record.maxHostedServices = subscription.getMaxHostedServices();
+            record.currentCoreCount = subscription.getCurrentCoreCount();
+            record.currentStorageAccounts = subscription.getCurrentStorageAccounts();
+            record.currentHostedServices = subscription.getCurrentHostedServices();
+            record.serviceManagementUrl = subscription.getServiceManagementUrl();
+            record.managementCertificate = subscription.getManagementCertificate();
+            return record;
+        }
+
+        public Subscription toSubscription() {
+            Subscription subscription = new Subscription();
+            subscription.setId(id);
+            subscription.setName(name);
+            subscription.setSubscriptionStatus(status);
+            subscription.setAccountAdminLiveEmailId(accountAdminLiveEmailId);
+            subscription.setServiceAdminLiveEmailId(serviceAdminLiveEmailId);
+            subscription.setMaxCoreCount(maxCoreCount);
+            subscription.setMaxStorageAccounts(maxStorageAccounts);
+            subscription.setMaxHostedServices(maxHostedServices);
+            subscription.setCurrentCoreCount(currentCoreCount);
+            subscription.setCurrentStorageAccounts(currentStorageAccounts);
+            subscription.setCurrentHostedServices(currentHostedServices);
+            subscription.setServiceManagementUrl(serviceManagementUrl);
+            subscription.setManagementCertificate(managementCertificate);
+            return subscription;
+        }
+    }
+}
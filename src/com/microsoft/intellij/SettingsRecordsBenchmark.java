@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij;
+
+import com.intellij.util.xmlb.XmlSerializer;
+import com.microsoftopentechnologies.azurecommons.deploy.util.PublishData;
+import com.microsoftopentechnologies.azurecommons.deploy.util.PublishProfile;
+import com.microsoftopentechnologies.azurecommons.storageregistry.StorageAccount;
+import com.microsoftopentechnologies.azuremanagementutil.model.Subscription;
+import org.apache.xmlbeans.impl.util.Base64;
+import org.jdom.Element;
+import org.jdom.output.XMLOutputter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares size and load time of {@link AzureSettings} state with sections stored as Base64 encoded
+ * Java serialized arrays, as older versions did, and as {@link SettingsRecords}. Run with {@link #main}
+ * on plugin class path, arguments are numbers of publish profiles, subscriptions per profile and
+ * storage accounts, 3 5 50 by default.
+ * <p/>
+ * Load time covers everything done from the element of the state to model objects: deserialization
+ * of the state bean, which for records includes record beans, and decoding of legacy sections
+ * or conversion of records.
+ */
+public class SettingsRecordsBenchmark {
+    private static final int WARMUP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 10000;
+
+    public static void main(String[] args) throws Exception {
+        int profileCount = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int subscriptionCount = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int storageAccountCount = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        PublishData[] publishDatas = new PublishData[profileCount];
+        AzureSettings.State recordsState = new AzureSettings.State();
+        recordsState.formatVersion = SettingsRecords.FORMAT_VERSION;
+        recordsState.publishProfiles = new ArrayList<SettingsRecords.PublishProfileRecord>();
+        for (int i = 0; i < profileCount; i++) {
+            publishDatas[i] = createPublishData(i, subscriptionCount);
+            recordsState.publishProfiles.add(SettingsRecords.PublishProfileRecord.of(publishDatas[i].getPublishProfile()));
+        }
+        StorageAccount[] storageAccounts = new StorageAccount[storageAccountCount];
+        recordsState.storageAccounts = new ArrayList<SettingsRecords.StorageAccountRecord>();
+        for (int i = 0; i < storageAccountCount; i++) {
+            storageAccounts[i] = new StorageAccount("storage" + i, base64Key(i), "https://storage" + i + ".blob.core.windows.net/");
+            recordsState.storageAccounts.add(SettingsRecords.StorageAccountRecord.of(storageAccounts[i]));
+        }
+        AzureSettings.State legacyState = new AzureSettings.State();
+        legacyState.publishProfile = writeLegacyState(publishDatas);
+        legacyState.storageAccount = writeLegacyState(storageAccounts);
+
+        final Element legacyElement = XmlSerializer.serialize(legacyState);
+        final Element recordsElement = XmlSerializer.serialize(recordsState);
+        XMLOutputter outputter = new XMLOutputter();
+        int legacySize = outputter.outputString(legacyElement).length();
+        int recordsSize = outputter.outputString(recordsElement).length();
+
+        long legacyNanos = measure(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    AzureSettings.State state = XmlSerializer.deserialize(legacyElement, AzureSettings.State.class);
+                    AzureSettings.readLegacyState(state.publishProfile);
+                    AzureSettings.readLegacyState(state.storageAccount);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        long recordsNanos = measure(new Runnable() {
+            @Override
+            public void run() {
+                AzureSettings.State state = XmlSerializer.deserialize(recordsElement, AzureSettings.State.class);
+                for (SettingsRecords.PublishProfileRecord record : state.publishProfiles) {
+                    record.toPublishData();
+                }
+                for (SettingsRecords.StorageAccountRecord record : state.storageAccounts) {
+                    record.toStorageAccount();
+                }
+            }
+        });
+
+        System.out.println(String.format(Locale.ENGLISH, "%d profiles with %d subscriptions, %d storage accounts",
+                profileCount, subscriptionCount, storageAccountCount));
+        System.out.println(String.format(Locale.ENGLISH, "Base64:  %d chars, load %.3f ms", legacySize, legacyNanos / 1e6));
+        System.out.println(String.format(Locale.ENGLISH, "Records: %d chars, load %.3f ms", recordsSize, recordsNanos / 1e6));
+    }
+
+    private static PublishData createPublishData(int index, int subscriptionCount) {
+        PublishProfile profile = new PublishProfile();
+        profile.setPublishMethod("AzureServiceManagementAPI");
+        profile.setSchemaVersion("2.0");
+        List<Subscription> subscriptions = new ArrayList<Subscription>();
+        for (int i = 0; i < subscriptionCount; i++) {
+            Subscription subscription = new Subscription();
+            subscription.setId(String.format("%08d-0000-0000-0000-%012d", index, i));
+            subscription.setName("Subscription " + index + "-" + i);
+            subscription.setServiceManagementUrl("https://management.core.windows.net");
+            subscription.setManagementCertificate(base64Key(index * subscriptionCount + i) + base64Key(i));
+            subscriptions.add(subscription);
+        }
+        profile.setSubscriptions(subscriptions);
+        PublishData publishData = new PublishData();
+        publishData.setPublishProfile(profile);
+        return publishData;
+    }
+
+    private static String base64Key(int seed) {
+        byte[] key = new byte[64];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) (seed * 31 + i);
+        }
+        return new String(Base64.encode(key));
+    }
+
+    private static String writeLegacyState(Object value) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+        try {
+            output.writeObject(value);
+        } finally {
+            output.close();
+        }
+        return new String(Base64.encode(bytes.toByteArray()));
+    }
+
+    /**
+     * @return average time of one run in nanoseconds
+     */
+    private static long measure(Runnable run) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            run.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            run.run();
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+}
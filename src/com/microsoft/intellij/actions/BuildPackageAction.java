@@ -33,6 +33,7 @@ import com.microsoft.intellij.module.AzureModuleType;
 import com.microsoft.intellij.ui.messages.AzureBundle;
 import com.microsoft.intellij.util.AntHelper;
 import com.microsoft.intellij.util.PluginUtil;
+import com.microsoft.intellij.util.PluginResourceInstaller;
 import com.microsoft.wacommon.utils.WACommonException;
 import com.microsoftopentechnologies.azurecommons.util.WAEclipseHelperMethods;
 import com.microsoftopentechnologies.azurecommons.wacommonutil.PreferenceSetUtil;
@@ -54,6 +55,7 @@ public class BuildPackageAction extends AnAction {
                 waProjManager.setPackageType(WindowsAzurePackageType.CLOUD);
             }
             try {
+                PluginResourceInstaller.awaitInstalled();
                 String pluginInstLoc = String.format("%s%s%s", PathManager.getPluginsPath(), File.separator, AzurePlugin.PLUGIN_ID);
                 String prefFile = String.format("%s%s%s", pluginInstLoc, File.separator, AzureBundle.message("prefFileName"));
                 String prefSetUrl = PreferenceSetUtil.getSelectedPortalURL(PreferenceSetUtil.getSelectedPreferenceSetName(prefFile), prefFile);
@@ -21,6 +21,7 @@
  */
 package com.microsoft.intellij.actions;
 
+import com.intellij.lang.ant.config.AntBuildListener;
 import com.intellij.notification.Notification;
 import com.intellij.notification.NotificationType;
 import com.intellij.openapi.actionSystem.*;
@@ -34,7 +35,9 @@ import com.intellij.openapi.wm.ToolWindowManager;
 import com.interopbridges.tools.windowsazure.*;
 import com.microsoft.intellij.AzurePlugin;
 import com.microsoft.intellij.AzureSettings;
+import com.microsoft.intellij.deploy.CertificateInventory;
 import com.microsoft.intellij.deploy.DeploymentManager;
+import com.microsoft.intellij.deploy.PackageStreamUploader;
 import com.microsoft.intellij.module.AzureModuleType;
 import com.microsoft.intellij.ui.DeployWizardDialog;
 import com.microsoft.intellij.ui.JdkServerPanel;
@@ -42,7 +45,9 @@ import com.microsoft.intellij.ui.PfxPwdDialog;
 import com.microsoft.intellij.ui.messages.AzureBundle;
 import com.microsoft.intellij.util.AntHelper;
 import com.microsoft.intellij.util.PluginUtil;
+import com.microsoft.intellij.util.ProjectManagerCache;
 import com.microsoft.intellij.wizards.WizardCacheManager;
+import com.microsoft.intellij.util.PluginResourceInstaller;
 import com.microsoft.wacommon.utils.WACommonException;
 import com.microsoft.windowsazure.management.compute.models.HostedServiceListResponse;
 import com.microsoft.windowsazure.management.compute.models.ServiceCertificateListResponse;
@@ -96,7 +101,8 @@ public class DeployAction extends AnAction {
         if (deployDialog.isOK()) {
             try {
                 String modulePath = PluginUtil.getModulePath(module);
-                WindowsAzureProjectManager waProjManager = WindowsAzureProjectManager.load(new File(modulePath));
+                ProjectManagerCache projManagerCache = ProjectManagerCache.getInstance(module.getProject());
+                WindowsAzureProjectManager waProjManager = projManagerCache.getProjectManagerForWrite(module);
 
                 // Update global properties in package.xml
                 updateGlobalPropertiesinPackage(waProjManager);
@@ -174,9 +180,9 @@ public class DeployAction extends AnAction {
 //                    }
 //                });
                 }
-                waProjManager.save();
+                projManagerCache.save(module, waProjManager);
 
-                waProjManager = WindowsAzureProjectManager.load(new File(modulePath));
+                waProjManager = projManagerCache.getProjectManagerForWrite(module);
 
                 WAAutoStorageConfTask autoStorageConfJob = new WAAutoStorageConfTask(module, waProjManager, event.getDataContext());
                 autoStorageConfJob.queue();
@@ -215,11 +221,37 @@ public class DeployAction extends AnAction {
         @Override
         public void run(@NotNull ProgressIndicator indicator) {
             try {
+                ProjectManagerCache projManagerCache = ProjectManagerCache.getInstance(myModule.getProject());
                 waProjManager.setPackageType(WindowsAzurePackageType.CLOUD);
-                waProjManager.save();
+                projManagerCache.save(myModule, waProjManager);
+                // saved manager belongs to the cache now, build reads components from a manager of its own
+                waProjManager = projManagerCache.getProjectManagerForWrite(myModule);
                 indicator.setFraction(0.0);
                 indicator.setText2(String.format(message("buildingProjTask"), myModule.getName()));
-                AntHelper.runAntBuild(dataContext, myModule, AntHelper.createDeployListener(myModule, mdfdCmpntList, roleMdfdCache));
+                final AntBuildListener deployListener = AntHelper.createDeployListener(myModule, mdfdCmpntList, roleMdfdCache);
+                if (!PackageStreamUploader.isEnabled()) {
+                    AntHelper.runIncrementalAntBuild(dataContext, myModule, waProjManager, deployListener);
+                } else {
+                    // package is uploaded while it is built, deployment picks up staged blocks
+                    final File packageFile = new File(WizardCacheManager.getCurrentDeplyFile());
+                    StorageService storageAccount = WizardCacheManager.getCurrentStorageAcount();
+                    PackageStreamUploader.start(packageFile, storageAccount, message("eclipseDeployContainer").toLowerCase(),
+                            WizardCacheManager.getStorageAccessKey(storageAccount));
+                    try {
+                        AntHelper.runIncrementalAntBuild(dataContext, myModule, waProjManager, new AntBuildListener() {
+                            @Override
+                            public void buildFinished(int state, int errorCount) {
+                                if (state != AntBuildListener.FINISHED_SUCCESSFULLY) {
+                                    PackageStreamUploader.cancel(packageFile);
+                                }
+                                deployListener.buildFinished(state, errorCount);
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        PackageStreamUploader.cancel(packageFile);
+                        throw e;
+                    }
+                }
                 ApplicationManager.getApplication().invokeLater(new Runnable() {
                     @Override
                     public void run() {
@@ -258,7 +290,7 @@ public class DeployAction extends AnAction {
 				 * as per storage account selected on wizard.
 				 */
                 waProjManager = removeAutoCloudUrl(waProjManager);
-                waProjManager.save();
+                ProjectManagerCache.getInstance(myModule.getProject()).save(myModule, waProjManager);
             } catch (Exception e) {
                 log(message("error"), e);
                 isError = true;
@@ -270,7 +302,7 @@ public class DeployAction extends AnAction {
             if (!isError) {
                 WindowsAzureProjectManager waProjManager = null;
                 try {
-                    waProjManager = WindowsAzureProjectManager.load(new File(PluginUtil.getModulePath(myModule)));
+                    waProjManager = ProjectManagerCache.getInstance(myModule.getProject()).getProjectManagerForWrite(myModule);
                 } catch (WindowsAzureInvalidProjectOperationException e) {
                     PluginUtil.displayErrorDialog(message("error"), message("deployErr"));
                     return;
@@ -306,12 +338,20 @@ public class DeployAction extends AnAction {
     public static class WindowsAzureDeploymentTask extends Task.Backgroundable {
 
         private final Module myModule;
+        private final long buildStartMillis;
+        private final long buildEndMillis;
         private String deploymentId;
 //        private String name;
 
-        public WindowsAzureDeploymentTask(Module selectedModule) {
+        /**
+         * @param buildStartMillis start of the build of deployed package, 0 if not known
+         * @param buildEndMillis   end of the build of deployed package
+         */
+        public WindowsAzureDeploymentTask(Module selectedModule, long buildStartMillis, long buildEndMillis) {
             super(selectedModule.getProject(), message("deployingToAzure"), true, Backgroundable.DEAF);
             this.myModule = selectedModule;
+            this.buildStartMillis = buildStartMillis;
+            this.buildEndMillis = buildEndMillis;
         }
 
         @Override
@@ -327,8 +367,9 @@ public class DeployAction extends AnAction {
             AzurePlugin.removeUnNecessaryListener();
             DeploymentEventListener deployListnr = new DeploymentEventListener() {
 
+                // steps report from several threads, progress is accumulated one event at a time
                 @Override
-                public void onDeploymentStep(DeploymentEventArgs args) {
+                public synchronized void onDeploymentStep(DeploymentEventArgs args) {
                     indicator.checkCanceled();
                     deploymentId = args.getId();
                     log(args.toString());
@@ -378,7 +419,7 @@ public class DeployAction extends AnAction {
 
         private void doTask() {
             try {
-                DeploymentManager.getInstance().deploy(myModule);
+                DeploymentManager.getInstance().deploy(myModule, buildStartMillis, buildEndMillis);
             } catch (InterruptedException e) {
             } catch (DeploymentException e) {
                 log(message("error"), e);
@@ -465,6 +506,7 @@ public class DeployAction extends AnAction {
                     }
                     // if password has been changed by user
                     if (!pwd.equals(waProjManager.getRemoteAccessEncryptedPassword())) {
+                        PluginResourceInstaller.awaitInstalled();
                         String encryptedPwd = EncUtilHelper.encryptPassword(pwd, certPath, AzurePlugin.pluginFolder);
                         waProjManager.setRemoteAccessEncryptedPassword(encryptedPwd);
                     }
@@ -495,6 +537,7 @@ public class DeployAction extends AnAction {
                                 return false;
                             }
                             // save password, encrypt always as storing for the first time
+                            PluginResourceInstaller.awaitInstalled();
                             String encryptedPwd = EncUtilHelper.encryptPassword(pwd, certPath, AzurePlugin.pluginFolder);
                             waProjManager.setRemoteAccessEncryptedPassword(encryptedPwd);
                             // save expiration date
@@ -538,69 +581,17 @@ public class DeployAction extends AnAction {
             if (service.getUri() != null) {
                 cloudCertList = WizardCacheManager.fetchUploadedCertificates();
             }
-            List<WindowsAzureRole> roleList = projMngr.getRoles();
-            // iterate over roles
-            for (int i = 0; i < roleList.size(); i++) {
-                WindowsAzureRole role = roleList.get(i);
-                Map<String, WindowsAzureCertificate> pmlCertList = role.getCertificates();
-                for (Iterator<Map.Entry<String, WindowsAzureCertificate>> iterator = pmlCertList.entrySet().iterator(); iterator.hasNext(); ) {
-                    WindowsAzureCertificate pmlCert = iterator.next().getValue();
-					/*
-					 * No certificate present on cloud as REST API returned null
-					 * Need to upload each certificate
-					 */
-                    if (cloudCertList == null || cloudCertList.isEmpty()) {
-                        if (!isDuplicateThumbprintCert(certToUpload, pmlCert)) {
-                            certToUpload.add(pmlCert);
-                        }
-                    } else {
-						/*
-						 * Check certificate is present on cloud
-						 * or not.
-						 */
-                        boolean isPresent = false;
-                        for (int j = 0; j < cloudCertList.size(); j++) {
-                            ServiceCertificateListResponse.Certificate cloudCert = cloudCertList.get(j);
-                            if (cloudCert.getThumbprint().equalsIgnoreCase(pmlCert.getFingerPrint())) {
-                                isPresent = true;
-                                break;
-                            }
-                        }
-                        if (!isPresent && !isDuplicateThumbprintCert(certToUpload, pmlCert)) {
-                            certToUpload.add(pmlCert);
-                        }
-                    }
-                }
-            }
+            /*
+             * Certificates are compared by thumbprint, each missing one is asked for once
+             * even if several roles use it, to avoid unnecessary PFX password prompts.
+             */
+            certToUpload = new CertificateInventory(cloudCertList).getMissing(projMngr.getRoles());
         } catch (Exception e) {
             PluginUtil.displayErrorDialogInAWTAndLog(message("error"), message("certUploadEr"), e);
         }
         return certToUpload;
     }
 
-    /**
-     * Certificate is not present on cloud
-     * but check whether its already
-     * been added to certToUpload list.
-     * To avoid unnecessary PFX password prompt
-     * invocation.
-     *
-     * @param certToUpload
-     * @param pmlCert
-     * @return
-     */
-    private boolean isDuplicateThumbprintCert(List<WindowsAzureCertificate> certToUpload, WindowsAzureCertificate pmlCert) {
-        boolean alreadyAdded = false;
-        for (int j = 0; j < certToUpload.size(); j++) {
-            WindowsAzureCertificate certObj = certToUpload.get(j);
-            if (certObj.getFingerPrint().equalsIgnoreCase(pmlCert.getFingerPrint())) {
-                alreadyAdded = true;
-                break;
-            }
-        }
-        return alreadyAdded;
-    }
-
     /**
      * Check each role and its respective
      * components having upload method "AUTO"
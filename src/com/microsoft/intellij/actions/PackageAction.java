@@ -38,6 +38,7 @@ import com.microsoft.intellij.ui.AzureWizardDialog;
 import com.microsoft.intellij.ui.AzureWizardModel;
 import com.microsoft.intellij.ui.messages.AzureBundle;
 import com.microsoft.intellij.util.PluginUtil;
+import com.microsoft.intellij.util.PluginResourceInstaller;
 
 import java.awt.*;
 import java.io.File;
@@ -95,6 +96,7 @@ public class PackageAction extends AnAction {
     private WindowsAzureProjectManager createWaProjMgr() {
         WindowsAzureProjectManager waProjMgr = null;
         try {
+            PluginResourceInstaller.awaitInstalled();
             String zipFile = String.format("%s%s%s%s%s", PathManager.getPluginsPath(), File.separator, AzurePlugin.PLUGIN_ID, File.separator,
                     message("starterKitFileName"));
 
@@ -26,14 +26,16 @@ import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.interopbridges.tools.windowsazure.WindowsAzureInvalidProjectOperationException;
 import com.interopbridges.tools.windowsazure.WindowsAzureProjectManager;
 import com.microsoft.intellij.AzurePlugin;
+import com.microsoft.intellij.util.ArchiveIndex;
+import com.microsoft.intellij.util.PluginResourceInstaller;
 import com.microsoft.intellij.util.PluginUtil;
 import com.microsoft.intellij.util.WAHelper;
 import com.microsoftopentechnologies.azurecommons.wacommonutil.FileUtil;
 
-import java.io.*;
-import java.util.Enumeration;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 
 import static com.microsoft.intellij.ui.messages.AzureBundle.message;
 
@@ -41,37 +43,23 @@ import static com.microsoft.intellij.ui.messages.AzureBundle.message;
  * This class resets the Azure Emulator.
  */
 public class ResetEmulatorAction extends AnAction {
-    private static final int BUFF_SIZE = 1024;
-
     public void actionPerformed(AnActionEvent event) {
         try {
+            PluginResourceInstaller.awaitInstalled();
             String strKitLoc = WAHelper.getTemplateFile(message("pWizStarterKit"));
-            StringBuilder output = new StringBuilder();
-            ZipFile zipFile = new ZipFile(strKitLoc);
+            ArchiveIndex starterKit = ArchiveIndex.get(strKitLoc);
 
             // copy elevate.vbs to temp location
             String tmpPath = System.getProperty("java.io.tmpdir");
-            FileUtil.copyFileFromZip(new File(strKitLoc), "%proj%/.templates/emulatorTools/.elevate.vbs",
-                    new File(String.format("%s%s%s", tmpPath, File.separator, ".elevate.vbs")));
+            FileUtil.writeFile(new FileInputStream(starterKit.extract("%proj%/.templates/emulatorTools/.elevate.vbs")),
+                    new FileOutputStream(String.format("%s%s%s", tmpPath, File.separator, ".elevate.vbs")));
 
-            @SuppressWarnings("rawtypes")
-            Enumeration entries = zipFile.entries();
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = (ZipEntry) entries.nextElement();
-                if (entry.getName().toLowerCase().indexOf(message("rstEmCmd")) != -1) {
-                    InputStream in = zipFile.getInputStream(entry);
-                    Reader reader = new InputStreamReader(in);
-                    char[] buf = new char[BUFF_SIZE];
-                    int length = reader.read(buf, 0, buf.length);
-                    while (length > 0) {
-                        output.append(buf, 0, length);
-                        length = reader.read(buf, 0, buf.length);
-                    }
-                    break;
-                }
+            String output = "";
+            String resetCommand = starterKit.findByFileName(message("rstEmCmd"));
+            if (resetCommand != null) {
+                output = new String(starterKit.read(resetCommand));
             }
-            zipFile.close();
-            WindowsAzureProjectManager.resetEmulator(output.toString());
+            WindowsAzureProjectManager.resetEmulator(output);
         } catch (WindowsAzureInvalidProjectOperationException e) {
             PluginUtil.displayErrorDialogAndLog(message("rstEmltrErrTtl"), message("rstEmuErrMsg"), e);
         } catch (IOException e1) {
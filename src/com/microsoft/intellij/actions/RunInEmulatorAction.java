@@ -36,12 +36,12 @@ import com.microsoft.intellij.module.AzureModuleType;
 import com.microsoft.intellij.ui.azureroles.RoleConfigurablesGroup;
 import com.microsoft.intellij.util.AntHelper;
 import com.microsoft.intellij.util.PluginUtil;
+import com.microsoft.intellij.util.ProjectManagerCache;
 
 import static com.microsoft.intellij.AzurePlugin.log;
 import static com.microsoft.intellij.ui.messages.AzureBundle.message;
 
 import javax.swing.*;
-import java.io.File;
 import java.util.List;
 
 public class RunInEmulatorAction extends AnAction {
@@ -53,8 +53,8 @@ public class RunInEmulatorAction extends AnAction {
         }
         String errorTitle = String.format("%s%s%s", message("waEmulator"), " ", message("runEmltrErrTtl"));
         try {
-            final String modulePath = PluginUtil.getModulePath(module);
-            WindowsAzureProjectManager waProjManager = WindowsAzureProjectManager.load(new File(modulePath));
+            final ProjectManagerCache projManagerCache = ProjectManagerCache.getInstance(module.getProject());
+            WindowsAzureProjectManager waProjManager = projManagerCache.getProjectManagerForWrite(module);
             List<WindowsAzureRole> roleList = waProjManager.getRoles();
             WindowsAzureRole roleWithoutLocalJdk = performJDKCheck(roleList);
             if (roleWithoutLocalJdk == null) {
@@ -63,9 +63,9 @@ public class RunInEmulatorAction extends AnAction {
                     if (waProjManager.getPackageType().equals(WindowsAzurePackageType.CLOUD)) {
                         waProjManager.setPackageType(WindowsAzurePackageType.LOCAL);
                     }
-                    waProjManager.save();
+                    projManagerCache.save(module, waProjManager);
                     try {
-                        final WindowsAzureProjectManager waProjMgr = WindowsAzureProjectManager.load(new File(modulePath));
+                        final WindowsAzureProjectManager waProjMgr = projManagerCache.getProjectManagerForWrite(module);
 
                         AntHelper.runAntBuild(event.getDataContext(), module, AntHelper.createRunInEmulatorListener(module, waProjMgr));
                     } catch (WindowsAzureInvalidProjectOperationException e) {
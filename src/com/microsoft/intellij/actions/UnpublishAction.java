@@ -29,7 +29,6 @@ import com.microsoft.intellij.module.AzureModuleType;
 import com.microsoft.intellij.ui.UndeployWizardDialog;
 import com.microsoft.intellij.util.PluginUtil;
 import com.microsoft.tasks.WindowsAzureUndeploymentTask;
-import com.microsoft.windowsazure.management.compute.models.HostedServiceGetDetailedResponse.Deployment;
 
 
 public class UnpublishAction extends AnAction {
@@ -38,9 +37,7 @@ public class UnpublishAction extends AnAction {
         UndeployWizardDialog deployDialog = new UndeployWizardDialog(project);
         deployDialog.show();
         if (deployDialog.isOK()) {
-            Deployment deployment = deployDialog.getDeployment();
-            WindowsAzureUndeploymentTask undeploymentTask =
-                    new WindowsAzureUndeploymentTask(project, deployDialog.getServiceName(), deployment.getName(), deployment.getDeploymentSlot().toString());
+            WindowsAzureUndeploymentTask undeploymentTask = new WindowsAzureUndeploymentTask(project, deployDialog.getSelectedDeployments());
             undeploymentTask.queue();
         }
     }
@@ -23,8 +23,12 @@
 package com.microsoft.intellij.activitylog;
 
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
+import com.intellij.openapi.fileChooser.FileSaverDialog;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.MessageType;
+import com.intellij.openapi.vfs.VirtualFileWrapper;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowFactory;
 import com.intellij.openapi.wm.ToolWindowManager;
@@ -35,6 +39,7 @@ import com.intellij.util.ui.ColumnInfo;
 import com.intellij.util.ui.ListTableModel;
 import com.intellij.util.ui.PlatformColors;
 import com.microsoft.intellij.AzurePlugin;
+import com.microsoft.intellij.deploy.DeploymentTrace;
 import com.microsoft.intellij.util.PluginUtil;
 import com.microsoftopentechnologies.azurecommons.deploy.DeploymentEventArgs;
 import com.microsoftopentechnologies.azurecommons.deploy.DeploymentEventListener;
@@ -43,13 +48,15 @@ import org.jetbrains.annotations.NotNull;
 import javax.swing.*;
 import javax.swing.table.TableCellRenderer;
 import java.awt.*;
+import java.awt.event.ActionEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.font.TextAttribute;
-import java.io.IOException;
+import java.io.*;
 import java.net.URI;
 import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -61,6 +68,9 @@ public class ActivityLogToolWindowFactory implements ToolWindowFactory {
     private SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy hh:mm:ss", Locale.getDefault());
 
     private TableView<DeploymentTableItem> table;
+    /**
+     * Accessed on event dispatch thread only.
+     */
     private HashMap<String, DeploymentTableItem> rows = new HashMap<String, DeploymentTableItem>();
     private Project project;
 
@@ -78,6 +88,16 @@ public class ActivityLogToolWindowFactory implements ToolWindowFactory {
 
     private MouseListener createTableMouseListener() {
         return new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                showPopup(e);
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                showPopup(e);
+            }
+
             @Override
             public void mouseClicked(MouseEvent e) {
                 if (table.getSelectedColumn() == 2) {
@@ -94,49 +114,96 @@ public class ActivityLogToolWindowFactory implements ToolWindowFactory {
         };
     }
 
+    private void showPopup(MouseEvent e) {
+        if (!e.isPopupTrigger()) {
+            return;
+        }
+        int row = table.rowAtPoint(e.getPoint());
+        if (row < 0) {
+            return;
+        }
+        table.getSelectionModel().setSelectionInterval(row, row);
+        final DeploymentTableItem item = table.getSelectedObject();
+        JPopupMenu menu = new JPopupMenu();
+        Action exportAction = new AbstractAction(message("exportTrace")) {
+            @Override
+            public void actionPerformed(ActionEvent event) {
+                exportTrace(item);
+            }
+        };
+        exportAction.setEnabled(item != null && DeploymentTrace.find(item.deploymentId, item.startTime) != null);
+        menu.add(exportAction);
+        menu.show(e.getComponent(), e.getX(), e.getY());
+    }
+
+    /**
+     * Saves trace of deployment in Chrome trace event format.
+     */
+    private void exportTrace(DeploymentTableItem item) {
+        DeploymentTrace trace = DeploymentTrace.find(item.deploymentId, item.startTime);
+        if (trace == null) {
+            return;
+        }
+        FileSaverDialog dialog = FileChooserFactory.getInstance().createSaveFileDialog(
+                new FileSaverDescriptor(message("exportTrace"), message("exportTraceDesc"), "json"), project);
+        VirtualFileWrapper save = dialog.save(project.getBaseDir(), item.deploymentId + "-trace.json");
+        if (save != null) {
+            try {
+                Writer writer = new OutputStreamWriter(new FileOutputStream(save.getFile()), "UTF-8");
+                try {
+                    trace.write(writer);
+                } finally {
+                    writer.close();
+                }
+            } catch (IOException e) {
+                PluginUtil.displayErrorDialogAndLog(message("error"), message("exportTraceErr"), e);
+            }
+        }
+    }
+
     public void registerDeploymentListener() {
         AzurePlugin.addDeploymentEventListener(
                 new DeploymentEventListener() {
 
                     @Override
                     public void onDeploymentStep(final DeploymentEventArgs args) {
-                        // unique identifier for deployment
-                        String key = args.getId() + args.getStartTime().getTime();
-                        if (rows.containsKey(key)) {
-                            final DeploymentTableItem item = rows.get(key);
-                            ApplicationManager.getApplication().invokeLater(new Runnable() {
-                                @Override
-                                public void run() {
-                                    item.progress += args.getDeployCompleteness();
-                                    if (args.getDeployMessage().equalsIgnoreCase(message("runStatus"))) {
-                                        String html = String.format("%s%s%s%s", "  ", "<html><a href=\"" + args.getDeploymentURL() + "\">", message("runStatusVisible"), "</a></html>");
-                                        item.description = message("runStatusVisible");
-                                        item.link = args.getDeploymentURL();
-                                        if (!ToolWindowManager.getInstance(project).getToolWindow(ActivityLogToolWindowFactory.ACTIVITY_LOG_WINDOW).isVisible()) {
-                                            ToolWindowManager.getInstance(project).notifyByBalloon(ACTIVITY_LOG_WINDOW, MessageType.INFO, html, null,
-                                                    new BrowserHyperlinkListener());
-                                        }
-                                    } else {
-                                        item.description = args.getDeployMessage();
-                                    }
-                                    table.getListTableModel().fireTableDataChanged();
-                                }
-                            });
-                        } else {
-                            final DeploymentTableItem item = new DeploymentTableItem(args.getId(), args.getDeployMessage(),
-                                    dateFormat.format(args.getStartTime()), args.getDeployCompleteness());
-                            rows.put(key, item);
-                            ApplicationManager.getApplication().invokeLater(new Runnable() {
-                                @Override
-                                public void run() {
-                                    table.getListTableModel().addRow(item);
-                                }
-                            });
-                        }
+                        // events come from several deployment threads, rows are only touched on dispatch thread
+                        ApplicationManager.getApplication().invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                updateRow(args);
+                            }
+                        });
                     }
                 });
     }
 
+    private void updateRow(DeploymentEventArgs args) {
+        // unique identifier for deployment
+        String key = args.getId() + args.getStartTime().getTime();
+        DeploymentTableItem item = rows.get(key);
+        if (item != null) {
+            item.progress += args.getDeployCompleteness();
+            if (args.getDeployMessage().equalsIgnoreCase(message("runStatus"))) {
+                String html = String.format("%s%s%s%s", "  ", "<html><a href=\"" + args.getDeploymentURL() + "\">", message("runStatusVisible"), "</a></html>");
+                item.description = message("runStatusVisible");
+                item.link = args.getDeploymentURL();
+                if (!ToolWindowManager.getInstance(project).getToolWindow(ActivityLogToolWindowFactory.ACTIVITY_LOG_WINDOW).isVisible()) {
+                    ToolWindowManager.getInstance(project).notifyByBalloon(ACTIVITY_LOG_WINDOW, MessageType.INFO, html, null,
+                            new BrowserHyperlinkListener());
+                }
+            } else {
+                item.description = args.getDeployMessage();
+            }
+            table.getListTableModel().fireTableDataChanged();
+        } else {
+            item = new DeploymentTableItem(args.getId(), args.getDeployMessage(),
+                    args.getStartTime(), dateFormat.format(args.getStartTime()), args.getDeployCompleteness());
+            rows.put(key, item);
+            table.getListTableModel().addRow(item);
+        }
+    }
+
     private class ProgressBarRenderer implements TableCellRenderer {
         private final JProgressBar progressBar = new JProgressBar();
         private final JLabel label = new JLabel();
@@ -219,13 +286,15 @@ public class ActivityLogToolWindowFactory implements ToolWindowFactory {
     private class DeploymentTableItem {
         private String deploymentId;
         private String description;
+        private Date startTime;
         private String startDate;
         private String link;
         private int progress;
 
-        public DeploymentTableItem(String deploymentId, String description, String startDate, int progress) {
+        public DeploymentTableItem(String deploymentId, String description, Date startTime, String startDate, int progress) {
             this.deploymentId = deploymentId;
             this.description = description;
+            this.startTime = startTime;
             this.startDate = startDate;
             this.progress = progress;
         }
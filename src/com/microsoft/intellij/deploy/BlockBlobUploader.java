@@ -0,0 +1,421 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.deploy;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.microsoft.azure.storage.RetryNoRetry;
+import com.microsoft.azure.storage.StorageCredentialsAccountAndKey;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.*;
+import com.microsoft.intellij.util.AzureExecutor;
+import com.microsoft.intellij.util.RetryPolicy;
+import com.microsoft.intellij.util.SystemProperties;
+import com.microsoftopentechnologies.azuremanagementutil.model.Notifier;
+import com.microsoftopentechnologies.azuremanagementutil.model.StorageService;
+import com.microsoftopentechnologies.azuremanagementutil.util.Base64;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads a file to block blob in fixed size blocks, several blocks at a time.
+ * <p/>
+ * Every block is sent with its MD5, so that storage service rejects corrupted blocks,
+ * and block id is derived from block index and MD5. Ids of uploaded blocks are appended to
+ * a journal under ~/.azure/uploads, and when upload of the same file to the same blob is repeated,
+ * blocks that are both in the journal and still uncommitted in storage are not sent again.
+ * Journal is deleted once block list is committed.
+ * <p/>
+ * Block size and number of blocks in flight can be changed with -Dazure.toolkit.upload.blockSize=bytes
+ * and -Dazure.toolkit.upload.concurrency=N. Blob endpoint is given explicitly,
+ * so the uploader works against local storage emulator or any other stand-in as well.
+ */
+public class BlockBlobUploader {
+    private static final Logger LOG = Logger.getInstance("#com.microsoft.intellij.deploy.BlockBlobUploader");
+    public static final String BLOCK_SIZE_PROPERTY = "azure.toolkit.upload.blockSize";
+    public static final String CONCURRENCY_PROPERTY = "azure.toolkit.upload.concurrency";
+    public static final int DEFAULT_BLOCK_SIZE = 4 * 1024 * 1024;
+    // limit of block blob service
+    private static final int MAX_BLOCK_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_BLOCKS = 50000;
+    private static final int DEFAULT_CONCURRENCY = 4;
+
+    private static final String JOURNAL_DIR = System.getProperty("user.home") + File.separator + ".azure" + File.separator + "uploads";
+    private static final String JOURNAL_HEADER = "blockUploadJournal 1";
+
+    private final CloudBlobClient client;
+    private final int blockSize;
+    private final int concurrency;
+    private final File journalDir;
+
+    public BlockBlobUploader(CloudBlobClient client, int blockSize, int concurrency, File journalDir) {
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be between 1 and " + MAX_BLOCK_SIZE + " bytes");
+        }
+        this.client = client;
+        this.blockSize = blockSize;
+        this.concurrency = Math.max(1, concurrency);
+        this.journalDir = journalDir;
+    }
+
+    /**
+     * Creates uploader with configured block size and concurrency.
+     */
+    public static BlockBlobUploader create(CloudBlobClient client) {
+        return new BlockBlobUploader(client, Math.min(MAX_BLOCK_SIZE, SystemProperties.getPositiveInt(BLOCK_SIZE_PROPERTY, DEFAULT_BLOCK_SIZE)),
+                SystemProperties.getPositiveInt(CONCURRENCY_PROPERTY, DEFAULT_CONCURRENCY), new File(JOURNAL_DIR));
+    }
+
+    public static CloudBlobClient createClient(StorageService storageService, String accessKey) {
+        URI blobEndpoint = storageService.getStorageAccountProperties().getEndpoints().get(0);
+        return new CloudBlobClient(blobEndpoint, new StorageCredentialsAccountAndKey(storageService.getServiceName(), accessKey));
+    }
+
+    /**
+     * Uploads file to blob in existing container, replacing blob if it exists.
+     *
+     * @param notifier notified with percentage of each uploaded block, may be null
+     * @return number of bytes not sent again, as they were uploaded by interrupted upload
+     */
+    public long upload(File file, String containerName, String blobName, Notifier notifier) throws Exception {
+        return upload(file, containerName, blobName, notifier, Collections.<String>emptySet());
+    }
+
+    /**
+     * Uploads file to blob in existing container, blocks staged earlier with {@link #uploadBlock}
+     * are not sent again if their content did not change.
+     *
+     * @param stagedBlockIds ids of blocks staged to the blob
+     */
+    public long upload(File file, String containerName, String blobName, Notifier notifier, Set<String> stagedBlockIds) throws Exception {
+        CloudBlockBlob blob = client.getContainerReference(containerName).getBlockBlobReference(blobName);
+        long length = file.length();
+        long blockCount = Math.max(1, (length + blockSize - 1) / blockSize);
+        if (blockCount > MAX_BLOCKS) {
+            throw new IOException(String.format("%s needs %d blocks, more than %d allowed; increase %s",
+                    file.getPath(), blockCount, MAX_BLOCKS, BLOCK_SIZE_PROPERTY));
+        }
+        BlobRequestOptions options = createOptions();
+
+        Journal journal = new Journal(journalDir, file, blob.getUri().toString(), blockSize);
+        Set<String> reusable = journal.read();
+        reusable.addAll(stagedBlockIds);
+        if (!reusable.isEmpty()) {
+            reusable.retainAll(getUncommittedBlockIds(blob, options));
+        }
+        journal.start(reusable);
+
+        BlockUpload upload = new BlockUpload(file, blob, options, blockSize, (int) blockCount, reusable, journal, notifier);
+        try {
+            upload.run(concurrency);
+        } finally {
+            journal.close();
+        }
+        final CloudBlockBlob target = blob;
+        final BlobRequestOptions commitOptions = options;
+        final List<BlockEntry> blockList = Arrays.asList(upload.blocks);
+        RetryPolicy.getDefault().call(blob.getUri().getHost(), "commitBlockList", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                target.commitBlockList(blockList, null, commitOptions, RetryPolicy.createOperationContext());
+                return null;
+            }
+        });
+        journal.delete();
+        return upload.reusedBytes.get();
+    }
+
+    /**
+     * Stages one block of blob without committing it, for content which is not complete yet.
+     *
+     * @return id of the block, the same as upload of complete file uses for identical block
+     */
+    public String uploadBlock(CloudBlockBlob blob, int index, byte[] block, int length) throws Exception {
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        md5.update(block, 0, length);
+        String id = blockId(index, md5.digest());
+        sendBlock(blob, id, block, length, createOptions());
+        return id;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    private static BlobRequestOptions createOptions() {
+        BlobRequestOptions options = new BlobRequestOptions();
+        options.setUseTransactionalContentMD5(true);
+        // blocks and block list are retried by RetryPolicy, which also stops upload to a failing account
+        options.setRetryPolicyFactory(new RetryNoRetry());
+        return options;
+    }
+
+    private static void sendBlock(final CloudBlockBlob blob, final String id, final byte[] block, final int length,
+                                  final BlobRequestOptions options) throws Exception {
+        RetryPolicy.getDefault().call(blob.getUri().getHost(), "uploadBlock", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                blob.uploadBlock(id, new ByteArrayInputStream(block, 0, length), length, null, options, RetryPolicy.createOperationContext());
+                return null;
+            }
+        });
+    }
+
+    private static Set<String> getUncommittedBlockIds(final CloudBlockBlob blob, final BlobRequestOptions options) throws Exception {
+        return RetryPolicy.getDefault().call(blob.getUri().getHost(), "downloadBlockList", new Callable<Set<String>>() {
+            @Override
+            public Set<String> call() throws Exception {
+                Set<String> ids = new HashSet<String>();
+                try {
+                    for (BlockEntry block : blob.downloadBlockList(BlockListingFilter.UNCOMMITTED, null, options, RetryPolicy.createOperationContext())) {
+                        ids.add(block.getId());
+                    }
+                } catch (StorageException e) {
+                    // blob with uncommitted blocks only is not found on some service versions
+                    if (e.getHttpStatusCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+                        throw e;
+                    }
+                }
+                return ids;
+            }
+        });
+    }
+
+    /**
+     * One upload of a file; blocks are taken in order by up to given number of tasks on {@link AzureExecutor}.
+     */
+    private static class BlockUpload {
+        private final File file;
+        private final CloudBlockBlob blob;
+        private final BlobRequestOptions options;
+        private final Set<String> reusable;
+        private final Journal journal;
+        private final Notifier notifier;
+        private final int blockSize;
+        private final BlockEntry[] blocks;
+        private final AtomicInteger nextBlock = new AtomicInteger();
+        private final AtomicLong reusedBytes = new AtomicLong();
+        private final AtomicInteger reportedPercent = new AtomicInteger();
+        private final AtomicInteger completed = new AtomicInteger();
+        private volatile boolean failed;
+
+        private BlockUpload(File file, CloudBlockBlob blob, BlobRequestOptions options, int blockSize, int blockCount,
+                            Set<String> reusable, Journal journal, Notifier notifier) {
+            this.file = file;
+            this.blob = blob;
+            this.options = options;
+            this.reusable = reusable;
+            this.journal = journal;
+            this.notifier = notifier;
+            this.blockSize = blockSize;
+            this.blocks = new BlockEntry[blockCount];
+        }
+
+        private void run(int concurrency) throws Exception {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < Math.min(concurrency, blocks.length); i++) {
+                futures.add(AzureExecutor.getInstance().submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        uploadBlocks();
+                        return null;
+                    }
+                }));
+            }
+            Exception error = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+                } catch (InterruptedException e) {
+                    failed = true;
+                    throw e;
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+
+        private void uploadBlocks() throws Exception {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                MessageDigest md5 = MessageDigest.getInstance("MD5");
+                byte[] buffer = new byte[(int) Math.min(blockSize, file.length())];
+                int index;
+                while (!failed && (index = nextBlock.getAndIncrement()) < blocks.length) {
+                    long offset = (long) index * blockSize;
+                    int length = (int) Math.min(blockSize, file.length() - offset);
+                    input.seek(offset);
+                    input.readFully(buffer, 0, length);
+                    md5.reset();
+                    md5.update(buffer, 0, length);
+                    String id = blockId(index, md5.digest());
+                    if (reusable.contains(id)) {
+                        reusedBytes.addAndGet(length);
+                    } else {
+                        try {
+                            sendBlock(blob, id, buffer, length, options);
+                        } catch (Exception e) {
+                            failed = true;
+                            throw e;
+                        }
+                        journal.append(id);
+                    }
+                    blocks[index] = new BlockEntry(id, BlockSearchMode.UNCOMMITTED);
+                    reportProgress();
+                }
+            } finally {
+                input.close();
+            }
+        }
+
+        private void reportProgress() {
+            if (notifier == null) {
+                return;
+            }
+            int percent = completed.incrementAndGet() * 100 / blocks.length;
+            int previous;
+            do {
+                previous = reportedPercent.get();
+            } while (percent > previous && !reportedPercent.compareAndSet(previous, percent));
+            if (percent > previous) {
+                notifier.notifyProgress(percent - previous);
+            }
+        }
+    }
+
+    /**
+     * Block id is the same length for all blocks of a blob, as the service requires,
+     * and changes whenever content of the block changes.
+     */
+    static String blockId(int index, byte[] md5) {
+        StringBuilder id = new StringBuilder(String.format("%05d-", index));
+        for (byte b : md5) {
+            id.append(String.format("%02x", b & 0xff));
+        }
+        return Base64.encode(id.toString().getBytes());
+    }
+
+    /**
+     * Text file listing ids of uploaded blocks, preceded by the header identifying source file and target blob.
+     */
+    private static class Journal {
+        private final File journalFile;
+        private final String header;
+        private Writer writer;
+
+        private Journal(File journalDir, File source, String target, int blockSize) throws Exception {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            StringBuilder name = new StringBuilder();
+            for (byte b : md5.digest(target.getBytes("UTF-8"))) {
+                name.append(String.format("%02x", b & 0xff));
+            }
+            journalFile = new File(journalDir, name + ".journal");
+            header = String.format("%s%n%s%n%s%n%d%n%d%n%d", JOURNAL_HEADER, target, source.getAbsolutePath(),
+                    source.length(), source.lastModified(), blockSize);
+        }
+
+        /**
+         * @return ids of blocks uploaded earlier, empty if journal is missing or belongs to another file
+         */
+        private Set<String> read() {
+            Set<String> ids = new HashSet<String>();
+            if (!journalFile.isFile()) {
+                return ids;
+            }
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+                try {
+                    String[] headerLines = header.split(String.format("%n"));
+                    for (int i = 0; i < headerLines.length; i++) {
+                        String line = reader.readLine();
+                        if (!headerLines[i].equals(line)) {
+                            return ids;
+                        }
+                    }
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.isEmpty()) {
+                            ids.add(line);
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to read upload journal " + journalFile, e);
+                ids.clear();
+            }
+            return ids;
+        }
+
+        /**
+         * Rewrites journal with given ids, blocks uploaded earlier but not found in storage are dropped.
+         */
+        private void start(Set<String> ids) throws IOException {
+            File dir = journalFile.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Failed to create " + dir);
+            }
+            writer = new OutputStreamWriter(new FileOutputStream(journalFile), "UTF-8");
+            writer.write(header);
+            writer.write(String.format("%n"));
+            for (String id : ids) {
+                writer.write(id);
+                writer.write(String.format("%n"));
+            }
+            writer.flush();
+        }
+
+        private synchronized void append(String id) throws IOException {
+            writer.write(id);
+            writer.write(String.format("%n"));
+            writer.flush();
+        }
+
+        private synchronized void close() {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close upload journal " + journalFile, e);
+            }
+        }
+
+        private void delete() {
+            if (!journalFile.delete() && journalFile.exists()) {
+                LOG.warn("Failed to delete upload journal " + journalFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.deploy;
+
+import com.interopbridges.tools.windowsazure.WindowsAzureCertificate;
+import com.interopbridges.tools.windowsazure.WindowsAzureInvalidProjectOperationException;
+import com.interopbridges.tools.windowsazure.WindowsAzureRole;
+import com.microsoft.intellij.util.AzureExecutor;
+import com.microsoft.windowsazure.management.compute.models.ServiceCertificateListResponse.Certificate;
+import com.microsoftopentechnologies.azurecommons.deploy.model.CertificateUpload;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Thumbprints of certificates uploaded to a cloud service, used to find which local certificates are missing there.
+ */
+public class CertificateInventory {
+    private final Set<String> thumbprints = new HashSet<String>();
+
+    /**
+     * @param uploaded certificates listed for the cloud service, null if none could be listed
+     */
+    public CertificateInventory(List<Certificate> uploaded) {
+        if (uploaded != null) {
+            for (Certificate certificate : uploaded) {
+                if (certificate.getThumbprint() != null) {
+                    thumbprints.add(normalize(certificate.getThumbprint()));
+                }
+            }
+        }
+    }
+
+    public boolean contains(String thumbprint) {
+        return thumbprint != null && thumbprints.contains(normalize(thumbprint));
+    }
+
+    /**
+     * @return certificates of roles which are not uploaded, one per thumbprint
+     */
+    public List<WindowsAzureCertificate> getMissing(List<WindowsAzureRole> roles) throws WindowsAzureInvalidProjectOperationException {
+        Map<String, WindowsAzureCertificate> missing = new LinkedHashMap<String, WindowsAzureCertificate>();
+        for (WindowsAzureRole role : roles) {
+            for (WindowsAzureCertificate certificate : role.getCertificates().values()) {
+                String thumbprint = normalize(certificate.getFingerPrint());
+                if (!thumbprints.contains(thumbprint) && !missing.containsKey(thumbprint)) {
+                    missing.put(thumbprint, certificate);
+                }
+            }
+        }
+        return new ArrayList<WindowsAzureCertificate>(missing.values());
+    }
+
+    /**
+     * @return uploads of certificates which are not uploaded yet, one per thumbprint
+     */
+    public List<CertificateUpload> getMissingUploads(List<CertificateUpload> uploads) {
+        Map<String, CertificateUpload> missing = new LinkedHashMap<String, CertificateUpload>();
+        for (CertificateUpload upload : uploads) {
+            String thumbprint = upload.getThumbprint() == null ? upload.getPfxPath() : normalize(upload.getThumbprint());
+            if (!thumbprints.contains(thumbprint) && !missing.containsKey(thumbprint)) {
+                missing.put(thumbprint, upload);
+            }
+        }
+        return new ArrayList<CertificateUpload>(missing.values());
+    }
+
+    /**
+     * Runs uploader for each certificate on {@link AzureExecutor} and waits for all of them.
+     *
+     * @param listener called on the caller thread for each uploaded certificate, in order of uploads
+     * @throws Exception first failure, after all uploads are finished
+     */
+    public static void uploadAll(List<CertificateUpload> uploads, final Uploader uploader, UploadListener listener) throws Exception {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (final CertificateUpload upload : uploads) {
+            futures.add(AzureExecutor.getInstance().submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    uploader.upload(upload);
+                    return null;
+                }
+            }));
+        }
+        Exception error = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+                listener.uploaded(uploads.get(i));
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static String normalize(String thumbprint) {
+        return thumbprint.trim().toUpperCase(Locale.ENGLISH);
+    }
+
+    public interface Uploader {
+        void upload(CertificateUpload certificate) throws Exception;
+    }
+
+    public interface UploadListener {
+        void uploaded(CertificateUpload certificate);
+    }
+}
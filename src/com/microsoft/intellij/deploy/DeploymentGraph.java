@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.deploy;
+
+import com.microsoft.intellij.util.AzureExecutor;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Deployment steps with explicit dependencies, run on a bounded pool of the graph.
+ * <p/>
+ * A step starts as soon as all steps it depends on are finished, so independent steps overlap,
+ * at most {@link #MAX_PARALLEL_STEPS} at a time. Steps mostly wait for Azure, so they do not run on
+ * {@link AzureExecutor} where they would hold its threads; work they submit there (block uploads,
+ * status polls) runs on its nested pool, in parallel.
+ * Steps are started and reported by the thread calling {@link #run}, listeners are never called concurrently.
+ * After first failure no more steps are started, running ones are let to finish and the failure is rethrown.
+ * Each step is recorded as a span of deployment trace.
+ */
+public class DeploymentGraph {
+    private static final String THREAD_NAME_PREFIX = "Azure Deployment Step-";
+    private static final int MAX_PARALLEL_STEPS = 8;
+
+    private final List<Step<?>> steps = new ArrayList<Step<?>>();
+    private final DeploymentTrace trace;
+
+    public DeploymentGraph(DeploymentTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Adds step to the graph. Steps it depends on must be added before, which keeps the graph acyclic.
+     */
+    public <S extends Step<?>> S add(S step) {
+        for (Step<?> dependency : ((Step<?>) step).dependencies) {
+            if (!steps.contains(dependency)) {
+                throw new IllegalArgumentException(step.getName() + " depends on step not in the graph: " + dependency.getName());
+            }
+        }
+        steps.add(step);
+        return step;
+    }
+
+    public List<Step<?>> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * Runs all steps and waits until they are finished.
+     */
+    public void run(StepListener listener) throws Exception {
+        Map<Step<?>, Integer> unfinishedDependencies = new HashMap<Step<?>, Integer>();
+        Map<Step<?>, List<Step<?>>> dependents = new HashMap<Step<?>, List<Step<?>>>();
+        List<Step<?>> ready = new ArrayList<Step<?>>();
+        for (Step<?> step : steps) {
+            dependents.put(step, new ArrayList<Step<?>>());
+            unfinishedDependencies.put(step, step.dependencies.size());
+            for (Step<?> dependency : step.dependencies) {
+                dependents.get(dependency).add(step);
+            }
+            if (step.dependencies.isEmpty()) {
+                ready.add(step);
+            }
+        }
+        BlockingQueue<Step<?>> completed = new LinkedBlockingQueue<Step<?>>();
+        Map<Step<?>, Future<?>> running = new HashMap<Step<?>, Future<?>>();
+        Throwable failure = null;
+        ExecutorService executor = AzureExecutor.newBlockingPool(THREAD_NAME_PREFIX,
+                Math.max(1, Math.min(MAX_PARALLEL_STEPS, steps.size())));
+        try {
+            while (true) {
+                if (failure == null) {
+                    Iterator<Step<?>> readySteps = ready.iterator();
+                    while (readySteps.hasNext() && running.size() < MAX_PARALLEL_STEPS) {
+                        Step<?> step = readySteps.next();
+                        readySteps.remove();
+                        listener.stepStarted(step);
+                        running.put(step, executor.submit(step.createTask(completed, trace)));
+                    }
+                } else {
+                    ready.clear();
+                }
+                if (running.isEmpty()) {
+                    break;
+                }
+                Step<?> step = completed.take();
+                running.remove(step);
+                if (step.error != null) {
+                    if (failure == null) {
+                        failure = step.error;
+                    }
+                } else if (failure == null) {
+                    listener.stepFinished(step, TimeUnit.NANOSECONDS.toMillis(step.elapsedNanos));
+                    for (Step<?> dependent : dependents.get(step)) {
+                        int remaining = unfinishedDependencies.get(dependent) - 1;
+                        unfinishedDependencies.put(dependent, remaining);
+                        if (remaining == 0) {
+                            ready.add(dependent);
+                        }
+                    }
+                }
+            }
+        } finally {
+            // interrupted or listener failed
+            for (Future<?> future : running.values()) {
+                future.cancel(true);
+            }
+            executor.shutdown();
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw (Exception) failure;
+        }
+    }
+
+    /**
+     * Step of deployment producing result of given type, available to dependent steps with {@link #getResult}.
+     */
+    public abstract static class Step<T> {
+        private final String name;
+        private final int progress;
+        private final List<Step<?>> dependencies;
+        private volatile T result;
+        private volatile Throwable error;
+        private volatile long elapsedNanos;
+
+        /**
+         * @param name     description shown while step runs
+         * @param progress part of overall deployment progress, in percent, reported when step is finished
+         */
+        protected Step(String name, int progress, Step<?>... dependencies) {
+            this.name = name;
+            this.progress = progress;
+            this.dependencies = Arrays.asList(dependencies);
+        }
+
+        protected abstract T execute() throws Exception;
+
+        public String getName() {
+            return name;
+        }
+
+        public int getProgress() {
+            return progress;
+        }
+
+        public T getResult() {
+            return result;
+        }
+
+        private Runnable createTask(final BlockingQueue<Step<?>> completed, final DeploymentTrace trace) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    DeploymentTrace.Span span = trace.begin(name, DeploymentTrace.STEP);
+                    try {
+                        result = execute();
+                        span.end();
+                    } catch (Throwable t) {
+                        error = t;
+                        span.end(t);
+                    } finally {
+                        elapsedNanos = System.nanoTime() - start;
+                        completed.add(Step.this);
+                    }
+                }
+            };
+        }
+    }
+
+    public interface StepListener {
+        void stepStarted(Step<?> step);
+
+        void stepFinished(Step<?> step, long elapsedMillis);
+    }
+}
@@ -32,8 +32,13 @@ import com.microsoft.intellij.AzurePlugin;
 import com.microsoft.intellij.AzureSettings;
 import com.microsoft.intellij.activitylog.ActivityLogToolWindowFactory;
 import com.microsoft.intellij.util.AppInsightsCustomEvent;
+import com.microsoft.intellij.util.AzureExecutor;
 import com.microsoft.intellij.util.PluginUtil;
+import com.microsoft.intellij.util.ProjectManagerCache;
+import com.microsoft.intellij.util.RetryPolicy;
+import com.microsoft.intellij.util.SystemProperties;
 import com.microsoft.intellij.wizards.WizardCacheManager;
+import com.microsoft.intellij.util.PluginResourceInstaller;
 import com.microsoft.wacommon.utils.WACommonException;
 import com.microsoft.windowsazure.Configuration;
 import com.microsoft.windowsazure.core.OperationStatus;
@@ -41,6 +46,7 @@ import com.microsoft.windowsazure.core.OperationStatusResponse;
 import com.microsoft.windowsazure.management.compute.models.*;
 import com.microsoft.windowsazure.management.compute.models.DeploymentSlot;
 import com.microsoft.windowsazure.management.compute.models.HostedServiceListResponse.HostedService;
+import com.microsoft.windowsazure.management.configuration.ManagementConfiguration;
 import com.microsoft.windowsazure.management.storage.models.StorageAccountCreateParameters;
 import com.microsoftopentechnologies.azurecommons.deploy.DeploymentEventArgs;
 import com.microsoftopentechnologies.azurecommons.deploy.DeploymentManagerUtilMethods;
@@ -51,23 +57,25 @@ import com.microsoftopentechnologies.azurecommons.exception.RestAPIException;
 import com.microsoftopentechnologies.azurecommons.storageregistry.StorageAccount;
 import com.microsoftopentechnologies.azurecommons.storageregistry.StorageAccountRegistry;
 import com.microsoftopentechnologies.azuremanagementutil.model.InstanceStatus;
-import com.microsoftopentechnologies.azuremanagementutil.model.Notifier;
 import com.microsoftopentechnologies.azuremanagementutil.model.StorageService;
 import com.microsoftopentechnologies.azuremanagementutil.rest.WindowsAzureRestUtils;
 import com.microsoftopentechnologies.azuremanagementutil.rest.WindowsAzureServiceManagement;
 import com.microsoftopentechnologies.azuremanagementutil.rest.WindowsAzureStorageServices;
 
 import java.io.File;
+import java.net.HttpURLConnection;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
 
 import static com.microsoft.intellij.AzurePlugin.log;
 import static com.microsoft.intellij.ui.messages.AzureBundle.message;
 
 public final class DeploymentManager {
+    public static final String UNDEPLOY_CONCURRENCY_PROPERTY = "azure.toolkit.undeploy.concurrency";
+    private static final int DEFAULT_UNDEPLOY_CONCURRENCY = 4;
+    private static final String UNDEPLOY_THREAD_NAME_PREFIX = "Azure Undeploy-";
 
     private final HashMap<String, DeployDescriptor> deployments = new HashMap<String, DeployDescriptor>();
 
@@ -94,22 +102,34 @@ public final class DeploymentManager {
     }
 
     public void deploy(Module selectedModule) throws InterruptedException, DeploymentException {
+        deploy(selectedModule, 0, 0);
+    }
+
+    /**
+     * @param buildStartMillis start of the build of deployed package, recorded in deployment trace, 0 if not known
+     * @param buildEndMillis   end of the build of deployed package
+     */
+    public void deploy(Module selectedModule, long buildStartMillis, long buildEndMillis) throws InterruptedException, DeploymentException {
 
-        DeployDescriptor deploymentDesc = WizardCacheManager.collectConfiguration();
+        final DeployDescriptor deploymentDesc = WizardCacheManager.collectConfiguration();
 
-        String deployState = deploymentDesc.getDeployState();
-        Date startDate = new Date();
+        final String deployState = deploymentDesc.getDeployState();
+        final Date startDate = new Date();
+        final DeploymentTrace trace = DeploymentTrace.of(deploymentDesc.getDeploymentId(), startDate);
+        if (buildStartMillis > 0) {
+            trace.span(message("buildProj"), DeploymentTrace.BUILD, buildStartMillis, buildEndMillis);
+        }
+        DeploymentTrace.Span deploySpan = trace.begin(message("deployingToAzure"), DeploymentTrace.OPERATION)
+                .arg("hostedService", deploymentDesc.getHostedService().getServiceName())
+                .arg("slot", deployState);
         try {
 
             int conditionalProgress = 20;
 
-            HostedService hostedService = deploymentDesc.getHostedService();
+            final HostedService hostedService = deploymentDesc.getHostedService();
             addDeployment(hostedService.getServiceName(), deploymentDesc);
 
-            StorageService storageAccount = deploymentDesc.getStorageAccount();
-
-
-            WindowsAzureServiceManagement service = WizardCacheManager.createServiceManagementHelper();
+            final StorageService storageAccount = deploymentDesc.getStorageAccount();
 
             openWindowsAzureActivityLogView(deploymentDesc, selectedModule.getProject());
 
@@ -121,116 +141,163 @@ public final class DeploymentManager {
             // Publish start event
             AppInsightsCustomEvent.create(message("startEvent"), "");
 
+            final String deploymentId = deploymentDesc.getDeploymentId();
+            final WindowsAzureServiceManagement service = WizardCacheManager.createServiceManagementHelper();
+            final String container = message("eclipseDeployContainer").toLowerCase();
+            // packages are shared by fan-out targets, so primary cloud service owns them
+            final String packageOwner = hostedService.getServiceName();
+            DeploymentGraph graph = new DeploymentGraph(trace);
+
             // need to improve this check (maybe hostedSerivce.isExisting())?
+            DeploymentGraph.Step<?> hostedServiceStep = null;
             if (hostedService.getUri() == null || hostedService.getUri().toString().isEmpty()) { // the hosted service was not yet created.
-                notifyProgress(deploymentDesc.getDeploymentId(), startDate, null, 5, OperationStatus.InProgress, String.format("%s - %s", message("createHostedService"), hostedService.getServiceName()));
-                createHostedService(hostedService.getServiceName(), hostedService.getServiceName(),
-                        hostedService.getProperties().getLocation(), hostedService.getProperties().getDescription());
+                hostedServiceStep = graph.add(new DeploymentGraph.Step<Void>(
+                        String.format("%s - %s", message("createHostedService"), hostedService.getServiceName()), 5) {
+                    @Override
+                    protected Void execute() throws Exception {
+                        createHostedService(hostedService.getServiceName(), hostedService.getServiceName(),
+                                hostedService.getProperties().getLocation(), hostedService.getProperties().getDescription());
+                        return null;
+                    }
+                });
                 conditionalProgress -= 5;
             }
 
             // same goes here
+            DeploymentGraph.Step<?> storageAccountStep = null;
             if (storageAccount.getUrl() == null || storageAccount.getUrl().isEmpty()) { // the storage account was not yet created
-                notifyProgress(deploymentDesc.getDeploymentId(), startDate, null, 10, OperationStatus.InProgress,
-                        String.format("%s - %s", message("createStorageAccount"), storageAccount.getServiceName()));
-                createStorageAccount(storageAccount.getServiceName(), storageAccount.getServiceName(),
-                        storageAccount.getStorageAccountProperties().getLocation(), storageAccount.getStorageAccountProperties().getDescription());
+                storageAccountStep = graph.add(new DeploymentGraph.Step<Void>(
+                        String.format("%s - %s", message("createStorageAccount"), storageAccount.getServiceName()), 10) {
+                    @Override
+                    protected Void execute() throws Exception {
+                        createStorageAccount(storageAccount.getServiceName(), storageAccount.getServiceName(),
+                                storageAccount.getStorageAccountProperties().getLocation(), storageAccount.getStorageAccountProperties().getDescription());
+                        return null;
+                    }
+                });
                 conditionalProgress -= 10;
             }
 
-            checkContainerExistance();
+            final DeploymentGraph.Step<PackageBlobStore.StoredPackage> uploadStep = graph.add(
+                    new DeploymentGraph.Step<PackageBlobStore.StoredPackage>(message("uploadingServicePackage"), 20, dependencies(storageAccountStep)) {
+                        @Override
+                        protected PackageBlobStore.StoredPackage execute() throws Exception {
+                            checkContainerExistance();
+                            File packageFile = new File(deploymentDesc.getCspkgFile());
+                            Set<String> stagedBlockIds = Collections.emptySet();
+                            PackageStreamUploader streamUploader = PackageStreamUploader.take(packageFile);
+                            if (streamUploader != null && streamUploader.isFor(WizardCacheManager.getCurrentStorageAcount(), container)) {
+                                stagedBlockIds = streamUploader.finish();
+                                trace.count(DeploymentTrace.BYTES_STREAMED, stagedBlockIds.isEmpty() ? 0 : streamUploader.getStagedBytes());
+                            } else if (streamUploader != null) {
+                                PackageStreamUploader.cancel(packageFile);
+                            }
+                            PackageBlobStore.StoredPackage storedPackage = createPackageStore(WizardCacheManager.getCurrentStorageAcount(), container, packageOwner)
+                                    .put(packageFile, stagedBlockIds, new NotifierImp());
+                            trace.count(DeploymentTrace.BYTES_UPLOADED, new File(deploymentDesc.getCspkgFile()).length() - storedPackage.getSkippedBytes());
+                            trace.count(DeploymentTrace.BYTES_SKIPPED, storedPackage.getSkippedBytes());
+                            if (storedPackage.getSkippedBytes() > 0) {
+                                notifyProgress(deploymentId, startDate, null, 0, OperationStatus.InProgress,
+                                        message("deplUploadSkipped"), storedPackage.getSkippedBytes());
+                            }
+                            return storedPackage;
+                        }
+                    });
+
+            DeploymentGraph.Step<?> remoteDesktopStep = graph.add(new DeploymentGraph.Step<Void>(message("deplConfigRdp"), conditionalProgress) {
+                @Override
+                protected Void execute() throws Exception {
+                    if (deploymentDesc.getRemoteDesktopDescriptor().isEnabled()) {
+                        PluginResourceInstaller.awaitInstalled();
+                        DeploymentManagerUtilMethods.configureRemoteDesktop(deploymentDesc, WizardCacheManager.getCurrentDeployConfigFile(),
+                                String.format("%s%s%s", PathManager.getPluginsPath(), File.separator, AzurePlugin.PLUGIN_ID));
+                    }
+                    return null;
+                }
+            });
 
-            // upload certificates
-            if (deploymentDesc.getCertList() != null) {
-                List<CertificateUpload> certList = deploymentDesc.getCertList().getList();
-                if (certList != null && certList.size() > 0) {
-                    for (int i = 0; i < certList.size(); i++) {
-                        CertificateUpload cert = certList.get(i);
-                        DeploymentManagerUtilMethods.uploadCertificateIfNeededGeneric(service, deploymentDesc, cert.getPfxPath(), cert.getPfxPwd());
-                        notifyProgress(deploymentDesc.getDeploymentId(), startDate, null, 0, OperationStatus.InProgress,
-                                String.format("%s%s", message("deplUploadCert"), cert.getName()));
+            /*
+             * Package built and uploaded once is published to fan out cloud services as well,
+             * storage accounts in their regions get it by server side copy.
+             */
+            final List<DeployDescriptor> fanOutDescs = WizardCacheManager.collectFanOutConfigurations(deploymentDesc);
+            int targetCount = fanOutDescs.size() + 1;
+            int fanOutProgress = 20 / targetCount;
+            int primaryProgress = 20 - fanOutProgress * fanOutDescs.size();
+            TargetSteps primary = addTargetSteps(graph, deploymentDesc, null, service, uploadStep,
+                    dependencies(hostedServiceStep, remoteDesktopStep), primaryProgress, deploymentId, startDate);
+            List<TargetSteps> fanOuts = new ArrayList<TargetSteps>();
+            final Map<String, StorageService> packageStorageAccounts = new LinkedHashMap<String, StorageService>();
+            Map<String, DeploymentGraph.Step<PackageBlobStore.StoredPackage>> packageSteps =
+                    new HashMap<String, DeploymentGraph.Step<PackageBlobStore.StoredPackage>>();
+            for (final DeployDescriptor fanOutDesc : fanOutDescs) {
+                addDeployment(fanOutDesc.getHostedService().getServiceName(), fanOutDesc);
+                final StorageService fanOutStorage = fanOutDesc.getStorageAccount();
+                DeploymentGraph.Step<PackageBlobStore.StoredPackage> packageStep = uploadStep;
+                if (!fanOutStorage.getServiceName().equals(storageAccount.getServiceName())) {
+                    if (!packageStorageAccounts.containsKey(fanOutStorage.getServiceName())) {
+                        packageStorageAccounts.put(fanOutStorage.getServiceName(), fanOutStorage);
+                        packageSteps.put(fanOutStorage.getServiceName(), graph.add(new DeploymentGraph.Step<PackageBlobStore.StoredPackage>(
+                                String.format("%s - %s", message("deplCopyPackage"), fanOutStorage.getServiceName()), 0, uploadStep) {
+                            @Override
+                            protected PackageBlobStore.StoredPackage execute() throws Exception {
+                                PackageBlobStore.StoredPackage storedPackage = createPackageStore(fanOutStorage, container, packageOwner).copyFrom(
+                                        createPackageStore(WizardCacheManager.getCurrentStorageAcount(), container, packageOwner), uploadStep.getResult());
+                                trace.count(DeploymentTrace.BYTES_COPIED, new File(deploymentDesc.getCspkgFile()).length() - storedPackage.getSkippedBytes());
+                                return storedPackage;
+                            }
+                        }));
                     }
+                    packageStep = packageSteps.get(fanOutStorage.getServiceName());
                 }
+                fanOuts.add(addTargetSteps(graph, fanOutDesc, fanOutDesc.getHostedService().getServiceName(), service, packageStep,
+                        dependencies(remoteDesktopStep), fanOutProgress, deploymentId, startDate));
             }
 
-            if (deploymentDesc.getRemoteDesktopDescriptor().isEnabled()) {
-
-                notifyProgress(deploymentDesc.getDeploymentId(), startDate, null, conditionalProgress, OperationStatus.InProgress, message("deplConfigRdp"));
-
-                DeploymentManagerUtilMethods.configureRemoteDesktop(deploymentDesc, WizardCacheManager.getCurrentDeployConfigFile(),
-                        String.format("%s%s%s", PathManager.getPluginsPath(), File.separator, AzurePlugin.PLUGIN_ID));
-            } else {
-                notifyProgress(deploymentDesc.getDeploymentId(), startDate, null, conditionalProgress, OperationStatus.InProgress, message("deplConfigRdp"));
+            List<DeploymentGraph.Step<?>> createSteps = new ArrayList<DeploymentGraph.Step<?>>();
+            createSteps.add(primary.createDeployment);
+            for (TargetSteps fanOut : fanOuts) {
+                createSteps.add(fanOut.createDeployment);
             }
-
-            Notifier notifier = new NotifierImp();
-
-            String targetCspckgName = createCspckTargetName(deploymentDesc);
-
-            notifyProgress(deploymentDesc.getDeploymentId(), startDate, null, 20, OperationStatus.InProgress, message("uploadingServicePackage"));
-
-            DeploymentManagerUtilMethods.uploadPackageService(
-                    WizardCacheManager.createStorageServiceHelper(),
-                    deploymentDesc.getCspkgFile(),
-                    targetCspckgName,
-                    message("eclipseDeployContainer").toLowerCase(),
-                    deploymentDesc, notifier);
-
-            notifyProgress(deploymentDesc.getDeploymentId(), startDate, null, 20, OperationStatus.InProgress, message("creatingDeployment"));
-
-            String storageAccountURL = deploymentDesc.getStorageAccount().
-                    getStorageAccountProperties().getEndpoints().get(0).toString();
-
-            String cspkgUrl = String.format("%s%s/%s", storageAccountURL,
-                    message("eclipseDeployContainer").toLowerCase(), targetCspckgName);
-            /*
-             * To make deployment name unique attach time stamp
-			 * to the deployment name.
-			 */
-            DateFormat dateFormat = new SimpleDateFormat("yyyyMMddHHmmss");
-            String deploymentName = String.format("%s%s%s",
-                    hostedService.getServiceName(),
-                    deployState,
-                    dateFormat.format(new Date()));
-            String requestId = DeploymentManagerUtilMethods.createDeployment(deploymentDesc, service, cspkgUrl, deploymentName);
-            OperationStatus status = waitForStatus(deploymentDesc.getConfiguration(), service, requestId);
-
-            DeploymentManagerUtilMethods.deletePackage(WizardCacheManager.createStorageServiceHelper(),
-                    message("eclipseDeployContainer").toLowerCase(),
-                    targetCspckgName, notifier);
-            notifyProgress(deploymentDesc.getDeploymentId(), startDate,
-                    null, 0, OperationStatus.InProgress, message("deletePackage"));
-
-            notifyProgress(deploymentDesc.getDeploymentId(), startDate, null, 20, OperationStatus.InProgress, message("waitingForDeployment"));
-
-            DeploymentGetResponse deployment = waitForDeployment(
-                    deploymentDesc.getConfiguration(),
-                    hostedService.getServiceName(),
-                    deployState);
-
-            boolean displayHttpsLink = deploymentDesc.getDisplayHttpsLink();
-            WindowsAzureProjectManager waProjManager = WindowsAzureProjectManager.load(new File(PluginUtil.getModulePath(selectedModule)));
-
-            String serverAppName = null;
-            for (WindowsAzureRole role : waProjManager.getRoles()) {
-                if (role.getJDKSourcePath() != null && role.getServerCloudName() != null) {
-                    List<WindowsAzureRoleComponent> serverAppComponents = role.getServerApplications();
-                    // Get first server app component
-                    if (serverAppComponents != null && serverAppComponents.size() > 0) {
-                        String deployName = serverAppComponents.get(0).getDeployName();
-                        serverAppName = deployName.substring(0, deployName.lastIndexOf("."));
-                        break;
+            graph.add(new DeploymentGraph.Step<Void>(message("deplPrunePackages"), 0, createSteps.toArray(new DeploymentGraph.Step<?>[createSteps.size()])) {
+                @Override
+                protected Void execute() throws Exception {
+                    String inUse = uploadStep.getResult().getBlobName();
+                    createPackageStore(WizardCacheManager.getCurrentStorageAcount(), container, packageOwner).prune(inUse);
+                    for (StorageService packageStorageAccount : packageStorageAccounts.values()) {
+                        createPackageStore(packageStorageAccount, container, packageOwner).prune(inUse);
                     }
+                    return null;
                 }
-            }
-            String deploymentURL = displayHttpsLink ? deployment.getUri().toString().replaceAll("http://", "https://") : deployment.getUri().toString();
-            if (serverAppName != null) {
-                if (!deploymentURL.endsWith("/")) {
-                    deploymentURL += "/";
+            });
+
+            graph.run(new DeploymentGraph.StepListener() {
+                @Override
+                public void stepStarted(DeploymentGraph.Step<?> step) {
+                    notifyProgress(deploymentId, startDate, null, 0, OperationStatus.InProgress, step.getName());
+                }
+
+                @Override
+                public void stepFinished(DeploymentGraph.Step<?> step, long elapsedMillis) {
+                    notifyProgress(deploymentId, startDate, null, step.getProgress(), OperationStatus.InProgress,
+                            message("deplStepFinished"), step.getName(), elapsedMillis);
                 }
-                deploymentURL += serverAppName + "/";
+            });
+            DeploymentGetResponse deployment = primary.waitForDeployment.getResult();
+
+            String serverAppName = getServerAppName(selectedModule);
+            // combined progress is shown in row of primary deployment, each fan out deployment gets own row with its link
+            for (int i = 0; i < fanOuts.size(); i++) {
+                DeployDescriptor fanOutDesc = fanOutDescs.get(i);
+                DeploymentGetResponse fanOutDeployment = fanOuts.get(i).waitForDeployment.getResult();
+                notifyProgress(fanOutDesc.getDeploymentId(), startDate, null, 80, OperationStatus.InProgress, message("deplCompleted"));
+                notifyProgress(fanOutDesc.getDeploymentId(), startDate,
+                        getDeploymentUrl(fanOutDeployment, fanOutDesc.getDisplayHttpsLink(), serverAppName), 20,
+                        fanOuts.get(i).createDeployment.getResult(), fanOutDeployment.getStatus().toString());
             }
-            notifyProgress(deploymentDesc.getDeploymentId(), startDate, deploymentURL, 20, status, deployment.getStatus().toString());
+            notifyProgress(deploymentDesc.getDeploymentId(), startDate,
+                    getDeploymentUrl(deployment, deploymentDesc.getDisplayHttpsLink(), serverAppName), 20,
+                    primary.createDeployment.getResult(), deployment.getStatus().toString());
             // publish success event
             AppInsightsCustomEvent.create(message("successEvent"), "");
             // RDP prompt will come only on windows
@@ -238,7 +305,11 @@ public final class DeploymentManager {
                 String pluginFolder = String.format("%s%s%s", PathManager.getPluginsPath(), File.separator, AzurePlugin.PLUGIN_ID);
                 WindowsAzureRestUtils.getInstance().launchRDP(deployment, deploymentDesc.getRemoteDesktopDescriptor().getUserName(), pluginFolder);
             }
+            deploySpan.end();
         } catch (Throwable t) {
+            deploySpan.end(t);
+            // upload step may not have been reached
+            PackageStreamUploader.cancel(new File(deploymentDesc.getCspkgFile()));
             if (t instanceof ProcessCanceledException) {
                 PluginUtil.displayWarningDialogInAWT(message("interrupt"), message("deploymentInterrupted"));
             } else {
@@ -260,6 +331,131 @@ public final class DeploymentManager {
         }
     }
 
+    /**
+     * Steps publishing the package to one cloud service.
+     */
+    private static class TargetSteps {
+        private DeploymentGraph.Step<OperationStatus> createDeployment;
+        private DeploymentGraph.Step<DeploymentGetResponse> waitForDeployment;
+    }
+
+    /**
+     * Adds steps uploading missing certificates to cloud service, creating deployment and waiting for it.
+     *
+     * @param label        name of cloud service shown in step names, null for primary deployment
+     * @param packageStep  step storing package in storage account of the deployment
+     * @param dependencies steps which must be finished before deployment is created
+     * @param progress     part of overall progress of creating deployment, and the same for waiting for it
+     */
+    private TargetSteps addTargetSteps(DeploymentGraph graph, final DeployDescriptor target, String label,
+                                       final WindowsAzureServiceManagement service,
+                                       final DeploymentGraph.Step<PackageBlobStore.StoredPackage> packageStep,
+                                       DeploymentGraph.Step<?>[] dependencies, int progress,
+                                       final String deploymentId, final Date startDate) {
+        List<DeploymentGraph.Step<?>> createDependencies = new ArrayList<DeploymentGraph.Step<?>>(Arrays.asList(dependencies));
+        createDependencies.add(packageStep);
+        // upload certificates which are not in the cloud service yet
+        if (target.getCertList() != null) {
+            final List<CertificateUpload> certList = target.getCertList().getList();
+            if (certList != null && certList.size() > 0) {
+                // cloud service must exist before certificates are uploaded to it
+                createDependencies.add(graph.add(new DeploymentGraph.Step<Void>(stepName(message("deplUploadCerts"), label), 0, dependencies) {
+                    @Override
+                    protected Void execute() throws Exception {
+                        uploadMissingCertificates(service, target, certList, deploymentId, startDate);
+                        return null;
+                    }
+                }));
+            }
+        }
+        TargetSteps steps = new TargetSteps();
+        steps.createDeployment = graph.add(new DeploymentGraph.Step<OperationStatus>(stepName(message("creatingDeployment"), label), progress,
+                createDependencies.toArray(new DeploymentGraph.Step<?>[createDependencies.size()])) {
+            @Override
+            protected OperationStatus execute() throws Exception {
+                /*
+                 * To make deployment name unique attach time stamp
+                 * to the deployment name.
+                 */
+                DateFormat dateFormat = new SimpleDateFormat("yyyyMMddHHmmss");
+                final String deploymentName = String.format("%s%s%s",
+                        target.getHostedService().getServiceName(),
+                        target.getDeployState(),
+                        dateFormat.format(new Date()));
+                String requestId;
+                DeploymentTrace.Span span = DeploymentTrace.of(deploymentId, startDate).begin("createDeployment", DeploymentTrace.REST)
+                        .arg("hostedService", target.getHostedService().getServiceName());
+                try {
+                    requestId = RetryPolicy.getDefault().nonIdempotent().call(target.getSubscriptionId(), "createDeployment", new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            return DeploymentManagerUtilMethods.createDeployment(target, service, packageStep.getResult().getUrl(), deploymentName);
+                        }
+                    });
+                } finally {
+                    span.end();
+                }
+                return waitForStatus(target.getConfiguration(), service, requestId, deploymentId, startDate);
+            }
+        });
+        steps.waitForDeployment = graph.add(new DeploymentGraph.Step<DeploymentGetResponse>(stepName(message("waitingForDeployment"), label),
+                progress, steps.createDeployment) {
+            @Override
+            protected DeploymentGetResponse execute() throws Exception {
+                return waitForDeployment(target.getConfiguration(), target.getHostedService().getServiceName(), target.getDeployState(),
+                        deploymentId, startDate);
+            }
+        });
+        return steps;
+    }
+
+    private static String stepName(String name, String label) {
+        return label == null ? name : String.format("%s - %s", name, label);
+    }
+
+    private static PackageBlobStore createPackageStore(StorageService storageAccount, String container, String owner) throws Exception {
+        return PackageBlobStore.create(storageAccount, WizardCacheManager.getStorageAccessKey(storageAccount), container, owner);
+    }
+
+    private static String getServerAppName(Module selectedModule) throws WindowsAzureInvalidProjectOperationException {
+        WindowsAzureProjectManager waProjManager = ProjectManagerCache.getInstance(selectedModule.getProject()).getProjectManager(selectedModule);
+        for (WindowsAzureRole role : waProjManager.getRoles()) {
+            if (role.getJDKSourcePath() != null && role.getServerCloudName() != null) {
+                List<WindowsAzureRoleComponent> serverAppComponents = role.getServerApplications();
+                // Get first server app component
+                if (serverAppComponents != null && serverAppComponents.size() > 0) {
+                    String deployName = serverAppComponents.get(0).getDeployName();
+                    return deployName.substring(0, deployName.lastIndexOf("."));
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String getDeploymentUrl(DeploymentGetResponse deployment, boolean displayHttpsLink, String serverAppName) {
+        String deploymentURL = displayHttpsLink ? deployment.getUri().toString().replaceAll("http://", "https://") : deployment.getUri().toString();
+        if (serverAppName != null) {
+            if (!deploymentURL.endsWith("/")) {
+                deploymentURL += "/";
+            }
+            deploymentURL += serverAppName + "/";
+        }
+        return deploymentURL;
+    }
+
+    /**
+     * @return steps which are not null
+     */
+    private static DeploymentGraph.Step<?>[] dependencies(DeploymentGraph.Step<?>... steps) {
+        List<DeploymentGraph.Step<?>> dependencies = new ArrayList<DeploymentGraph.Step<?>>();
+        for (DeploymentGraph.Step<?> step : steps) {
+            if (step != null) {
+                dependencies.add(step);
+            }
+        }
+        return dependencies.toArray(new DeploymentGraph.Step<?>[dependencies.size()]);
+    }
+
     private void createStorageAccount(final String storageServiceName, final String label, final String location, final String description)
             throws Exception {
 
@@ -269,7 +465,14 @@ public final class DeploymentManager {
         accountParameters.setLocation(location);
         accountParameters.setDescription(description);
 
-        StorageService storageService = WizardCacheManager.createStorageAccount(accountParameters);
+        final StorageAccountCreateParameters parameters = accountParameters;
+        StorageService storageService = RetryPolicy.getDefault().nonIdempotent().call(getCurrentSubscriptionId(), "createStorageAccount",
+                new Callable<StorageService>() {
+                    @Override
+                    public StorageService call() throws Exception {
+                        return WizardCacheManager.createStorageAccount(parameters);
+                    }
+                });
         /*
 		 * Add newly created storage account
 		 * in centralized storage account registry.
@@ -290,19 +493,88 @@ public final class DeploymentManager {
         createHostedService.setLocation(location);
         createHostedService.setDescription(description);
 
-        WizardCacheManager.createHostedService(createHostedService);
+        final HostedServiceCreateParameters parameters = createHostedService;
+        RetryPolicy.getDefault().nonIdempotent().call(getCurrentSubscriptionId(), "createHostedService", new Callable<HostedService>() {
+            @Override
+            public HostedService call() throws Exception {
+                return WizardCacheManager.createHostedService(parameters);
+            }
+        });
+    }
+
+    private static String getCurrentSubscriptionId() {
+        return getSubscriptionId(WizardCacheManager.getCurrentPublishData().getCurrentConfiguration());
+    }
+
+    /**
+     * @return id of subscription management calls are made for, used as circuit of {@link RetryPolicy}
+     */
+    private static String getSubscriptionId(Configuration configuration) {
+        Object subscriptionId = configuration.getProperty(ManagementConfiguration.SUBSCRIPTION_ID);
+        return subscriptionId == null ? null : subscriptionId.toString();
+    }
+
+    private void uploadMissingCertificates(final WindowsAzureServiceManagement service, final DeployDescriptor deploymentDesc,
+                                           List<CertificateUpload> certList, final String deploymentId, final Date startDate) throws Exception {
+        final DeploymentTrace trace = DeploymentTrace.of(deploymentId, startDate);
+        DeploymentTrace.Span span = trace.begin("listCertificates", DeploymentTrace.REST);
+        CertificateInventory inventory;
+        try {
+            inventory = new CertificateInventory(RetryPolicy.getDefault().call(deploymentDesc.getSubscriptionId(), "listCertificates",
+                    new Callable<List<ServiceCertificateListResponse.Certificate>>() {
+                        @Override
+                        public List<ServiceCertificateListResponse.Certificate> call() throws Exception {
+                            return WizardCacheManager.fetchUploadedCertificates(deploymentDesc.getHostedService().getServiceName());
+                        }
+                    }));
+        } finally {
+            span.end();
+        }
+        List<CertificateUpload> missing = inventory.getMissingUploads(certList);
+        if (missing.size() < certList.size()) {
+            notifyProgress(deploymentId, startDate, null, 0, OperationStatus.InProgress,
+                    message("deplCertsPresent"), certList.size() - missing.size());
+        }
+        CertificateInventory.uploadAll(missing, new CertificateInventory.Uploader() {
+            @Override
+            public void upload(final CertificateUpload cert) throws Exception {
+                DeploymentTrace.Span span = trace.begin("addCertificate", DeploymentTrace.REST).arg("certificate", cert.getName());
+                try {
+                    RetryPolicy.getDefault().call(deploymentDesc.getSubscriptionId(), "addCertificate", new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            DeploymentManagerUtilMethods.uploadCertificateIfNeededGeneric(service, deploymentDesc, cert.getPfxPath(), cert.getPfxPwd());
+                            return null;
+                        }
+                    });
+                } finally {
+                    span.end();
+                }
+            }
+        }, new CertificateInventory.UploadListener() {
+            @Override
+            public void uploaded(CertificateUpload cert) {
+                notifyProgress(deploymentId, startDate, null, 0, OperationStatus.InProgress,
+                        String.format("%s%s", message("deplUploadCert"), cert.getName()));
+            }
+        });
     }
 
     private void checkContainerExistance() throws Exception {
-        WindowsAzureStorageServices storageServices = WizardCacheManager.createStorageServiceHelper();
-        storageServices.createContainer(message("eclipseDeployContainer").toLowerCase());
+        final WindowsAzureStorageServices storageServices = WizardCacheManager.createStorageServiceHelper();
+        RetryPolicy.getDefault().call(WizardCacheManager.getCurrentStorageAcount().getServiceName(), "createContainer", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                storageServices.createContainer(message("eclipseDeployContainer").toLowerCase());
+                return null;
+            }
+        });
     }
 
-    private DeploymentGetResponse waitForDeployment(Configuration configuration, String serviceName, String deployState)
+    private DeploymentGetResponse waitForDeployment(final Configuration configuration, final String serviceName, String deployState,
+                                                    final String deploymentId, final Date startDate)
             throws Exception {
-        DeploymentGetResponse deployment = null;
-        String status = null;
-        DeploymentSlot deploymentSlot;
+        final DeploymentSlot deploymentSlot;
         if (DeploymentSlot.Staging.toString().equalsIgnoreCase(deployState)) {
             deploymentSlot = DeploymentSlot.Staging;
         } else if (DeploymentSlot.Production.toString().equalsIgnoreCase(deployState)) {
@@ -310,71 +582,143 @@ public final class DeploymentManager {
         } else {
             throw new Exception("Invalid deployment slot name");
         }
-        do {
-            Thread.sleep(5000);
-            deployment = WindowsAzureRestUtils.getDeploymentBySlot(configuration, serviceName, deploymentSlot);
-
-            for (RoleInstance instance : deployment.getRoleInstances()) {
-                status = instance.getInstanceStatus();
-                if (InstanceStatus.ReadyRole.getInstanceStatus().equals(status)
-                        || InstanceStatus.CyclingRole.getInstanceStatus().equals(status)
-                        || InstanceStatus.FailedStartingVM.getInstanceStatus().equals(status)
-                        || InstanceStatus.UnresponsiveRole.getInstanceStatus().equals(status)) {
-                    break;
+        final DeploymentTrace trace = DeploymentTrace.of(deploymentId, startDate);
+        String status = new StatusPoller<String>(1000, 10000) {
+            // kept between polls, as deployment may have no instances yet
+            private String instanceStatus;
+
+            @Override
+            protected String poll() throws Exception {
+                DeploymentGetResponse deployment = getDeploymentBySlot(trace, configuration, serviceName, deploymentSlot);
+                for (RoleInstance instance : deployment.getRoleInstances()) {
+                    instanceStatus = instance.getInstanceStatus();
+                    if (isFinalInstanceStatus(instanceStatus)) {
+                        break;
+                    }
                 }
+                return instanceStatus;
             }
-        } while (status != null && !(InstanceStatus.ReadyRole.getInstanceStatus().equals(status)
-                || InstanceStatus.CyclingRole.getInstanceStatus().equals(status)
-                || InstanceStatus.FailedStartingVM.getInstanceStatus().equals(status)
-                || InstanceStatus.UnresponsiveRole.getInstanceStatus().equals(status)));
+
+            @Override
+            protected boolean isFinal(String status) {
+                return status == null || isFinalInstanceStatus(status);
+            }
+
+            @Override
+            protected void onStateChanged(String status) {
+                if (status != null) {
+                    notifyProgress(deploymentId, startDate, null, 0, OperationStatus.InProgress, message("deplInstanceStatus"), status);
+                }
+            }
+        }.await();
 
         if (!InstanceStatus.ReadyRole.getInstanceStatus().equals(status)) {
             throw new DeploymentException(status);
         }
         // check deployment status. And let Transitioning phase to finish
-        DeploymentStatus deploymentStatus = null;
-        do {
-            Thread.sleep(10000);
-            deployment = WindowsAzureRestUtils.getDeploymentBySlot(configuration, serviceName, deploymentSlot);
-            deploymentStatus = deployment.getStatus();
-        } while (deploymentStatus != null
-                && (deploymentStatus.equals(DeploymentStatus.RunningTransitioning)
-                || deploymentStatus.equals(DeploymentStatus.SuspendedTransitioning)));
-        return deployment;
-    }
-
-    private OperationStatus waitForStatus(Configuration configuration, WindowsAzureServiceManagement service, String requestId)
-            throws Exception {
-        OperationStatusResponse op;
-        OperationStatus status = null;
-        do {
-            op = service.getOperationStatus(configuration, requestId);
-            status = op.getStatus();
+        return new StatusPoller<DeploymentGetResponse>(1000, 10000) {
+            @Override
+            protected DeploymentGetResponse poll() throws Exception {
+                return getDeploymentBySlot(trace, configuration, serviceName, deploymentSlot);
+            }
 
-            log(message("deplId") + op.getId());
-            log(message("deplStatus") + op.getStatus());
-            log(message("deplHttpStatus") + op.getHttpStatusCode());
-            if (op.getError() != null) {
-                log(message("deplErrorMessage") + op.getError().getMessage());
-                throw new RestAPIException(op.getError().getMessage());
+            @Override
+            protected Object getState(DeploymentGetResponse deployment) {
+                return deployment.getStatus();
             }
 
-            Thread.sleep(5000);
+            @Override
+            protected boolean isFinal(DeploymentGetResponse deployment) {
+                DeploymentStatus deploymentStatus = deployment.getStatus();
+                return deploymentStatus == null
+                        || !(deploymentStatus.equals(DeploymentStatus.RunningTransitioning)
+                        || deploymentStatus.equals(DeploymentStatus.SuspendedTransitioning));
+            }
 
-        } while (status == OperationStatus.InProgress);
+            @Override
+            protected void onStateChanged(DeploymentGetResponse deployment) {
+                if (deployment.getStatus() != null) {
+                    notifyProgress(deploymentId, startDate, null, 0, OperationStatus.InProgress, message("deplDeploymentStatus"), deployment.getStatus());
+                }
+            }
+        }.await();
+    }
 
-        return status;
+    private static DeploymentGetResponse getDeploymentBySlot(DeploymentTrace trace, final Configuration configuration, final String serviceName,
+                                                             final DeploymentSlot deploymentSlot) throws Exception {
+        trace.count(DeploymentTrace.POLLS, 1);
+        DeploymentTrace.Span span = trace.begin("getDeploymentBySlot", DeploymentTrace.REST).arg("hostedService", serviceName);
+        try {
+            return RetryPolicy.getDefault().call(getSubscriptionId(configuration), "getDeploymentBySlot", new Callable<DeploymentGetResponse>() {
+                @Override
+                public DeploymentGetResponse call() throws Exception {
+                    return WindowsAzureRestUtils.getDeploymentBySlot(configuration, serviceName, deploymentSlot);
+                }
+            });
+        } finally {
+            span.end();
+        }
+    }
+
+    private static boolean isFinalInstanceStatus(String status) {
+        return InstanceStatus.ReadyRole.getInstanceStatus().equals(status)
+                || InstanceStatus.CyclingRole.getInstanceStatus().equals(status)
+                || InstanceStatus.FailedStartingVM.getInstanceStatus().equals(status)
+                || InstanceStatus.UnresponsiveRole.getInstanceStatus().equals(status);
     }
 
-    private String createCspckTargetName(DeployDescriptor deploymentDesc) {
-        String cspkgName = String.format(message("cspkgName"), deploymentDesc.getHostedService().getServiceName(), deploymentDesc.getDeployState());
-        return cspkgName;
+    private OperationStatus waitForStatus(final Configuration configuration, final WindowsAzureServiceManagement service, final String requestId,
+                                          final String deploymentId, final Date startDate)
+            throws Exception {
+        final DeploymentTrace trace = DeploymentTrace.of(deploymentId, startDate);
+        return new StatusPoller<OperationStatusResponse>(500, 8000) {
+            @Override
+            protected OperationStatusResponse poll() throws Exception {
+                trace.count(DeploymentTrace.POLLS, 1);
+                OperationStatusResponse op;
+                DeploymentTrace.Span span = trace.begin("getOperationStatus", DeploymentTrace.REST);
+                try {
+                    op = RetryPolicy.getDefault().call(getSubscriptionId(configuration), "getOperationStatus", new Callable<OperationStatusResponse>() {
+                        @Override
+                        public OperationStatusResponse call() throws Exception {
+                            return service.getOperationStatus(configuration, requestId);
+                        }
+                    });
+                } finally {
+                    span.end();
+                }
+
+                log(message("deplId") + op.getId());
+                log(message("deplStatus") + op.getStatus());
+                log(message("deplHttpStatus") + op.getHttpStatusCode());
+                if (op.getError() != null) {
+                    log(message("deplErrorMessage") + op.getError().getMessage());
+                    throw new RestAPIException(op.getError().getMessage());
+                }
+                return op;
+            }
+
+            @Override
+            protected Object getState(OperationStatusResponse op) {
+                return op.getStatus();
+            }
+
+            @Override
+            protected boolean isFinal(OperationStatusResponse op) {
+                return op.getStatus() != OperationStatus.InProgress;
+            }
+
+            @Override
+            protected void onStateChanged(OperationStatusResponse op) {
+                notifyProgress(deploymentId, startDate, null, 0, OperationStatus.InProgress, message("deplOperationStatus"), op.getStatus());
+            }
+        }.await().getStatus();
     }
 
     private void deployToLocalEmulator(Module selectedModule) throws DeploymentException {
         WindowsAzureProjectManager waProjManager;
         try {
-            waProjManager = WindowsAzureProjectManager.load(new File(PluginUtil.getModulePath(selectedModule)));
+            waProjManager = ProjectManagerCache.getInstance(selectedModule.getProject()).getProjectManager(selectedModule);
             waProjManager.deployToEmulator();
         } catch (WindowsAzureInvalidProjectOperationException e) {
             throw new DeploymentException(e);
@@ -415,6 +759,51 @@ public final class DeploymentManager {
         unPublish(configuration, serviceName, deplymentName, progressArr);
     }
 
+    /**
+     * Deletes deployments in parallel, at most -Dazure.toolkit.undeploy.concurrency=N at a time (4 by default).
+     * Each deployment is reported in Activity Log as if it was deleted alone, failure of one does not stop others.
+     *
+     * @param listener called on the caller thread whenever a deployment is deleted or failed to be deleted
+     * @return number of deployments which were deleted
+     */
+    public int undeploy(List<UndeployTarget> targets, UndeployListener listener) throws InterruptedException {
+        final Configuration configuration = WizardCacheManager.getCurrentPublishData().getCurrentConfiguration();
+        int threads = Math.max(1, Math.min(targets.size(),
+                SystemProperties.getPositiveInt(UNDEPLOY_CONCURRENCY_PROPERTY, DEFAULT_UNDEPLOY_CONCURRENCY)));
+        // deletions wait for their operations, so they do not run on shared executor which runs the polls
+        ExecutorService executor = AzureExecutor.newBlockingPool(UNDEPLOY_THREAD_NAME_PREFIX, threads);
+        try {
+            CompletionService<Boolean> completionService = new ExecutorCompletionService<Boolean>(executor);
+            Map<Future<Boolean>, UndeployTarget> futures = new HashMap<Future<Boolean>, UndeployTarget>();
+            for (final UndeployTarget target : targets) {
+                futures.put(completionService.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return unPublish(configuration, target.getServiceName(), target.getDeploymentName(), new int[]{50, 50});
+                    }
+                }), target);
+            }
+            int deleted = 0;
+            for (int done = 1; done <= targets.size(); done++) {
+                Future<Boolean> future = completionService.take();
+                boolean success;
+                try {
+                    success = future.get();
+                } catch (ExecutionException e) {
+                    log(message("deplError"), e);
+                    success = false;
+                }
+                if (success) {
+                    deleted++;
+                }
+                listener.undeployed(futures.get(future), success, done, targets.size());
+            }
+            return deleted;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * Unpublish deployment without notifying user.
      *
@@ -422,42 +811,80 @@ public final class DeploymentManager {
      * @param serviceName
      * @param deplymentName
      */
-    public void unPublish(
-            Configuration configuration,
-            String serviceName,
-            String deplymentName,
+    public boolean unPublish(
+            final Configuration configuration,
+            final String serviceName,
+            final String deplymentName,
             int[] progressArr) {
-        String requestId = null;
-
-        int retryCount = 0;
-        boolean successfull = false;
         Date startDate = new Date();
-        while (!successfull) {
+        DeploymentTrace trace = DeploymentTrace.of(deplymentName, startDate);
+        DeploymentTrace.Span undeploySpan = trace.begin(message("undeployWizTitle"), DeploymentTrace.OPERATION).arg("hostedService", serviceName);
+        notifyProgress(deplymentName, startDate, null, progressArr[0], OperationStatus.InProgress, message("undeployProgressMsg"), deplymentName);
+        try {
+            final WindowsAzureServiceManagement service = WizardCacheManager.createServiceManagementHelper();
+            //          Commenting suspend deployment call since it is giving issues in china cloud.
+            //			notifyProgress(deplymentName, null, progressArr[0], OperationStatus.InProgress,
+            //					Messages.stoppingMsg, serviceName);
+            //			requestId = service.updateDeploymentStatus(configuration,
+            //					serviceName,
+            //					deplymentName,
+            //                    UpdatedDeploymentStatus.Suspended
+            //            );
+            //			waitForStatus(configuration, service, requestId);
+            String requestId;
+            DeploymentTrace.Span span = trace.begin("deleteDeployment", DeploymentTrace.REST).arg("hostedService", serviceName);
             try {
-                retryCount++;
-                WindowsAzureServiceManagement service = WizardCacheManager.createServiceManagementHelper();
-                //          Commenting suspend deployment call since it is giving issues in china cloud.
-                //			notifyProgress(deplymentName, null, progressArr[0], OperationStatus.InProgress,
-                //					Messages.stoppingMsg, serviceName);
-                //			requestId = service.updateDeploymentStatus(configuration,
-                //					serviceName,
-                //					deplymentName,
-                //                    UpdatedDeploymentStatus.Suspended
-                //            );
-                //			waitForStatus(configuration, service, requestId);
-                notifyProgress(deplymentName, startDate, null, progressArr[0], OperationStatus.InProgress, message("undeployProgressMsg"), deplymentName);
-                requestId = service.deleteDeployment(configuration, serviceName, deplymentName);
-                waitForStatus(configuration, service, requestId);
-                notifyProgress(deplymentName, startDate, null, progressArr[1], OperationStatus.Succeeded, message("undeployCompletedMsg"), serviceName);
-                successfull = true;
-            } catch (Exception e) {
-                // Retry 5 times
-                if (retryCount > AzurePlugin.REST_SERVICE_MAX_RETRY_COUNT) {
-                    log(message("deplError"), e);
-                    notifyProgress(deplymentName, startDate, null, 100, OperationStatus.Failed, e.getMessage(), serviceName);
-                }
-                notifyProgress(deplymentName, startDate, null, -progressArr[0], OperationStatus.InProgress, message("undeployProgressMsg"), deplymentName);
+                // deployment can not be deleted while another operation on it is in progress
+                requestId = RetryPolicy.getDefault().withRetriedStatus(HttpURLConnection.HTTP_CONFLICT).call(
+                        getSubscriptionId(configuration), "deleteDeployment", new Callable<String>() {
+                            @Override
+                            public String call() throws Exception {
+                                return service.deleteDeployment(configuration, serviceName, deplymentName);
+                            }
+                        });
+            } finally {
+                span.end();
             }
+            waitForStatus(configuration, service, requestId, deplymentName, startDate);
+            notifyProgress(deplymentName, startDate, null, progressArr[1], OperationStatus.Succeeded, message("undeployCompletedMsg"), serviceName);
+            undeploySpan.end();
+            return true;
+        } catch (Exception e) {
+            undeploySpan.end(e);
+            log(message("deplError"), e);
+            notifyProgress(deplymentName, startDate, null, progressArr[1], OperationStatus.Failed, e.getMessage(), serviceName);
+            return false;
         }
     }
+
+    /**
+     * Deployment to delete.
+     */
+    public static class UndeployTarget {
+        private final String serviceName;
+        private final String deploymentName;
+        private final String deploymentSlot;
+
+        public UndeployTarget(String serviceName, String deploymentName, String deploymentSlot) {
+            this.serviceName = serviceName;
+            this.deploymentName = deploymentName;
+            this.deploymentSlot = deploymentSlot;
+        }
+
+        public String getServiceName() {
+            return serviceName;
+        }
+
+        public String getDeploymentName() {
+            return deploymentName;
+        }
+
+        public String getDeploymentSlot() {
+            return deploymentSlot;
+        }
+    }
+
+    public interface UndeployListener {
+        void undeployed(UndeployTarget target, boolean success, int done, int total);
+    }
 }
@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.deploy;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Timeline of one deployment or undeployment: spans of steps and REST calls, counters of transferred bytes and polls.
+ * <p/>
+ * Traces are kept in memory for the most recent operations, identified same way as rows of Activity Log,
+ * and can be written in Chrome trace event format, which chrome://tracing and similar viewers open.
+ * Spans are recorded on the thread doing the work, so parallel steps show up as separate tracks.
+ */
+public class DeploymentTrace {
+    public static final String OPERATION = "operation";
+    public static final String STEP = "step";
+    public static final String REST = "rest";
+    public static final String BUILD = "build";
+    public static final String BYTES_UPLOADED = "bytesUploaded";
+    public static final String BYTES_SKIPPED = "bytesSkipped";
+    public static final String BYTES_COPIED = "bytesCopied";
+    public static final String BYTES_STREAMED = "bytesStreamed";
+    public static final String POLLS = "polls";
+    private static final int MAX_TRACES = 20;
+    private static final Map<String, DeploymentTrace> TRACES = new LinkedHashMap<String, DeploymentTrace>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DeploymentTrace> eldest) {
+            return size() > MAX_TRACES;
+        }
+    };
+
+    private final String deploymentId;
+    private final long startMicros;
+    private final long startNanos;
+    private final List<Event> events = new ArrayList<Event>();
+    private final Map<String, Long> counters = new HashMap<String, Long>();
+    private final Map<Long, String> threadNames = new LinkedHashMap<Long, String>();
+
+    private DeploymentTrace(String deploymentId) {
+        this.deploymentId = deploymentId;
+        this.startMicros = System.currentTimeMillis() * 1000;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * @return trace of deployment, started when first asked for
+     */
+    public static DeploymentTrace of(String deploymentId, Date startDate) {
+        synchronized (TRACES) {
+            String key = deploymentId + startDate.getTime();
+            DeploymentTrace trace = TRACES.get(key);
+            if (trace == null) {
+                trace = new DeploymentTrace(deploymentId);
+                TRACES.put(key, trace);
+            }
+            return trace;
+        }
+    }
+
+    /**
+     * @return trace of deployment, null if it was not recorded or is not kept any more
+     */
+    public static DeploymentTrace find(String deploymentId, Date startDate) {
+        synchronized (TRACES) {
+            return TRACES.get(deploymentId + startDate.getTime());
+        }
+    }
+
+    public String getDeploymentId() {
+        return deploymentId;
+    }
+
+    /**
+     * Starts span on current thread, it must be ended on the same thread.
+     */
+    public Span begin(String name, String category) {
+        return new Span(name, category);
+    }
+
+    /**
+     * Records span measured elsewhere, e.g. build which ran before deployment was started.
+     */
+    public void span(String name, String category, long startMillis, long endMillis) {
+        add(new Event(name, category, 'X', startMillis * 1000, (endMillis - startMillis) * 1000, currentThread()));
+    }
+
+    /**
+     * Adds delta to counter, trace shows how counter grew over time.
+     */
+    public void count(String name, long delta) {
+        Event event = new Event(name, "counter", 'C', now(), 0, 0);
+        synchronized (this) {
+            Long value = counters.get(name);
+            value = (value == null ? 0 : value) + delta;
+            counters.put(name, value);
+            event.args.put("value", value);
+            events.add(event);
+        }
+    }
+
+    public synchronized long getCount(String name) {
+        Long value = counters.get(name);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * Writes trace as Chrome trace event JSON.
+     */
+    public void write(Writer writer) throws IOException {
+        List<Event> snapshot;
+        Map<Long, String> threads;
+        synchronized (this) {
+            snapshot = new ArrayList<Event>(events);
+            threads = new LinkedHashMap<Long, String>(threadNames);
+        }
+        JsonGenerator json = new JsonFactory().createJsonGenerator(writer);
+        json.useDefaultPrettyPrinter();
+        json.writeStartObject();
+        json.writeArrayFieldStart("traceEvents");
+        writeMetadata(json, "process_name", 0, deploymentId);
+        for (Map.Entry<Long, String> thread : threads.entrySet()) {
+            writeMetadata(json, "thread_name", thread.getKey(), thread.getValue());
+        }
+        for (Event event : snapshot) {
+            json.writeStartObject();
+            json.writeStringField("name", event.name);
+            json.writeStringField("cat", event.category);
+            json.writeStringField("ph", String.valueOf(event.phase));
+            json.writeNumberField("ts", event.timestampMicros);
+            if (event.phase == 'X') {
+                json.writeNumberField("dur", event.durationMicros);
+            }
+            json.writeNumberField("pid", 1);
+            json.writeNumberField("tid", event.threadId);
+            json.writeObjectFieldStart("args");
+            for (Map.Entry<String, Object> arg : event.args.entrySet()) {
+                if (arg.getValue() instanceof Number) {
+                    json.writeNumberField(arg.getKey(), ((Number) arg.getValue()).longValue());
+                } else {
+                    json.writeStringField(arg.getKey(), String.valueOf(arg.getValue()));
+                }
+            }
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeStringField("displayTimeUnit", "ms");
+        json.writeEndObject();
+        json.flush();
+    }
+
+    private static void writeMetadata(JsonGenerator json, String name, long threadId, String value) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("name", name);
+        json.writeStringField("ph", "M");
+        json.writeNumberField("pid", 1);
+        json.writeNumberField("tid", threadId);
+        json.writeObjectFieldStart("args");
+        json.writeStringField("name", value);
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+
+    private long now() {
+        return startMicros + (System.nanoTime() - startNanos) / 1000;
+    }
+
+    private long currentThread() {
+        Thread thread = Thread.currentThread();
+        synchronized (this) {
+            if (!threadNames.containsKey(thread.getId())) {
+                threadNames.put(thread.getId(), thread.getName());
+            }
+        }
+        return thread.getId();
+    }
+
+    private synchronized void add(Event event) {
+        events.add(event);
+    }
+
+    /**
+     * Span of work, arguments set before it ends are shown with it.
+     */
+    public class Span {
+        private final Event event;
+
+        private Span(String name, String category) {
+            event = new Event(name, category, 'X', now(), 0, currentThread());
+        }
+
+        public Span arg(String name, Object value) {
+            event.args.put(name, value);
+            return this;
+        }
+
+        public void end() {
+            event.durationMicros = now() - event.timestampMicros;
+            add(event);
+        }
+
+        public void end(Throwable error) {
+            arg("error", error.getMessage() != null ? error.getMessage() : error.getClass().getName());
+            end();
+        }
+    }
+
+    private static class Event {
+        private final String name;
+        private final String category;
+        private final char phase;
+        private final long timestampMicros;
+        private long durationMicros;
+        private final long threadId;
+        private final Map<String, Object> args = new LinkedHashMap<String, Object>();
+
+        private Event(String name, String category, char phase, long timestampMicros, long durationMicros, long threadId) {
+            this.name = name;
+            this.category = category;
+            this.phase = phase;
+            this.timestampMicros = timestampMicros;
+            this.durationMicros = durationMicros;
+            this.threadId = threadId;
+        }
+    }
+}
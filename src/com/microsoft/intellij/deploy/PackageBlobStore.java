@@ -0,0 +1,323 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.deploy;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.microsoft.azure.storage.blob.*;
+import com.microsoft.intellij.util.SystemProperties;
+import com.microsoftopentechnologies.azuremanagementutil.model.Notifier;
+import com.microsoftopentechnologies.azuremanagementutil.model.StorageService;
+
+import java.io.*;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Service packages kept in deployment container under names derived from SHA-256 of their content.
+ * <p/>
+ * Package which is already in the container is not uploaded again, its blob is only touched
+ * to mark it as recently used by its owner, the cloud service it is deployed to. Deployment container
+ * is shared by all cloud services deployed through the storage account, so after deployment only packages
+ * of the same owner are pruned: the most recently used ones are kept, their number can be changed with
+ * -Dazure.toolkit.package.retention=N, and so are those used within the last hour.
+ * <p/>
+ * Package which is still being written can be staged block by block to a staging blob of its file,
+ * since its content name is not known yet. Once complete, it is committed there and copied to its content name.
+ */
+public class PackageBlobStore {
+    private static final Logger LOG = Logger.getInstance("#com.microsoft.intellij.deploy.PackageBlobStore");
+    public static final String RETENTION_PROPERTY = "azure.toolkit.package.retention";
+    private static final int DEFAULT_RETENTION = 3;
+    private static final String PREFIX = "package-";
+    private static final String SUFFIX = ".cspkg";
+    private static final String STAGING_PREFIX = "staging-";
+    private static final long STAGING_MAX_AGE_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final String LAST_USED_METADATA = "lastused";
+    private static final String OWNER_METADATA = "owner";
+    private static final long PRUNE_GRACE_MILLIS = 60 * 60 * 1000L;
+    private static final long COPY_SIGNATURE_VALIDITY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private final CloudBlobContainer container;
+    private final BlockBlobUploader uploader;
+    private final int retention;
+    private final String owner;
+
+    /**
+     * @param owner name of the cloud service packages are put for, only its packages are pruned;
+     *              may be null for store which only stages blocks
+     */
+    public PackageBlobStore(CloudBlobClient client, String containerName, BlockBlobUploader uploader, int retention,
+                            String owner) throws Exception {
+        this.container = client.getContainerReference(containerName);
+        this.uploader = uploader;
+        this.retention = Math.max(1, retention);
+        this.owner = owner;
+    }
+
+    public static PackageBlobStore create(StorageService storageService, String accessKey, String containerName,
+                                          String owner) throws Exception {
+        CloudBlobClient client = BlockBlobUploader.createClient(storageService, accessKey);
+        return new PackageBlobStore(client, containerName, BlockBlobUploader.create(client),
+                SystemProperties.getPositiveInt(RETENTION_PROPERTY, DEFAULT_RETENTION), owner);
+    }
+
+    /**
+     * Makes sure package is in the container.
+     *
+     * @param notifier notified of upload progress, may be null
+     */
+    public StoredPackage put(File packageFile, Notifier notifier) throws Exception {
+        return put(packageFile, Collections.<String>emptySet(), notifier);
+    }
+
+    /**
+     * Makes sure package is in the container, reusing blocks staged with {@link #stageBlock}.
+     *
+     * @param stagedBlockIds ids of blocks staged while package was written
+     * @param notifier       notified of upload progress, may be null
+     */
+    public StoredPackage put(File packageFile, Set<String> stagedBlockIds, Notifier notifier) throws Exception {
+        String blobName = PREFIX + sha256(packageFile) + SUFFIX;
+        CloudBlockBlob blob = container.getBlockBlobReference(blobName);
+        // blob with uncommitted blocks does not exist yet, so existing one is complete
+        if (blob.exists()) {
+            blob.downloadAttributes();
+            if (blob.getProperties().getLength() == packageFile.length()) {
+                markUsed(blob);
+                return new StoredPackage(blobName, blob.getUri().toString(), packageFile.length());
+            }
+        }
+        if (stagedBlockIds.isEmpty()) {
+            long skippedBytes = uploader.upload(packageFile, container.getName(), blobName, notifier);
+            markUsed(blob);
+            return new StoredPackage(blobName, blob.getUri().toString(), skippedBytes);
+        }
+        CloudBlockBlob stagingBlob = getStagingBlob(packageFile);
+        try {
+            long skippedBytes = uploader.upload(packageFile, container.getName(), stagingBlob.getName(), notifier, stagedBlockIds);
+            // copy within the same account is authorized by account key of the request
+            awaitCopy(blob, stagingBlob.getUri(), stagingBlob.getUri());
+            markUsed(blob);
+            return new StoredPackage(blobName, blob.getUri().toString(), skippedBytes);
+        } finally {
+            deleteQuietly(stagingBlob);
+        }
+    }
+
+    private void markUsed(CloudBlob blob) throws Exception {
+        blob.getMetadata().put(LAST_USED_METADATA, String.valueOf(System.currentTimeMillis()));
+        blob.getMetadata().put(OWNER_METADATA, owner);
+        blob.uploadMetadata();
+    }
+
+    private static long getLastUsed(CloudBlob blob) {
+        String lastUsed = blob.getMetadata().get(LAST_USED_METADATA);
+        if (lastUsed != null) {
+            try {
+                return Long.parseLong(lastUsed);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return blob.getProperties().getLastModified().getTime();
+    }
+
+    private static void deleteQuietly(CloudBlob blob) {
+        try {
+            blob.deleteIfExists();
+        } catch (Exception e) {
+            LOG.warn("Failed to delete " + blob.getUri(), e);
+        }
+    }
+
+    /**
+     * Stages one block of package file which is still being written, see {@link BlockBlobUploader#uploadBlock}.
+     */
+    public String stageBlock(File packageFile, int index, byte[] block, int length) throws Exception {
+        return uploader.uploadBlock(getStagingBlob(packageFile), index, block, length);
+    }
+
+    public int getBlockSize() {
+        return uploader.getBlockSize();
+    }
+
+    public void createContainerIfNotExists() throws Exception {
+        container.createIfNotExists();
+    }
+
+    private CloudBlockBlob getStagingBlob(File packageFile) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        String name = STAGING_PREFIX + toHex(digest.digest(packageFile.getAbsolutePath().getBytes("UTF-8"))).substring(0, 32) + SUFFIX;
+        return container.getBlockBlobReference(name);
+    }
+
+    /**
+     * Copies package to this store from another storage account with server side copy,
+     * package which is already in this store is not copied again.
+     */
+    public StoredPackage copyFrom(PackageBlobStore source, StoredPackage storedPackage) throws Exception {
+        CloudBlockBlob blob = container.getBlockBlobReference(storedPackage.getBlobName());
+        CloudBlockBlob sourceBlob = source.container.getBlockBlobReference(storedPackage.getBlobName());
+        if (blob.exists()) {
+            blob.downloadAttributes();
+            sourceBlob.downloadAttributes();
+            if (blob.getCopyState() == null || blob.getCopyState().getStatus() != CopyStatus.PENDING) {
+                if (blob.getProperties().getLength() == sourceBlob.getProperties().getLength()) {
+                    markUsed(blob);
+                    return new StoredPackage(storedPackage.getBlobName(), blob.getUri().toString(), sourceBlob.getProperties().getLength());
+                }
+            }
+        }
+        container.createIfNotExists();
+        // source container is private, copy is authorized by short lived read only signature
+        SharedAccessBlobPolicy policy = new SharedAccessBlobPolicy();
+        policy.setPermissions(EnumSet.of(SharedAccessBlobPermissions.READ));
+        policy.setSharedAccessExpiryTime(new Date(System.currentTimeMillis() + COPY_SIGNATURE_VALIDITY_MILLIS));
+        String signature = sourceBlob.generateSharedAccessSignature(policy, null);
+        awaitCopy(blob, new URI(sourceBlob.getUri().toString() + "?" + signature), sourceBlob.getUri());
+        markUsed(blob);
+        return new StoredPackage(storedPackage.getBlobName(), blob.getUri().toString(), 0);
+    }
+
+    private static void awaitCopy(final CloudBlockBlob blob, URI source, URI sourceName) throws Exception {
+        blob.startCopyFromBlob(source);
+        CopyState copyState = new StatusPoller<CopyState>(1000, 10000) {
+            @Override
+            protected CopyState poll() throws Exception {
+                blob.downloadAttributes();
+                return blob.getCopyState();
+            }
+
+            @Override
+            protected boolean isFinal(CopyState result) {
+                return result.getStatus() != CopyStatus.PENDING;
+            }
+
+            @Override
+            protected Object getState(CopyState result) {
+                return result.getBytesCopied();
+            }
+        }.await();
+        if (copyState.getStatus() != CopyStatus.SUCCESS) {
+            throw new IOException(String.format("Copy of %s to %s failed: %s", sourceName, blob.getUri(),
+                    copyState.getStatusDescription()));
+        }
+    }
+
+    /**
+     * Deletes packages of this owner beyond retention limit, least recently used first, and staging blobs left
+     * by deployments which did not finish a day ago. Failures are only logged, as they do not affect deployment.
+     *
+     * @param inUse name of the package just deployed, it is never deleted
+     */
+    public void prune(String inUse) {
+        try {
+            long stagingExpiry = System.currentTimeMillis() - STAGING_MAX_AGE_MILLIS;
+            for (ListBlobItem item : container.listBlobs(STAGING_PREFIX)) {
+                if (item instanceof CloudBlob && ((CloudBlob) item).getProperties().getLastModified().getTime() < stagingExpiry) {
+                    deleteQuietly((CloudBlob) item);
+                }
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed to delete old staging blobs", e);
+        }
+        try {
+            List<CloudBlob> packages = new ArrayList<CloudBlob>();
+            for (ListBlobItem item : container.listBlobs(PREFIX, true, EnumSet.of(BlobListingDetails.METADATA), null, null)) {
+                if (item instanceof CloudBlob && !((CloudBlob) item).getName().equals(inUse)
+                        && owner.equals(((CloudBlob) item).getMetadata().get(OWNER_METADATA))) {
+                    packages.add((CloudBlob) item);
+                }
+            }
+            if (packages.size() < retention) {
+                return;
+            }
+            Collections.sort(packages, new Comparator<CloudBlob>() {
+                @Override
+                public int compare(CloudBlob blob1, CloudBlob blob2) {
+                    long lastUsed1 = getLastUsed(blob1);
+                    long lastUsed2 = getLastUsed(blob2);
+                    return lastUsed1 < lastUsed2 ? 1 : (lastUsed1 == lastUsed2 ? 0 : -1);
+                }
+            });
+            // package in use counts against retention, recently used one may be about to be deployed
+            long graceExpiry = System.currentTimeMillis() - PRUNE_GRACE_MILLIS;
+            for (CloudBlob blob : packages.subList(retention - 1, packages.size())) {
+                if (getLastUsed(blob) < graceExpiry) {
+                    blob.deleteIfExists();
+                }
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed to delete old service packages", e);
+        }
+    }
+
+    private static String sha256(File file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    public static class StoredPackage {
+        private final String blobName;
+        private final String url;
+        private final long skippedBytes;
+
+        private StoredPackage(String blobName, String url, long skippedBytes) {
+            this.blobName = blobName;
+            this.url = url;
+            this.skippedBytes = skippedBytes;
+        }
+
+        public String getBlobName() {
+            return blobName;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return number of bytes which were not uploaded, as they were already in storage
+         */
+        public long getSkippedBytes() {
+            return skippedBytes;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.deploy;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.microsoftopentechnologies.azuremanagementutil.model.StorageService;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Uploads blocks of service package while build is still writing it, so that build and upload overlap.
+ * <p/>
+ * Package file is followed from a dedicated thread and each block, once fully written, is staged with
+ * {@link PackageBlobStore#stageBlock}. When build is finished, deployment takes staged block ids with
+ * {@link #take} and uploads the complete package, sending again only blocks whose content changed after
+ * they were staged, for example because packager went back to rewrite zip headers. If the package cannot
+ * be followed, nothing is staged and package is uploaded as a whole, as without streaming.
+ * Streaming is turned on with -Dazure.toolkit.build.pipelinedUpload=true.
+ */
+public class PackageStreamUploader {
+    private static final Logger LOG = Logger.getInstance("#com.microsoft.intellij.deploy.PackageStreamUploader");
+    public static final String PIPELINE_PROPERTY = "azure.toolkit.build.pipelinedUpload";
+    private static final String THREAD_NAME = "Azure Package Stream";
+    private static final long POLL_MILLIS = 500;
+
+    private static final Map<String, PackageStreamUploader> RUNNING = new ConcurrentHashMap<String, PackageStreamUploader>();
+
+    private final File packageFile;
+    private final StorageService storageAccount;
+    private final String containerName;
+    private final PackageBlobStore store;
+    private final Set<String> stagedBlockIds = Collections.synchronizedSet(new HashSet<String>());
+    private final Thread thread;
+    private volatile boolean finished;
+    private volatile boolean cancelled;
+    private volatile long stagedBytes;
+    private volatile Exception error;
+
+    private PackageStreamUploader(File packageFile, StorageService storageAccount, String containerName, PackageBlobStore store) {
+        this.packageFile = packageFile;
+        this.storageAccount = storageAccount;
+        this.containerName = containerName;
+        this.store = store;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                follow();
+            }
+        }, THREAD_NAME);
+        thread.setDaemon(true);
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty(PIPELINE_PROPERTY));
+    }
+
+    /**
+     * Starts following package file which is about to be written by build. Failure to start is only logged.
+     */
+    public static void start(File packageFile, StorageService storageAccount, String containerName, String accessKey) {
+        cancel(packageFile);
+        try {
+            PackageBlobStore store = PackageBlobStore.create(storageAccount, accessKey, containerName, null);
+            PackageStreamUploader uploader = new PackageStreamUploader(packageFile, storageAccount, containerName, store);
+            RUNNING.put(key(packageFile), uploader);
+            uploader.thread.start();
+        } catch (Exception e) {
+            LOG.warn("Failed to start streaming upload of " + packageFile, e);
+        }
+    }
+
+    /**
+     * Stops following the package, staged blocks are left to expire in storage.
+     */
+    public static void cancel(File packageFile) {
+        PackageStreamUploader uploader = RUNNING.remove(key(packageFile));
+        if (uploader != null) {
+            uploader.cancelled = true;
+            uploader.thread.interrupt();
+        }
+    }
+
+    /**
+     * @return uploader following the package, null if there is none
+     */
+    public static PackageStreamUploader take(File packageFile) {
+        return RUNNING.remove(key(packageFile));
+    }
+
+    /**
+     * @return true if blocks are staged to the given container of the given storage account
+     */
+    public boolean isFor(StorageService storageAccount, String containerName) {
+        return this.storageAccount.getServiceName().equals(storageAccount.getServiceName()) && this.containerName.equals(containerName);
+    }
+
+    /**
+     * Stages blocks written since last poll and stops following the package, which must be complete.
+     *
+     * @return ids of staged blocks, empty if streaming failed
+     */
+    public Set<String> finish() throws InterruptedException {
+        finished = true;
+        thread.join();
+        if (error != null) {
+            LOG.warn("Streaming upload of " + packageFile + " failed, uploading whole package", error);
+            return Collections.emptySet();
+        }
+        return new HashSet<String>(stagedBlockIds);
+    }
+
+    /**
+     * @return number of bytes staged while package was written
+     */
+    public long getStagedBytes() {
+        return stagedBytes;
+    }
+
+    private void follow() {
+        // package of previous build is replaced, it is not followed until it changes
+        long initialLength = packageFile.length();
+        long initialModified = packageFile.lastModified();
+        boolean changed = false;
+        int nextBlock = 0;
+        try {
+            store.createContainerIfNotExists();
+            byte[] buffer = new byte[store.getBlockSize()];
+            while (!cancelled) {
+                boolean last = finished;
+                long length = packageFile.length();
+                changed |= length != initialLength || packageFile.lastModified() != initialModified;
+                if (changed) {
+                    if (length < (long) nextBlock * buffer.length) {
+                        // file was truncated and is written again
+                        nextBlock = 0;
+                    }
+                    // last partial block is left to upload of complete package
+                    while (!cancelled && (long) (nextBlock + 1) * buffer.length <= length) {
+                        read(nextBlock, buffer);
+                        stagedBlockIds.add(store.stageBlock(packageFile, nextBlock, buffer, buffer.length));
+                        stagedBytes += buffer.length;
+                        nextBlock++;
+                    }
+                }
+                if (last) {
+                    break;
+                }
+                Thread.sleep(POLL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            // cancelled
+        } catch (Exception e) {
+            error = e;
+        }
+    }
+
+    private void read(int index, byte[] buffer) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(packageFile, "r");
+        try {
+            input.seek((long) index * buffer.length);
+            input.readFully(buffer);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static String key(File packageFile) {
+        return packageFile.getAbsolutePath();
+    }
+}
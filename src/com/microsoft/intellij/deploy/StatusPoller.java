@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.deploy;
+
+import com.microsoft.intellij.util.AzureExecutor;
+
+import java.util.Random;
+import java.util.concurrent.*;
+
+/**
+ * Polls state of a long running Azure operation using shared {@link AzureExecutor},
+ * no thread is held between polls. Polls are run with {@link AzureExecutor#schedulePoll},
+ * so {@link #await} does not hang even when all pool threads are waiting for pollers.
+ * <p/>
+ * First poll is done immediately. Delay before next poll doubles from initial to maximum delay
+ * and is randomized by +/-25%, so that many pollers do not hit the service at the same time.
+ * Whenever observed state changes, {@link #onStateChanged} is called and delay drops back to initial one,
+ * as one change is usually followed by another.
+ *
+ * @param <T> type of poll result
+ */
+public abstract class StatusPoller<T> {
+    private static final double JITTER = 0.25;
+    private static final Random RANDOM = new Random();
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final Result<T> result = new Result<T>();
+    // accessed by one poll at a time, executor hand-off makes changes visible to next poll
+    private long delayMillis;
+    private boolean polled;
+    private Object lastState;
+
+    protected StatusPoller(long initialDelayMillis, long maxDelayMillis) {
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Fetches current result, exception fails the poller.
+     */
+    protected abstract T poll() throws Exception;
+
+    /**
+     * @return true if no further polling is needed
+     */
+    protected abstract boolean isFinal(T result);
+
+    /**
+     * State used to detect changes, result itself by default.
+     */
+    protected Object getState(T result) {
+        return result;
+    }
+
+    /**
+     * Called on a pool thread with first result and every result of which state differs from previous one.
+     */
+    protected void onStateChanged(T result) {
+    }
+
+    /**
+     * Starts polling.
+     *
+     * @return future completed with final result, cancelling it stops polling
+     */
+    public Future<T> start() {
+        delayMillis = initialDelayMillis;
+        AzureExecutor.getInstance().schedulePoll(pollTask, 0, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    /**
+     * Starts polling and waits for final result. Calling thread is held until then,
+     * callers which can go on without the result should use {@link #start} instead.
+     */
+    public T await() throws Exception {
+        try {
+            return start().get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (InterruptedException e) {
+            result.cancel(false);
+            throw e;
+        }
+    }
+
+    private final Runnable pollTask = new Runnable() {
+        @Override
+        public void run() {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                T current = poll();
+                Object state = getState(current);
+                if (!polled || (state == null ? lastState != null : !state.equals(lastState))) {
+                    polled = true;
+                    lastState = state;
+                    delayMillis = initialDelayMillis;
+                    onStateChanged(current);
+                } else {
+                    delayMillis = Math.min(maxDelayMillis, delayMillis * 2);
+                }
+                if (isFinal(current)) {
+                    result.complete(current);
+                } else if (!result.isDone()) {
+                    long jitter = (long) (delayMillis * JITTER * (2 * RANDOM.nextDouble() - 1));
+                    AzureExecutor.getInstance().schedulePoll(this, delayMillis + jitter, TimeUnit.MILLISECONDS);
+                }
+            } catch (Throwable t) {
+                // errors too, otherwise await() would wait for a poll which is never scheduled
+                result.fail(t);
+            }
+        }
+    };
+
+    private static class Result<T> extends FutureTask<T> {
+        private Result() {
+            super(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    throw new IllegalStateException("Result is set by poller");
+                }
+            });
+        }
+
+        private void complete(T value) {
+            set(value);
+        }
+
+        private void fail(Throwable t) {
+            setException(t);
+        }
+    }
+}
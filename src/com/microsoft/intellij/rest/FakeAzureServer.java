@@ -0,0 +1,314 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.rest;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.microsoftopentechnologies.azuremanagementutil.util.Base64;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for Service Management and Blob service, to run deployment and account loading without Azure.
+ * <p/>
+ * The server keeps cloud services, deployments, storage accounts and blobs in memory and answers requests of
+ * one subscription on the loopback interface. Management requests are those whose path starts with the subscription id,
+ * all others go to the blob service, which is addressed path style, as storage emulator is.
+ * Each request can be delayed and failed at random, see {@link #setLatency} and {@link #setFailures}.
+ * <p/>
+ * Plugin is pointed at the server by importing publish settings written with {@link #writePublishSettings}.
+ * The server is started with the plugin when -Dazure.toolkit.fakeAzure=PORT is set, or on its own with {@link #main}.
+ */
+public class FakeAzureServer {
+    private static final Logger LOG = Logger.getInstance("#com.microsoft.intellij.rest.FakeAzureServer");
+    public static final String FAKE_AZURE_PROPERTY = "azure.toolkit.fakeAzure";
+    public static final String PUBLISH_SETTINGS_NAME = "fake-azure.publishsettings";
+    private static final String THREAD_NAME_PREFIX = "Azure Fake Server-";
+    private static final Random RANDOM = new Random();
+
+    private static FakeAzureServer instance;
+
+    private final String subscriptionId;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final FakeManagementHandler management;
+    private final FakeBlobHandler blobs;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private volatile long latencyMillis;
+    private volatile long jitterMillis;
+    private volatile double failureRate;
+    private volatile int failureStatus = 503;
+    private volatile Pattern failurePattern;
+
+    /**
+     * @param port port on loopback interface, 0 to pick a free one
+     */
+    public FakeAzureServer(int port) throws IOException {
+        this.subscriptionId = UUID.randomUUID().toString();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 0);
+        this.blobs = new FakeBlobHandler();
+        this.management = new FakeManagementHandler(subscriptionId);
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, THREAD_NAME_PREFIX + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    dispatch(exchange);
+                } catch (Exception e) {
+                    LOG.warn("Fake Azure request failed: " + exchange.getRequestMethod() + " " + exchange.getRequestURI(), e);
+                    try {
+                        exchange.sendResponseHeaders(500, -1);
+                    } catch (IOException ignored) {
+                        // response was already started
+                    }
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts server with the plugin when -Dazure.toolkit.fakeAzure=PORT is set and writes publish settings
+     * for it to ~/.azure/fake-azure.publishsettings, to be imported as any other.
+     */
+    public static synchronized void startIfConfigured() {
+        String port = System.getProperty(FAKE_AZURE_PROPERTY);
+        if (port == null || port.trim().isEmpty() || instance != null) {
+            return;
+        }
+        try {
+            FakeAzureServer server = new FakeAzureServer(Integer.parseInt(port.trim()));
+            server.configure(System.getProperties());
+            server.start();
+            File publishSettings = new File(System.getProperty("user.home") + File.separator + ".azure", PUBLISH_SETTINGS_NAME);
+            server.writePublishSettings(publishSettings);
+            instance = server;
+            LOG.info("Fake Azure is listening at " + server.getUrl() + ", import " + publishSettings + " to use it");
+        } catch (Exception e) {
+            LOG.warn("Fake Azure could not be started", e);
+        }
+    }
+
+    public static synchronized FakeAzureServer getInstance() {
+        return instance;
+    }
+
+    /**
+     * Applies settings azure.toolkit.fakeAzure.latency, .jitter, .failureRate, .failureStatus, .failurePattern,
+     * .operationDelay, .roleStartDelay, .services and .storageAccounts found in given properties.
+     */
+    public void configure(Properties properties) {
+        String prefix = FAKE_AZURE_PROPERTY + ".";
+        setLatency(getLong(properties, prefix + "latency", latencyMillis), getLong(properties, prefix + "jitter", jitterMillis));
+        String pattern = properties.getProperty(prefix + "failurePattern");
+        setFailures(Double.parseDouble(properties.getProperty(prefix + "failureRate", String.valueOf(failureRate))),
+                (int) getLong(properties, prefix + "failureStatus", failureStatus),
+                pattern == null ? null : Pattern.compile(pattern));
+        management.setOperationDelay(getLong(properties, prefix + "operationDelay", management.getOperationDelay()));
+        management.setRoleStartDelay(getLong(properties, prefix + "roleStartDelay", management.getRoleStartDelay()));
+        management.populate((int) getLong(properties, prefix + "services", 0), (int) getLong(properties, prefix + "storageAccounts", 0));
+    }
+
+    private static long getLong(Properties properties, String name, long defaultValue) {
+        String value = properties.getProperty(name);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    public void start() {
+        server.start();
+        management.setBaseUrl(getUrl());
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public String getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    /**
+     * Delays each request by latency plus random part of jitter.
+     */
+    public void setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = Math.max(0, latencyMillis);
+        this.jitterMillis = Math.max(0, jitterMillis);
+    }
+
+    /**
+     * Fails requests at random with given status and Azure error body, as busy or throttled service does.
+     *
+     * @param rate    probability of failing a request, 0 to never fail
+     * @param pattern only requests whose method and path, such as "PUT /account/container/blob", contain it
+     *                can fail, null for all requests
+     */
+    public void setFailures(double rate, int status, Pattern pattern) {
+        this.failureRate = rate;
+        this.failureStatus = status;
+        this.failurePattern = pattern;
+    }
+
+    /**
+     * @param operationDelay time asynchronous operations stay in progress
+     * @param roleStartDelay time role instances of new or upgraded deployment take to become ready
+     */
+    public void setDelays(long operationDelay, long roleStartDelay) {
+        management.setOperationDelay(operationDelay);
+        management.setRoleStartDelay(roleStartDelay);
+    }
+
+    /**
+     * Creates given number of cloud services, each with a production deployment, and storage accounts.
+     */
+    public void populate(int services, int storageAccounts) {
+        management.populate(services, storageAccounts);
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * @return total size of committed blobs
+     */
+    public long getStoredBytes() {
+        return blobs.getStoredBytes();
+    }
+
+    private void dispatch(HttpExchange exchange) throws Exception {
+        requestCount.incrementAndGet();
+        String requestId = UUID.randomUUID().toString().replace("-", "");
+        exchange.getResponseHeaders().set("x-ms-request-id", requestId);
+        exchange.getResponseHeaders().set("Date", FakeExchange.formatHttpDate(System.currentTimeMillis()));
+        long delay = latencyMillis + (jitterMillis > 0 ? (long) (RANDOM.nextDouble() * jitterMillis) : 0);
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+        FakeExchange request = new FakeExchange(exchange, requestId);
+        if (shouldFail(exchange)) {
+            failureCount.incrementAndGet();
+            request.getBody();
+            request.respondError(failureStatus, failureStatus == 503 ? "ServerBusy" : "InternalError", "Failure injected by fake Azure");
+        } else if (subscriptionId.equals(request.getSegment(0))) {
+            management.handle(request);
+        } else {
+            blobs.handle(request);
+        }
+    }
+
+    private boolean shouldFail(HttpExchange exchange) {
+        if (failureRate <= 0 || RANDOM.nextDouble() >= failureRate) {
+            return false;
+        }
+        Pattern pattern = failurePattern;
+        return pattern == null || pattern.matcher(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath()).find();
+    }
+
+    /**
+     * Writes publish settings of the fake subscription. Its management certificate is an empty key store,
+     * as requests go over plain HTTP.
+     */
+    public void writePublishSettings(File file) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        ByteArrayOutputStream certificate = new ByteArrayOutputStream();
+        keyStore.store(certificate, "".toCharArray());
+        String content = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                + "<PublishData>\n"
+                + "  <PublishProfile SchemaVersion=\"2.0\" PublishMethod=\"AzureServiceManagementAPI\">\n"
+                + "    <Subscription ServiceManagementUrl=\"" + getUrl() + "\" Id=\"" + subscriptionId + "\" Name=\"Fake Azure\"\n"
+                + "                  ManagementCertificate=\"" + Base64.encode(certificate.toByteArray()) + "\" />\n"
+                + "  </PublishProfile>\n"
+                + "</PublishData>\n";
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Runs server until the process is killed, for example on a build machine:
+     * <pre>
+     * java -cp ... com.microsoft.intellij.rest.FakeAzureServer -port 8100 -latency 50 -jitter 100 -failureRate 0.05
+     *     -services 20 -storageAccounts 10 -publishSettings fake.publishsettings
+     * </pre>
+     * Options are the settings of {@link #configure} without prefix.
+     */
+    public static void main(String[] args) throws Exception {
+        Properties properties = new Properties();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("-")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            properties.setProperty(FAKE_AZURE_PROPERTY + "." + args[i].substring(1), args[i + 1]);
+        }
+        FakeAzureServer server = new FakeAzureServer((int) getLong(properties, FAKE_AZURE_PROPERTY + ".port", 0));
+        server.configure(properties);
+        server.start();
+        File publishSettings = new File(properties.getProperty(FAKE_AZURE_PROPERTY + ".publishSettings", PUBLISH_SETTINGS_NAME));
+        server.writePublishSettings(publishSettings);
+        System.out.println(String.format(Locale.ENGLISH, "Fake Azure is listening at %s, publish settings: %s",
+                server.getUrl(), publishSettings.getAbsolutePath()));
+        Thread.sleep(Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,444 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.rest;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+
+import static com.microsoft.intellij.rest.FakeExchange.element;
+import static com.microsoft.intellij.rest.FakeExchange.formatHttpDate;
+
+/**
+ * Blob service part of {@link FakeAzureServer}, with requests addressed path style: /account/container/blob.
+ * <p/>
+ * Containers, block blobs and their blocks are kept in memory, shared key signatures are not checked.
+ * Server side copy completes at once.
+ */
+class FakeBlobHandler {
+    private final Map<String, Container> containers = new HashMap<String, Container>();
+    private long etagCounter = System.currentTimeMillis();
+
+    void handle(FakeExchange request) throws Exception {
+        List<String> segments = request.getSegments();
+        if (segments.isEmpty()) {
+            request.respondError(400, "InvalidUri", "Account name is missing");
+            return;
+        }
+        String method = request.getMethod();
+        if (segments.size() == 1) {
+            if ("GET".equals(method) && "list".equals(request.getQuery("comp"))) {
+                listContainers(request, segments.get(0));
+            } else {
+                request.respondError(400, "InvalidQueryParameterValue", "Unsupported account operation");
+            }
+            return;
+        }
+        String containerKey = segments.get(0) + "/" + segments.get(1);
+        if (segments.size() == 2) {
+            handleContainer(request, containerKey);
+            return;
+        }
+        StringBuilder blobName = new StringBuilder(segments.get(2));
+        for (String segment : segments.subList(3, segments.size())) {
+            blobName.append('/').append(segment);
+        }
+        // block content is read before taking the lock, so uploads of several blocks overlap
+        if ("PUT".equals(method)) {
+            request.getBody();
+        }
+        synchronized (this) {
+            Container container = containers.get(containerKey);
+            if (container == null) {
+                request.respondError(404, "ContainerNotFound", "The specified container does not exist.");
+                return;
+            }
+            handleBlob(request, container, blobName.toString());
+        }
+    }
+
+    private synchronized void listContainers(FakeExchange request, String account) throws IOException {
+        String prefix = request.getQuery("prefix");
+        StringBuilder xml = new StringBuilder("<EnumerationResults AccountName=\"").append(account).append("\"><Containers>");
+        for (Map.Entry<String, Container> entry : new TreeMap<String, Container>(containers).entrySet()) {
+            String name = entry.getKey().substring(entry.getKey().indexOf('/') + 1);
+            if (entry.getKey().startsWith(account + "/") && (prefix == null || name.startsWith(prefix))) {
+                Container container = entry.getValue();
+                xml.append("<Container>").append(element("Name", name)).append("<Properties>")
+                        .append(element("Last-Modified", formatHttpDate(container.lastModified)))
+                        .append(element("Etag", container.etag))
+                        .append("<LeaseStatus>unlocked</LeaseStatus><LeaseState>available</LeaseState></Properties></Container>");
+            }
+        }
+        xml.append("</Containers><NextMarker /></EnumerationResults>");
+        request.respond(200, xml.toString());
+    }
+
+    private synchronized void handleContainer(FakeExchange request, String key) throws Exception {
+        String method = request.getMethod();
+        Container container = containers.get(key);
+        if ("PUT".equals(method) && request.getQuery("comp") == null) {
+            if (container != null) {
+                request.respondError(409, "ContainerAlreadyExists", "The specified container already exists.");
+                return;
+            }
+            container = new Container(nextEtag());
+            containers.put(key, container);
+            setContainerHeaders(request, container);
+            request.respondEmpty(201);
+            return;
+        }
+        if (container == null) {
+            request.respondError(404, "ContainerNotFound", "The specified container does not exist.");
+        } else if ("GET".equals(method) && "list".equals(request.getQuery("comp"))) {
+            listBlobs(request, container);
+        } else if ("DELETE".equals(method)) {
+            containers.remove(key);
+            request.respondEmpty(202);
+        } else {
+            // properties, metadata and access policy
+            setContainerHeaders(request, container);
+            request.respondEmpty(200);
+        }
+    }
+
+    private void setContainerHeaders(FakeExchange request, Container container) {
+        request.setHeader("ETag", container.etag);
+        request.setHeader("Last-Modified", formatHttpDate(container.lastModified));
+    }
+
+    private void listBlobs(FakeExchange request, Container container) throws IOException {
+        String prefix = request.getQuery("prefix");
+        String include = request.getQuery("include");
+        boolean includeMetadata = include != null && include.contains("metadata");
+        StringBuilder xml = new StringBuilder("<EnumerationResults>").append(element("Prefix", prefix)).append("<Blobs>");
+        for (Map.Entry<String, Blob> entry : container.blobs.entrySet()) {
+            Blob blob = entry.getValue();
+            if (blob.committed == null || prefix != null && !entry.getKey().startsWith(prefix)) {
+                continue;
+            }
+            xml.append("<Blob>").append(element("Name", entry.getKey())).append("<Properties>")
+                    .append(element("Last-Modified", formatHttpDate(blob.lastModified)))
+                    .append(element("Etag", blob.etag))
+                    .append(element("Content-Length", blob.getLength()))
+                    .append(element("Content-Type", blob.contentType))
+                    .append("<BlobType>BlockBlob</BlobType><LeaseStatus>unlocked</LeaseStatus><LeaseState>available</LeaseState>");
+            if (blob.copyId != null) {
+                xml.append(element("CopyId", blob.copyId)).append(element("CopyStatus", "success"))
+                        .append(element("CopySource", blob.copySource))
+                        .append(element("CopyProgress", blob.getLength() + "/" + blob.getLength()))
+                        .append(element("CopyCompletionTime", formatHttpDate(blob.lastModified)));
+            }
+            xml.append("</Properties>");
+            if (includeMetadata) {
+                xml.append("<Metadata>");
+                for (Map.Entry<String, String> metadata : blob.metadata.entrySet()) {
+                    xml.append(element(metadata.getKey(), metadata.getValue()));
+                }
+                xml.append("</Metadata>");
+            }
+            xml.append("</Blob>");
+        }
+        xml.append("</Blobs><NextMarker /></EnumerationResults>");
+        request.respond(200, xml.toString());
+    }
+
+    private void handleBlob(FakeExchange request, Container container, String name) throws Exception {
+        String method = request.getMethod();
+        String comp = request.getQuery("comp");
+        Blob blob = container.blobs.get(name);
+        if ("PUT".equals(method) && "block".equals(comp)) {
+            if (blob == null) {
+                blob = new Blob();
+                container.blobs.put(name, blob);
+            }
+            blob.uncommitted.put(request.getQuery("blockid"), request.getBody());
+            request.respondEmpty(201);
+        } else if ("PUT".equals(method) && "blocklist".equals(comp)) {
+            commitBlockList(request, container, name, blob);
+        } else if ("PUT".equals(method) && comp == null && request.getHeader("x-ms-copy-source") != null) {
+            copyBlob(request, container, name);
+        } else if ("PUT".equals(method) && comp == null) {
+            blob = new Blob();
+            blob.committed = new ArrayList<Block>();
+            blob.committed.add(new Block(null, request.getBody()));
+            container.blobs.put(name, blob);
+            updateProperties(request, blob);
+            setBlobHeaders(request, blob);
+            request.respondEmpty(201);
+        } else if (blob == null || blob.committed == null && !"blocklist".equals(comp)) {
+            if ("HEAD".equals(method)) {
+                request.respondEmpty(404);
+            } else {
+                request.respondError(404, "BlobNotFound", "The specified blob does not exist.");
+            }
+        } else if ("GET".equals(method) && "blocklist".equals(comp)) {
+            listBlocks(request, blob);
+        } else if ("PUT".equals(method) && "metadata".equals(comp)) {
+            blob.metadata = request.getHeaders("x-ms-meta-");
+            touch(blob);
+            setBlobHeaders(request, blob);
+            request.respondEmpty(200);
+        } else if ("PUT".equals(method)) {
+            // properties, lease and snapshot are accepted without effect
+            setBlobHeaders(request, blob);
+            request.respondEmpty(200);
+        } else if ("DELETE".equals(method)) {
+            container.blobs.remove(name);
+            request.respondEmpty(202);
+        } else if ("HEAD".equals(method)) {
+            setBlobHeaders(request, blob);
+            request.setHeader("Content-Length", String.valueOf(blob.getLength()));
+            request.respondEmpty(200);
+        } else {
+            downloadBlob(request, blob);
+        }
+    }
+
+    private void commitBlockList(FakeExchange request, Container container, String name, Blob blob) throws Exception {
+        Map<String, byte[]> uncommitted = blob == null ? Collections.<String, byte[]>emptyMap() : blob.uncommitted;
+        Map<String, byte[]> committed = new HashMap<String, byte[]>();
+        if (blob != null && blob.committed != null) {
+            for (Block block : blob.committed) {
+                committed.put(block.id, block.data);
+            }
+        }
+        List<Block> blocks = new ArrayList<Block>();
+        NodeList entries = request.getXmlBody().getDocumentElement().getChildNodes();
+        for (int i = 0; i < entries.getLength(); i++) {
+            Node entry = entries.item(i);
+            if (entry.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            String id = entry.getTextContent().trim();
+            String list = entry.getLocalName();
+            byte[] data = null;
+            if (!"Committed".equals(list)) {
+                data = uncommitted.get(id);
+            }
+            if (data == null && !"Uncommitted".equals(list)) {
+                data = committed.get(id);
+            }
+            if (data == null) {
+                request.respondError(400, "InvalidBlockList", "The specified block list is invalid.");
+                return;
+            }
+            blocks.add(new Block(id, data));
+        }
+        if (blob == null) {
+            blob = new Blob();
+            container.blobs.put(name, blob);
+        }
+        blob.committed = blocks;
+        blob.uncommitted.clear();
+        blob.copyId = null;
+        blob.copySource = null;
+        updateProperties(request, blob);
+        setBlobHeaders(request, blob);
+        request.respondEmpty(201);
+    }
+
+    private void listBlocks(FakeExchange request, Blob blob) throws IOException {
+        String type = request.getQuery("blocklisttype") == null ? "committed" : request.getQuery("blocklisttype").toLowerCase(Locale.ENGLISH);
+        StringBuilder xml = new StringBuilder("<BlockList><CommittedBlocks>");
+        if (blob.committed != null && !"uncommitted".equals(type)) {
+            for (Block block : blob.committed) {
+                if (block.id != null) {
+                    xml.append("<Block>").append(element("Name", block.id)).append(element("Size", block.data.length)).append("</Block>");
+                }
+            }
+        }
+        xml.append("</CommittedBlocks><UncommittedBlocks>");
+        if ("uncommitted".equals(type) || "all".equals(type)) {
+            for (Map.Entry<String, byte[]> block : blob.uncommitted.entrySet()) {
+                xml.append("<Block>").append(element("Name", block.getKey())).append(element("Size", block.getValue().length)).append("</Block>");
+            }
+        }
+        xml.append("</UncommittedBlocks></BlockList>");
+        if (blob.committed != null) {
+            request.setHeader("ETag", blob.etag);
+            request.setHeader("Last-Modified", formatHttpDate(blob.lastModified));
+            request.setHeader("x-ms-blob-content-length", String.valueOf(blob.getLength()));
+        }
+        request.respond(200, xml.toString());
+    }
+
+    private void copyBlob(FakeExchange request, Container container, String name) throws Exception {
+        String source = request.getHeader("x-ms-copy-source");
+        List<String> path = new ArrayList<String>();
+        for (String segment : new URI(source).getPath().split("/")) {
+            if (!segment.isEmpty()) {
+                path.add(segment);
+            }
+        }
+        Container sourceContainer = path.size() < 3 ? null : containers.get(path.get(0) + "/" + path.get(1));
+        StringBuilder sourceName = new StringBuilder();
+        for (String segment : path.subList(Math.min(2, path.size()), path.size())) {
+            sourceName.append(sourceName.length() == 0 ? "" : "/").append(segment);
+        }
+        Blob sourceBlob = sourceContainer == null ? null : sourceContainer.blobs.get(sourceName.toString());
+        if (sourceBlob == null || sourceBlob.committed == null) {
+            request.respondError(404, "CannotVerifyCopySource", "The specified blob does not exist.");
+            return;
+        }
+        Blob blob = new Blob();
+        blob.committed = new ArrayList<Block>(sourceBlob.committed);
+        blob.contentType = sourceBlob.contentType;
+        Map<String, String> metadata = request.getHeaders("x-ms-meta-");
+        blob.metadata = metadata.isEmpty() ? new TreeMap<String, String>(sourceBlob.metadata) : metadata;
+        blob.copyId = UUID.randomUUID().toString();
+        blob.copySource = source.indexOf('?') < 0 ? source : source.substring(0, source.indexOf('?'));
+        touch(blob);
+        container.blobs.put(name, blob);
+        request.setHeader("ETag", blob.etag);
+        request.setHeader("Last-Modified", formatHttpDate(blob.lastModified));
+        request.setHeader("x-ms-copy-id", blob.copyId);
+        request.setHeader("x-ms-copy-status", "success");
+        request.respondEmpty(202);
+    }
+
+    private void downloadBlob(FakeExchange request, Blob blob) throws IOException {
+        byte[] content = blob.getContent();
+        int start = 0;
+        int end = content.length - 1;
+        String range = request.getHeader("x-ms-range") != null ? request.getHeader("x-ms-range") : request.getHeader("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            String[] bounds = range.substring("bytes=".length()).split("-", 2);
+            start = Integer.parseInt(bounds[0].trim());
+            if (bounds.length > 1 && !bounds[1].trim().isEmpty()) {
+                end = Math.min(end, Integer.parseInt(bounds[1].trim()));
+            }
+            if (start >= content.length) {
+                request.respondError(416, "InvalidRange", "The range specified is invalid for the current size of the resource.");
+                return;
+            }
+            request.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+        }
+        setBlobHeaders(request, blob);
+        request.respond(range == null ? 200 : 206, Arrays.copyOfRange(content, start, end + 1));
+    }
+
+    private void updateProperties(FakeExchange request, Blob blob) {
+        blob.metadata = request.getHeaders("x-ms-meta-");
+        String contentType = request.getHeader("x-ms-blob-content-type");
+        if (contentType == null && request.getHeader("x-ms-blob-type") != null) {
+            contentType = request.getHeader("Content-Type");
+        }
+        blob.contentType = contentType == null ? "application/octet-stream" : contentType;
+        touch(blob);
+    }
+
+    private void setBlobHeaders(FakeExchange request, Blob blob) {
+        request.setHeader("ETag", blob.etag);
+        request.setHeader("Last-Modified", formatHttpDate(blob.lastModified));
+        request.setHeader("x-ms-blob-type", "BlockBlob");
+        request.setHeader("x-ms-lease-status", "unlocked");
+        request.setHeader("x-ms-lease-state", "available");
+        request.setHeader("Accept-Ranges", "bytes");
+        request.setHeader("Content-Type", blob.contentType);
+        for (Map.Entry<String, String> metadata : blob.metadata.entrySet()) {
+            request.setHeader("x-ms-meta-" + metadata.getKey(), metadata.getValue());
+        }
+        if (blob.copyId != null) {
+            request.setHeader("x-ms-copy-id", blob.copyId);
+            request.setHeader("x-ms-copy-source", blob.copySource);
+            request.setHeader("x-ms-copy-status", "success");
+            request.setHeader("x-ms-copy-progress", blob.getLength() + "/" + blob.getLength());
+            request.setHeader("x-ms-copy-completion-time", formatHttpDate(blob.lastModified));
+        }
+    }
+
+    private void touch(Blob blob) {
+        blob.etag = nextEtag();
+        blob.lastModified = System.currentTimeMillis();
+    }
+
+    private String nextEtag() {
+        return "\"0x" + Long.toHexString(++etagCounter).toUpperCase(Locale.ENGLISH) + "\"";
+    }
+
+    /**
+     * @return total size of committed blobs, to check what a benchmark uploaded
+     */
+    synchronized long getStoredBytes() {
+        long bytes = 0;
+        for (Container container : containers.values()) {
+            for (Blob blob : container.blobs.values()) {
+                bytes += blob.committed == null ? 0 : blob.getLength();
+            }
+        }
+        return bytes;
+    }
+
+    private static class Container {
+        private final Map<String, Blob> blobs = new TreeMap<String, Blob>();
+        private final String etag;
+        private final long lastModified = System.currentTimeMillis();
+
+        private Container(String etag) {
+            this.etag = etag;
+        }
+    }
+
+    private static class Blob {
+        private final Map<String, byte[]> uncommitted = new LinkedHashMap<String, byte[]>();
+        // null until first commit, blob with uncommitted blocks only does not exist
+        private List<Block> committed;
+        private Map<String, String> metadata = new TreeMap<String, String>();
+        private String contentType = "application/octet-stream";
+        private String etag;
+        private long lastModified;
+        private String copyId;
+        private String copySource;
+
+        private long getLength() {
+            long length = 0;
+            for (Block block : committed) {
+                length += block.data.length;
+            }
+            return length;
+        }
+
+        private byte[] getContent() {
+            byte[] content = new byte[(int) getLength()];
+            int offset = 0;
+            for (Block block : committed) {
+                System.arraycopy(block.data, 0, content, offset, block.data.length);
+                offset += block.data.length;
+            }
+            return content;
+        }
+    }
+
+    private static class Block {
+        private final String id;
+        private final byte[] data;
+
+        private Block(String id, byte[] data) {
+            this.id = id;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.rest;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Request to {@link FakeAzureServer} with helpers to read it and to send Azure style responses.
+ */
+class FakeExchange {
+    static final String AZURE_NAMESPACE = "http://schemas.microsoft.com/windowsazure";
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"utf-8\"?>";
+
+    private final HttpExchange exchange;
+    private final String requestId;
+    private final List<String> segments = new ArrayList<String>();
+    private final Map<String, String> query = new HashMap<String, String>();
+    private byte[] body;
+
+    FakeExchange(HttpExchange exchange, String requestId) throws IOException {
+        this.exchange = exchange;
+        this.requestId = requestId;
+        for (String segment : exchange.getRequestURI().getRawPath().split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(URLDecoder.decode(segment, "UTF-8"));
+            }
+        }
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                int separator = parameter.indexOf('=');
+                String name = separator < 0 ? parameter : parameter.substring(0, separator);
+                String value = separator < 0 ? "" : URLDecoder.decode(parameter.substring(separator + 1), "UTF-8");
+                query.put(name.toLowerCase(Locale.ENGLISH), value);
+            }
+        }
+    }
+
+    String getMethod() {
+        return exchange.getRequestMethod();
+    }
+
+    String getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * @return decoded path segments, empty ones skipped
+     */
+    List<String> getSegments() {
+        return segments;
+    }
+
+    String getSegment(int index) {
+        return index < segments.size() ? segments.get(index) : null;
+    }
+
+    String getQuery(String name) {
+        return query.get(name);
+    }
+
+    String getHeader(String name) {
+        return exchange.getRequestHeaders().getFirst(name);
+    }
+
+    /**
+     * @return headers whose names start with given prefix, keyed by lower case name without the prefix
+     */
+    Map<String, String> getHeaders(String prefix) {
+        Map<String, String> headers = new TreeMap<String, String>();
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ENGLISH);
+            if (name.startsWith(prefix) && !header.getValue().isEmpty()) {
+                headers.put(name.substring(prefix.length()), header.getValue().get(0));
+            }
+        }
+        return headers;
+    }
+
+    byte[] getBody() throws IOException {
+        if (body == null) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            InputStream input = exchange.getRequestBody();
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            body = output.toByteArray();
+        }
+        return body;
+    }
+
+    Document getXmlBody() throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(getBody()));
+    }
+
+    void setHeader(String name, String value) {
+        exchange.getResponseHeaders().set(name, value);
+    }
+
+    void respond(int status, String xml) throws IOException {
+        setHeader("Content-Type", "application/xml; charset=utf-8");
+        respond(status, (XML_DECLARATION + xml).getBytes("UTF-8"));
+    }
+
+    void respond(int status, byte[] content) throws IOException {
+        if ("HEAD".equals(getMethod())) {
+            respondEmpty(status);
+            return;
+        }
+        exchange.sendResponseHeaders(status, content.length == 0 ? -1 : content.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(content);
+        output.close();
+    }
+
+    void respondEmpty(int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    void respondError(int status, String code, String message) throws IOException {
+        respond(status, "<Error xmlns=\"" + AZURE_NAMESPACE + "\"><Code>" + code + "</Code><Message>"
+                + escape(message) + "</Message></Error>");
+    }
+
+    static String escape(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    static String element(String name, Object value) {
+        return value == null ? "" : "<" + name + ">" + escape(value.toString()) + "</" + name + ">";
+    }
+
+    /**
+     * @return text of child element of the document root with given local name, null if there is none
+     */
+    static String getText(Document document, String localName) {
+        for (Node child = document.getDocumentElement().getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && localName.equals(child.getLocalName())) {
+                return child.getTextContent().trim();
+            }
+        }
+        return null;
+    }
+
+    static String formatIsoDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(millis));
+    }
+
+    static String formatHttpDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+}
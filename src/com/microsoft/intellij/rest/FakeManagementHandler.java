@@ -0,0 +1,593 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.rest;
+
+import com.microsoftopentechnologies.azuremanagementutil.util.Base64;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.util.*;
+
+import static com.microsoft.intellij.rest.FakeExchange.AZURE_NAMESPACE;
+import static com.microsoft.intellij.rest.FakeExchange.element;
+import static com.microsoft.intellij.rest.FakeExchange.formatIsoDate;
+import static com.microsoft.intellij.rest.FakeExchange.getText;
+
+/**
+ * Service Management part of {@link FakeAzureServer}: subscription, locations, cloud services with their
+ * deployments and certificates, storage accounts and status of asynchronous operations.
+ * <p/>
+ * Asynchronous operations take effect at once and are reported in progress for the operation delay.
+ * Role instances of a new or upgraded deployment go through the usual start states for the role start delay.
+ */
+class FakeManagementHandler {
+    private static final String[] LOCATIONS = {"East US", "West US", "North Europe", "West Europe", "East Asia", "Southeast Asia"};
+    private static final String[] START_STATES = {"CreatingVM", "StartingVM", "StartingRole"};
+    private static final String PRODUCTION = "Production";
+
+    private final String subscriptionId;
+    private final Map<String, CloudService> services = new TreeMap<String, CloudService>();
+    private final Map<String, StorageAccount> storageAccounts = new TreeMap<String, StorageAccount>();
+    private final Map<String, Long> operations = new HashMap<String, Long>();
+    private final Random random = new Random();
+    private String baseUrl = "";
+    private long operationDelay;
+    private long roleStartDelay = 3000;
+
+    FakeManagementHandler(String subscriptionId) {
+        this.subscriptionId = subscriptionId;
+    }
+
+    synchronized void setBaseUrl(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    synchronized long getOperationDelay() {
+        return operationDelay;
+    }
+
+    synchronized void setOperationDelay(long operationDelay) {
+        this.operationDelay = Math.max(0, operationDelay);
+    }
+
+    synchronized long getRoleStartDelay() {
+        return roleStartDelay;
+    }
+
+    synchronized void setRoleStartDelay(long roleStartDelay) {
+        this.roleStartDelay = Math.max(0, roleStartDelay);
+    }
+
+    synchronized void populate(int serviceCount, int storageAccountCount) {
+        for (int i = 1; i <= serviceCount; i++) {
+            CloudService service = new CloudService("fakeservice" + i, LOCATIONS[i % LOCATIONS.length]);
+            String configuration = "<ServiceConfiguration serviceName=\"" + service.name + "\" "
+                    + "xmlns=\"http://schemas.microsoft.com/ServiceHosting/2008/10/ServiceConfiguration\">"
+                    + "<Role name=\"WorkerRole1\"><Instances count=\"1\" /></Role></ServiceConfiguration>";
+            Deployment deployment = new Deployment(service.name, service.name, PRODUCTION, encode(service.name), encode(configuration));
+            deployment.readyAt = 0;
+            service.deployments.put(PRODUCTION, deployment);
+            services.put(service.name, service);
+        }
+        for (int i = 1; i <= storageAccountCount; i++) {
+            StorageAccount account = new StorageAccount("fakestorage" + i, LOCATIONS[i % LOCATIONS.length]);
+            storageAccounts.put(account.name, account);
+        }
+    }
+
+    void handle(FakeExchange request) throws Exception {
+        if (!"GET".equals(request.getMethod())) {
+            request.getBody();
+        }
+        synchronized (this) {
+            List<String> path = request.getSegments().subList(1, request.getSegments().size());
+            String method = request.getMethod();
+            if (path.isEmpty() && "GET".equals(method)) {
+                getSubscription(request);
+            } else if (matches(path, "locations") && "GET".equals(method)) {
+                listLocations(request);
+            } else if (matches(path, "affinitygroups") && "GET".equals(method)) {
+                request.respond(200, "<AffinityGroups xmlns=\"" + AZURE_NAMESPACE + "\" />");
+            } else if (matches(path, "operations", null) && "GET".equals(method)) {
+                getOperationStatus(request, path.get(1));
+            } else if (matches(path, "services", "hostedservices", "operations", "isavailable", null)) {
+                checkNameAvailability(request, !services.containsKey(path.get(4)));
+            } else if (matches(path, "services", "storageservices", "operations", "isavailable", null)) {
+                checkNameAvailability(request, !storageAccounts.containsKey(path.get(4)));
+            } else if (path.size() >= 2 && path.get(0).equals("services") && path.get(1).equals("hostedservices")) {
+                handleCloudServices(request, path.subList(2, path.size()));
+            } else if (path.size() >= 2 && path.get(0).equals("services") && path.get(1).equals("storageservices")) {
+                handleStorageAccounts(request, path.subList(2, path.size()));
+            } else {
+                notFound(request, "The requested operation is not supported by fake Azure.");
+            }
+        }
+    }
+
+    /**
+     * @param pattern path segments, null matches any segment
+     */
+    private static boolean matches(List<String> path, String... pattern) {
+        if (path.size() != pattern.length) {
+            return false;
+        }
+        for (int i = 0; i < pattern.length; i++) {
+            if (pattern[i] != null && !pattern[i].equalsIgnoreCase(path.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void getSubscription(FakeExchange request) throws IOException {
+        int cores = 0;
+        for (CloudService service : services.values()) {
+            for (Deployment deployment : service.deployments.values()) {
+                cores += deployment.getInstanceCount();
+            }
+        }
+        request.respond(200, "<Subscription xmlns=\"" + AZURE_NAMESPACE + "\">"
+                + element("SubscriptionID", subscriptionId)
+                + element("SubscriptionName", "Fake Azure")
+                + element("SubscriptionStatus", "Active")
+                + element("AccountAdminLiveEmailId", "admin@example.com")
+                + element("ServiceAdminLiveEmailId", "admin@example.com")
+                + element("MaxCoreCount", Math.max(20, cores))
+                + element("MaxStorageAccounts", Math.max(100, storageAccounts.size()))
+                + element("MaxHostedServices", Math.max(20, services.size()))
+                + element("CurrentCoreCount", cores)
+                + element("CurrentStorageAccounts", storageAccounts.size())
+                + element("CurrentHostedServices", services.size())
+                + "</Subscription>");
+    }
+
+    private void listLocations(FakeExchange request) throws IOException {
+        StringBuilder xml = new StringBuilder("<Locations xmlns=\"").append(AZURE_NAMESPACE).append("\">");
+        for (String location : LOCATIONS) {
+            xml.append("<Location>").append(element("Name", location)).append(element("DisplayName", location))
+                    .append("<AvailableServices><AvailableService>Compute</AvailableService>")
+                    .append("<AvailableService>Storage</AvailableService></AvailableServices></Location>");
+        }
+        request.respond(200, xml.append("</Locations>").toString());
+    }
+
+    private void getOperationStatus(FakeExchange request, String operationId) throws IOException {
+        Long completedAt = operations.get(operationId);
+        if (completedAt == null) {
+            notFound(request, "The operation request ID was not found.");
+            return;
+        }
+        boolean completed = System.currentTimeMillis() >= completedAt;
+        request.respond(200, "<Operation xmlns=\"" + AZURE_NAMESPACE + "\">"
+                + element("ID", operationId)
+                + element("Status", completed ? "Succeeded" : "InProgress")
+                + (completed ? element("HttpStatusCode", 200) : "")
+                + "</Operation>");
+    }
+
+    private void checkNameAvailability(FakeExchange request, boolean available) throws IOException {
+        request.respond(200, "<AvailabilityResponse xmlns=\"" + AZURE_NAMESPACE + "\">"
+                + element("Result", available)
+                + (available ? "" : element("Reason", "The name is already in use."))
+                + "</AvailabilityResponse>");
+    }
+
+    private void handleCloudServices(FakeExchange request, List<String> path) throws Exception {
+        String method = request.getMethod();
+        if (path.isEmpty()) {
+            if ("POST".equals(method)) {
+                createCloudService(request);
+            } else {
+                StringBuilder xml = new StringBuilder("<HostedServices xmlns=\"").append(AZURE_NAMESPACE).append("\">");
+                for (CloudService service : services.values()) {
+                    xml.append(toXml(service, false));
+                }
+                request.respond(200, xml.append("</HostedServices>").toString());
+            }
+            return;
+        }
+        CloudService service = services.get(path.get(0));
+        if (service == null) {
+            notFound(request, "The hosted service does not exist.");
+        } else if (path.size() == 1 && "DELETE".equals(method)) {
+            services.remove(service.name);
+            request.respondEmpty(200);
+        } else if (path.size() == 1) {
+            request.respond(200, toXml(service, "true".equals(request.getQuery("embed-detail"))));
+        } else if (matches(path, null, "certificates")) {
+            handleCertificates(request, service);
+        } else if (matches(path, null, "deploymentslots", null)) {
+            handleDeployment(request, service, service.deployments.get(normalizeSlot(path.get(2))), normalizeSlot(path.get(2)));
+        } else if (matches(path, null, "deployments", null)) {
+            Deployment deployment = null;
+            for (Deployment candidate : service.deployments.values()) {
+                if (candidate.name.equals(path.get(2))) {
+                    deployment = candidate;
+                }
+            }
+            handleDeployment(request, service, deployment, deployment == null ? null : deployment.slot);
+        } else {
+            notFound(request, "The requested operation is not supported by fake Azure.");
+        }
+    }
+
+    private void createCloudService(FakeExchange request) throws Exception {
+        Document body = request.getXmlBody();
+        String name = getText(body, "ServiceName");
+        if (services.containsKey(name)) {
+            request.respondError(409, "ConflictError", "The specified DNS name is already taken.");
+            return;
+        }
+        String location = getText(body, "Location");
+        CloudService service = new CloudService(name, location == null ? LOCATIONS[0] : location);
+        service.label = getText(body, "Label");
+        service.description = getText(body, "Description");
+        services.put(name, service);
+        request.setHeader("Location", baseUrl + "/" + subscriptionId + "/services/hostedservices/" + name);
+        request.respondEmpty(201);
+    }
+
+    private String toXml(CloudService service, boolean withDeployments) {
+        StringBuilder xml = new StringBuilder("<HostedService").append(withDeployments ? " xmlns=\"" + AZURE_NAMESPACE + "\"" : "").append(">")
+                .append(element("Url", baseUrl + "/" + subscriptionId + "/services/hostedservices/" + service.name))
+                .append(element("ServiceName", service.name))
+                .append("<HostedServiceProperties>")
+                .append(element("Description", service.description))
+                .append(element("Location", service.location))
+                .append(element("Label", service.label))
+                .append(element("Status", "Created"))
+                .append(element("DateCreated", formatIsoDate(service.created)))
+                .append(element("DateLastModified", formatIsoDate(service.created)))
+                .append("</HostedServiceProperties>");
+        if (withDeployments) {
+            xml.append("<Deployments>");
+            for (Deployment deployment : service.deployments.values()) {
+                xml.append(toXml(deployment, false));
+            }
+            xml.append("</Deployments>");
+        }
+        return xml.append("</HostedService>").toString();
+    }
+
+    private void handleDeployment(FakeExchange request, CloudService service, Deployment deployment, String slot) throws Exception {
+        String method = request.getMethod();
+        String comp = request.getQuery("comp");
+        if ("POST".equals(method) && comp == null) {
+            createDeployment(request, service, slot);
+        } else if (deployment == null) {
+            notFound(request, "No deployments were found.");
+        } else if ("GET".equals(method)) {
+            request.respond(200, toXml(deployment, true));
+        } else if ("DELETE".equals(method)) {
+            service.deployments.remove(deployment.slot);
+            accepted(request);
+        } else if ("POST".equals(method) && "status".equals(comp)) {
+            deployment.running = "Running".equals(getText(request.getXmlBody(), "Status"));
+            deployment.readyAt = deployment.running ? System.currentTimeMillis() + roleStartDelay : 0;
+            accepted(request);
+        } else if ("POST".equals(method) && "upgrade".equals(comp)) {
+            Document body = request.getXmlBody();
+            deployment.configuration = getText(body, "Configuration");
+            deployment.label = getText(body, "Label");
+            deployment.readyAt = System.currentTimeMillis() + roleStartDelay;
+            accepted(request);
+        } else {
+            notFound(request, "The requested operation is not supported by fake Azure.");
+        }
+    }
+
+    private void createDeployment(FakeExchange request, CloudService service, String slot) throws Exception {
+        if (slot == null) {
+            notFound(request, "No deployments were found.");
+            return;
+        }
+        if (service.deployments.containsKey(slot)) {
+            request.respondError(409, "ConflictError", "There is already a deployment in the " + slot + " slot.");
+            return;
+        }
+        Document body = request.getXmlBody();
+        Deployment deployment = new Deployment(service.name, getText(body, "Name"), slot, getText(body, "Label"),
+                getText(body, "Configuration"));
+        deployment.running = "true".equalsIgnoreCase(getText(body, "StartDeployment"));
+        deployment.readyAt = System.currentTimeMillis() + roleStartDelay;
+        service.deployments.put(slot, deployment);
+        accepted(request);
+    }
+
+    private String toXml(Deployment deployment, boolean root) {
+        long now = System.currentTimeMillis();
+        boolean starting = deployment.running && now < deployment.readyAt;
+        StringBuilder xml = new StringBuilder("<Deployment").append(root ? " xmlns=\"" + AZURE_NAMESPACE + "\"" : "").append(">")
+                .append(element("Name", deployment.name))
+                .append(element("DeploymentSlot", deployment.slot))
+                .append(element("PrivateID", deployment.privateId))
+                .append(element("Status", starting ? "RunningTransitioning" : deployment.running ? "Running" : "Suspended"))
+                .append(element("Label", deployment.label))
+                .append(element("Url", "http://" + (PRODUCTION.equals(deployment.slot) ? deployment.service : deployment.privateId) + ".cloudapp.net/"))
+                .append(element("Configuration", deployment.configuration))
+                .append("<RoleInstanceList>");
+        String instanceStatus = "ReadyRole";
+        if (!deployment.running) {
+            instanceStatus = "StoppedVM";
+        } else if (starting) {
+            // start states take equal parts of role start delay
+            long elapsed = roleStartDelay - (deployment.readyAt - now);
+            instanceStatus = START_STATES[(int) Math.min(START_STATES.length - 1, elapsed * START_STATES.length / Math.max(1, roleStartDelay))];
+        }
+        for (Map.Entry<String, Integer> role : deployment.getRoles().entrySet()) {
+            for (int i = 0; i < role.getValue(); i++) {
+                xml.append("<RoleInstance>")
+                        .append(element("RoleName", role.getKey()))
+                        .append(element("InstanceName", role.getKey() + "_IN_" + i))
+                        .append(element("InstanceStatus", instanceStatus))
+                        .append(element("InstanceUpgradeDomain", i))
+                        .append(element("InstanceFaultDomain", i % 2))
+                        .append(element("InstanceSize", "Small"))
+                        .append(element("PowerState", !deployment.running ? "Stopped" : starting ? "Starting" : "Started"))
+                        .append("</RoleInstance>");
+            }
+        }
+        xml.append("</RoleInstanceList>")
+                .append(element("UpgradeDomainCount", 1))
+                .append(element("CreatedTime", formatIsoDate(deployment.created)))
+                .append(element("LastModifiedTime", formatIsoDate(deployment.created)));
+        return xml.append("</Deployment>").toString();
+    }
+
+    private void handleCertificates(FakeExchange request, CloudService service) throws Exception {
+        if ("POST".equals(request.getMethod())) {
+            Document body = request.getXmlBody();
+            String data = getText(body, "Data");
+            service.certificates.put(getThumbprint(data, getText(body, "Password")), data);
+            accepted(request);
+            return;
+        }
+        StringBuilder xml = new StringBuilder("<Certificates xmlns=\"").append(AZURE_NAMESPACE).append("\">");
+        for (String thumbprint : service.certificates.keySet()) {
+            xml.append("<Certificate>")
+                    .append(element("CertificateUrl", baseUrl + "/" + subscriptionId + "/services/hostedservices/"
+                            + service.name + "/certificates/sha1-" + thumbprint))
+                    .append(element("Thumbprint", thumbprint))
+                    .append(element("ThumbprintAlgorithm", "sha1"))
+                    .append("</Certificate>");
+        }
+        request.respond(200, xml.append("</Certificates>").toString());
+    }
+
+    /**
+     * @return thumbprint of certificate in uploaded PFX, or of the upload itself if it cannot be opened
+     */
+    private static String getThumbprint(String data, String password) throws Exception {
+        byte[] content = Base64.decode(data);
+        byte[] thumbprint = null;
+        try {
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(new ByteArrayInputStream(content), password == null ? new char[0] : password.toCharArray());
+            for (Enumeration<String> aliases = keyStore.aliases(); aliases.hasMoreElements() && thumbprint == null; ) {
+                Certificate certificate = keyStore.getCertificate(aliases.nextElement());
+                if (certificate != null) {
+                    thumbprint = MessageDigest.getInstance("SHA-1").digest(certificate.getEncoded());
+                }
+            }
+        } catch (Exception e) {
+            // not a PFX, for example a CER upload
+        }
+        if (thumbprint == null) {
+            thumbprint = MessageDigest.getInstance("SHA-1").digest(content);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : thumbprint) {
+            hex.append(String.format("%02X", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    private void handleStorageAccounts(FakeExchange request, List<String> path) throws Exception {
+        String method = request.getMethod();
+        if (path.isEmpty()) {
+            if ("POST".equals(method)) {
+                createStorageAccount(request);
+            } else {
+                StringBuilder xml = new StringBuilder("<StorageServices xmlns=\"").append(AZURE_NAMESPACE).append("\">");
+                for (StorageAccount account : storageAccounts.values()) {
+                    xml.append(toXml(account, false));
+                }
+                request.respond(200, xml.append("</StorageServices>").toString());
+            }
+            return;
+        }
+        StorageAccount account = storageAccounts.get(path.get(0));
+        if (account == null) {
+            notFound(request, "The storage account does not exist.");
+        } else if (path.size() == 1 && "DELETE".equals(method)) {
+            storageAccounts.remove(account.name);
+            request.respondEmpty(200);
+        } else if (path.size() == 1) {
+            request.respond(200, toXml(account, true));
+        } else if (matches(path, null, "keys")) {
+            request.respond(200, "<StorageService xmlns=\"" + AZURE_NAMESPACE + "\">"
+                    + element("Url", getUrl(account))
+                    + "<StorageServiceKeys>" + element("Primary", account.primaryKey) + element("Secondary", account.secondaryKey)
+                    + "</StorageServiceKeys></StorageService>");
+        } else {
+            notFound(request, "The requested operation is not supported by fake Azure.");
+        }
+    }
+
+    private void createStorageAccount(FakeExchange request) throws Exception {
+        Document body = request.getXmlBody();
+        String name = getText(body, "ServiceName");
+        if (storageAccounts.containsKey(name)) {
+            request.respondError(409, "ConflictError", "The storage account named " + name + " is already taken.");
+            return;
+        }
+        String location = getText(body, "Location");
+        StorageAccount account = new StorageAccount(name, location == null ? LOCATIONS[0] : location);
+        account.label = getText(body, "Label");
+        account.description = getText(body, "Description");
+        if (getText(body, "AccountType") != null) {
+            account.accountType = getText(body, "AccountType");
+        }
+        storageAccounts.put(name, account);
+        accepted(request);
+    }
+
+    private String toXml(StorageAccount account, boolean root) {
+        return "<StorageService" + (root ? " xmlns=\"" + AZURE_NAMESPACE + "\"" : "") + ">"
+                + element("Url", getUrl(account))
+                + element("ServiceName", account.name)
+                + "<StorageServiceProperties>"
+                + element("Description", account.description)
+                + element("Location", account.location)
+                + element("Label", account.label)
+                + element("Status", "Created")
+                + "<Endpoints>" + element("Endpoint", baseUrl + "/" + account.name + "/") + "</Endpoints>"
+                + element("AccountType", account.accountType)
+                + "</StorageServiceProperties></StorageService>";
+    }
+
+    private String getUrl(StorageAccount account) {
+        return baseUrl + "/" + subscriptionId + "/services/storageservices/" + account.name;
+    }
+
+    /**
+     * Responds to asynchronous operation, whose status is tracked under id of the request.
+     */
+    private void accepted(FakeExchange request) throws IOException {
+        operations.put(request.getRequestId(), System.currentTimeMillis() + operationDelay);
+        request.respondEmpty(202);
+    }
+
+    private static void notFound(FakeExchange request, String message) throws IOException {
+        request.respondError(404, "ResourceNotFound", message);
+    }
+
+    private static String normalizeSlot(String slot) {
+        if (PRODUCTION.equalsIgnoreCase(slot)) {
+            return PRODUCTION;
+        }
+        return "staging".equalsIgnoreCase(slot) ? "Staging" : null;
+    }
+
+    private static String encode(String text) {
+        try {
+            return Base64.encode(text.getBytes("UTF-8"));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String createKey() {
+        byte[] key = new byte[64];
+        random.nextBytes(key);
+        return Base64.encode(key);
+    }
+
+    private static class CloudService {
+        private final String name;
+        private final String location;
+        private final long created = System.currentTimeMillis();
+        private final Map<String, Deployment> deployments = new TreeMap<String, Deployment>();
+        private final Map<String, String> certificates = new TreeMap<String, String>();
+        private String label;
+        private String description;
+
+        private CloudService(String name, String location) {
+            this.name = name;
+            this.location = location;
+            this.label = encode(name);
+        }
+    }
+
+    private static class Deployment {
+        private final String service;
+        private final String slot;
+        private final String privateId = UUID.randomUUID().toString().replace("-", "");
+        private final long created = System.currentTimeMillis();
+        private final String name;
+        private String label;
+        private String configuration;
+        private boolean running = true;
+        private long readyAt;
+
+        private Deployment(String service, String name, String slot, String label, String configuration) {
+            this.service = service;
+            this.name = name;
+            this.slot = slot;
+            this.label = label;
+            this.configuration = configuration;
+        }
+
+        /**
+         * @return instance count of each role in service configuration
+         */
+        private Map<String, Integer> getRoles() {
+            Map<String, Integer> roles = new LinkedHashMap<String, Integer>();
+            try {
+                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                factory.setNamespaceAware(true);
+                Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(Base64.decode(configuration)));
+                NodeList roleElements = document.getElementsByTagNameNS("*", "Role");
+                for (int i = 0; i < roleElements.getLength(); i++) {
+                    Element role = (Element) roleElements.item(i);
+                    NodeList instances = role.getElementsByTagNameNS("*", "Instances");
+                    int count = instances.getLength() == 0 ? 1 : Integer.parseInt(((Element) instances.item(0)).getAttribute("count"));
+                    roles.put(role.getAttribute("name"), count);
+                }
+            } catch (Exception e) {
+                // configuration which cannot be read has no roles
+            }
+            return roles;
+        }
+
+        private int getInstanceCount() {
+            int count = 0;
+            for (int instances : getRoles().values()) {
+                count += instances;
+            }
+            return count;
+        }
+    }
+
+    private class StorageAccount {
+        private final String name;
+        private final String location;
+        private final String primaryKey = createKey();
+        private final String secondaryKey = createKey();
+        private String label;
+        private String description;
+        private String accountType = "Standard_GRS";
+
+        private StorageAccount(String name, String location) {
+            this.name = name;
+            this.location = location;
+            this.label = encode(name);
+        }
+    }
+}
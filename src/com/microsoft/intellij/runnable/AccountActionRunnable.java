@@ -42,6 +42,7 @@ public abstract class AccountActionRunnable implements Runnable, LoadingAccoutLi
     protected final AtomicBoolean error = new AtomicBoolean(false);
 
     private int numberOfAccounts = 1;
+    private double workDone;
     protected Exception exception;
     protected String errorMessage;
 
@@ -51,8 +52,8 @@ public abstract class AccountActionRunnable implements Runnable, LoadingAccoutLi
         this.data = data;
     }
 
-    public void setNumberOfAccounts(int num) {
-        this.numberOfAccounts = num;
+    public synchronized void setNumberOfAccounts(int num) {
+        this.numberOfAccounts = Math.max(1, num);
     }
 
     @Override
@@ -101,7 +102,12 @@ public abstract class AccountActionRunnable implements Runnable, LoadingAccoutLi
         errorMessage = e.getMessage();
     }
 
+    /**
+     * Accounts may be loaded in parallel, so fraction is computed from
+     * total work done rather than by incrementing current indicator value.
+     */
     private synchronized void setWorked(double work) {
-        progressIndicator.setFraction(progressIndicator.getFraction() + work);
+        workDone = Math.min(1.0, workDone + work);
+        progressIndicator.setFraction(workDone);
     }
 }
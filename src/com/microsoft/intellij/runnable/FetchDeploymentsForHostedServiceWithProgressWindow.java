@@ -22,32 +22,61 @@
 
 package com.microsoft.intellij.runnable;
 
+import com.microsoft.intellij.util.AzureExecutor;
 import com.microsoft.intellij.wizards.WizardCacheManager;
 import com.microsoft.windowsazure.management.compute.models.HostedServiceGetDetailedResponse;
 import com.microsoftopentechnologies.azurecommons.deploy.tasks.AccountCachingExceptionEvent;
 import com.microsoftopentechnologies.azurecommons.deploy.util.PublishData;
 
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 import static com.microsoft.intellij.AzurePlugin.log;
 import static com.microsoft.intellij.ui.messages.AzureBundle.message;
 
 public class FetchDeploymentsForHostedServiceWithProgressWindow extends AccountActionRunnable implements Runnable {
 
-    private String hostedServiceName;
-    private HostedServiceGetDetailedResponse hostedService;
+    private final List<String> hostedServiceNames;
+    private final Map<String, HostedServiceGetDetailedResponse> hostedServices = new LinkedHashMap<String, HostedServiceGetDetailedResponse>();
 
     public FetchDeploymentsForHostedServiceWithProgressWindow(PublishData data, String hostedServiceName) {
+        this(data, Collections.singletonList(hostedServiceName));
+    }
+
+    /**
+     * Fetches deployments of several cloud services in parallel.
+     */
+    public FetchDeploymentsForHostedServiceWithProgressWindow(PublishData data, List<String> hostedServiceNames) {
         super(data);
-        this.hostedServiceName = hostedServiceName;
+        this.hostedServiceNames = hostedServiceNames;
     }
 
     void setIndicatorText() {
-        progressIndicator.setText("Fetching Deployments For " + hostedServiceName);
+        progressIndicator.setText("Fetching Deployments For " + (hostedServiceNames.size() == 1
+                ? hostedServiceNames.get(0) : hostedServiceNames.size() + " Cloud Services"));
     }
 
     @Override
     public void doTask() {
+        Map<String, Future<HostedServiceGetDetailedResponse>> futures = new LinkedHashMap<String, Future<HostedServiceGetDetailedResponse>>();
+        for (final String hostedServiceName : hostedServiceNames) {
+            futures.put(hostedServiceName, AzureExecutor.getInstance().submit(new Callable<HostedServiceGetDetailedResponse>() {
+                @Override
+                public HostedServiceGetDetailedResponse call() throws Exception {
+                    return WizardCacheManager.getHostedServiceWithDeployments(hostedServiceName);
+                }
+            }));
+        }
         try {
-            this.hostedService = WizardCacheManager.getHostedServiceWithDeployments(hostedServiceName);
+            for (Map.Entry<String, Future<HostedServiceGetDetailedResponse>> future : futures.entrySet()) {
+                try {
+                    hostedServices.put(future.getKey(), future.getValue().get());
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
         } catch (Exception e) {
             AccountCachingExceptionEvent event = new AccountCachingExceptionEvent(this);
             event.setException(e);
@@ -58,6 +87,13 @@ public class FetchDeploymentsForHostedServiceWithProgressWindow extends AccountA
     }
 
     public HostedServiceGetDetailedResponse getHostedServiceDetailed() {
-        return hostedService;
+        return hostedServices.get(hostedServiceNames.get(0));
+    }
+
+    /**
+     * @return cloud services with deployments by name, in order of names given
+     */
+    public Map<String, HostedServiceGetDetailedResponse> getHostedServicesDetailed() {
+        return hostedServices;
     }
 }
@@ -39,8 +39,10 @@ import com.microsoft.applicationinsights.preference.ApplicationInsightsResource;
 import com.microsoft.applicationinsights.preference.ApplicationInsightsResourceRegistry;
 import com.microsoft.intellij.AzurePlugin;
 import com.microsoft.intellij.AzureSettings;
+import com.microsoft.intellij.util.AzureExecutor;
 import com.microsoft.intellij.util.MethodUtils;
 import com.microsoft.intellij.util.PluginUtil;
+import com.microsoft.intellij.util.RetryPolicy;
 import com.microsoftopentechnologies.auth.AuthenticationContext;
 import com.microsoftopentechnologies.auth.AuthenticationResult;
 import com.microsoftopentechnologies.auth.PromptValue;
@@ -51,6 +53,7 @@ import com.microsoft.applicationinsights.management.rest.client.RestOperationExc
 import org.apache.commons.lang.exception.ExceptionUtils;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 
 import javax.swing.*;
 import javax.swing.event.ListSelectionEvent;
@@ -59,8 +62,10 @@ import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableColumn;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class AppInsightsMngmtPanel implements AzureAbstractConfigurablePanel {
     private JPanel contentPane;
@@ -180,8 +185,6 @@ public class AppInsightsMngmtPanel implements AzureAbstractConfigurablePanel {
                                     ApplicationInsightsManagementClient client = new ApplicationInsightsManagementClient(
                                             result, userAgent, launcher);
                                     updateApplicationInsightsResourceRegistry(client);
-                                    ((InsightsTableModel) insightsTable.getModel()).setResources(getTableContent());
-                                    ((InsightsTableModel) insightsTable.getModel()).fireTableDataChanged();
                                 } else {
                                     AzurePlugin.log(message("signInErr") + message("noAuthErr"));
                                 }
@@ -201,62 +204,147 @@ public class AppInsightsMngmtPanel implements AzureAbstractConfigurablePanel {
         };
     }
 
+    /**
+     * Fetches resources of all subscriptions in parallel and reconciles registry with them
+     * on dispatch thread, in one step, so that table never shows partially updated registry.
+     */
     private void updateApplicationInsightsResourceRegistry(
-            ApplicationInsightsManagementClient client) throws IOException, RestOperationException {
-        List<Subscription> subList = client.getSubscriptions();
-        for (Subscription sub : subList) {
-            // fetch resources available for particular subscription
-            List<Resource> resourceList = client.getResources(sub.getId());
-
-            // Removal logic
-            List<ApplicationInsightsResource> registryList = ApplicationInsightsResourceRegistry.
-                    getResourceListAsPerSub(sub.getId());
-            List<ApplicationInsightsResource> importedList = ApplicationInsightsResourceRegistry.
-                    prepareAppResListFromRes(resourceList, sub);
-            List<String> inUsekeyList = MethodUtils.getInUseInstrumentationKeys(myProject);
-            for (ApplicationInsightsResource registryRes : registryList) {
-                if (!importedList.contains(registryRes)) {
-                    String key = registryRes.getInstrumentationKey();
-                    int index = ApplicationInsightsResourceRegistry.getResourceIndexAsPerKey(key);
-                    if (inUsekeyList.contains(key)) {
-						/*
-						 * key is used by project but not present in cloud,
-						 * so make it as manually added resource and not imported.
-						 */
-                        ApplicationInsightsResource resourceToAdd = new ApplicationInsightsResource(
-                                key, key, message("unknown"), message("unknown"),
-                                message("unknown"), message("unknown"), false);
-                        ApplicationInsightsResourceRegistry.getAppInsightsResrcList().set(index, resourceToAdd);
-                    } else {
-                        // key is not used by any project then delete it.
-                        ApplicationInsightsResourceRegistry.getAppInsightsResrcList().remove(index);
+            final ApplicationInsightsManagementClient client) throws IOException, RestOperationException {
+        List<Subscription> subList = callWithRetry(null, "getSubscriptions", new Callable<List<Subscription>>() {
+            @Override
+            public List<Subscription> call() throws Exception {
+                return client.getSubscriptions();
+            }
+        });
+        Map<Subscription, Future<List<Resource>>> futures = new LinkedHashMap<Subscription, Future<List<Resource>>>();
+        final Map<Subscription, List<Resource>> resourcesPerSub = new LinkedHashMap<Subscription, List<Resource>>();
+        try {
+            for (final Subscription sub : subList) {
+                // fetch resources available for particular subscription
+                futures.put(sub, AzureExecutor.getInstance().submit(new Callable<List<Resource>>() {
+                    @Override
+                    public List<Resource> call() throws Exception {
+                        return callWithRetry(sub.getId(), "getResources", new Callable<List<Resource>>() {
+                            @Override
+                            public List<Resource> call() throws Exception {
+                                return client.getResources(sub.getId());
+                            }
+                        });
                     }
-                }
+                }));
+            }
+            for (Map.Entry<Subscription, Future<List<Resource>>> future : futures.entrySet()) {
+                resourcesPerSub.put(future.getKey(), future.getValue().get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RestOperationException) {
+                throw (RestOperationException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } finally {
+            for (Future<List<Resource>> future : futures.values()) {
+                future.cancel(true);
+            }
+        }
+        final Set<String> inUseKeys = new HashSet<String>(MethodUtils.getInUseInstrumentationKeys(myProject));
+        ApplicationManager.getApplication().invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                List<ApplicationInsightsResource> list = ApplicationInsightsResourceRegistry.getAppInsightsResrcList();
+                List<ApplicationInsightsResource> reconciled = reconcile(list, resourcesPerSub, inUseKeys);
+                list.clear();
+                list.addAll(reconciled);
+                AzureSettings.getSafeInstance(myProject).saveAppInsights();
+                ((InsightsTableModel) insightsTable.getModel()).setResources(getTableContent());
+                ((InsightsTableModel) insightsTable.getModel()).fireTableDataChanged();
             }
+        }, ModalityState.any());
+    }
 
-            // Addition logic
-            List<ApplicationInsightsResource> list = ApplicationInsightsResourceRegistry.
-                    getAppInsightsResrcList();
-            for (Resource resource : resourceList) {
-                ApplicationInsightsResource resourceToAdd = new ApplicationInsightsResource(
-                        resource.getName(), resource.getInstrumentationKey(),
-                        sub.getName(), sub.getId(),
-                        resource.getLocation(), resource.getResourceGroup(), true);
-                if (list.contains(resourceToAdd)) {
-                    int index = ApplicationInsightsResourceRegistry.
-                            getResourceIndexAsPerKey(resource.getInstrumentationKey());
-                    ApplicationInsightsResource objectFromRegistry = list.get(index);
-                    if (!objectFromRegistry.isImported()) {
-                        ApplicationInsightsResourceRegistry.
-                                getAppInsightsResrcList().set(index, resourceToAdd);
-                    }
-                } else {
-                    ApplicationInsightsResourceRegistry.
-                            getAppInsightsResrcList().add(resourceToAdd);
+    /**
+     * Reads from Application Insights, retrying transient failures; used for reads only, creation is not repeated.
+     */
+    private static <T> T callWithRetry(String circuit, String operation, Callable<T> callable)
+            throws IOException, RestOperationException {
+        try {
+            return RetryPolicy.getDefault().call(circuit, operation, callable);
+        } catch (IOException e) {
+            throw e;
+        } catch (RestOperationException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reconciles registry resources with resources fetched from subscriptions in one pass, keeping registry order.
+     * Resources are matched by instrumentation key, as {@link ApplicationInsightsResource#equals} does.
+     *
+     * @param inUseKeys keys used by modules of the project
+     * @return new content of registry
+     */
+    private static List<ApplicationInsightsResource> reconcile(List<ApplicationInsightsResource> registryList,
+                                                               Map<Subscription, List<Resource>> resourcesPerSub,
+                                                               Set<String> inUseKeys) {
+        Map<String, ApplicationInsightsResource> importedResources = new LinkedHashMap<String, ApplicationInsightsResource>();
+        Set<String> fetchedSubIds = new HashSet<String>();
+        for (Map.Entry<Subscription, List<Resource>> entry : resourcesPerSub.entrySet()) {
+            Subscription sub = entry.getKey();
+            fetchedSubIds.add(sub.getId().toLowerCase());
+            for (Resource resource : entry.getValue()) {
+                if (!importedResources.containsKey(resource.getInstrumentationKey())) {
+                    importedResources.put(resource.getInstrumentationKey(), new ApplicationInsightsResource(
+                            resource.getName(), resource.getInstrumentationKey(),
+                            sub.getName(), sub.getId(),
+                            resource.getLocation(), resource.getResourceGroup(), true));
                 }
             }
         }
-        AzureSettings.getSafeInstance(myProject).saveAppInsights();
+        List<ApplicationInsightsResource> reconciled =
+                new ArrayList<ApplicationInsightsResource>(registryList.size() + importedResources.size());
+        Set<String> keys = new HashSet<String>();
+        for (ApplicationInsightsResource registryRes : registryList) {
+            String key = registryRes.getInstrumentationKey();
+            if (!keys.add(key)) {
+                continue;
+            }
+            ApplicationInsightsResource importedRes = importedResources.get(key);
+            if (importedRes != null) {
+                // manually added resource is replaced by imported one
+                reconciled.add(registryRes.isImported() ? registryRes : importedRes);
+            } else if (registryRes.getSubscriptionId() != null
+                    && fetchedSubIds.contains(registryRes.getSubscriptionId().toLowerCase())) {
+                if (inUseKeys.contains(key)) {
+                    /*
+                     * key is used by project but not present in cloud,
+                     * so make it as manually added resource and not imported.
+                     */
+                    reconciled.add(new ApplicationInsightsResource(
+                            key, key, message("unknown"), message("unknown"),
+                            message("unknown"), message("unknown"), false));
+                }
+                // key is not used by any project then delete it.
+            } else {
+                reconciled.add(registryRes);
+            }
+        }
+        for (ApplicationInsightsResource importedRes : importedResources.values()) {
+            if (keys.add(importedRes.getInstrumentationKey())) {
+                reconciled.add(importedRes);
+            }
+        }
+        return reconciled;
     }
 
     private ActionListener newButtonListener() {
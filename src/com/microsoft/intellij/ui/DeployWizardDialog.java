@@ -37,6 +37,7 @@ import com.microsoft.intellij.ui.util.UIUtils;
 import com.microsoft.intellij.ui.util.UIUtils.ElementWrapper;
 import com.microsoft.intellij.util.MethodUtils;
 import com.microsoft.intellij.util.PluginUtil;
+import com.microsoft.intellij.util.ProjectManagerCache;
 import com.microsoft.intellij.wizards.WizardCacheManager;
 import com.microsoft.windowsazure.management.compute.models.HostedServiceListResponse;
 import com.microsoftopentechnologies.azurecommons.deploy.util.PublishData;
@@ -70,6 +71,7 @@ public class DeployWizardDialog extends WindowsAzurePage {
     private JButton importButton;
     private JComboBox subscriptionCombo;
     private JXHyperlink subLink;
+    private JXHyperlink refreshLink;
     private JComboBox storageAccountCmb;
     private JButton newStorageAccountBtn;
     private JComboBox hostedServiceCombo;
@@ -84,17 +86,20 @@ public class DeployWizardDialog extends WindowsAzurePage {
     private JLabel userPasswordLbl;
     private JLabel confirmPasswordLbl;
     private JXHyperlink encLink;
+    private JXHyperlink fanOutLink;
 
     private final Module myModule;
     private PublishData publishData;
     private HostedService currentHostedService;
     private StorageService currentStorageAccount;
+    private List<HostedService> fanOutServices = new ArrayList<HostedService>();
     private WindowsAzurePackageType deployMode = WindowsAzurePackageType.CLOUD;
     private String defaultLocation;
     public ArrayList<String> newServices = new ArrayList<String>();
     private String deployFileName;
     private String deployConfigFileName;
     private WindowsAzureProjectManager waProjManager;
+    private final WizardCacheManager.PublishDataRefreshListener refreshListener = createRefreshListener();
 
     public DeployWizardDialog(Module module) {
         super(module.getProject());
@@ -110,6 +115,8 @@ public class DeployWizardDialog extends WindowsAzurePage {
         importButton.addActionListener(createImportSubscriptionAction());
         subscriptionCombo.addItemListener(createSubscriptionComboListener());
         subLink.setAction(createSubLinkAction());
+        refreshLink.setAction(createRefreshLinkAction());
+        WizardCacheManager.addPublishDataRefreshListener(refreshListener);
         UIUtils.populateSubscriptionCombo(subscriptionCombo);
         AzureSettings azureSettings = AzureSettings.getSafeInstance(myModule.getProject());
         if (!azureSettings.isSubscriptionLoaded()) {
@@ -130,6 +137,7 @@ public class DeployWizardDialog extends WindowsAzurePage {
         hostedServiceCombo.addItemListener(createHostedServiceComboListener());
         populateHostedServices();
         newHostedServiceBtn.addActionListener(createNewHostedServiceListener());
+        fanOutLink.setAction(createFanOutLinkAction());
 
         populateTargetOs();
 
@@ -144,6 +152,8 @@ public class DeployWizardDialog extends WindowsAzurePage {
         if (isSubPresent) {
             // load cached subscription, cloud service & storage account
             loadDefaultWizardValues();
+            // wizard shows snapshot, reload whatever has expired
+            WizardCacheManager.refreshPublishData(publishData, false);
         }
         loadDefaultRDPValues();
     }
@@ -222,6 +232,65 @@ public class DeployWizardDialog extends WindowsAzurePage {
         };
     }
 
+    private Action createRefreshLinkAction() {
+        return new AbstractAction(message("linkLblRefresh")) {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // reload cloud services, storage accounts and locations in background
+                WizardCacheManager.refreshPublishData(publishData, true);
+            }
+        };
+    }
+
+    private WizardCacheManager.PublishDataRefreshListener createRefreshListener() {
+        return new WizardCacheManager.PublishDataRefreshListener() {
+            @Override
+            public void onPublishDataRefreshed(PublishData previous, PublishData refreshed) {
+                if (previous != publishData) {
+                    return;
+                }
+                publishData = refreshed;
+                if (storageAccountCmb.isEnabled()) {
+                    // combo items are replaced, so restore selection by name
+                    String storageAccountName = currentStorageAccount == null ? null : currentStorageAccount.getServiceName();
+                    String hostedServiceName = currentHostedService == null ? null : currentHostedService.getServiceName();
+                    populateStorageAccounts();
+                    populateHostedServices();
+                    UIUtils.selectByText(storageAccountCmb, storageAccountName);
+                    UIUtils.selectByText(hostedServiceCombo, hostedServiceName);
+                }
+            }
+        };
+    }
+
+    private Action createFanOutLinkAction() {
+        return new AbstractAction(message("linkLblFanOut")) {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (publishData == null) {
+                    return;
+                }
+                List<HostedService> hostedServices = new ArrayList<HostedService>();
+                List<HostedService> subscriptionServices = publishData.getServicesPerSubscription().get(publishData.getCurrentSubscription().getId());
+                if (subscriptionServices != null) {
+                    for (HostedService hostedService : subscriptionServices) {
+                        if (currentHostedService == null || !hostedService.getServiceName().equals(currentHostedService.getServiceName())) {
+                            hostedServices.add(hostedService);
+                        }
+                    }
+                }
+                FanOutServicesPanel fanOutPanel = new FanOutServicesPanel(hostedServices, fanOutServices);
+                DefaultDialogWrapper fanOutDialog = new DefaultDialogWrapper(myModule.getProject(), fanOutPanel);
+                fanOutDialog.show();
+                if (fanOutDialog.isOK()) {
+                    fanOutServices = new ArrayList<HostedService>(fanOutPanel.getSelectedServices());
+                    fanOutLink.setText(fanOutServices.isEmpty() ? message("linkLblFanOut")
+                            : String.format(message("linkLblFanOutCount"), fanOutServices.size()));
+                }
+            }
+        };
+    }
+
     private Action createEncLinkAction() {
         return new AbstractAction(message("linkLblEnc")) {
             @Override
@@ -255,9 +324,7 @@ public class DeployWizardDialog extends WindowsAzurePage {
      */
     private void loadProject() {
         try {
-            String modulePath = PluginUtil.getModulePath(myModule);
-            File projectDir = new File(modulePath);
-            waProjManager = WindowsAzureProjectManager.load(projectDir);
+            waProjManager = ProjectManagerCache.getInstance(myModule.getProject()).getProjectManager(myModule);
         } catch (Exception e) {
             log(message("projLoadEr"), e);
         }
@@ -568,6 +635,12 @@ public class DeployWizardDialog extends WindowsAzurePage {
         }
     }
 
+    @Override
+    protected void dispose() {
+        WizardCacheManager.removePublishDataRefreshListener(refreshListener);
+        super.dispose();
+    }
+
     @Override
     protected JComponent createCenterPanel() {
         return contentPane;
@@ -660,6 +733,15 @@ public class DeployWizardDialog extends WindowsAzurePage {
         fireConfigurationEvent(new ConfigurationEventArgs(this,
                 ConfigurationEventArgs.HOSTED_SERVICE,
                 currentHostedService));
+
+        // selected cloud service may have been added to fan out before it was selected in combo
+        List<HostedService> fanOutTargets = new ArrayList<HostedService>();
+        for (HostedService fanOutService : fanOutServices) {
+            if (!fanOutService.getServiceName().equals(currentHostedService.getServiceName())) {
+                fanOutTargets.add(fanOutService);
+            }
+        }
+        WizardCacheManager.setFanOutHostedServices(fanOutTargets);
     }
 
     private String constructDeployFilePath(String fileName) {
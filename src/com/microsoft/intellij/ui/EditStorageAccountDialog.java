@@ -27,6 +27,7 @@ import com.intellij.openapi.ui.DialogWrapper;
 import com.intellij.openapi.ui.TitlePanel;
 import com.intellij.openapi.ui.ValidationInfo;
 import com.microsoft.intellij.AzurePlugin;
+import com.microsoft.intellij.util.PluginResourceInstaller;
 import com.microsoft.intellij.wizards.WizardCacheManager;
 import com.microsoftopentechnologies.azurecommons.storageregistry.StorageAccount;
 import com.microsoftopentechnologies.azurecommons.storageregistry.StorageAccountRegistry;
@@ -306,6 +307,7 @@ public class EditStorageAccountDialog extends DialogWrapper {
     private String constructURL(String storageName) {
         String url = "";
         try {
+            PluginResourceInstaller.awaitInstalled();
             url = PreferenceSetUtil.getSelectedBlobServiceURL(storageName, AzurePlugin.prefFilePath);
         } catch (Exception e) {
             log(message("errTtl"), e);
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.ui;
+
+import com.intellij.openapi.ui.ValidationInfo;
+import com.intellij.ui.components.JBList;
+import com.intellij.ui.components.JBScrollPane;
+import com.microsoft.intellij.ui.util.UIUtils.ElementWrapper;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.microsoft.intellij.ui.messages.AzureBundle.message;
+import static com.microsoft.windowsazure.management.compute.models.HostedServiceListResponse.HostedService;
+
+/**
+ * Selection of additional cloud services the package is published to, along with the one selected in publish wizard.
+ */
+public class FanOutServicesPanel implements AzureAbstractPanel {
+    private final JPanel rootPanel;
+    private final JBList servicesList;
+    private final List<HostedService> selected = new ArrayList<HostedService>();
+
+    /**
+     * @param hostedServices cloud services of current subscription, except the one selected in wizard
+     * @param selected       cloud services selected before
+     */
+    public FanOutServicesPanel(List<HostedService> hostedServices, List<HostedService> selected) {
+        DefaultListModel model = new DefaultListModel();
+        List<Integer> selectedIndices = new ArrayList<Integer>();
+        for (HostedService hostedService : hostedServices) {
+            String location = hostedService.getProperties() == null ? null : hostedService.getProperties().getLocation();
+            String text = location == null ? hostedService.getServiceName() : String.format("%s (%s)", hostedService.getServiceName(), location);
+            for (HostedService selectedService : selected) {
+                if (selectedService.getServiceName().equals(hostedService.getServiceName())) {
+                    selectedIndices.add(model.size());
+                }
+            }
+            model.addElement(new ElementWrapper<HostedService>(text, hostedService));
+        }
+        servicesList = new JBList(model);
+        servicesList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        int[] indices = new int[selectedIndices.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = selectedIndices.get(i);
+        }
+        servicesList.setSelectedIndices(indices);
+
+        rootPanel = new JPanel(new BorderLayout(0, 5));
+        rootPanel.add(new JLabel(message("fanOutServicesLbl")), BorderLayout.NORTH);
+        rootPanel.add(new JBScrollPane(servicesList), BorderLayout.CENTER);
+        rootPanel.setPreferredSize(new Dimension(400, 250));
+    }
+
+    @Override
+    public JComponent getPanel() {
+        return rootPanel;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return message("fanOutServicesTtl");
+    }
+
+    @Override
+    public boolean doOKAction() {
+        selected.clear();
+        for (Object value : servicesList.getSelectedValues()) {
+            selected.add(((ElementWrapper<HostedService>) value).getValue());
+        }
+        return true;
+    }
+
+    @Override
+    public String getSelectedValue() {
+        return null;
+    }
+
+    public List<HostedService> getSelectedServices() {
+        return selected;
+    }
+
+    @Override
+    public ValidationInfo doValidate() {
+        return null;
+    }
+
+    @Override
+    public String getHelpTopic() {
+        return null;
+    }
+}
@@ -28,6 +28,7 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.microsoft.intellij.AzurePlugin;
 import com.microsoft.intellij.ui.messages.AzureBundle;
 import com.microsoft.intellij.ui.util.UIUtils;
+import com.microsoft.intellij.util.PluginResourceInstaller;
 import com.microsoft.intellij.util.PluginUtil;
 import com.microsoftopentechnologies.azurecommons.wacommonutil.PreferenceSetUtil;
 import org.jetbrains.annotations.Nullable;
@@ -69,6 +70,7 @@ public class ImportSubscriptionDialog extends DialogWrapper {
             @Override
             public void actionPerformed(ActionEvent e) {
                 try {
+                    PluginResourceInstaller.awaitInstalled();
                     Desktop.getDesktop().browse(URI.create(PreferenceSetUtil.
                             getSelectedPublishSettingsURL(PreferenceSetUtil.getSelectedPreferenceSetName(AzurePlugin.prefFilePath), AzurePlugin.prefFilePath)));
                 } catch (Exception e1) {
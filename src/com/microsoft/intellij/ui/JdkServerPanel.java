@@ -35,6 +35,7 @@ import com.microsoft.intellij.ui.components.DefaultDialogWrapper;
 import com.microsoft.intellij.ui.messages.AzureBundle;
 import com.microsoft.intellij.ui.util.JdkSrvConfig;
 import com.microsoft.intellij.ui.util.UIUtils;
+import com.microsoft.intellij.util.PluginResourceInstaller;
 import com.microsoft.intellij.util.PluginUtil;
 import com.microsoft.intellij.util.WAHelper;
 import com.microsoftopentechnologies.azurecommons.roleoperations.JdkSrvConfigUtilMethods;
@@ -128,6 +129,8 @@ public class JdkServerPanel {
         this.project = project;
         this.waRole = waRole;
         this.waProjManager = waProjManager;
+        // server and JDK templates are read from installed components file
+        PluginResourceInstaller.awaitInstalled();
         applicationsTab.init(project, waProjManager, waRole, fileToDel);
         applicationsTab.initAppTab();
         init();
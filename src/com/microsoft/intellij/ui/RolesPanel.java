@@ -33,6 +33,7 @@ import com.interopbridges.tools.windowsazure.WindowsAzureProjectManager;
 import com.interopbridges.tools.windowsazure.WindowsAzureRole;
 import com.microsoft.intellij.ui.azureroles.RoleConfigurablesGroup;
 import com.microsoft.intellij.util.PluginUtil;
+import com.microsoft.intellij.util.ProjectManagerCache;
 import com.microsoft.intellij.util.WAHelper;
 
 import javax.swing.*;
@@ -42,7 +43,6 @@ import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableColumn;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.File;
 import java.util.List;
 
 import static com.microsoft.intellij.ui.messages.AzureBundle.message;
@@ -132,9 +132,8 @@ public class RolesPanel implements AzureAbstractPanel {
      * This method loads the project data.
      */
     private void loadProject() {
-        File projDirPath = new File(PluginUtil.getModulePath(myModule));
         try {
-            waProjManager = WindowsAzureProjectManager.load(projDirPath);
+            waProjManager = ProjectManagerCache.getInstance(myModule.getProject()).getProjectManagerForWrite(myModule);
             listRoles = waProjManager.getRoles();
         } catch (WindowsAzureInvalidProjectOperationException e) {
             PluginUtil.displayErrorDialogAndLog(message("rolsErr"), message("adRolErrMsgBox1") + message("adRolErrMsgBox2"), e);
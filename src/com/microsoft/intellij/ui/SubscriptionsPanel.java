@@ -25,6 +25,7 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.ValidationInfo;
 import com.microsoft.intellij.AzureSettings;
 import com.microsoft.intellij.util.MethodUtils;
+import com.microsoft.intellij.wizards.SubscriptionSnapshotCache;
 import com.microsoft.intellij.wizards.WizardCacheManager;
 import com.microsoftopentechnologies.azurecommons.deploy.propertypages.SubscriptionPropertyPageTableElement;
 import com.microsoftopentechnologies.azurecommons.deploy.util.PublishData;
@@ -103,6 +104,7 @@ public class SubscriptionsPanel implements AzureAbstractPanel {
                 if (curSelIndex > -1) {
                     String id = (String) subscriptionsTable.getModel().getValueAt(curSelIndex, 1);
                     WizardCacheManager.removeSubscription(id);
+                    SubscriptionSnapshotCache.delete(id);
                     AzureSettings.getSafeInstance(myProject).savePublishDatas();
                     ((SubscriptionsTableModel) subscriptionsTable.getModel()).setSubscriptions(getTableContent());
                     ((SubscriptionsTableModel) subscriptionsTable.getModel()).fireTableDataChanged();
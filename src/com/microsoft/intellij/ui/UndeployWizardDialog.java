@@ -26,23 +26,28 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.DialogWrapper;
 import com.intellij.openapi.ui.TitlePanel;
 import com.intellij.openapi.ui.ValidationInfo;
+import com.intellij.ui.components.JBList;
 import com.microsoft.intellij.AzureSettings;
+import com.microsoft.intellij.deploy.DeploymentManager.UndeployTarget;
 import com.microsoft.intellij.runnable.FetchDeploymentsForHostedServiceWithProgressWindow;
 import com.microsoft.intellij.runnable.LoadAccountWithProgressBar;
 import com.microsoft.intellij.ui.util.UIUtils;
 import com.microsoft.intellij.wizards.WizardCacheManager;
 import com.microsoft.windowsazure.management.compute.models.DeploymentStatus;
 import com.microsoft.windowsazure.management.compute.models.HostedServiceGetDetailedResponse;
-import com.microsoft.windowsazure.management.compute.models.HostedServiceGetDetailedResponse.Deployment;
 import com.microsoft.windowsazure.management.compute.models.HostedServiceListResponse.HostedService;
 import com.microsoftopentechnologies.azurecommons.deploy.util.PublishData;
 import com.microsoftopentechnologies.azuremanagementutil.model.Subscription;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static com.microsoft.intellij.ui.messages.AzureBundle.message;
 import static com.microsoft.intellij.ui.util.UIUtils.ElementWrapper;
@@ -51,7 +56,8 @@ public class UndeployWizardDialog extends DialogWrapper {
     private JPanel contentPane;
     private JComboBox subscriptionCombo;
     private JComboBox hostedServiceCombo;
-    private JComboBox deploymentCombo;
+    private JBList deploymentList;
+    private final DefaultListModel deploymentListModel = new DefaultListModel();
 
     private Project myProject;
     private PublishData currentPublishData;
@@ -68,7 +74,9 @@ public class UndeployWizardDialog extends DialogWrapper {
         setOKButtonText(message("undeployWizTitle"));
         subscriptionCombo.addItemListener(createSubscriptionComboListener());
         hostedServiceCombo.addItemListener(createHostedServiceComboListener());
-        deploymentCombo.addItemListener(createDeploymentComboListener());
+        deploymentList.setModel(deploymentListModel);
+        deploymentList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        deploymentList.addListSelectionListener(createDeploymentListListener());
         AzureSettings azureSettings = AzureSettings.getSafeInstance(myProject);
         if (!azureSettings.isSubscriptionLoaded()) {
             LoadAccountWithProgressBar task = new LoadAccountWithProgressBar(myProject);
@@ -87,8 +95,8 @@ public class UndeployWizardDialog extends DialogWrapper {
                 currentPublishData = UIUtils.changeCurrentSubAsPerCombo((JComboBox) e.getSource());
 
                 hostedServiceCombo.setEnabled(false);
-                deploymentCombo.setEnabled(false);
-                deploymentCombo.removeAllItems();
+                deploymentList.setEnabled(false);
+                deploymentListModel.clear();
                 populateHostedServices();
 //                setPageComplete(validatePageComplete());
             }
@@ -99,8 +107,11 @@ public class UndeployWizardDialog extends DialogWrapper {
         return new ItemListener() {
             @Override
             public void itemStateChanged(ItemEvent e) {
-                deploymentCombo.removeAllItems();
-                deploymentCombo.setEnabled(false);
+                if (e.getStateChange() != ItemEvent.SELECTED) {
+                    return;
+                }
+                deploymentListModel.clear();
+                deploymentList.setEnabled(false);
 
                 populateDeployment();
 
@@ -111,10 +122,10 @@ public class UndeployWizardDialog extends DialogWrapper {
         };
     }
 
-    private ItemListener createDeploymentComboListener() {
-        return new ItemListener() {
+    private ListSelectionListener createDeploymentListListener() {
+        return new ListSelectionListener() {
             @Override
-            public void itemStateChanged(ItemEvent e) {
+            public void valueChanged(ListSelectionEvent e) {
 //                setPageComplete(validatePageComplete());
             }
         };
@@ -134,7 +145,12 @@ public class UndeployWizardDialog extends DialogWrapper {
                 for (HostedService hsd : hostedServices) {
                     hostedServiceCombo.addItem(new ElementWrapper<HostedService>(hsd.getServiceName(), hsd));
                 }
-                if (hostedServiceCombo.getItemCount() > 0) {
+                // deployments of all cloud services can be deleted at once; added last, so that combo
+                // never selects it by default and fetches deployments of every service unasked
+                if (hostedServices.size() > 1) {
+                    hostedServiceCombo.addItem(new ElementWrapper<HostedService>(message("allHostedServices"), null));
+                }
+                if (!hostedServices.isEmpty()) {
                     String defaultSelection = null;
                     HostedService currentHostedService = WizardCacheManager.getCurentHostedService();
                     if (currentHostedService != null) {
@@ -150,23 +166,38 @@ public class UndeployWizardDialog extends DialogWrapper {
     private void populateDeployment() {
         int sel = hostedServiceCombo.getSelectedIndex();
         if (sel > -1) {
-            HostedServiceGetDetailedResponse hostedServiceDetailed;
+            HostedService selected = ((ElementWrapper<HostedService>) hostedServiceCombo.getSelectedItem()).getValue();
+            List<String> hostedServiceNames = new ArrayList<String>();
+            if (selected != null) {
+                hostedServiceNames.add(selected.getServiceName());
+            } else {
+                for (int i = 0; i < hostedServiceCombo.getItemCount(); i++) {
+                    HostedService hostedService = ((ElementWrapper<HostedService>) hostedServiceCombo.getItemAt(i)).getValue();
+                    if (hostedService != null) {
+                        hostedServiceNames.add(hostedService.getServiceName());
+                    }
+                }
+            }
             FetchDeploymentsForHostedServiceWithProgressWindow progress =
-                    new FetchDeploymentsForHostedServiceWithProgressWindow(null, hostedServiceCombo.getSelectedItem().toString());
+                    new FetchDeploymentsForHostedServiceWithProgressWindow(null, hostedServiceNames);
             ProgressManager.getInstance().runProcessWithProgressSynchronously(progress, "Progress Information", true, myProject);
 
-            hostedServiceDetailed = progress.getHostedServiceDetailed();
+            deploymentListModel.clear();
 
-            deploymentCombo.removeAllItems();
-
-            for (HostedServiceGetDetailedResponse.Deployment deployment : hostedServiceDetailed.getDeployments()) {
-                if (deployment.getName() == null) {
-                    continue;
-                }
-                if (deployment.getStatus().equals(DeploymentStatus.Running)) {
-                    String label = deployment.getLabel();
-                    String id = label + " - " + deployment.getDeploymentSlot();
-                    deploymentCombo.addItem(new ElementWrapper<Deployment>(id, deployment));
+            for (Map.Entry<String, HostedServiceGetDetailedResponse> hostedServiceDetailed : progress.getHostedServicesDetailed().entrySet()) {
+                for (HostedServiceGetDetailedResponse.Deployment deployment : hostedServiceDetailed.getValue().getDeployments()) {
+                    if (deployment.getName() == null) {
+                        continue;
+                    }
+                    if (deployment.getStatus().equals(DeploymentStatus.Running)) {
+                        String label = deployment.getLabel();
+                        String id = label + " - " + deployment.getDeploymentSlot();
+                        if (selected == null) {
+                            id = hostedServiceDetailed.getKey() + " - " + id;
+                        }
+                        deploymentListModel.addElement(new ElementWrapper<UndeployTarget>(id, new UndeployTarget(
+                                hostedServiceDetailed.getKey(), deployment.getName(), deployment.getDeploymentSlot().toString())));
+                    }
                 }
             }
 //            setComponentState();
@@ -178,10 +209,10 @@ public class UndeployWizardDialog extends DialogWrapper {
             return;
         }
         hostedServiceCombo.setEnabled(subscriptionCombo.getSelectedIndex() > -1 && hostedServiceCombo.getItemCount() > 0);
-        if (deploymentCombo == null) {
+        if (deploymentList == null) {
             return;
         }
-        deploymentCombo.setEnabled(hostedServiceCombo.getSelectedIndex() > -1 && deploymentCombo.getItemCount() > 0);
+        deploymentList.setEnabled(hostedServiceCombo.getSelectedIndex() > -1 && deploymentListModel.getSize() > 0);
     }
 
     @Override
@@ -194,19 +225,21 @@ public class UndeployWizardDialog extends DialogWrapper {
         if (service == null) {
             return new ValidationInfo(message("hostedServiceIsNull"));
         }
-        ElementWrapper<Deployment> deploymentItem = (ElementWrapper<Deployment>) deploymentCombo.getSelectedItem();
-        if (deploymentItem == null) {
+        if (deploymentList.isSelectionEmpty()) {
             return new ValidationInfo(message("deploymentIsNull"));
         }
         return null;
     }
 
-    public String getServiceName() {
-        return hostedServiceCombo.getSelectedItem().toString();
-    }
-
-    public Deployment getDeployment() {
-        return ((ElementWrapper<Deployment>) deploymentCombo.getSelectedItem()).getValue();
+    /**
+     * @return deployments selected to be deleted
+     */
+    public List<UndeployTarget> getSelectedDeployments() {
+        List<UndeployTarget> targets = new ArrayList<UndeployTarget>();
+        for (Object item : deploymentList.getSelectedValues()) {
+            targets.add(((ElementWrapper<UndeployTarget>) item).getValue());
+        }
+        return targets;
     }
 
     protected JComponent createTitlePane() {
@@ -32,6 +32,8 @@ import com.michaelbaranov.microba.calendar.DatePicker;
 import com.microsoft.intellij.AzurePlugin;
 import com.microsoft.intellij.ui.util.UIUtils;
 import com.microsoft.intellij.util.PluginUtil;
+import com.microsoft.intellij.util.ProjectManagerCache;
+import com.microsoft.intellij.util.PluginResourceInstaller;
 import com.microsoft.wacommon.commoncontrols.NewCertificateDialogData;
 import com.microsoftopentechnologies.azurecommons.util.WAEclipseHelperMethods;
 import com.microsoftopentechnologies.azurecommons.wacommonutil.CerPfxUtil;
@@ -576,6 +578,7 @@ public class WARemoteAccessPanel implements AzureAbstractPanel {
                          */
                         String modifiedPwd = message("remAccDummyPwd");
                         if (!pwd.equals(modifiedPwd) && !pwd.isEmpty() && isPwdChanged) {
+                            PluginResourceInstaller.awaitInstalled();
                             String encryptedPwd = EncUtilHelper.encryptPassword(pwd, tempPath, AzurePlugin.pluginFolder);
                             waProjManager.setRemoteAccessEncryptedPassword(encryptedPwd);
                         } else {
@@ -614,7 +617,7 @@ public class WARemoteAccessPanel implements AzureAbstractPanel {
      */
     private void loadProject() {
         try {
-            waProjManager = WindowsAzureProjectManager.load(new File(PluginUtil.getModulePath(myModule)));
+            waProjManager = ProjectManagerCache.getInstance(myModule.getProject()).getProjectManagerForWrite(myModule);
         } catch (Exception e) {
             PluginUtil.displayErrorDialog(message("remAccSyntaxErr"), message("proPageErrMsgBox1") + message("proPageErrMsgBox2"));
             log(message("remAccErProjLoad"), e);
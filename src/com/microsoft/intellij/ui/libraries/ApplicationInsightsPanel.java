@@ -42,6 +42,7 @@ import com.microsoft.intellij.ui.AppInsightsMngmtPanel;
 import com.microsoft.intellij.ui.AzureAbstractPanel;
 import com.microsoft.intellij.ui.components.DefaultDialogWrapper;
 import com.microsoft.intellij.util.PluginUtil;
+import com.microsoft.intellij.util.PluginResourceInstaller;
 import org.jdesktop.swingx.JXHyperlink;
 
 import javax.swing.*;
@@ -287,6 +288,7 @@ public class ApplicationInsightsPanel implements AzureAbstractPanel {
         }
 
         final LibrariesContainer.LibraryLevel level = LibrariesContainer.LibraryLevel.MODULE;
+        PluginResourceInstaller.awaitInstalled();
         AccessToken token = WriteAction.start();
         try {
             Library newLibrary = LibrariesContainerFactory.createContainer(modifiableModel).createLibrary(AzureLibrary.AZURE_LIBRARIES.getName(), level, new ArrayList<OrderRoot>());
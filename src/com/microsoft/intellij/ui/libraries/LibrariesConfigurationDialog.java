@@ -42,6 +42,7 @@ import com.microsoft.intellij.AzurePlugin;
 import com.microsoft.intellij.ui.components.DefaultDialogWrapper;
 import com.microsoft.intellij.util.AppInsightsCustomEvent;
 import com.microsoft.intellij.util.PluginUtil;
+import com.microsoft.intellij.util.PluginResourceInstaller;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -118,6 +119,7 @@ public class LibrariesConfigurationDialog extends DialogWrapper {
             AzureLibrary azureLibrary = model.getSelectedLibrary();
             final LibrariesContainer.LibraryLevel level = LibrariesContainer.LibraryLevel.MODULE;
 
+            PluginResourceInstaller.awaitInstalled();
             AccessToken token = WriteAction.start();
             try {
                 final ModifiableRootModel modifiableModel = ModuleRootManager.getInstance(module).getModifiableModel();
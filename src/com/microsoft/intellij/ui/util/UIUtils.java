@@ -218,6 +218,11 @@ public class UIUtils {
         if (subscriptionName != null && !subscriptionName.isEmpty()) {
             publishData = currentEntry.getValue();
             Subscription sub = WizardCacheManager.findSubscriptionByName(subscriptionName);
+            // combo may hold publish data which refresh has replaced since
+            PublishData registered = sub == null ? null : WizardCacheManager.findPublishDataBySubscriptionId(sub.getId());
+            if (registered != null) {
+                publishData = registered;
+            }
             if (publishData != null) {
                 publishData.setCurrentSubscription(sub);
                 WizardCacheManager.setCurrentPublishData(publishData);
@@ -46,7 +46,11 @@ import static com.microsoft.intellij.ui.messages.AzureBundle.message;
 public class AntHelper {
 
     public static void runAntBuild(final DataContext dataContext, final Module module, final AntBuildListener antBuildListener) {
-        final VirtualFile packageXmlFile = LocalFileSystem.getInstance().findFileByPath(PluginUtil.getModulePath(module) + File.separator + message("resCLPkgXML"));
+        runAntBuild(dataContext, module, new File(PluginUtil.getModulePath(module) + File.separator + message("resCLPkgXML")), antBuildListener);
+    }
+
+    private static void runAntBuild(final DataContext dataContext, final Module module, File file, final AntBuildListener antBuildListener) {
+        final VirtualFile packageXmlFile = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(file);
         final AntConfiguration antConfiguration = AntConfiguration.getInstance(module.getProject());
         ApplicationManager.getApplication().invokeAndWait(
                 new Runnable() {
@@ -76,13 +80,58 @@ public class AntHelper {
                 }, ModalityState.defaultModalityState());
     }
 
+    /**
+     * Runs package build of the module unless package built from the same inputs is still in deploy folder,
+     * in which case listener is notified of successful build right away. Components imported with "zip" method
+     * are zipped in parallel before the build, which is run on a copy of package.xml made by {@link ComponentZipper}.
+     *
+     * @param waProjManager project manager build inputs are read from, it is not modified
+     */
+    public static void runIncrementalAntBuild(DataContext dataContext, Module module, WindowsAzureProjectManager waProjManager,
+                                              final AntBuildListener antBuildListener) {
+        PackageBuildCache.Fingerprint fingerprint = null;
+        if (PackageBuildCache.isEnabled()) {
+            try {
+                fingerprint = PackageBuildCache.fingerprint(module, waProjManager);
+            } catch (Exception e) {
+                AzurePlugin.log(message("bldFingerprintErr"), e);
+            }
+            if (fingerprint != null && PackageBuildCache.isUpToDate(fingerprint)) {
+                AzurePlugin.log(String.format(message("bldReused"), module.getName()));
+                antBuildListener.buildFinished(AntBuildListener.FINISHED_SUCCESSFULLY, 0);
+                return;
+            }
+            PackageBuildCache.invalidate(PluginUtil.getModulePath(module));
+        }
+        final PackageBuildCache.Fingerprint builtFingerprint = fingerprint;
+        final ComponentZipper zipper = ComponentZipper.prepare(module, waProjManager);
+        try {
+            runAntBuild(dataContext, module, zipper.getBuildFile(), new AntBuildListener() {
+                @Override
+                public void buildFinished(int state, int errorCount) {
+                    zipper.restore();
+                    if (state == AntBuildListener.FINISHED_SUCCESSFULLY && builtFingerprint != null) {
+                        PackageBuildCache.record(builtFingerprint);
+                    }
+                    antBuildListener.buildFinished(state, errorCount);
+                }
+            });
+        } catch (RuntimeException e) {
+            zipper.restore();
+            throw e;
+        }
+    }
+
     public static AntBuildListener createDeployListener(final Module myModule, final List<AutoUpldCmpnts> mdfdCmpntList, final List<String> roleMdfdCache) {
+        // listener is created right before build is started, build time is recorded in deployment trace
+        final long buildStartMillis = System.currentTimeMillis();
         return new AntBuildListener() {
             @Override
             public void buildFinished(int state, int errorCount) {
                 if (state == AntBuildListener.FINISHED_SUCCESSFULLY) {
                     try {
-                        WindowsAzureProjectManager waProjManager = WindowsAzureProjectManager.load(new File(PluginUtil.getModulePath(myModule)));
+                        ProjectManagerCache projManagerCache = ProjectManagerCache.getInstance(myModule.getProject());
+                        WindowsAzureProjectManager waProjManager = projManagerCache.getProjectManagerForWrite(myModule);
                     /*
                      * Build job is completed.
 					 * If component's url settings done before build then,
@@ -90,7 +139,8 @@ public class AntHelper {
 					*/
                         if (mdfdCmpntList.size() > 0) {
                             waProjManager = DeployAction.addAutoCloudUrl(waProjManager, mdfdCmpntList);
-                            waProjManager.save();
+                            projManagerCache.save(myModule, waProjManager);
+                            waProjManager = projManagerCache.getProjectManagerForWrite(myModule);
                         }
                     /*
                      * If cache's storage account name and key,
@@ -98,12 +148,12 @@ public class AntHelper {
 					*/
                         if (roleMdfdCache.size() > 0) {
                             waProjManager = DeployAction.addAutoSettingsForCache(waProjManager, roleMdfdCache);
-                            waProjManager.save();
+                            projManagerCache.save(myModule, waProjManager);
                         }
                     } catch (WindowsAzureInvalidProjectOperationException e) {
                         PluginUtil.displayErrorDialogInAWTAndLog(message("error"), message("autoUploadEr"), e);
                     }
-                    DeployAction.WindowsAzureDeploymentTask task = new DeployAction.WindowsAzureDeploymentTask(myModule);
+                    DeployAction.WindowsAzureDeploymentTask task = new DeployAction.WindowsAzureDeploymentTask(myModule, buildStartMillis, System.currentTimeMillis());
                     task.queue();
                 }
             }
@@ -1,40 +1,166 @@
 package com.microsoft.intellij.util;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.intellij.openapi.diagnostic.Logger;
 import com.microsoft.applicationinsights.TelemetryClient;
 
 import com.microsoftopentechnologies.azurecommons.xmlhandling.DataOperations;
 import static com.microsoft.intellij.ui.messages.AzureBundle.message;
 
+/**
+ * Telemetry events of the plugin, sent in batches from a dedicated thread.
+ * <p/>
+ * {@link #create} only queues the event, so deployment and UI never wait for telemetry. Events which do not fit
+ * in the bounded queue are dropped. Telemetry preference, plugin version and installation id are read from data file
+ * once and again only when the file changes, and one client is used for all events.
+ */
 public class AppInsightsCustomEvent {
+    private static final Logger LOG = Logger.getInstance("#com.microsoft.intellij.util.AppInsightsCustomEvent");
+    private static final String THREAD_NAME = "Azure Telemetry";
+    private static final int QUEUE_CAPACITY = 256;
+    private static final int MAX_BATCH = 50;
+    private static final long BATCH_WINDOW_MILLIS = 2000;
+
+    private static final BlockingQueue<Event> QUEUE = new ArrayBlockingQueue<Event>(QUEUE_CAPACITY);
+    private static final AtomicInteger DROPPED = new AtomicInteger();
+    private static Thread sender;
+
+    // used by sender thread only
+    private static TelemetryClient telemetry;
+    private static Settings settings;
+
     public static void create(String eventName, String version) {
-        String dataFile = WAHelper.getTemplateFile(message("dataFileName"));
-        if (new File(dataFile).exists()) {
-            String prefValue = DataOperations.getProperty(dataFile, message("prefVal"));
-            if (prefValue != null && !prefValue.isEmpty() && prefValue.equalsIgnoreCase("true")) {
-                TelemetryClient telemetry = new TelemetryClient();
-                telemetry.getContext().setInstrumentationKey("appinsights-instrumentation-key");
-                Map<String, String> properties = new HashMap<String, String>();
-                if (version != null && !version.isEmpty()) {
-                    properties.put("Library Version", version);
-                }
-                String pluginVersion = DataOperations.getProperty(dataFile, message("pluginVersion"));
-                if (pluginVersion != null && !pluginVersion.isEmpty()) {
-                    properties.put("Plugin Version", pluginVersion);
-                }
+        if (!QUEUE.offer(new Event(eventName, version))) {
+            if (DROPPED.getAndIncrement() == 0) {
+                LOG.warn("Telemetry queue is full, events are dropped");
+            }
+            return;
+        }
+        startSender();
+    }
 
-                Map<String, Double> metrics = new HashMap<String, Double>();
-                String instID = DataOperations.getProperty(dataFile, message("instID"));
-                if (instID != null && !instID.isEmpty()) {
-                    metrics.put("Installation ID", Double.parseDouble(instID));
+    private static synchronized void startSender() {
+        if (sender != null) {
+            return;
+        }
+        sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sendEvents();
+            }
+        }, THREAD_NAME);
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    private static void sendEvents() {
+        List<Event> batch = new ArrayList<Event>();
+        while (true) {
+            try {
+                batch.add(QUEUE.take());
+                // events of one user action come together, wait a moment to send them with one flush
+                long deadline = System.currentTimeMillis() + BATCH_WINDOW_MILLIS;
+                while (batch.size() < MAX_BATCH) {
+                    Event event = QUEUE.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                    if (event == null) {
+                        break;
+                    }
+                    batch.add(event);
                 }
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                send(batch);
+            } catch (Throwable t) {
+                LOG.warn("Failed to send telemetry", t);
+            }
+            batch.clear();
+        }
+    }
+
+    private static void send(List<Event> batch) {
+        Settings current = getSettings();
+        if (!current.enabled) {
+            return;
+        }
+        if (telemetry == null) {
+            telemetry = new TelemetryClient();
+            telemetry.getContext().setInstrumentationKey("appinsights-instrumentation-key");
+        }
+        for (Event event : batch) {
+            Map<String, String> properties = new HashMap<String, String>();
+            if (event.version != null && !event.version.isEmpty()) {
+                properties.put("Library Version", event.version);
+            }
+            if (current.pluginVersion != null && !current.pluginVersion.isEmpty()) {
+                properties.put("Plugin Version", current.pluginVersion);
+            }
+            Map<String, Double> metrics = new HashMap<String, Double>();
+            if (current.installationId != null) {
+                metrics.put("Installation ID", current.installationId);
+            }
+            telemetry.trackEvent(event.name, properties, metrics);
+        }
+        telemetry.flush();
+    }
 
-                telemetry.trackEvent(eventName, properties, metrics);
-                telemetry.flush();
+    /**
+     * @return settings of data file, read again if the file was changed, for example when user answered telemetry question
+     */
+    private static Settings getSettings() {
+        File dataFile = new File(WAHelper.getTemplateFile(message("dataFileName")));
+        long modified = dataFile.lastModified();
+        long length = dataFile.length();
+        if (settings != null && settings.modified == modified && settings.length == length) {
+            return settings;
+        }
+        settings = new Settings(modified, length);
+        if (dataFile.exists()) {
+            String prefValue = DataOperations.getProperty(dataFile.getPath(), message("prefVal"));
+            settings.enabled = prefValue != null && prefValue.equalsIgnoreCase("true");
+            settings.pluginVersion = DataOperations.getProperty(dataFile.getPath(), message("pluginVersion"));
+            String instID = DataOperations.getProperty(dataFile.getPath(), message("instID"));
+            if (instID != null && !instID.isEmpty()) {
+                try {
+                    settings.installationId = Double.parseDouble(instID);
+                } catch (NumberFormatException e) {
+                    LOG.warn("Invalid installation id " + instID);
+                }
             }
         }
+        return settings;
+    }
+
+    private static class Event {
+        private final String name;
+        private final String version;
+
+        private Event(String name, String version) {
+            this.name = name;
+            this.version = version;
+        }
+    }
+
+    private static class Settings {
+        private final long modified;
+        private final long length;
+        private boolean enabled;
+        private String pluginVersion;
+        private Double installationId;
+
+        private Settings(long modified, long length) {
+            this.modified = modified;
+            this.length = length;
+        }
     }
 }
@@ -0,0 +1,341 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.util;
+
+import com.intellij.openapi.application.PathManager;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Index of zip archive shipped with the plugin, such as plugin jar or starter kit.
+ * <p/>
+ * Central directory of the archive is read once into the index, entries are then looked up by name or file name
+ * and listed by prefix without scanning the archive, and read directly at their offset. Index is shared and built
+ * again only when size or modification time of the archive changes. The archive is not kept open nor mapped,
+ * so that it can be replaced when plugin is updated.
+ * <p/>
+ * Entries can be extracted to a cache directory named by SHA-256 of the archive, where they are reused until
+ * the archive content changes.
+ */
+public class ArchiveIndex {
+    private static final int END_HEADER_SIZE = 22;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final String CACHE_DIRECTORY = "azure-toolkit" + File.separator + "archives";
+
+    private static final Map<File, ArchiveIndex> INDEXES = new HashMap<File, ArchiveIndex>();
+
+    private final File file;
+    private final long length;
+    private final long modified;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final Map<String, String> namesByFileName = new HashMap<String, String>();
+    private final String[] sortedNames;
+    private String hash;
+
+    private ArchiveIndex(File file) throws IOException {
+        this.file = file;
+        this.length = file.length();
+        this.modified = file.lastModified();
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            readCentralDirectory(input);
+        } finally {
+            input.close();
+        }
+        List<String> names = new ArrayList<String>();
+        for (String name : entries.keySet()) {
+            if (!name.endsWith("/")) {
+                names.add(name);
+            }
+        }
+        sortedNames = names.toArray(new String[names.size()]);
+        Arrays.sort(sortedNames);
+    }
+
+    /**
+     * @return index of the archive, built again if the archive changed since last call
+     */
+    public static ArchiveIndex get(File archive) throws IOException {
+        File key = archive.getAbsoluteFile();
+        synchronized (INDEXES) {
+            ArchiveIndex index = INDEXES.get(key);
+            if (index == null || index.length != key.length() || index.modified != key.lastModified()) {
+                index = new ArchiveIndex(key);
+                INDEXES.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    public static ArchiveIndex get(String archive) throws IOException {
+        return get(new File(archive));
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * @return names of files in the archive starting with given prefix, in sorted order
+     */
+    public List<String> getEntryNames(String prefix) {
+        List<String> names = new ArrayList<String>();
+        int start = Arrays.binarySearch(sortedNames, prefix);
+        for (int i = start < 0 ? -start - 1 : start; i < sortedNames.length && sortedNames[i].startsWith(prefix); i++) {
+            names.add(sortedNames[i]);
+        }
+        return names;
+    }
+
+    /**
+     * @return name of the first entry with given file name in any folder, ignoring case, or null
+     */
+    public String findByFileName(String fileName) {
+        return namesByFileName.get(fileName.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Reads content of the entry.
+     */
+    public byte[] read(String name) throws IOException {
+        Entry entry = getEntry(name);
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        byte[] data;
+        try {
+            byte[] header = new byte[LOCAL_HEADER_SIZE];
+            input.seek(entry.offset);
+            input.readFully(header);
+            if (getInt(header, 0) != LOCAL_SIGNATURE) {
+                throw new ZipException("Invalid local header of " + name + " in " + file);
+            }
+            input.seek(entry.offset + LOCAL_HEADER_SIZE + getShort(header, 26) + getShort(header, 28));
+            // inflater without zlib wrapping needs one more byte of input
+            data = new byte[(int) entry.compressedSize + (entry.method == DEFLATED ? 1 : 0)];
+            input.readFully(data, 0, (int) entry.compressedSize);
+        } finally {
+            input.close();
+        }
+        if (entry.method == DEFLATED) {
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(data);
+                byte[] inflated = new byte[(int) entry.size];
+                int inflatedLength = 0;
+                while (inflatedLength < inflated.length && !inflater.finished()) {
+                    int read = inflater.inflate(inflated, inflatedLength, inflated.length - inflatedLength);
+                    if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    inflatedLength += read;
+                }
+                if (inflatedLength != inflated.length) {
+                    throw new ZipException("Truncated entry " + name + " in " + file);
+                }
+                data = inflated;
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid entry " + name + " in " + file + ": " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+        } else if (entry.method != STORED) {
+            throw new ZipException("Unsupported compression of " + name + " in " + file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if (crc.getValue() != entry.crc) {
+            throw new ZipException("Invalid checksum of " + name + " in " + file);
+        }
+        return data;
+    }
+
+    /**
+     * Extracts the entry to cache directory of the archive, unless it was extracted from the same archive content.
+     *
+     * @return extracted file, which must not be modified
+     */
+    public File extract(String name) throws IOException {
+        Entry entry = getEntry(name);
+        if (name.startsWith("/") || name.contains("..")) {
+            throw new ZipException("Invalid entry name " + name + " in " + file);
+        }
+        File archiveCache = new File(new File(PathManager.getSystemPath(), CACHE_DIRECTORY), file.getName());
+        File cache = new File(archiveCache, getHash());
+        File target = new File(cache, name);
+        if (target.isFile() && target.length() == entry.size) {
+            return target;
+        }
+        if (!cache.isDirectory()) {
+            // templates of previous archive content are not used any more
+            File[] previous = archiveCache.listFiles();
+            if (previous != null) {
+                for (File directory : previous) {
+                    deleteDirectory(directory);
+                }
+            }
+        }
+        if (!target.getParentFile().isDirectory() && !target.getParentFile().mkdirs()) {
+            throw new IOException("Cannot create " + target.getParentFile());
+        }
+        File tmpFile = new File(target.getParentFile(), target.getName() + ".tmp");
+        OutputStream output = new FileOutputStream(tmpFile);
+        try {
+            output.write(read(name));
+        } finally {
+            output.close();
+        }
+        if (target.exists() && !target.delete() || !tmpFile.renameTo(target)) {
+            tmpFile.delete();
+            throw new IOException("Cannot replace " + target);
+        }
+        return target;
+    }
+
+    /**
+     * @return SHA-256 of the archive, computed once for each index
+     */
+    public synchronized String getHash() throws IOException {
+        if (hash == null) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                InputStream input = new FileInputStream(file);
+                try {
+                    byte[] buffer = new byte[64 * 1024];
+                    int read;
+                    while ((read = input.read(buffer)) != -1) {
+                        digest.update(buffer, 0, read);
+                    }
+                } finally {
+                    input.close();
+                }
+                StringBuilder hex = new StringBuilder();
+                for (byte b : digest.digest()) {
+                    hex.append(String.format("%02x", b & 0xff));
+                }
+                hash = hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+        return hash;
+    }
+
+    private Entry getEntry(String name) throws FileNotFoundException {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            throw new FileNotFoundException(name + " not found in " + file);
+        }
+        return entry;
+    }
+
+    private void readCentralDirectory(RandomAccessFile input) throws IOException {
+        // end record is followed only by archive comment of at most 64K
+        int tailSize = (int) Math.min(input.length(), END_HEADER_SIZE + 0xFFFF);
+        byte[] tail = new byte[tailSize];
+        input.seek(input.length() - tailSize);
+        input.readFully(tail);
+        int end = tailSize - END_HEADER_SIZE;
+        while (end >= 0 && getInt(tail, end) != END_SIGNATURE) {
+            end--;
+        }
+        if (end < 0) {
+            throw new ZipException("Not a zip archive: " + file);
+        }
+        int count = getShort(tail, end + 10);
+        long directorySize = getInt(tail, end + 12) & 0xFFFFFFFFL;
+        long directoryOffset = getInt(tail, end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL) {
+            throw new ZipException("ZIP64 archives are not supported: " + file);
+        }
+        byte[] directory = new byte[(int) directorySize];
+        input.seek(directoryOffset);
+        input.readFully(directory);
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            if (position + CENTRAL_HEADER_SIZE > directory.length || getInt(directory, position) != CENTRAL_SIGNATURE) {
+                throw new ZipException("Invalid central directory of " + file);
+            }
+            int nameLength = getShort(directory, position + 28);
+            String name = new String(directory, position + CENTRAL_HEADER_SIZE, nameLength, "UTF-8");
+            entries.put(name, new Entry(getShort(directory, position + 10),
+                    getInt(directory, position + 16) & 0xFFFFFFFFL,
+                    getInt(directory, position + 20) & 0xFFFFFFFFL,
+                    getInt(directory, position + 24) & 0xFFFFFFFFL,
+                    getInt(directory, position + 42) & 0xFFFFFFFFL));
+            String fileName = name.substring(name.lastIndexOf('/') + 1).toLowerCase(Locale.ENGLISH);
+            if (!fileName.isEmpty() && !namesByFileName.containsKey(fileName)) {
+                namesByFileName.put(fileName, name);
+            }
+            position += CENTRAL_HEADER_SIZE + nameLength + getShort(directory, position + 30) + getShort(directory, position + 32);
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteDirectory(child);
+            }
+        }
+        directory.delete();
+    }
+
+    private static int getShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return getShort(bytes, offset) | getShort(bytes, offset + 2) << 16;
+    }
+
+    private static class Entry {
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long offset;
+
+        private Entry(int method, long crc, long compressedSize, long size, long offset) {
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.util;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of daemon threads shared by background work of the plugin
+ * (loading of publish profiles, deployment steps etc.).
+ * Number of threads can be changed with -Dazure.toolkit.parallelism=N.
+ * <p/>
+ * Tasks submitted from a pool thread, which usually waits for them, run on a separate pool for nested work,
+ * so nested submissions can not starve the pool and still run in parallel. Nested pool has no queue,
+ * a nested task is run by the caller only when all nested threads are busy.
+ * Delayed tasks are timed by a single scheduler thread and then run on the pool.
+ * Polls which pool threads wait for are scheduled with {@link #schedulePoll}, they never queue behind pool tasks.
+ */
+public final class AzureExecutor {
+    private static final Logger LOG = Logger.getInstance("#com.microsoft.intellij.util.AzureExecutor");
+    public static final String PARALLELISM_PROPERTY = "azure.toolkit.parallelism";
+    private static final String THREAD_NAME_PREFIX = "Azure Toolkit Worker-";
+    private static final String NESTED_THREAD_NAME_PREFIX = "Azure Toolkit Nested Worker-";
+    private static final int NESTED_THREADS_PER_THREAD = 4;
+    private static final String SCHEDULER_THREAD_NAME = "Azure Toolkit Scheduler";
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static AzureExecutor instance;
+
+    private static final ThreadLocal<Boolean> IS_WORKER = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return false;
+        }
+    };
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor nestedExecutor;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final int parallelism;
+    private final AtomicLong completedTasks = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    private AzureExecutor(int parallelism) {
+        this.parallelism = parallelism;
+        executor = new ThreadPoolExecutor(parallelism, parallelism, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), createWorkerFactory(THREAD_NAME_PREFIX));
+        executor.allowCoreThreadTimeOut(true);
+        nestedExecutor = new ThreadPoolExecutor(0, parallelism * NESTED_THREADS_PER_THREAD, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), createWorkerFactory(NESTED_THREAD_NAME_PREFIX));
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, SCHEDULER_THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static ThreadFactory createWorkerFactory(final String threadNamePrefix) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        IS_WORKER.set(true);
+                        r.run();
+                    }
+                }, threadNamePrefix + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Creates fixed pool of daemon threads for tasks which block until Azure operations finish,
+     * such as deployment steps, so that they do not hold threads of the shared pool.
+     * Tasks submitted from its threads run on the nested pool, as if submitted from a pool thread.
+     */
+    public static ExecutorService newBlockingPool(String threadNamePrefix, int threads) {
+        return Executors.newFixedThreadPool(threads, createWorkerFactory(threadNamePrefix));
+    }
+
+    public static synchronized AzureExecutor getInstance() {
+        if (instance == null) {
+            instance = new AzureExecutor(getConfiguredParallelism());
+        }
+        return instance;
+    }
+
+    /**
+     * Stops accepting tasks and interrupts running ones. Called when plugin is disposed.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            LOG.info(instance.toString());
+            instance.scheduler.shutdownNow();
+            instance.executor.shutdownNow();
+            instance.nestedExecutor.shutdownNow();
+            instance = null;
+        }
+    }
+
+    public <T> Future<T> submit(final Callable<T> task) {
+        FutureTask<T> future = createTask(task);
+        if (!IS_WORKER.get()) {
+            executor.execute(future);
+        } else {
+            try {
+                nestedExecutor.execute(future);
+            } catch (RejectedExecutionException e) {
+                if (nestedExecutor.isShutdown()) {
+                    throw e;
+                }
+                // all nested threads are busy, caller would wait for the task anyway
+                future.run();
+            }
+        }
+        return future;
+    }
+
+    public Future<?> submit(Runnable task) {
+        return submit(Executors.callable(task));
+    }
+
+    /**
+     * Queues task on the pool even when called from a pool thread, for work which nobody waits for,
+     * such as refresh of cached data. It never runs on the calling thread.
+     */
+    public Future<?> submitInBackground(Runnable task) {
+        FutureTask<Object> future = createTask(Executors.callable(task));
+        executor.execute(future);
+        return future;
+    }
+
+    private <T> FutureTask<T> createTask(final Callable<T> task) {
+        final long submitted = System.nanoTime();
+        return new FutureTask<T>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    return task.call();
+                } finally {
+                    recordLatency(System.nanoTime() - submitted);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs task on the pool after given delay.
+     */
+    public ScheduledFuture<?> schedule(final Runnable task, long delay, TimeUnit unit) {
+        return scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                submit(task);
+            }
+        }, delay, unit);
+    }
+
+    /**
+     * Runs task after given delay on the nested pool, or on the scheduler thread when all nested threads are busy.
+     * Unlike {@link #schedule}, task never queues on the pool, where it could wait behind tasks which wait for it,
+     * so it is used for polls of operations somebody may wait for on a pool thread.
+     */
+    public ScheduledFuture<?> schedulePoll(final Runnable task, long delay, TimeUnit unit) {
+        return scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                FutureTask<Object> future = createTask(Executors.callable(task));
+                try {
+                    nestedExecutor.execute(future);
+                } catch (RejectedExecutionException e) {
+                    if (!nestedExecutor.isShutdown()) {
+                        // nested threads may all be waiting for polls, scheduler thread never waits
+                        future.run();
+                    }
+                }
+            }
+        }, delay, unit);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getNestedActiveCount() {
+        return nestedExecutor.getActiveCount();
+    }
+
+    public long getCompletedTaskCount() {
+        return completedTasks.get();
+    }
+
+    /**
+     * @return average time from submission to completion of a task
+     */
+    public long getAverageLatencyMillis() {
+        long completed = completedTasks.get();
+        return completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos.get() / completed);
+    }
+
+    public long getMaxLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AzureExecutor: parallelism %d, active %d, nested active %d, queued %d, completed %d, latency avg %d ms, max %d ms",
+                parallelism, getActiveCount(), getNestedActiveCount(), getQueueDepth(), getCompletedTaskCount(),
+                getAverageLatencyMillis(), getMaxLatencyMillis());
+    }
+
+    private void recordLatency(long latency) {
+        completedTasks.incrementAndGet();
+        totalLatencyNanos.addAndGet(latency);
+        long max;
+        do {
+            max = maxLatencyNanos.get();
+        } while (latency > max && !maxLatencyNanos.compareAndSet(max, latency));
+    }
+
+    private static int getConfiguredParallelism() {
+        return SystemProperties.getPositiveInt(PARALLELISM_PROPERTY, Math.max(4, Runtime.getRuntime().availableProcessors()));
+    }
+}
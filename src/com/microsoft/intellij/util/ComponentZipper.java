@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.util;
+
+import com.intellij.openapi.module.Module;
+import com.interopbridges.tools.windowsazure.*;
+import com.microsoft.intellij.AzurePlugin;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.microsoft.intellij.ui.messages.AzureBundle.message;
+
+/**
+ * Zips components imported with "zip" method with {@link ParallelZip} before package build.
+ * <p/>
+ * Build reads import methods from package.xml, so it is run on a temporary copy of package.xml in which zipped
+ * components are switched to "none" import method, and the build takes the zip from approot as it is.
+ * Package.xml of the module is never modified. {@link #restore} deletes the copy and the zips when the build
+ * is finished; zip left in approot by a build which did not finish is overwritten by the next build.
+ * Components uploaded to or downloaded from cloud storage are left to the build.
+ */
+public class ComponentZipper {
+    private static final String COMPONENTS_PATH = "/project/target/parallel/windowsazurepackage/workerrole";
+
+    private final Module module;
+    private final List<String[]> zipped = new ArrayList<String[]>();
+    private File buildFile;
+
+    private ComponentZipper(Module module) {
+        this.module = module;
+    }
+
+    /**
+     * Zips components of the module and writes build file with their import method switched.
+     * Component which cannot be zipped is left to the build.
+     *
+     * @param waProjManager project manager components are read from, it is not modified
+     */
+    public static ComponentZipper prepare(Module module, WindowsAzureProjectManager waProjManager) {
+        ComponentZipper zipper = new ComponentZipper(module);
+        String modulePath = PluginUtil.getModulePath(module);
+        ParallelZip zip = ParallelZip.create();
+        try {
+            roles:
+            for (WindowsAzureRole role : waProjManager.getRoles()) {
+                File approot = getApproot(modulePath, role.getName());
+                for (WindowsAzureRoleComponent component : role.getComponents()) {
+                    if (!isZippedByBuild(component)) {
+                        continue;
+                    }
+                    File source = new File(component.getImportPath());
+                    if (!source.isAbsolute()) {
+                        source = new File(approot, component.getImportPath());
+                    }
+                    try {
+                        zip.zip(source, new File(approot, component.getDeployName()));
+                    } catch (InterruptedException e) {
+                        // build is cancelled, components zipped so far are still switched
+                        Thread.currentThread().interrupt();
+                        break roles;
+                    } catch (Exception e) {
+                        AzurePlugin.log(String.format(message("zipImportErr"), component.getImportPath()), e);
+                        continue;
+                    }
+                    zipper.zipped.add(new String[]{role.getName(), component.getDeployName()});
+                }
+            }
+        } catch (WindowsAzureInvalidProjectOperationException e) {
+            AzurePlugin.log(message("error"), e);
+        }
+        if (!zipper.zipped.isEmpty()) {
+            try {
+                zipper.buildFile = writeBuildFile(modulePath, zipper.zipped);
+            } catch (Exception e) {
+                // build zips components itself
+                AzurePlugin.log(message("error"), e);
+                zipper.restore();
+            }
+        }
+        return zipper;
+    }
+
+    private static boolean isZippedByBuild(WindowsAzureRoleComponent component) throws WindowsAzureInvalidProjectOperationException {
+        return component.getImportMethod() == WindowsAzureRoleComponentImportMethod.zip
+                && component.getImportPath() != null && !component.getImportPath().isEmpty()
+                // environment variables are resolved by the build
+                && !component.getImportPath().contains("%")
+                && component.getDeployName() != null && !component.getDeployName().isEmpty()
+                && (component.getCloudUploadMode() == null || component.getCloudUploadMode() == WARoleComponentCloudUploadMode.never)
+                && (component.getCloudDownloadURL() == null || component.getCloudDownloadURL().isEmpty());
+    }
+
+    /**
+     * Copies package.xml of the module to a temporary file with zipped components switched to "none" import method.
+     * Base directory of the copy is set to the module, so that paths in it are resolved as in package.xml.
+     */
+    private static File writeBuildFile(String modulePath, List<String[]> zipped) throws Exception {
+        Document doc = ParseXML.parseFile(modulePath + File.separator + message("resCLPkgXML"));
+        doc.getDocumentElement().setAttribute("basedir", new File(modulePath).getAbsolutePath());
+        NodeList roles = (NodeList) XPathFactory.newInstance().newXPath().evaluate(COMPONENTS_PATH, doc, XPathConstants.NODESET);
+        for (int i = 0; i < roles.getLength(); i++) {
+            Element role = (Element) roles.item(i);
+            NodeList components = role.getElementsByTagName("component");
+            for (int j = 0; j < components.getLength(); j++) {
+                Element component = (Element) components.item(j);
+                if (contains(zipped, role.getAttribute("name"), component.getAttribute("importas"))) {
+                    component.setAttribute("importmethod", WindowsAzureRoleComponentImportMethod.none.name());
+                }
+            }
+        }
+        File buildFile = File.createTempFile("azure-package", ".xml");
+        buildFile.deleteOnExit();
+        ParseXML.saveXMLDocument(buildFile.getPath(), doc);
+        return buildFile;
+    }
+
+    /**
+     * @return file package build is run on, package.xml of the module if no component was zipped
+     */
+    public File getBuildFile() {
+        return buildFile != null ? buildFile : new File(PluginUtil.getModulePath(module) + File.separator + message("resCLPkgXML"));
+    }
+
+    /**
+     * Deletes build file and zips of zipped components.
+     */
+    public void restore() {
+        String modulePath = PluginUtil.getModulePath(module);
+        for (String[] roleAndName : zipped) {
+            new File(getApproot(modulePath, roleAndName[0]), roleAndName[1]).delete();
+        }
+        zipped.clear();
+        if (buildFile != null) {
+            buildFile.delete();
+            buildFile = null;
+        }
+    }
+
+    private static boolean contains(List<String[]> zipped, String roleName, String deployName) {
+        for (String[] roleAndName : zipped) {
+            if (roleAndName[0].equals(roleName) && roleAndName[1].equals(deployName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static File getApproot(String modulePath, String roleName) {
+        return new File(modulePath + File.separator + roleName + message("approot"));
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.util;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.module.ModuleTypeId;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.microsoft.intellij.AzurePlugin;
+import com.microsoft.intellij.ui.libraries.AILibraryHandler;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.microsoft.intellij.ui.messages.AzureBundle.message;
+
+/**
+ * Per-module index of Application Insights instrumentation keys, so that preference page and startup
+ * do not have to parse ApplicationInsights.xml and web.xml of every module.
+ * Entries are built on a pooled thread when project is opened and whenever one of these files changes.
+ * Each query checks size and modification time of the files of the entry, so files written without VFS
+ * are picked up at once, and files which did not change are not parsed again.
+ */
+public class InstrumentationKeyIndex {
+    private final Project project;
+    /**
+     * module path -> key configuration of the module.
+     */
+    private final Map<String, ModuleKey> keysPerModule = new ConcurrentHashMap<String, ModuleKey>();
+    private final Set<String> pendingBuilds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> dirtyModules = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public InstrumentationKeyIndex(Project project) {
+        this.project = project;
+        project.getMessageBus().connect(project).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener.Adapter() {
+            @Override
+            public void after(List<? extends VFileEvent> events) {
+                for (VFileEvent event : events) {
+                    String modulePath = getModulePath(new File(event.getPath()));
+                    if (modulePath != null) {
+                        invalidate(modulePath);
+                    }
+                }
+            }
+        });
+    }
+
+    public static InstrumentationKeyIndex getInstance(Project project) {
+        return ServiceManager.getService(project, InstrumentationKeyIndex.class);
+    }
+
+    /**
+     * Builds index for all modules of the project in background.
+     *
+     * @param onIndexed called on pooled thread once all modules are indexed, may be null
+     */
+    public void indexModules(final Runnable onIndexed) {
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            @Override
+            public void run() {
+                for (Module module : getJavaModules()) {
+                    getModuleKey(module);
+                }
+                if (onIndexed != null) {
+                    onIndexed.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return instrumentation keys configured in modules of the project, modules not indexed yet are indexed now
+     */
+    public List<String> getInUseKeys() {
+        List<String> keys = new ArrayList<String>();
+        for (Module module : getJavaModules()) {
+            String key = getModuleKey(module).key;
+            if (key != null && !key.isEmpty()) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return name of the module whose web filter uses given key, or empty string
+     */
+    public String getModuleName(String key) {
+        for (Module module : getJavaModules()) {
+            ModuleKey moduleKey = getModuleKey(module);
+            if (moduleKey.filterConfigured && key.equals(moduleKey.key)) {
+                return module.getName();
+            }
+        }
+        return "";
+    }
+
+    /**
+     * @return instrumentation key of the module, or null
+     */
+    public String getKey(Module module) {
+        return getModuleKey(module).key;
+    }
+
+    /**
+     * Schedules rebuild of module entry in background, so that next query finds it up to date.
+     */
+    public void invalidate(String modulePath) {
+        scheduleBuild(modulePath);
+    }
+
+    private ModuleKey getModuleKey(Module module) {
+        String modulePath = PluginUtil.getModulePath(module);
+        ModuleKey cached = keysPerModule.get(key(modulePath));
+        ModuleKey moduleKey = loadModuleKey(modulePath, cached);
+        if (moduleKey != cached) {
+            keysPerModule.put(key(modulePath), moduleKey);
+        }
+        return moduleKey;
+    }
+
+    private List<Module> getJavaModules() {
+        List<Module> javaModules = new ArrayList<Module>();
+        for (Module module : ModuleManager.getInstance(project).getModules()) {
+            if (module != null && module.isLoaded() && ModuleTypeId.JAVA_MODULE.equals(module.getOptionValue(Module.ELEMENT_TYPE))) {
+                javaModules.add(module);
+            }
+        }
+        return javaModules;
+    }
+
+    private void scheduleBuild(final String modulePath) {
+        final String key = key(modulePath);
+        dirtyModules.add(key);
+        if (!pendingBuilds.add(key)) {
+            // running build will pick up dirty flag
+            return;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (dirtyModules.remove(key)) {
+                        keysPerModule.put(key, loadModuleKey(modulePath, keysPerModule.get(key)));
+                    }
+                } finally {
+                    pendingBuilds.remove(key);
+                }
+                if (dirtyModules.contains(key)) {
+                    scheduleBuild(modulePath);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param previous entry whose files are parsed again only if they changed, may be null
+     */
+    private static ModuleKey loadModuleKey(String modulePath, ModuleKey previous) {
+        File aiXMLFile = new File(modulePath, message("aiXMLPath"));
+        File webXMLFile = new File(modulePath, message("xmlPath"));
+        ModuleKey moduleKey = new ModuleKey(stamp(aiXMLFile), stamp(webXMLFile));
+        if (previous != null && previous.aiXMLStamp.equals(moduleKey.aiXMLStamp)
+                && previous.webXMLStamp.equals(moduleKey.webXMLStamp)) {
+            return previous;
+        }
+        if (aiXMLFile.exists()) {
+            try {
+                AILibraryHandler handler = new AILibraryHandler();
+                handler.parseAIConfXmlPath(aiXMLFile.getPath());
+                moduleKey.key = handler.getAIInstrumentationKey();
+                if (webXMLFile.exists()) {
+                    handler.parseWebXmlPath(webXMLFile.getPath());
+                    moduleKey.filterConfigured = handler.isAIWebFilterConfigured();
+                }
+            } catch (Exception ex) {
+                AzurePlugin.log(ex.getMessage(), ex);
+            }
+        }
+        return moduleKey;
+    }
+
+    /**
+     * @return path of module whose ApplicationInsights.xml or web.xml is the file, or null
+     */
+    private static String getModulePath(File file) {
+        for (String relativePath : new String[]{message("aiXMLPath"), message("xmlPath")}) {
+            if (!file.getName().equals(new File(relativePath).getName())) {
+                continue;
+            }
+            File moduleFolder = file;
+            int depth = relativePath.split("/").length;
+            for (int i = 0; i < depth && moduleFolder != null; i++) {
+                moduleFolder = moduleFolder.getParentFile();
+            }
+            if (moduleFolder != null && new File(moduleFolder, relativePath).equals(file)) {
+                return moduleFolder.getPath();
+            }
+        }
+        return null;
+    }
+
+    private static String stamp(File file) {
+        return file.length() + ":" + file.lastModified();
+    }
+
+    private static String key(String path) {
+        return new File(path).getPath();
+    }
+
+    private static class ModuleKey {
+        private final String aiXMLStamp;
+        private final String webXMLStamp;
+        private String key;
+        private boolean filterConfigured;
+
+        private ModuleKey(String aiXMLStamp, String webXMLStamp) {
+            this.aiXMLStamp = aiXMLStamp;
+            this.webXMLStamp = webXMLStamp;
+        }
+    }
+}
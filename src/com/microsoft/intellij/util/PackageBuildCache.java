@@ -0,0 +1,302 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.util;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.interopbridges.tools.windowsazure.WindowsAzureProjectManager;
+import com.interopbridges.tools.windowsazure.WindowsAzureRole;
+import com.interopbridges.tools.windowsazure.WindowsAzureRoleComponent;
+import com.interopbridges.tools.windowsazure.WindowsAzureRoleComponentImportMethod;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.microsoft.intellij.ui.messages.AzureBundle.message;
+
+/**
+ * Fingerprints of cloud package build inputs, so that publish can reuse package built from the same inputs.
+ * <p/>
+ * Each role is fingerprinted by its approot files and files imported by its components, project by its
+ * descriptors. Imported components are left out of approot, as build writes them there. Files are compared
+ * by path, size and modification time, descriptors by content, as they are rewritten before every build.
+ * Package is reused only if no role changed and package files are the ones written by the recorded build,
+ * otherwise whole package is built again, as cspack packages all roles at once.
+ * Incremental build can be turned off with -Dazure.toolkit.build.incremental=false.
+ */
+public class PackageBuildCache {
+    private static final Logger LOG = Logger.getInstance("#com.microsoft.intellij.util.PackageBuildCache");
+    public static final String INCREMENTAL_PROPERTY = "azure.toolkit.build.incremental";
+    private static final String CACHE_DIR = System.getProperty("user.home") + File.separator + ".azure" + File.separator + "builds";
+    private static final Pattern ENV_VARIABLE = Pattern.compile("%([^%]+)%");
+    private static final String PROJECT_KEY = "project";
+    private static final String ROLE_KEY_PREFIX = "role.";
+    private static final String OUTPUT_KEY_PREFIX = "output.";
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty(INCREMENTAL_PROPERTY, "true"));
+    }
+
+    /**
+     * Fingerprints current build inputs of the module.
+     */
+    public static Fingerprint fingerprint(Module module, WindowsAzureProjectManager waProjManager) throws Exception {
+        String modulePath = PluginUtil.getModulePath(module);
+        Map<String, String> hashes = new TreeMap<String, String>();
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (String descriptor : new String[]{message("resCLPkgXML"), message("csdefDefaultFileName"), message("cscfgDefaultFileName")}) {
+            updateWithContent(digest, new File(modulePath, descriptor));
+        }
+        hashes.put(PROJECT_KEY, toHex(digest.digest()));
+        for (WindowsAzureRole role : waProjManager.getRoles()) {
+            hashes.put(ROLE_KEY_PREFIX + role.getName(), fingerprintRole(modulePath, role));
+        }
+        String deployFolderPath = WAHelper.getDeployFolderPath(waProjManager, module);
+        return new Fingerprint(modulePath, hashes, new File(deployFolderPath, message("cspckDefaultFileName")),
+                new File(deployFolderPath, message("cscfgDefaultFileName")), new File(deployFolderPath, message("bldErFileName")));
+    }
+
+    private static String fingerprintRole(String modulePath, WindowsAzureRole role) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        File approot = new File(modulePath + File.separator + role.getName() + message("approot"));
+        // components imported by build are written to approot, they are fingerprinted by their sources
+        Set<String> imported = new HashSet<String>();
+        for (WindowsAzureRoleComponent component : role.getComponents()) {
+            if (component.getImportMethod() != WindowsAzureRoleComponentImportMethod.none
+                    && component.getDeployName() != null && !component.getDeployName().isEmpty()) {
+                imported.add("/" + component.getDeployName());
+            }
+        }
+        updateWithTree(digest, approot, "", imported);
+        for (WindowsAzureRoleComponent component : role.getComponents()) {
+            String importPath = component.getImportPath();
+            update(digest, "import:" + importPath + "|" + component.getImportMethod() + "|" + component.getDeployName()
+                    + "|" + component.getDeployMethod() + "|" + component.getDeployDir());
+            if (importPath != null && !importPath.isEmpty()) {
+                File importedFile = new File(expandEnvironment(importPath));
+                if (!importedFile.isAbsolute()) {
+                    importedFile = new File(approot, importedFile.getPath());
+                }
+                updateWithTree(digest, importedFile, "", Collections.<String>emptySet());
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return true if package of the last successful build has the same inputs and is still in deploy folder
+     */
+    public static boolean isUpToDate(Fingerprint fingerprint) {
+        Properties recorded = load(fingerprint.modulePath);
+        if (recorded == null) {
+            return false;
+        }
+        boolean upToDate = fingerprint.hashes.get(PROJECT_KEY).equals(recorded.getProperty(PROJECT_KEY));
+        if (!upToDate) {
+            LOG.info("Project descriptors changed, building package");
+        }
+        for (Map.Entry<String, String> entry : fingerprint.hashes.entrySet()) {
+            if (entry.getKey().startsWith(ROLE_KEY_PREFIX) && !entry.getValue().equals(recorded.getProperty(entry.getKey()))) {
+                LOG.info("Role " + entry.getKey().substring(ROLE_KEY_PREFIX.length()) + " changed, building package");
+                upToDate = false;
+            }
+        }
+        for (String key : recorded.stringPropertyNames()) {
+            if (key.startsWith(ROLE_KEY_PREFIX) && !fingerprint.hashes.containsKey(key)) {
+                upToDate = false;
+            }
+        }
+        if (!upToDate) {
+            return false;
+        }
+        return !fingerprint.buildFailureFile.exists()
+                && describe(fingerprint.packageFile).equals(recorded.getProperty(OUTPUT_KEY_PREFIX + "package"))
+                && describe(fingerprint.configurationFile).equals(recorded.getProperty(OUTPUT_KEY_PREFIX + "configuration"));
+    }
+
+    /**
+     * Forgets recorded build of the module, must be called before build starts to replace package files.
+     */
+    public static void invalidate(String modulePath) {
+        File file = getCacheFile(modulePath);
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Failed to delete " + file);
+        }
+    }
+
+    /**
+     * Records fingerprint taken before successful build, together with package files it produced.
+     */
+    public static void record(Fingerprint fingerprint) {
+        if (fingerprint.buildFailureFile.exists() || !fingerprint.packageFile.isFile() || !fingerprint.configurationFile.isFile()) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.putAll(fingerprint.hashes);
+        properties.setProperty(OUTPUT_KEY_PREFIX + "package", describe(fingerprint.packageFile));
+        properties.setProperty(OUTPUT_KEY_PREFIX + "configuration", describe(fingerprint.configurationFile));
+        File file = getCacheFile(fingerprint.modulePath);
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                throw new IOException("Cannot create " + file.getParentFile());
+            }
+            OutputStream output = new FileOutputStream(tmpFile);
+            try {
+                properties.store(output, fingerprint.modulePath);
+            } finally {
+                output.close();
+            }
+            if (file.exists() && !file.delete() || !tmpFile.renameTo(file)) {
+                throw new IOException("Cannot replace " + file);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to record package build of " + fingerprint.modulePath, e);
+            tmpFile.delete();
+        }
+    }
+
+    private static Properties load(String modulePath) {
+        File file = getCacheFile(modulePath);
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try {
+            InputStream input = new FileInputStream(file);
+            try {
+                properties.load(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to read " + file, e);
+            return null;
+        }
+        return properties;
+    }
+
+    private static File getCacheFile(String modulePath) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, new File(modulePath).getAbsolutePath());
+            return new File(CACHE_DIR, toHex(digest.digest()).substring(0, 32) + ".properties");
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void updateWithTree(MessageDigest digest, File file, String relativePath, Set<String> excluded) {
+        if (excluded.contains(relativePath)) {
+            return;
+        }
+        if (file.isDirectory()) {
+            update(digest, "d:" + relativePath);
+            String[] names = file.list();
+            if (names != null) {
+                Arrays.sort(names);
+                for (String name : names) {
+                    updateWithTree(digest, new File(file, name), relativePath + "/" + name, excluded);
+                }
+            }
+        } else if (file.isFile()) {
+            update(digest, "f:" + relativePath + "|" + file.length() + "|" + file.lastModified());
+        } else {
+            update(digest, "missing:" + relativePath);
+        }
+    }
+
+    private static void updateWithContent(MessageDigest digest, File file) throws IOException {
+        update(digest, file.getName());
+        if (!file.isFile()) {
+            return;
+        }
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        try {
+            digest.update(value.getBytes("UTF-8"));
+            digest.update((byte) 0);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String expandEnvironment(String path) {
+        Matcher matcher = ENV_VARIABLE.matcher(path);
+        StringBuffer expanded = new StringBuffer();
+        while (matcher.find()) {
+            String value = System.getenv(matcher.group(1));
+            matcher.appendReplacement(expanded, Matcher.quoteReplacement(value == null ? matcher.group() : value));
+        }
+        matcher.appendTail(expanded);
+        return expanded.toString();
+    }
+
+    private static String describe(File file) {
+        return file.isFile() ? file.length() + ":" + file.lastModified() : "";
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Build inputs of a module at one point in time.
+     */
+    public static class Fingerprint {
+        private final String modulePath;
+        private final Map<String, String> hashes;
+        private final File packageFile;
+        private final File configurationFile;
+        private final File buildFailureFile;
+
+        private Fingerprint(String modulePath, Map<String, String> hashes, File packageFile, File configurationFile, File buildFailureFile) {
+            this.modulePath = modulePath;
+            this.hashes = hashes;
+            this.packageFile = packageFile;
+            this.configurationFile = configurationFile;
+            this.buildFailureFile = buildFailureFile;
+        }
+
+        public String getModulePath() {
+            return modulePath;
+        }
+    }
+}
@@ -0,0 +1,563 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.util;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes standard zip of a file or directory, compressing entries on several threads.
+ * <p/>
+ * Directory is stored under its own name, as Ant zip task used for "zip" import method stores it.
+ * Files are deflated in parallel, each by its own task, and entries are written in directory order by
+ * the calling thread. Files bigger than {@link #MEMORY_LIMIT} are all started first, biggest first, so that
+ * a big file does not finish last, and their compressed data is spilled to temporary files. Smaller files
+ * are compressed in memory, only a bounded number of them ahead of the writer. Zip64 records are written
+ * only when number of entries, sizes or offsets exceed the limits of plain zip.
+ * <p/>
+ * Compression level 0 stores all files, 1-9 are deflate levels; files which are compressed already
+ * (archives, images) and files which do not get smaller are always stored. Level and number of threads
+ * can be changed with -Dazure.toolkit.zip.level=N and -Dazure.toolkit.zip.threads=N.
+ */
+public class ParallelZip {
+    private static final Logger LOG = Logger.getInstance("#com.microsoft.intellij.util.ParallelZip");
+    public static final String LEVEL_PROPERTY = "azure.toolkit.zip.level";
+    public static final String THREADS_PROPERTY = "azure.toolkit.zip.threads";
+    public static final int STORE_ONLY = 0;
+    private static final String THREAD_NAME_PREFIX = "Azure Zip-";
+    private static final int MEMORY_LIMIT = 1024 * 1024;
+    // entries compressed ahead of the writer, per thread, bounds memory held by finished entries
+    private static final int QUEUED_PER_THREAD = 4;
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<String>(Arrays.asList(
+            "zip", "jar", "war", "ear", "gz", "tgz", "bz2", "xz", "7z", "rar", "cab", "png", "jpg", "jpeg", "gif", "mp3", "mp4"));
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int UTF8_NAMES = 1 << 11;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int DIRECTORY_ATTRIBUTE = 0x10;
+    private static final long MAX_32 = 0xffffffffL;
+    private static final int MAX_16 = 0xffff;
+
+    private final int level;
+    private final int threads;
+
+    public ParallelZip(int level, int threads) {
+        if (level < STORE_ONLY || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9");
+        }
+        this.level = level;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Creates zip with configured compression level and number of threads.
+     */
+    public static ParallelZip create() {
+        int level = Deflater.DEFAULT_COMPRESSION;
+        String value = System.getProperty(LEVEL_PROPERTY);
+        if (value != null) {
+            try {
+                level = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid value of " + LEVEL_PROPERTY + ": " + value);
+            }
+        }
+        if (level < STORE_ONLY || level > Deflater.BEST_COMPRESSION) {
+            level = 6;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        value = System.getProperty(THREADS_PROPERTY);
+        if (value != null) {
+            try {
+                threads = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid value of " + THREADS_PROPERTY + ": " + value);
+            }
+        }
+        return new ParallelZip(level, threads);
+    }
+
+    /**
+     * Zips file or directory, replacing zip file if it exists. Zip is written to a temporary file next to it first,
+     * so that incomplete zip never replaces a complete one.
+     */
+    public void zip(File source, File zipFile) throws IOException, InterruptedException {
+        if (!source.exists()) {
+            throw new FileNotFoundException(source.getPath());
+        }
+        List<Entry> entries = new ArrayList<Entry>();
+        collect(source, source.getName(), entries);
+
+        File tmpFile = new File(zipFile.getParentFile(), zipFile.getName() + ".tmp");
+        ExecutorService executor = createExecutor();
+        try {
+            CountingOutputStream output = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 64 * 1024));
+            try {
+                write(entries, executor, output);
+            } finally {
+                output.close();
+            }
+            if (zipFile.exists() && !zipFile.delete() || !tmpFile.renameTo(zipFile)) {
+                throw new IOException("Cannot replace " + zipFile);
+            }
+        } finally {
+            executor.shutdownNow();
+            for (Entry entry : entries) {
+                entry.dispose();
+            }
+            if (tmpFile.exists() && !tmpFile.delete()) {
+                LOG.warn("Failed to delete " + tmpFile);
+            }
+        }
+    }
+
+    private void write(List<Entry> entries, ExecutorService executor, CountingOutputStream output) throws IOException, InterruptedException {
+        Map<Entry, Future<Void>> futures = new HashMap<Entry, Future<Void>>();
+        // large entries are spilled to disk, they are all started right away, biggest first
+        List<Entry> large = new ArrayList<Entry>();
+        for (Entry entry : entries) {
+            if (entry.isLarge()) {
+                large.add(entry);
+            }
+        }
+        Collections.sort(large, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry entry1, Entry entry2) {
+                return entry1.size < entry2.size ? 1 : entry1.size == entry2.size ? 0 : -1;
+            }
+        });
+        for (Entry entry : large) {
+            futures.put(entry, executor.submit(entry.compressTask(level)));
+        }
+        // small entries are kept in memory, only a bounded number of them is compressed ahead of the writer
+        int maxQueued = threads * QUEUED_PER_THREAD;
+        int queued = 0;
+        int next = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            for (; next < entries.size() && (next <= i || queued < maxQueued); next++) {
+                Entry ahead = entries.get(next);
+                if (!ahead.directory && !ahead.isLarge()) {
+                    futures.put(ahead, executor.submit(ahead.compressTask(level)));
+                    queued++;
+                }
+            }
+            Entry entry = entries.get(i);
+            Future<Void> future = futures.remove(entry);
+            if (future != null) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                }
+                if (!entry.isLarge()) {
+                    queued--;
+                }
+            }
+            entry.offset = output.count;
+            writeLocalHeader(entry, output);
+            entry.writeData(output);
+            entry.dispose();
+        }
+        writeCentralDirectory(entries, output);
+    }
+
+    private ExecutorService createExecutor() {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, THREAD_NAME_PREFIX + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static void collect(File file, String name, List<Entry> entries) {
+        if (file.isDirectory()) {
+            entries.add(new Entry(file, name + "/", true));
+            String[] names = file.list();
+            if (names != null) {
+                Arrays.sort(names);
+                for (String child : names) {
+                    collect(new File(file, child), name + "/" + child, entries);
+                }
+            }
+        } else if (file.isFile()) {
+            entries.add(new Entry(file, name, false));
+        }
+    }
+
+    private static void writeLocalHeader(Entry entry, CountingOutputStream output) throws IOException {
+        boolean zip64 = entry.size >= MAX_32 || entry.compressedSize >= MAX_32;
+        output.writeInt(LOCAL_HEADER);
+        output.writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+        output.writeShort(UTF8_NAMES);
+        output.writeShort(entry.method);
+        output.writeInt(entry.dosTime);
+        output.writeInt((int) entry.crc);
+        output.writeInt((int) (zip64 ? MAX_32 : entry.compressedSize));
+        output.writeInt((int) (zip64 ? MAX_32 : entry.size));
+        output.writeShort(entry.nameBytes.length);
+        output.writeShort(zip64 ? 20 : 0);
+        output.write(entry.nameBytes);
+        if (zip64) {
+            output.writeShort(ZIP64_EXTRA);
+            output.writeShort(16);
+            output.writeLong(entry.size);
+            output.writeLong(entry.compressedSize);
+        }
+    }
+
+    private static void writeCentralDirectory(List<Entry> entries, CountingOutputStream output) throws IOException {
+        long start = output.count;
+        for (Entry entry : entries) {
+            boolean sizeZip64 = entry.size >= MAX_32 || entry.compressedSize >= MAX_32;
+            boolean offsetZip64 = entry.offset >= MAX_32;
+            int extraLength = (sizeZip64 ? 16 : 0) + (offsetZip64 ? 8 : 0);
+            boolean zip64 = extraLength > 0;
+            output.writeInt(CENTRAL_HEADER);
+            output.writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+            output.writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+            output.writeShort(UTF8_NAMES);
+            output.writeShort(entry.method);
+            output.writeInt(entry.dosTime);
+            output.writeInt((int) entry.crc);
+            output.writeInt((int) (sizeZip64 ? MAX_32 : entry.compressedSize));
+            output.writeInt((int) (sizeZip64 ? MAX_32 : entry.size));
+            output.writeShort(entry.nameBytes.length);
+            output.writeShort(zip64 ? extraLength + 4 : 0);
+            output.writeShort(0);
+            output.writeShort(0);
+            output.writeShort(0);
+            output.writeInt(entry.directory ? DIRECTORY_ATTRIBUTE : 0);
+            output.writeInt((int) (offsetZip64 ? MAX_32 : entry.offset));
+            output.write(entry.nameBytes);
+            if (zip64) {
+                output.writeShort(ZIP64_EXTRA);
+                output.writeShort(extraLength);
+                if (sizeZip64) {
+                    output.writeLong(entry.size);
+                    output.writeLong(entry.compressedSize);
+                }
+                if (offsetZip64) {
+                    output.writeLong(entry.offset);
+                }
+            }
+        }
+        long end = output.count;
+        long size = end - start;
+        boolean zip64 = entries.size() >= MAX_16 || size >= MAX_32 || start >= MAX_32;
+        if (zip64) {
+            output.writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY);
+            output.writeLong(44);
+            output.writeShort(VERSION_ZIP64);
+            output.writeShort(VERSION_ZIP64);
+            output.writeInt(0);
+            output.writeInt(0);
+            output.writeLong(entries.size());
+            output.writeLong(entries.size());
+            output.writeLong(size);
+            output.writeLong(start);
+            output.writeInt(ZIP64_LOCATOR);
+            output.writeInt(0);
+            output.writeLong(end);
+            output.writeInt(1);
+        }
+        output.writeInt(END_OF_CENTRAL_DIRECTORY);
+        output.writeShort(0);
+        output.writeShort(0);
+        output.writeShort(zip64 ? MAX_16 : entries.size());
+        output.writeShort(zip64 ? MAX_16 : entries.size());
+        output.writeInt((int) (zip64 ? MAX_32 : size));
+        output.writeInt((int) (zip64 ? MAX_32 : start));
+        output.writeShort(0);
+    }
+
+    private static int toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            // earliest time zip can hold
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21 | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11 | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private static boolean isCompressed(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * One zip entry; sizes, checksum and compressed data are filled in by its compression task.
+     */
+    private static class Entry {
+        private final File file;
+        private final byte[] nameBytes;
+        private final boolean directory;
+        private final long size;
+        private final int dosTime;
+        private int method = STORED;
+        private long crc;
+        private long compressedSize;
+        private long offset;
+        private SpillBuffer data;
+
+        private Entry(File file, String name, boolean directory) {
+            this.file = file;
+            this.directory = directory;
+            this.size = directory ? 0 : file.length();
+            this.dosTime = toDosTime(file.lastModified());
+            try {
+                this.nameBytes = name.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private Callable<Void> compressTask(final int level) {
+            return new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    if (!directory) {
+                        compress(level);
+                    }
+                    return null;
+                }
+            };
+        }
+
+        private void compress(int level) throws IOException {
+            CRC32 checksum = new CRC32();
+            byte[] buffer = new byte[64 * 1024];
+            byte[] output = new byte[64 * 1024];
+            boolean deflate = level != STORE_ONLY && size > 0 && !isCompressed(file.getName());
+            Deflater deflater = deflate ? new Deflater(level, true) : null;
+            SpillBuffer compressed = deflate ? new SpillBuffer() : null;
+            InputStream input = new FileInputStream(file);
+            try {
+                long read = 0;
+                int count;
+                while ((count = input.read(buffer)) != -1) {
+                    checksum.update(buffer, 0, count);
+                    read += count;
+                    if (deflate) {
+                        deflater.setInput(buffer, 0, count);
+                        while (!deflater.needsInput()) {
+                            compressed.write(output, 0, deflater.deflate(output));
+                        }
+                    }
+                }
+                if (read != size) {
+                    throw new IOException(file + " changed while it was zipped");
+                }
+                if (deflate) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        compressed.write(output, 0, deflater.deflate(output));
+                    }
+                }
+            } catch (IOException e) {
+                if (compressed != null) {
+                    compressed.dispose();
+                }
+                throw e;
+            } finally {
+                input.close();
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
+            crc = checksum.getValue();
+            if (deflate && compressed.size() < size) {
+                method = DEFLATED;
+                compressedSize = compressed.size();
+                data = compressed;
+            } else {
+                if (compressed != null) {
+                    compressed.dispose();
+                }
+                compressedSize = size;
+            }
+        }
+
+        private boolean isLarge() {
+            return !directory && size > MEMORY_LIMIT;
+        }
+
+        private void writeData(OutputStream output) throws IOException {
+            if (directory) {
+                return;
+            }
+            if (data != null) {
+                data.writeTo(output);
+                return;
+            }
+            // stored entries are copied from the file
+            InputStream input = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                long remaining = size;
+                int count;
+                while (remaining > 0 && (count = input.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                    output.write(buffer, 0, count);
+                    remaining -= count;
+                }
+                if (remaining > 0) {
+                    throw new IOException(file + " changed while it was zipped");
+                }
+            } finally {
+                input.close();
+            }
+        }
+
+        private void dispose() {
+            if (data != null) {
+                data.dispose();
+                data = null;
+            }
+        }
+    }
+
+    /**
+     * Output kept in memory up to {@link #MEMORY_LIMIT} bytes, then moved to a temporary file.
+     */
+    private static class SpillBuffer extends OutputStream {
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private File spillFile;
+        private OutputStream spill;
+        private long size;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (spill == null && memory.size() + len > MEMORY_LIMIT) {
+                spillFile = File.createTempFile("azure-zip", ".tmp");
+                spill = new BufferedOutputStream(new FileOutputStream(spillFile), 64 * 1024);
+                memory.writeTo(spill);
+                memory = null;
+            }
+            if (spill != null) {
+                spill.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+            size += len;
+        }
+
+        private long size() {
+            return size;
+        }
+
+        private void writeTo(OutputStream output) throws IOException {
+            if (spill == null) {
+                memory.writeTo(output);
+                return;
+            }
+            spill.close();
+            InputStream input = new FileInputStream(spillFile);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int count;
+                while ((count = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, count);
+                }
+            } finally {
+                input.close();
+            }
+        }
+
+        private void dispose() {
+            memory = null;
+            if (spill != null) {
+                try {
+                    spill.close();
+                } catch (IOException e) {
+                    // only deleted
+                }
+                if (!spillFile.delete()) {
+                    spillFile.deleteOnExit();
+                }
+                spill = null;
+            }
+        }
+    }
+
+    /**
+     * Little-endian output counting written bytes, for entry offsets.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream output) {
+            super(output);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        private void writeShort(int value) throws IOException {
+            write(value & 0xff);
+            write((value >>> 8) & 0xff);
+        }
+
+        private void writeInt(int value) throws IOException {
+            writeShort(value & 0xffff);
+            writeShort((value >>> 16) & 0xffff);
+        }
+
+        private void writeLong(long value) throws IOException {
+            writeInt((int) value);
+            writeInt((int) (value >>> 32));
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.util;
+
+import com.intellij.ide.plugins.cl.PluginClassLoader;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressManager;
+
+import java.io.*;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.microsoft.intellij.ui.messages.AzureBundle.message;
+
+/**
+ * Installs files bundled with the plugin into plugin folder, off the startup thread and only when they changed.
+ * <p/>
+ * Install manifest in plugin folder records, for each installed file, hash of the bundled resource it was installed from
+ * and size and modification time of the file at that point. At startup only the plugin jar and installed files are
+ * checked against the manifest, which takes a few file system calls. If anything differs, files are reconciled
+ * on a background thread: resources are hashed again only if the plugin jar changed, files only if their size or
+ * modification time changed, and a file is installed again only if its content differs from its resource.
+ * Code reading installed files waits for running installation with {@link #awaitInstalled}; code which only
+ * computes their paths, such as static initializers, does not wait.
+ */
+public class PluginResourceInstaller {
+    private static final Logger LOG = Logger.getInstance("#com.microsoft.intellij.util.PluginResourceInstaller");
+    private static final String MANIFEST_NAME = "install-manifest.properties";
+    private static final String THREAD_NAME = "Azure Resource Install";
+    private static final String JAR_KEY = "jar";
+    private static final String INSTALL_MILLIS_KEY = "installMillis";
+    private static final String FILE_KEY_PREFIX = "file.";
+    private static final long AWAIT_TIMEOUT_SECONDS = 60;
+
+    private static volatile CountDownLatch installing = new CountDownLatch(0);
+    private static volatile Thread installThread;
+
+    private final File pluginFolder;
+    private final File pluginJar;
+    private final Map<String, Resource> resources = new LinkedHashMap<String, Resource>();
+    private final List<String> jarDirectories = new ArrayList<String>();
+
+    /**
+     * @param pluginJar jar whose resources are installed, its size and modification time tell whether they changed
+     */
+    public PluginResourceInstaller(File pluginFolder, File pluginJar) {
+        this.pluginFolder = pluginFolder;
+        this.pluginJar = pluginJar;
+    }
+
+    /**
+     * Adds resource to be copied to given path of plugin folder.
+     */
+    public PluginResourceInstaller add(String resourceName, String relativePath) {
+        return add(resourceName, relativePath, null);
+    }
+
+    /**
+     * Adds resource to be installed by given installer, for files which can be modified by user.
+     */
+    public PluginResourceInstaller add(String resourceName, String relativePath, Installer installer) {
+        resources.put(relativePath, new Resource(resourceName, installer));
+        return this;
+    }
+
+    /**
+     * Adds all files of a directory in plugin jar, each copied to the same path in plugin folder.
+     */
+    public PluginResourceInstaller addJarDirectory(String location) {
+        jarDirectories.add(location);
+        return this;
+    }
+
+    /**
+     * Checks installed files against install manifest and starts installation in background if any of them changed.
+     *
+     * @return true if all files were up to date and nothing was started
+     */
+    public boolean start() {
+        long start = System.currentTimeMillis();
+        final Properties manifest = loadManifest();
+        List<String> paths = getInstalledPaths(manifest);
+        if (paths != null && describe(pluginJar).equals(manifest.getProperty(JAR_KEY)) && isUnchanged(manifest, paths)) {
+            LOG.info(String.format("Plugin resources are up to date, %d files verified in %d ms, installation of %s ms skipped",
+                    paths.size(), System.currentTimeMillis() - start, manifest.getProperty(INSTALL_MILLIS_KEY, "?")));
+            return true;
+        }
+        synchronized (PluginResourceInstaller.class) {
+            if (installing.getCount() > 0) {
+                return false;
+            }
+            installing = new CountDownLatch(1);
+            installThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        install(manifest);
+                    } catch (Throwable t) {
+                        LOG.error("Failed to install plugin resources", t);
+                    } finally {
+                        installing.countDown();
+                    }
+                }
+            }, THREAD_NAME);
+            installThread.setDaemon(true);
+            installThread.start();
+        }
+        LOG.info(String.format("Plugin resources changed, installing in background after %d ms check",
+                System.currentTimeMillis() - start));
+        return false;
+    }
+
+    /**
+     * Waits for installation started with {@link #start}, if any, so that installed files are complete.
+     * Dispatch thread is not blocked: there the wait runs under modal progress, so it must not be called
+     * under write action.
+     */
+    public static void awaitInstalled() {
+        final CountDownLatch latch = installing;
+        if (latch.getCount() == 0 || Thread.currentThread() == installThread) {
+            return;
+        }
+        Application application = ApplicationManager.getApplication();
+        if (application != null && application.isDispatchThread()) {
+            ProgressManager.getInstance().runProcessWithProgressSynchronously(new Runnable() {
+                @Override
+                public void run() {
+                    await(latch);
+                }
+            }, message("installingResources"), false, null);
+        } else {
+            await(latch);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(AWAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("Plugin resources are still being installed");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return paths of files to install known from manifest, null if they can be known only from plugin jar
+     */
+    private List<String> getInstalledPaths(Properties manifest) {
+        List<String> paths = new ArrayList<String>(resources.keySet());
+        for (String location : jarDirectories) {
+            boolean found = false;
+            for (String key : manifest.stringPropertyNames()) {
+                if (key.startsWith(FILE_KEY_PREFIX + location)) {
+                    paths.add(key.substring(FILE_KEY_PREFIX.length()));
+                    found = true;
+                }
+            }
+            if (!found) {
+                return null;
+            }
+        }
+        return paths;
+    }
+
+    private boolean isUnchanged(Properties manifest, List<String> paths) {
+        for (String path : paths) {
+            Entry entry = Entry.parse(manifest.getProperty(FILE_KEY_PREFIX + path));
+            if (entry == null || !entry.stamp.equals(describe(new File(pluginFolder, path)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void install(Properties manifest) throws Exception {
+        long start = System.currentTimeMillis();
+        boolean jarChanged = !describe(pluginJar).equals(manifest.getProperty(JAR_KEY));
+        Map<String, Resource> all = new LinkedHashMap<String, Resource>(resources);
+        for (String location : jarDirectories) {
+            List<String> paths = jarChanged ? null : getInstalledPaths(manifest);
+            if (paths == null) {
+                paths = ArchiveIndex.get(pluginJar).getEntryNames(location);
+            }
+            for (String path : paths) {
+                all.put(path, new Resource(path, null));
+            }
+        }
+        Properties updated = new Properties();
+        int installed = 0;
+        for (Map.Entry<String, Resource> resource : all.entrySet()) {
+            File target = new File(pluginFolder, resource.getKey());
+            Entry entry = Entry.parse(manifest.getProperty(FILE_KEY_PREFIX + resource.getKey()));
+            try {
+                URL url = findResource(resource.getValue().name);
+                String resourceHash = !jarChanged && entry != null ? entry.hash : hash(url.openStream());
+                boolean settled = entry != null && entry.hash.equals(resourceHash)
+                        && entry.stamp.equals(describe(target));
+                if (!settled && !(target.isFile() && resourceHash.equals(hash(new FileInputStream(target))))) {
+                    if (resource.getValue().installer != null) {
+                        resource.getValue().installer.install(resource.getValue().name, target);
+                    } else {
+                        copy(url, target);
+                    }
+                    installed++;
+                }
+                updated.setProperty(FILE_KEY_PREFIX + resource.getKey(), resourceHash + " " + describe(target));
+            } catch (Exception e) {
+                // file is checked again on next start
+                LOG.warn("Failed to install " + resource.getValue().name + " to " + target, e);
+            }
+        }
+        long millis = System.currentTimeMillis() - start;
+        updated.setProperty(JAR_KEY, describe(pluginJar));
+        updated.setProperty(INSTALL_MILLIS_KEY, String.valueOf(millis));
+        saveManifest(updated);
+        LOG.info(String.format("Installed %d of %d plugin resources in %d ms, off the startup thread",
+                installed, all.size(), millis));
+    }
+
+    private static void copy(URL url, File target) throws IOException {
+        if (!target.getParentFile().isDirectory() && !target.getParentFile().mkdirs()) {
+            throw new IOException("Cannot create " + target.getParentFile());
+        }
+        // file is replaced only when complete, installation may be stopped by IDE exit
+        File tmpFile = new File(target.getParentFile(), target.getName() + ".tmp");
+        InputStream input = url.openStream();
+        try {
+            OutputStream output = new FileOutputStream(tmpFile);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                }
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+        if (target.exists() && !target.delete() || !tmpFile.renameTo(target)) {
+            tmpFile.delete();
+            throw new IOException("Cannot replace " + target);
+        }
+    }
+
+    private static URL findResource(String name) throws IOException {
+        URL url = ((PluginClassLoader) PluginResourceInstaller.class.getClassLoader()).findResource(name);
+        if (url == null) {
+            throw new FileNotFoundException("Plugin resource " + name + " not found");
+        }
+        return url;
+    }
+
+    private static String hash(InputStream input) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    private static String describe(File file) {
+        return file.isFile() ? file.length() + ":" + file.lastModified() : "-";
+    }
+
+    private Properties loadManifest() {
+        Properties properties = new Properties();
+        File file = new File(pluginFolder, MANIFEST_NAME);
+        if (file.isFile()) {
+            try {
+                InputStream input = new FileInputStream(file);
+                try {
+                    properties.load(input);
+                } finally {
+                    input.close();
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to read " + file, e);
+                properties.clear();
+            }
+        }
+        return properties;
+    }
+
+    private void saveManifest(Properties properties) {
+        File file = new File(pluginFolder, MANIFEST_NAME);
+        File tmpFile = new File(pluginFolder, MANIFEST_NAME + ".tmp");
+        try {
+            OutputStream output = new FileOutputStream(tmpFile);
+            try {
+                properties.store(output, "Files installed by the plugin");
+            } finally {
+                output.close();
+            }
+            if (file.exists() && !file.delete() || !tmpFile.renameTo(file)) {
+                throw new IOException("Cannot replace " + file);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to write " + file, e);
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Installs resource to the file, when file differs from the resource.
+     */
+    public interface Installer {
+        void install(String resourceName, File target) throws Exception;
+    }
+
+    private static class Resource {
+        private final String name;
+        private final Installer installer;
+
+        private Resource(String name, Installer installer) {
+            this.name = name;
+            this.installer = installer;
+        }
+    }
+
+    private static class Entry {
+        private final String hash;
+        private final String stamp;
+
+        private Entry(String hash, String stamp) {
+            this.hash = hash;
+            this.stamp = stamp;
+        }
+
+        private static Entry parse(String value) {
+            if (value == null || value.indexOf(' ') < 0) {
+                return null;
+            }
+            return new Entry(value.substring(0, value.indexOf(' ')), value.substring(value.indexOf(' ') + 1));
+        }
+    }
+}
@@ -34,9 +34,6 @@ import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.interopbridges.tools.windowsazure.WindowsAzureInvalidProjectOperationException;
-import com.interopbridges.tools.windowsazure.WindowsAzureProjectManager;
-import com.interopbridges.tools.windowsazure.WindowsAzureRole;
 import com.interopbridges.tools.windowsazure.WindowsAzureRoleComponentImportMethod;
 import com.microsoft.intellij.AzurePlugin;
 import com.microsoft.wacommon.utils.WACommonException;
@@ -135,21 +132,12 @@ public class PluginUtil {
 
     /**
      * Determines whether a folder is a role folder or not.
+     * Answered from {@link RoleFolderIndex}, so it is safe to call from action update().
      *
      * @return true if the folder is a role folder else false.
      */
     public static boolean isRoleFolder(VirtualFile vFile, Module module) {
-        boolean retVal = false;
-        try {
-            WindowsAzureProjectManager projMngr = WindowsAzureProjectManager.load(new File(getModulePath(module)));
-            WindowsAzureRole role = projMngr.roleFromPath(new File(vFile.getPath()));
-            if (role != null) {
-                retVal = true;
-            }
-        } catch (WindowsAzureInvalidProjectOperationException e) {
-//            not a role folder - silently ignore
-        }
-        return retVal;
+        return module != null && RoleFolderIndex.getInstance(module.getProject()).isRoleFolder(vFile, module);
     }
 
     /**
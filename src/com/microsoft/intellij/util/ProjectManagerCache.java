@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.util;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import com.interopbridges.tools.windowsazure.WindowsAzureInvalidProjectOperationException;
+import com.interopbridges.tools.windowsazure.WindowsAzureProjectManager;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.microsoft.intellij.ui.messages.AzureBundle.message;
+
+/**
+ * Project level cache of parsed {@link WindowsAzureProjectManager} objects.
+ * Entries are keyed by module path and validated against modification stamps
+ * of package.xml, ServiceDefinition.csdef and ServiceConfiguration.cscfg.
+ * <p/>
+ * Readers share one instance and must not modify it.
+ * Writers get an instance of their own: the cached one if nobody has read it yet,
+ * otherwise a freshly loaded copy. A writer that calls {@link #save} hands the
+ * instance back to the cache and should not modify it afterwards.
+ */
+public class ProjectManagerCache {
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public static ProjectManagerCache getInstance(Project project) {
+        ProjectManagerCache cache = ServiceManager.getService(project, ProjectManagerCache.class);
+        if (cache == null) {
+            // cache which is not shared would hide writes of other callers, so service must be registered
+            throw new IllegalStateException(ProjectManagerCache.class.getName() + " is not registered as project service");
+        }
+        return cache;
+    }
+
+    /**
+     * Returns shared project manager of the module. Returned object must not be modified.
+     */
+    public WindowsAzureProjectManager getProjectManager(Module module) throws WindowsAzureInvalidProjectOperationException {
+        String modulePath = PluginUtil.getModulePath(module);
+        long[] stamps = getStamps(modulePath);
+        Entry entry = entries.get(modulePath);
+        if (entry != null && Arrays.equals(entry.stamps, stamps)
+                && (entry.state.compareAndSet(Entry.CACHED, Entry.SHARED) || entry.state.get() == Entry.SHARED)) {
+            hits.incrementAndGet();
+            return entry.projectManager;
+        }
+        misses.incrementAndGet();
+        entry = new Entry(WindowsAzureProjectManager.load(new File(modulePath)), stamps, Entry.SHARED);
+        entries.put(modulePath, entry);
+        return entry.projectManager;
+    }
+
+    /**
+     * Returns project manager of the module which is owned by caller and can be modified.
+     */
+    public WindowsAzureProjectManager getProjectManagerForWrite(Module module) throws WindowsAzureInvalidProjectOperationException {
+        String modulePath = PluginUtil.getModulePath(module);
+        Entry entry = entries.get(modulePath);
+        if (entry != null && Arrays.equals(entry.stamps, getStamps(modulePath))
+                && entry.state.compareAndSet(Entry.CACHED, Entry.TAKEN)) {
+            entries.remove(modulePath, entry);
+            hits.incrementAndGet();
+            return entry.projectManager;
+        }
+        misses.incrementAndGet();
+        return WindowsAzureProjectManager.load(new File(modulePath));
+    }
+
+    /**
+     * Saves project manager obtained by {@link #getProjectManagerForWrite} and keeps it
+     * as current state of the module.
+     */
+    public void save(Module module, WindowsAzureProjectManager projectManager) throws WindowsAzureInvalidProjectOperationException {
+        String modulePath = PluginUtil.getModulePath(module);
+        projectManager.save();
+        entries.put(modulePath, new Entry(projectManager, getStamps(modulePath), Entry.CACHED));
+    }
+
+    public void invalidate(Module module) {
+        entries.remove(PluginUtil.getModulePath(module));
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ProjectManagerCache: %d hits, %d misses, %d entries", hits.get(), misses.get(), entries.size());
+    }
+
+    private static long[] getStamps(String modulePath) {
+        String[] fileNames = new String[]{message("resCLPkgXML"), message("csdefDefaultFileName"), message("cscfgDefaultFileName")};
+        long[] stamps = new long[fileNames.length * 2];
+        for (int i = 0; i < fileNames.length; i++) {
+            File file = new File(modulePath, fileNames[i]);
+            stamps[2 * i] = file.lastModified();
+            stamps[2 * i + 1] = file.length();
+        }
+        return stamps;
+    }
+
+    private static class Entry {
+        private static final int CACHED = 0;
+        private static final int SHARED = 1;
+        private static final int TAKEN = 2;
+
+        private final WindowsAzureProjectManager projectManager;
+        private final long[] stamps;
+        private final AtomicInteger state;
+
+        private Entry(WindowsAzureProjectManager projectManager, long[] stamps, int state) {
+            this.projectManager = projectManager;
+            this.stamps = stamps;
+            this.state = new AtomicInteger(state);
+        }
+    }
+}
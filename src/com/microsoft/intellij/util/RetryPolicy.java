@@ -0,0 +1,318 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.util;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.microsoft.azure.storage.OperationContext;
+import com.microsoft.azure.storage.ResponseReceivedEvent;
+import com.microsoft.azure.storage.StorageEvent;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.windowsazure.exception.ServiceException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Retries of Azure management and storage calls.
+ * <p/>
+ * Only transient failures are retried: network errors, request timeouts, throttling and server errors.
+ * Delay between attempts doubles from initial to maximum delay and is randomized by +/-25%;
+ * throttled calls wait four times longer, or as long as Retry-After header of the response asks, if it is known.
+ * Number of attempts can be changed with -Dazure.toolkit.retry.maxAttempts=N.
+ * <p/>
+ * Calls which create something are not idempotent: after a timeout or server error the resource may exist already,
+ * so {@link #nonIdempotent()} policy retries them only when the request was surely not processed.
+ * <p/>
+ * Calls are grouped by circuit, usually subscription id or storage account. After several consecutive
+ * transient failures in a circuit, its calls fail immediately for a while instead of adding load
+ * to a service which is already failing; first call after that decides whether circuit is closed again.
+ */
+public class RetryPolicy {
+    private static final Logger LOG = Logger.getInstance("#com.microsoft.intellij.util.RetryPolicy");
+    public static final String MAX_ATTEMPTS_PROPERTY = "azure.toolkit.retry.maxAttempts";
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final long INITIAL_DELAY_MILLIS = 1000;
+    private static final long MAX_DELAY_MILLIS = 30000;
+    private static final int THROTTLED_DELAY_FACTOR = 4;
+    private static final double JITTER = 0.25;
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_MILLIS = 60000;
+    private static final long MAX_RETRY_AFTER_MILLIS = 300000;
+    public static final String RETRY_AFTER_HEADER = "Retry-After";
+    private static final Random RANDOM = new Random();
+
+    private static final RetryPolicy DEFAULT = new RetryPolicy(SystemProperties.getPositiveInt(MAX_ATTEMPTS_PROPERTY, DEFAULT_MAX_ATTEMPTS), INITIAL_DELAY_MILLIS, MAX_DELAY_MILLIS);
+    private static final Map<String, Circuit> CIRCUITS = new ConcurrentHashMap<String, Circuit>();
+    private static final ThreadLocal<Long> RETRY_AFTER_MILLIS = new ThreadLocal<Long>();
+
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final Set<Integer> retriedStatusCodes = new HashSet<Integer>();
+    private boolean idempotent = true;
+
+    public RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @return policy which also retries given HTTP status, e.g. 409 returned while another operation
+     * on the same deployment is in progress; service which answers so is healthy, so it does not count
+     * towards opening the circuit
+     */
+    public RetryPolicy withRetriedStatus(int statusCode) {
+        RetryPolicy policy = copy();
+        policy.retriedStatusCodes.add(statusCode);
+        return policy;
+    }
+
+    /**
+     * @return policy for calls which must not be repeated once service may have processed them, e.g. creation
+     * of deployment or storage account: only failures to connect and throttling are retried
+     */
+    public RetryPolicy nonIdempotent() {
+        RetryPolicy policy = copy();
+        policy.idempotent = false;
+        return policy;
+    }
+
+    private RetryPolicy copy() {
+        RetryPolicy policy = new RetryPolicy(maxAttempts, initialDelayMillis, maxDelayMillis);
+        policy.retriedStatusCodes.addAll(retriedStatusCodes);
+        policy.idempotent = idempotent;
+        return policy;
+    }
+
+    public static RetryPolicy getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Calls Azure, retrying transient failures.
+     *
+     * @param circuit   calls which fail together, e.g. subscription id, null if circuit breaker should not be used
+     * @param operation name of the call used in log
+     * @throws CircuitOpenException if circuit is open and call was not made
+     * @throws Exception            failure of the last attempt, or first failure which is not transient
+     */
+    public <T> T call(String circuit, String operation, Callable<T> callable) throws Exception {
+        Circuit state = circuit == null ? null : getCircuit(circuit);
+        long delayMillis = initialDelayMillis;
+        for (int attempt = 1; ; attempt++) {
+            if (state != null) {
+                state.checkClosed(circuit);
+            }
+            RETRY_AFTER_MILLIS.remove();
+            try {
+                T result = callable.call();
+                if (state != null) {
+                    state.succeeded();
+                }
+                return result;
+            } catch (Exception e) {
+                boolean retriedStatus = retriedStatusCodes.contains(getHttpStatusCode(e));
+                boolean transientFailure = isTransient(e);
+                if (!transientFailure && !retriedStatus) {
+                    throw e;
+                }
+                if (state != null && transientFailure) {
+                    state.failed();
+                }
+                if (attempt >= maxAttempts || !idempotent && !isRejected(e) && !retriedStatus) {
+                    throw e;
+                }
+                long delay = isThrottled(e) ? Math.min(delayMillis * THROTTLED_DELAY_FACTOR, maxDelayMillis) : delayMillis;
+                delay = (long) (delay * (1 - JITTER + 2 * JITTER * RANDOM.nextDouble()));
+                Long retryAfter = RETRY_AFTER_MILLIS.get();
+                if (retryAfter != null) {
+                    delay = Math.max(delay, Math.min(retryAfter, MAX_RETRY_AFTER_MILLIS));
+                }
+                LOG.info(String.format("%s failed (attempt %d of %d), retrying in %d ms: %s",
+                        operation, attempt, maxAttempts, delay, e.getMessage()));
+                Thread.sleep(delay);
+                delayMillis = Math.min(delayMillis * 2, maxDelayMillis);
+            }
+        }
+    }
+
+    /**
+     * @return true if failure may go away when call is repeated
+     */
+    public static boolean isTransient(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof CircuitOpenException) {
+                return false;
+            }
+            if (t instanceof SocketException || t instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        int status = getHttpStatusCode(error);
+        return status == 408 || status == 429 || status >= 500;
+    }
+
+    /**
+     * @return true if request was surely not processed by service, because connection was not made
+     * or service refused it as throttled
+     */
+    public static boolean isRejected(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof ConnectException) {
+                return true;
+            }
+        }
+        return isThrottled(error);
+    }
+
+    /**
+     * @return true if service asked to slow down
+     */
+    public static boolean isThrottled(Throwable error) {
+        int status = getHttpStatusCode(error);
+        return status == 429 || status == 503;
+    }
+
+    /**
+     * @return HTTP status of the first failed response in causes of error, 0 if there is none
+     */
+    private static int getHttpStatusCode(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            int status = 0;
+            if (t instanceof ServiceException) {
+                status = ((ServiceException) t).getHttpStatusCode();
+            } else if (t instanceof StorageException) {
+                status = ((StorageException) t).getHttpStatusCode();
+            }
+            if (status > 0) {
+                return status;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Records Retry-After header of response received by current thread, so that a retry of the call
+     * in progress waits at least as long. Management client does not expose response headers,
+     * so only storage calls made with {@link #createOperationContext()} report it.
+     */
+    public static void setRetryAfter(String value) {
+        long millis = parseRetryAfter(value, System.currentTimeMillis());
+        if (millis >= 0) {
+            RETRY_AFTER_MILLIS.set(millis);
+        }
+    }
+
+    /**
+     * @return delay in Retry-After header given either in seconds or as HTTP date, -1 if value is missing or invalid
+     */
+    static long parseRetryAfter(String value, long now) {
+        if (value == null || value.trim().isEmpty()) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                return Math.max(0, format.parse(value.trim()).getTime() - now);
+            } catch (ParseException ignored) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @return context for storage calls which passes Retry-After of their responses to this policy
+     */
+    public static OperationContext createOperationContext() {
+        OperationContext context = new OperationContext();
+        context.getResponseReceivedEventHandler().addListener(new StorageEvent<ResponseReceivedEvent>() {
+            @Override
+            public void eventOccurred(ResponseReceivedEvent event) {
+                if (event.getConnectionObject() instanceof HttpURLConnection) {
+                    setRetryAfter(((HttpURLConnection) event.getConnectionObject()).getHeaderField(RETRY_AFTER_HEADER));
+                }
+            }
+        });
+        return context;
+    }
+
+    private static Circuit getCircuit(String circuit) {
+        Circuit state = CIRCUITS.get(circuit);
+        if (state == null) {
+            synchronized (CIRCUITS) {
+                state = CIRCUITS.get(circuit);
+                if (state == null) {
+                    state = new Circuit();
+                    CIRCUITS.put(circuit, state);
+                }
+            }
+        }
+        return state;
+    }
+
+    private static class Circuit {
+        private int consecutiveFailures;
+        private long openUntil;
+
+        private synchronized void checkClosed(String circuit) throws CircuitOpenException {
+            long remaining = openUntil - System.currentTimeMillis();
+            if (remaining > 0) {
+                throw new CircuitOpenException(String.format(
+                        "Calls to Azure for %s are suspended for %d s after %d consecutive failures",
+                        circuit, remaining / 1000 + 1, consecutiveFailures));
+            }
+        }
+
+        private synchronized void succeeded() {
+            consecutiveFailures = 0;
+            openUntil = 0;
+        }
+
+        private synchronized void failed() {
+            consecutiveFailures++;
+            if (consecutiveFailures >= CIRCUIT_FAILURE_THRESHOLD) {
+                openUntil = System.currentTimeMillis() + CIRCUIT_OPEN_MILLIS;
+            }
+        }
+    }
+
+    /**
+     * Thrown instead of calling Azure while circuit is open.
+     */
+    public static class CircuitOpenException extends IOException {
+        public CircuitOpenException(String message) {
+            super(message);
+        }
+    }
+}
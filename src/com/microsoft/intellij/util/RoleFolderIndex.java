@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.util;
+
+import com.intellij.ide.projectView.ProjectView;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.interopbridges.tools.windowsazure.WindowsAzureInvalidProjectOperationException;
+import com.interopbridges.tools.windowsazure.WindowsAzureProjectManager;
+import com.interopbridges.tools.windowsazure.WindowsAzureRole;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.microsoft.intellij.ui.messages.AzureBundle.message;
+
+/**
+ * Per-module index of role folder names, so that action update() checks
+ * do not have to load package.xml on every right-click.
+ * Entries are rebuilt on a pooled thread whenever package.xml
+ * or ServiceDefinition.csdef of a module changes.
+ */
+public class RoleFolderIndex {
+    private final Project project;
+    /**
+     * module path -> lower-cased role names.
+     */
+    private final Map<String, Set<String>> roleNamesPerModule = new ConcurrentHashMap<String, Set<String>>();
+    private final Set<String> pendingBuilds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> dirtyModules = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public RoleFolderIndex(Project project) {
+        this.project = project;
+        project.getMessageBus().connect(project).subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener.Adapter() {
+            @Override
+            public void after(List<? extends VFileEvent> events) {
+                for (VFileEvent event : events) {
+                    File file = new File(event.getPath());
+                    if (isProjectDescriptor(file.getName()) && file.getParent() != null) {
+                        invalidate(file.getParent());
+                    }
+                }
+            }
+        });
+    }
+
+    public static RoleFolderIndex getInstance(Project project) {
+        return ServiceManager.getService(project, RoleFolderIndex.class);
+    }
+
+    /**
+     * Determines whether a folder is a role folder or not, without touching the file system.
+     * If module is not indexed yet, index is built in background and false is returned.
+     *
+     * @return true if the folder is a role folder else false.
+     */
+    public boolean isRoleFolder(VirtualFile vFile, Module module) {
+        if (vFile == null || module == null) {
+            return false;
+        }
+        Set<String> roleNames = roleNamesPerModule.get(key(PluginUtil.getModulePath(module)));
+        if (roleNames == null) {
+            scheduleBuild(PluginUtil.getModulePath(module));
+            return false;
+        }
+        return roleNames.contains(vFile.getName().toLowerCase());
+    }
+
+    /**
+     * Builds index for all modules of the project in background.
+     */
+    public void indexModules() {
+        for (Module module : ModuleManager.getInstance(project).getModules()) {
+            scheduleBuild(PluginUtil.getModulePath(module));
+        }
+    }
+
+    /**
+     * Schedules rebuild of module entry, previous entry is served until rebuild completes.
+     */
+    public void invalidate(String modulePath) {
+        scheduleBuild(modulePath);
+    }
+
+    private void scheduleBuild(final String modulePath) {
+        final String key = key(modulePath);
+        dirtyModules.add(key);
+        if (!pendingBuilds.add(key)) {
+            // running build will pick up dirty flag
+            return;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    boolean changed = false;
+                    while (dirtyModules.remove(key)) {
+                        Set<String> roleNames = loadRoleNames(modulePath);
+                        changed |= !roleNames.equals(roleNamesPerModule.put(key, roleNames));
+                    }
+                    if (changed) {
+                        refreshProjectView();
+                    }
+                } finally {
+                    pendingBuilds.remove(key);
+                }
+                if (dirtyModules.contains(key)) {
+                    scheduleBuild(modulePath);
+                }
+            }
+        });
+    }
+
+    private void refreshProjectView() {
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (!project.isDisposed()) {
+                    // role folder icons are decided by AzureIconProvider
+                    ProjectView.getInstance(project).refresh();
+                }
+            }
+        });
+    }
+
+    private static Set<String> loadRoleNames(String modulePath) {
+        Set<String> roleNames = new HashSet<String>();
+        if (new File(modulePath, message("resCLPkgXML")).exists()) {
+            try {
+                WindowsAzureProjectManager projMngr = WindowsAzureProjectManager.load(new File(modulePath));
+                for (WindowsAzureRole role : projMngr.getRoles()) {
+                    roleNames.add(role.getName().toLowerCase());
+                }
+            } catch (WindowsAzureInvalidProjectOperationException e) {
+//            not an azure module - silently ignore
+            }
+        }
+        return Collections.unmodifiableSet(roleNames);
+    }
+
+    private static boolean isProjectDescriptor(String fileName) {
+        return message("resCLPkgXML").equals(fileName) || message("csdefDefaultFileName").equals(fileName);
+    }
+
+    private static String key(String path) {
+        return new File(path).getPath();
+    }
+}
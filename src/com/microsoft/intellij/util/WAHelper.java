@@ -154,6 +154,7 @@ public class WAHelper {
                 strBfr.delete(10, strBfr.length());
                 strBfr.append(roleNo++);
             }
+            PluginResourceInstaller.awaitInstalled();
             String strKitLoc = WAHelper.getTemplateFile(message("pWizStarterKit"));
             windowsAzureRole = waProjManager.addRole(strBfr.toString(), strKitLoc);
             windowsAzureRole.setInstances(message("rolsNoOfInst"));
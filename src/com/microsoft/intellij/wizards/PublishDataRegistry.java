@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.wizards;
+
+import com.microsoft.windowsazure.Configuration;
+import com.microsoftopentechnologies.azurecommons.deploy.util.PublishData;
+import com.microsoftopentechnologies.azurecommons.deploy.util.PublishProfile;
+import com.microsoftopentechnologies.azuremanagementutil.model.Subscription;
+
+import java.util.*;
+
+/**
+ * Loaded publish datas indexed by subscription id and name.
+ * <p/>
+ * Registry is copy-on-write: every change builds a new immutable snapshot of list and indexes
+ * and publishes it at once, so readers on any thread never lock and never see half applied change.
+ * Publish datas are never modified for the same reason: one which loses subscriptions is replaced
+ * in the new snapshot by a copy without them, and one whose resources are reloaded by a copy with
+ * new resources, while readers of the old snapshot keep the original.
+ */
+final class PublishDataRegistry {
+    private volatile Snapshot snapshot = new Snapshot(Collections.<PublishData>emptyList());
+
+    /**
+     * @return unmodifiable list of publish datas in the order they were added
+     */
+    public List<PublishData> getPublishDatas() {
+        return snapshot.publishDatas;
+    }
+
+    public PublishData findPublishDataBySubscriptionId(String subscriptionId) {
+        return subscriptionId == null ? null : snapshot.publishDataBySubscriptionId.get(subscriptionId);
+    }
+
+    /**
+     * @return registered publish data of given profile, which is the one added or its latest refreshed copy, or null
+     */
+    public PublishData findPublishDataByProfile(PublishProfile profile) {
+        for (PublishData publishData : snapshot.publishDatas) {
+            if (publishData.getPublishProfile() == profile) {
+                return publishData;
+            }
+        }
+        return null;
+    }
+
+    public Subscription findSubscriptionById(String subscriptionId) {
+        return subscriptionId == null ? null : snapshot.subscriptionById.get(subscriptionId);
+    }
+
+    public Subscription findSubscriptionByName(String subscriptionName) {
+        return subscriptionName == null ? null : snapshot.subscriptionByName.get(subscriptionName);
+    }
+
+    /**
+     * Adds publish datas in given order. Subscriptions of added publish datas replace
+     * same subscriptions of already registered ones, publish datas left without subscriptions are dropped.
+     */
+    public synchronized void addAll(Collection<PublishData> publishDatas) {
+        List<PublishData> updated = new ArrayList<PublishData>(snapshot.publishDatas);
+        for (PublishData publishData : publishDatas) {
+            Set<String> ids = new HashSet<String>();
+            for (Subscription subscription : publishData.getPublishProfile().getSubscriptions()) {
+                ids.add(subscription.getId());
+            }
+            updated.remove(publishData);
+            for (ListIterator<PublishData> iterator = updated.listIterator(); iterator.hasNext(); ) {
+                PublishData remaining = withoutSubscriptions(iterator.next(), ids);
+                if (remaining.getPublishProfile().getSubscriptions().isEmpty()) {
+                    iterator.remove();
+                } else {
+                    iterator.set(remaining);
+                }
+            }
+            updated.add(publishData);
+        }
+        snapshot = new Snapshot(updated);
+    }
+
+    /**
+     * Replaces publish data the subscription belongs to by its copy without the subscription,
+     * or removes it if it has no other subscriptions.
+     *
+     * @return copy of publish data the subscription belonged to, with no subscriptions if it was removed,
+     * or null if subscription is not registered
+     */
+    public synchronized PublishData removeSubscription(String subscriptionId) {
+        PublishData publishData = findPublishDataBySubscriptionId(subscriptionId);
+        if (publishData == null) {
+            return null;
+        }
+        PublishData remaining = withoutSubscriptions(publishData, Collections.singleton(subscriptionId));
+        List<PublishData> updated = new ArrayList<PublishData>(snapshot.publishDatas);
+        int index = updated.indexOf(publishData);
+        if (remaining.getPublishProfile().getSubscriptions().isEmpty()) {
+            updated.remove(index);
+        } else {
+            updated.set(index, remaining);
+        }
+        snapshot = new Snapshot(updated);
+        return remaining;
+    }
+
+    /**
+     * Replaces registered publish data by its copy made with {@link #copyOf}.
+     *
+     * @return false if publish data is not registered, e.g. because it was replaced meanwhile
+     */
+    public synchronized boolean replace(PublishData publishData, PublishData copy) {
+        List<PublishData> updated = new ArrayList<PublishData>(snapshot.publishDatas);
+        int index = updated.indexOf(publishData);
+        if (index < 0) {
+            return false;
+        }
+        updated.set(index, copy);
+        snapshot = new Snapshot(updated);
+        return true;
+    }
+
+    /**
+     * @return copy of publish data which shares its profile, subscriptions, configurations and cached services,
+     * but has maps of its own, so that resources of a subscription can be replaced before the copy is registered
+     */
+    public static PublishData copyOf(PublishData publishData) {
+        return copy(publishData, publishData.getPublishProfile());
+    }
+
+    /**
+     * @return publish data itself if it has none of given subscriptions, otherwise its copy without them,
+     * which shares subscriptions, configurations and cached services of the others with the original
+     */
+    private static PublishData withoutSubscriptions(PublishData publishData, Set<String> subscriptionIds) {
+        PublishProfile profile = publishData.getPublishProfile();
+        List<Subscription> remaining = new ArrayList<Subscription>();
+        for (Subscription subscription : profile.getSubscriptions()) {
+            if (!subscriptionIds.contains(subscription.getId())) {
+                remaining.add(subscription);
+            }
+        }
+        if (remaining.size() == profile.getSubscriptions().size()) {
+            return publishData;
+        }
+        PublishProfile profileCopy = new PublishProfile();
+        profileCopy.setPublishMethod(profile.getPublishMethod());
+        profileCopy.setUrl(profile.getUrl());
+        profileCopy.setManagementCertificate(profile.getManagementCertificate());
+        profileCopy.setPassword(profile.getPassword());
+        profileCopy.setSchemaVersion(profile.getSchemaVersion());
+        profileCopy.setSubscriptions(remaining);
+        return copy(publishData, profileCopy);
+    }
+
+    /**
+     * @return copy of publish data with given profile, holding state of subscriptions of the profile only
+     */
+    private static PublishData copy(PublishData publishData, PublishProfile profile) {
+        List<Subscription> subscriptions = profile.getSubscriptions();
+        PublishData copy = new PublishData();
+        copy.setPublishProfile(profile);
+        copy.isInitializing().set(publishData.isInitializing().get());
+        Subscription current = publishData.getCurrentSubscription();
+        if (current != null && containsId(subscriptions, current.getId())) {
+            copy.setCurrentSubscription(current);
+        } else if (!subscriptions.isEmpty()) {
+            copy.setCurrentSubscription(subscriptions.get(0));
+        }
+        Map<String, Configuration> configurationPerSubscription = new HashMap<String, Configuration>();
+        for (Subscription subscription : subscriptions) {
+            configurationPerSubscription.put(subscription.getId(), publishData.getConfiguration(subscription.getId()));
+        }
+        copy.setConfigurationPerSubscription(configurationPerSubscription);
+        copy.setServicesPerSubscription(retain(publishData.getServicesPerSubscription(), subscriptions));
+        copy.setStoragesPerSubscription(retain(publishData.getStoragesPerSubscription(), subscriptions));
+        copy.setLocationsPerSubscription(retain(publishData.getLocationsPerSubscription(), subscriptions));
+        return copy;
+    }
+
+    private static boolean containsId(List<Subscription> subscriptions, String subscriptionId) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.getId().equals(subscriptionId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return new map with values of given subscriptions only, null if map is null
+     */
+    private static <V> Map<String, V> retain(Map<String, V> perSubscription, List<Subscription> subscriptions) {
+        if (perSubscription == null) {
+            return null;
+        }
+        Map<String, V> retained = new HashMap<String, V>();
+        for (Subscription subscription : subscriptions) {
+            if (perSubscription.containsKey(subscription.getId())) {
+                retained.put(subscription.getId(), perSubscription.get(subscription.getId()));
+            }
+        }
+        return retained;
+    }
+
+    private static final class Snapshot {
+        private final List<PublishData> publishDatas;
+        private final Map<String, PublishData> publishDataBySubscriptionId = new HashMap<String, PublishData>();
+        private final Map<String, Subscription> subscriptionById = new HashMap<String, Subscription>();
+        private final Map<String, Subscription> subscriptionByName = new HashMap<String, Subscription>();
+
+        private Snapshot(List<PublishData> publishDatas) {
+            this.publishDatas = Collections.unmodifiableList(new ArrayList<PublishData>(publishDatas));
+            for (PublishData publishData : publishDatas) {
+                for (Subscription subscription : publishData.getPublishProfile().getSubscriptions()) {
+                    // first match wins, as with linear search
+                    if (!publishDataBySubscriptionId.containsKey(subscription.getId())) {
+                        publishDataBySubscriptionId.put(subscription.getId(), publishData);
+                        subscriptionById.put(subscription.getId(), subscription);
+                    }
+                    if (subscription.getName() != null && !subscriptionByName.containsKey(subscription.getName())) {
+                        subscriptionByName.put(subscription.getName(), subscription);
+                    }
+                }
+            }
+        }
+    }
+}
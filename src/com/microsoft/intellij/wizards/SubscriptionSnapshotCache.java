@@ -0,0 +1,410 @@
+/**
+ * Copyright (c) Microsoft Corporation
+ * <p/>
+ * All rights reserved.
+ * <p/>
+ * MIT License
+ * <p/>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * <p/>
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * <p/>
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.microsoft.intellij.wizards;
+
+import com.microsoft.intellij.AzurePlugin;
+import com.microsoft.windowsazure.management.compute.models.HostedServiceListResponse.HostedService;
+import com.microsoft.windowsazure.management.compute.models.HostedServiceProperties;
+import com.microsoft.windowsazure.management.models.LocationsListResponse.Location;
+import com.microsoft.windowsazure.management.storage.models.StorageAccountProperties;
+import com.microsoftopentechnologies.azurecommons.deploy.util.PublishData;
+import com.microsoftopentechnologies.azuremanagementutil.model.StorageService;
+import com.microsoftopentechnologies.azuremanagementutil.model.StorageServices;
+import com.microsoftopentechnologies.azuremanagementutil.model.Subscription;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.microsoft.intellij.AzurePlugin.log;
+
+/**
+ * On-disk snapshot of hosted services, storage accounts and locations,
+ * one file per subscription under ~/.azure/snapshots.
+ * <p/>
+ * Snapshot lets deploy wizard be populated without waiting for management API;
+ * every resource kind has its own time to live after which it is reloaded in background.
+ * Services which are only created on publish (mocks) are never written.
+ */
+public final class SubscriptionSnapshotCache {
+    /**
+     * Increment when format changes, snapshots of other versions are ignored.
+     */
+    private static final int FORMAT_VERSION = 1;
+    private static final String SNAPSHOT_DIR = System.getProperty("user.home") + File.separator + ".azure" + File.separator + "snapshots";
+
+    private static final String ROOT = "subscriptionSnapshot";
+    private static final String ATTR_VERSION = "version";
+    private static final String ATTR_ID = "id";
+    private static final String ATTR_TIMESTAMP = "timestamp";
+    private static final String ATTR_NAME = "name";
+
+    public enum Resource {
+        HOSTED_SERVICES("hostedServices", TimeUnit.MINUTES.toMillis(15)),
+        STORAGE_SERVICES("storageServices", TimeUnit.MINUTES.toMillis(15)),
+        LOCATIONS("locations", TimeUnit.DAYS.toMillis(1));
+
+        private final String element;
+        private final long timeToLive;
+
+        Resource(String element, long timeToLive) {
+            this.element = element;
+            this.timeToLive = timeToLive;
+        }
+    }
+
+    /**
+     * subscription id -> time each resource was fetched from Azure, indexed by {@link Resource#ordinal()}.
+     */
+    private static final Map<String, long[]> timestamps = new ConcurrentHashMap<String, long[]>();
+
+    private SubscriptionSnapshotCache() {
+    }
+
+    /**
+     * Populates hosted services, storage accounts and locations of publish data from snapshots.
+     * Nothing is changed unless every subscription of publish data has a complete snapshot.
+     *
+     * @return true if publish data was restored
+     */
+    public static boolean restore(PublishData publishData) {
+        List<Subscription> subscriptions = publishData.getPublishProfile().getSubscriptions();
+        if (subscriptions == null || subscriptions.isEmpty()) {
+            return false;
+        }
+        Map<String, ArrayList<HostedService>> services = new ConcurrentHashMap<String, ArrayList<HostedService>>();
+        Map<String, StorageServices> storages = new ConcurrentHashMap<String, StorageServices>();
+        Map<String, ArrayList<Location>> locations = new ConcurrentHashMap<String, ArrayList<Location>>();
+        Map<String, long[]> restoredTimestamps = new HashMap<String, long[]>();
+        for (Subscription subscription : subscriptions) {
+            // subscription details are loaded together with resources, so snapshot alone is not enough
+            if (subscription.getId() == null || subscription.getName() == null) {
+                return false;
+            }
+            File file = getSnapshotFile(subscription.getId());
+            if (!file.isFile()) {
+                return false;
+            }
+            try {
+                Element root = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file).getDocumentElement();
+                if (!ROOT.equals(root.getTagName()) || !String.valueOf(FORMAT_VERSION).equals(root.getAttribute(ATTR_VERSION))) {
+                    return false;
+                }
+                long[] resourceTimestamps = new long[Resource.values().length];
+                for (Resource resource : Resource.values()) {
+                    Element section = getChild(root, resource.element);
+                    if (section == null) {
+                        return false;
+                    }
+                    resourceTimestamps[resource.ordinal()] = Long.parseLong(section.getAttribute(ATTR_TIMESTAMP));
+                }
+                services.put(subscription.getId(), readHostedServices(getChild(root, Resource.HOSTED_SERVICES.element)));
+                storages.put(subscription.getId(), readStorageServices(getChild(root, Resource.STORAGE_SERVICES.element)));
+                locations.put(subscription.getId(), readLocations(getChild(root, Resource.LOCATIONS.element)));
+                restoredTimestamps.put(subscription.getId(), resourceTimestamps);
+            } catch (Exception e) {
+                log("Ignoring unreadable subscription snapshot " + file, e);
+                return false;
+            }
+        }
+        publishData.setServicesPerSubscription(services);
+        publishData.setStoragesPerSubscription(storages);
+        publishData.setLocationsPerSubscription(locations);
+        timestamps.putAll(restoredTimestamps);
+        return true;
+    }
+
+    /**
+     * @return resources of publish data which are older than their time to live
+     */
+    public static Set<Resource> getExpiredResources(PublishData publishData) {
+        Set<Resource> expired = EnumSet.noneOf(Resource.class);
+        long now = System.currentTimeMillis();
+        for (Subscription subscription : publishData.getPublishProfile().getSubscriptions()) {
+            long[] resourceTimestamps = timestamps.get(subscription.getId());
+            for (Resource resource : Resource.values()) {
+                if (resourceTimestamps == null || now - resourceTimestamps[resource.ordinal()] > resource.timeToLive) {
+                    expired.add(resource);
+                }
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Writes snapshots of all subscriptions of publish data.
+     * Caller must hold lock of publish data, so that lists are not modified while being written.
+     *
+     * @param refreshed resources which have just been fetched from Azure
+     */
+    public static void save(PublishData publishData, Set<Resource> refreshed) {
+        long now = System.currentTimeMillis();
+        for (Subscription subscription : publishData.getPublishProfile().getSubscriptions()) {
+            String id = subscription.getId();
+            List<HostedService> services = publishData.getServicesPerSubscription() == null ? null : publishData.getServicesPerSubscription().get(id);
+            StorageServices storages = publishData.getStoragesPerSubscription() == null ? null : publishData.getStoragesPerSubscription().get(id);
+            List<Location> locations = publishData.getLocationsPerSubscription() == null ? null : publishData.getLocationsPerSubscription().get(id);
+            if (id == null || services == null || storages == null || locations == null) {
+                continue;
+            }
+            long[] resourceTimestamps = timestamps.get(id);
+            resourceTimestamps = resourceTimestamps == null ? new long[Resource.values().length] : resourceTimestamps.clone();
+            for (Resource resource : refreshed) {
+                resourceTimestamps[resource.ordinal()] = now;
+            }
+            try {
+                Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+                Element root = doc.createElement(ROOT);
+                root.setAttribute(ATTR_VERSION, String.valueOf(FORMAT_VERSION));
+                root.setAttribute(ATTR_ID, id);
+                doc.appendChild(root);
+                writeHostedServices(addSection(root, Resource.HOSTED_SERVICES, resourceTimestamps), services);
+                writeStorageServices(addSection(root, Resource.STORAGE_SERVICES, resourceTimestamps), storages);
+                writeLocations(addSection(root, Resource.LOCATIONS, resourceTimestamps), locations);
+                writeDocument(doc, getSnapshotFile(id));
+                timestamps.put(id, resourceTimestamps);
+            } catch (Exception e) {
+                log("Error writing subscription snapshot of " + id, e);
+            }
+        }
+    }
+
+    /**
+     * Forgets snapshot of subscription, so that it is not used by next session.
+     */
+    public static void delete(String subscriptionId) {
+        timestamps.remove(subscriptionId);
+        File file = getSnapshotFile(subscriptionId);
+        if (file.exists() && !file.delete()) {
+            log("Could not delete subscription snapshot " + file);
+        }
+    }
+
+    private static File getSnapshotFile(String subscriptionId) {
+        return new File(SNAPSHOT_DIR, subscriptionId + ".xml");
+    }
+
+    private static void writeDocument(Document doc, File file) throws Exception {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new Exception("Could not create directory " + dir);
+        }
+        // write to temporary file first, so that concurrent session never reads half written snapshot
+        File tmpFile = new File(dir, file.getName() + ".tmp");
+        if (tmpFile.exists() && !tmpFile.delete() || !tmpFile.createNewFile()) {
+            throw new Exception("Could not create " + tmpFile);
+        }
+        // snapshot contains storage account keys, file is made private before they are written to it
+        if (!restrictToOwner(tmpFile) && !AzurePlugin.IS_WINDOWS) {
+            tmpFile.delete();
+            throw new Exception("Could not restrict access to " + tmpFile);
+        }
+        FileOutputStream fos = new FileOutputStream(tmpFile);
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.transform(new DOMSource(doc), new StreamResult(fos));
+        } finally {
+            fos.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            file.delete();
+            if (!tmpFile.renameTo(file)) {
+                throw new Exception("Could not rename " + tmpFile + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * @return false if permissions could not be changed, which is always the case on Windows,
+     * where files in user profile are private anyway
+     */
+    private static boolean restrictToOwner(File file) {
+        return file.setReadable(false, false) && file.setReadable(true, true)
+                && file.setWritable(false, false) && file.setWritable(true, true);
+    }
+
+    private static Element addSection(Element root, Resource resource, long[] resourceTimestamps) {
+        Element section = root.getOwnerDocument().createElement(resource.element);
+        section.setAttribute(ATTR_TIMESTAMP, String.valueOf(resourceTimestamps[resource.ordinal()]));
+        root.appendChild(section);
+        return section;
+    }
+
+    private static void writeHostedServices(Element section, List<HostedService> services) {
+        for (HostedService service : services) {
+            if (service.getUri() == null) {
+                // mock of a service which will be created on publish
+                continue;
+            }
+            Element element = addElement(section, "hostedService", service.getServiceName());
+            element.setAttribute("uri", service.getUri().toString());
+            HostedServiceProperties properties = service.getProperties();
+            if (properties != null) {
+                setAttribute(element, "location", properties.getLocation());
+                setAttribute(element, "affinityGroup", properties.getAffinityGroup());
+                setAttribute(element, "label", properties.getLabel());
+                setAttribute(element, "description", properties.getDescription());
+            }
+        }
+    }
+
+    private static ArrayList<HostedService> readHostedServices(Element section) {
+        ArrayList<HostedService> services = new ArrayList<HostedService>();
+        for (Element element : getChildren(section, "hostedService")) {
+            HostedService service = new HostedService();
+            service.setServiceName(element.getAttribute(ATTR_NAME));
+            service.setUri(URI.create(element.getAttribute("uri")));
+            HostedServiceProperties properties = new HostedServiceProperties();
+            properties.setLocation(getAttribute(element, "location"));
+            properties.setAffinityGroup(getAttribute(element, "affinityGroup"));
+            properties.setLabel(getAttribute(element, "label"));
+            properties.setDescription(getAttribute(element, "description"));
+            service.setProperties(properties);
+            services.add(service);
+        }
+        return services;
+    }
+
+    private static void writeStorageServices(Element section, StorageServices storages) {
+        for (StorageService storage : storages) {
+            if (storage.getUrl() == null) {
+                // mock of an account which will be created on publish
+                continue;
+            }
+            Element element = addElement(section, "storageService", storage.getServiceName());
+            element.setAttribute("url", storage.getUrl());
+            setAttribute(element, "primaryKey", storage.getPrimaryKey());
+            setAttribute(element, "secondaryKey", storage.getSecondaryKey());
+            StorageAccountProperties properties = storage.getStorageAccountProperties();
+            if (properties != null) {
+                setAttribute(element, "location", properties.getLocation());
+                setAttribute(element, "affinityGroup", properties.getAffinityGroup());
+                setAttribute(element, "label", properties.getLabel());
+                setAttribute(element, "description", properties.getDescription());
+                setAttribute(element, "accountType", properties.getAccountType());
+                if (properties.getEndpoints() != null) {
+                    for (URI endpoint : properties.getEndpoints()) {
+                        addElement(element, "endpoint", null).setAttribute("uri", endpoint.toString());
+                    }
+                }
+            }
+        }
+    }
+
+    private static StorageServices readStorageServices(Element section) {
+        StorageServices storages = new StorageServices();
+        for (Element element : getChildren(section, "storageService")) {
+            StorageService storage = new StorageService();
+            storage.setServiceName(element.getAttribute(ATTR_NAME));
+            storage.setUrl(element.getAttribute("url"));
+            storage.setStorageServiceKeys(getAttribute(element, "primaryKey"), getAttribute(element, "secondaryKey"));
+            StorageAccountProperties properties = new StorageAccountProperties();
+            properties.setLocation(getAttribute(element, "location"));
+            properties.setAffinityGroup(getAttribute(element, "affinityGroup"));
+            properties.setLabel(getAttribute(element, "label"));
+            properties.setDescription(getAttribute(element, "description"));
+            properties.setAccountType(getAttribute(element, "accountType"));
+            ArrayList<URI> endpoints = new ArrayList<URI>();
+            for (Element endpoint : getChildren(element, "endpoint")) {
+                endpoints.add(URI.create(endpoint.getAttribute("uri")));
+            }
+            properties.setEndpoints(endpoints);
+            storage.setStorageAccountProperties(properties);
+            storages.add(storage);
+        }
+        return storages;
+    }
+
+    private static void writeLocations(Element section, List<Location> locations) {
+        for (Location location : locations) {
+            Element element = addElement(section, "location", location.getName());
+            setAttribute(element, "displayName", location.getDisplayName());
+            if (location.getAvailableServices() != null) {
+                for (String service : location.getAvailableServices()) {
+                    addElement(element, "service", service);
+                }
+            }
+        }
+    }
+
+    private static ArrayList<Location> readLocations(Element section) {
+        ArrayList<Location> locations = new ArrayList<Location>();
+        for (Element element : getChildren(section, "location")) {
+            Location location = new Location();
+            location.setName(element.getAttribute(ATTR_NAME));
+            location.setDisplayName(getAttribute(element, "displayName"));
+            ArrayList<String> availableServices = new ArrayList<String>();
+            for (Element service : getChildren(element, "service")) {
+                availableServices.add(service.getAttribute(ATTR_NAME));
+            }
+            location.setAvailableServices(availableServices);
+            locations.add(location);
+        }
+        return locations;
+    }
+
+    private static Element addElement(Element parent, String tagName, String name) {
+        Element element = parent.getOwnerDocument().createElement(tagName);
+        setAttribute(element, ATTR_NAME, name);
+        parent.appendChild(element);
+        return element;
+    }
+
+    private static void setAttribute(Element element, String name, String value) {
+        if (value != null) {
+            element.setAttribute(name, value);
+        }
+    }
+
+    private static String getAttribute(Element element, String name) {
+        return element.hasAttribute(name) ? element.getAttribute(name) : null;
+    }
+
+    private static Element getChild(Element parent, String tagName) {
+        List<Element> children = getChildren(parent, tagName);
+        return children.isEmpty() ? null : children.get(0);
+    }
+
+    private static List<Element> getChildren(Element parent, String tagName) {
+        List<Element> children = new ArrayList<Element>();
+        NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Node node = nodes.item(i);
+            if (node.getNodeType() == Node.ELEMENT_NODE && tagName.equals(node.getNodeName())) {
+                children.add((Element) node);
+            }
+        }
+        return children;
+    }
+}
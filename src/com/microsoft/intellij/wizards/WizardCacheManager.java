@@ -21,10 +21,13 @@
  */
 package com.microsoft.intellij.wizards;
 
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.interopbridges.tools.windowsazure.WindowsAzurePackageType;
 import com.microsoft.intellij.AzurePlugin;
 import com.microsoft.intellij.rest.WindowsAzureRestUtils;
 import com.microsoft.intellij.ui.components.WindowsAzurePage;
+import com.microsoft.intellij.util.AzureExecutor;
 import com.microsoft.windowsazure.Configuration;
 import com.microsoft.windowsazure.management.compute.models.HostedServiceCreateParameters;
 import com.microsoft.windowsazure.management.compute.models.HostedServiceGetDetailedResponse;
@@ -51,6 +54,7 @@ import com.microsoftopentechnologies.azuremanagementutil.model.Subscription;
 import com.microsoftopentechnologies.azuremanagementutil.rest.WindowsAzureServiceManagement;
 import com.microsoftopentechnologies.azuremanagementutil.rest.WindowsAzureStorageServices;
 
+import javax.swing.event.EventListenerList;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -58,6 +62,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.microsoft.intellij.AzurePlugin.log;
 import static com.microsoft.intellij.ui.messages.AzureBundle.message;
@@ -66,7 +71,7 @@ public final class WizardCacheManager {
 
     private static final WizardCacheManager INSTANCE = new WizardCacheManager();
 
-    private static final List<PublishData> PUBLISHS = new ArrayList<PublishData>();
+    private static final PublishDataRegistry PUBLISHS = new PublishDataRegistry();
 
     private static PublishData currentPublishData;
     private static KeyName currentAccessKey;
@@ -79,8 +84,21 @@ public final class WizardCacheManager {
     private static String unpublish;
     private static RemoteDesktopDescriptor remoteDesktopDescriptor;
     private static CertificateUploadList certList;
+    private static List<HostedService> fanOutHostedServices = Collections.emptyList();
     private static boolean displayHttpsLink = false;
-    private static Map<String, String> publishSettingsPerSubscriptionMap = new HashMap<String, String>();
+    private static Map<String, String> publishSettingsPerSubscriptionMap = new ConcurrentHashMap<String, String>();
+    private static final EventListenerList REFRESH_LISTENERS = new EventListenerList();
+
+    /**
+     * Notified when resources of publish data have been reloaded in background.
+     */
+    public interface PublishDataRefreshListener extends EventListener {
+        /**
+         * @param previous  publish data which was registered before, it is not changed by refresh
+         * @param refreshed its copy with reloaded resources, which replaced it
+         */
+        void onPublishDataRefreshed(PublishData previous, PublishData refreshed);
+    }
 
     public static WizardCacheManager getInstrance() {
         return INSTANCE;
@@ -120,10 +138,68 @@ public final class WizardCacheManager {
         return deployDescriptor;
     }
 
+    /**
+     * Sets cloud services the package is published to in addition to current one.
+     */
+    public static void setFanOutHostedServices(List<HostedService> hostedServices) {
+        fanOutHostedServices = new ArrayList<HostedService>(hostedServices);
+    }
+
+    /**
+     * Descriptors of publishing to fan out cloud services, which share all settings of current deployment except
+     * cloud service and storage account. Storage account in the region of cloud service is used if there is one,
+     * current storage account otherwise.
+     *
+     * @param primary descriptor returned by {@link #collectConfiguration()}
+     */
+    public static List<DeployDescriptor> collectFanOutConfigurations(DeployDescriptor primary) {
+        List<DeployDescriptor> descriptors = new ArrayList<DeployDescriptor>();
+        for (HostedService hostedService : fanOutHostedServices) {
+            String location = hostedService.getProperties() == null ? null : hostedService.getProperties().getLocation();
+            descriptors.add(new DeployDescriptor(primary.getDeployMode(), primary.getSubscriptionId(),
+                    getStorageAccountInRegion(location, primary.getStorageAccount()),
+                    currentAccessKey, hostedService, primary.getCspkgFile(), primary.getCscfgFile(),
+                    primary.getDeployState(), primary.getRemoteDesktopDescriptor(), primary.getMngUrl(),
+                    primary.getUnpublish(), primary.getCertList(), primary.getDisplayHttpsLink(), primary.getConfiguration()));
+        }
+        fanOutHostedServices = Collections.emptyList();
+        return descriptors;
+    }
+
+    private static StorageService getStorageAccountInRegion(String location, StorageService defaultAccount) {
+        if (location == null || location.equalsIgnoreCase(defaultAccount.getStorageAccountProperties().getLocation())) {
+            return defaultAccount;
+        }
+        StorageServices storageServices = currentPublishData.getStoragesPerSubscription().get(currentPublishData.getCurrentSubscription().getId());
+        if (storageServices != null) {
+            for (StorageService storageService : storageServices) {
+                if (location.equalsIgnoreCase(storageService.getStorageAccountProperties().getLocation())
+                        && getStorageAccessKey(storageService) != null) {
+                    return storageService;
+                }
+            }
+        }
+        return defaultAccount;
+    }
+
+    /**
+     * @return key of given storage account of the kind chosen in deployment wizard
+     */
+    public static String getStorageAccessKey(StorageService storageService) {
+        return currentAccessKey == KeyName.Secondary ? storageService.getSecondaryKey() : storageService.getPrimaryKey();
+    }
+
     public static WindowsAzureStorageServices createStorageServiceHelper() {
         return WizardCacheManagerUtilMethods.createStorageServiceHelper(currentPublishData, currentStorageService, currentAccessKey);
     }
 
+    /**
+     * @return key of current storage account chosen in deployment wizard, primary one by default
+     */
+    public static String getCurrentStorageAccessKey() {
+        return getStorageAccessKey(getCurrentStorageAcount());
+    }
+
     public static WindowsAzureServiceManagement createServiceManagementHelper() {
         return WizardCacheManagerUtilMethods.createServiceManagementHelper(currentPublishData);
     }
@@ -163,19 +239,20 @@ public final class WizardCacheManager {
 
     public static Collection<PublishData> getPublishDatas() {
 
-        return PUBLISHS;
+        return PUBLISHS.getPublishDatas();
     }
 
     public static Subscription findSubscriptionByName(String subscriptionName) {
-        return WizardCacheManagerUtilMethods.findSubscriptionByName(subscriptionName, PUBLISHS);
+        return PUBLISHS.findSubscriptionByName(subscriptionName);
     }
 
     public static PublishData findPublishDataBySubscriptionId(String subscriptionId) {
-        return WizardCacheManagerUtilMethods.findPublishDataBySubscriptionId(subscriptionId, PUBLISHS);
+        return PUBLISHS.findPublishDataBySubscriptionId(subscriptionId);
     }
 
     public static String findSubscriptionNameBySubscriptionId(String subscriptionId) {
-        return WizardCacheManagerUtilMethods.findSubscriptionNameBySubscriptionId(subscriptionId, PUBLISHS);
+        Subscription subscription = PUBLISHS.findSubscriptionById(subscriptionId);
+        return subscription == null ? null : subscription.getName();
     }
 
     public static void removeSubscription(String subscriptionId) {
@@ -184,31 +261,18 @@ public final class WizardCacheManager {
             return;
         }
 
-        PublishData publishData = findPublishDataBySubscriptionId(subscriptionId);
-
-        if (publishData == null) {
-            return;
-        }
-
-        List<Subscription> subs = publishData.getPublishProfile().getSubscriptions();
-        int index = WizardCacheManagerUtilMethods.getIndexOfPublishData(subscriptionId, PUBLISHS);
-
-        for (int i = 0; i < subs.size(); i++) {
-            Subscription s = subs.get(i);
-
-            if (s.getSubscriptionID().equals(subscriptionId)) {
-                publishData.getPublishProfile().getSubscriptions().remove(i);
-                PUBLISHS.set(index, publishData);
-                if (publishData.getPublishProfile().getSubscriptions().size() == 0) {
-                    PUBLISHS.remove(publishData);
-                    /*
-                     * If all subscriptions are removed
-					 * set current subscription to null.
-					 */
-                    setCurrentPublishData(null);
-                }
-                break;
-            }
+        PublishData currentBefore = currentPublishData;
+        PublishData publishData = PUBLISHS.removeSubscription(subscriptionId);
+
+        if (publishData != null && publishData.getPublishProfile().getSubscriptions().isEmpty()) {
+            /*
+             * If all subscriptions are removed
+			 * set current subscription to null.
+			 */
+            setCurrentPublishData(null);
+        } else if (publishData != null && currentBefore != null && currentBefore.getSubscriptionIds().contains(subscriptionId)) {
+            // registry replaced current publish data by a copy without the subscription
+            setCurrentPublishData(publishData);
         }
     }
 
@@ -238,19 +302,34 @@ public final class WizardCacheManager {
         return WizardCacheManagerUtilMethods.fetchUploadedCertificates(currentPublishData, currentHostedService);
     }
 
+    public static List<Certificate> fetchUploadedCertificates(String hostedServiceName) {
+        return WizardCacheManagerUtilMethods.fetchUploadedCertificates(currentPublishData, hostedServiceName);
+    }
+
     public static HostedService createHostedService(HostedServiceCreateParameters createHostedService)
             throws Exception {
         HostedService hostedService = WizardCacheManagerUtilMethods.createHostedService(createHostedService, currentPublishData);
-        currentPublishData.getServicesPerSubscription().get(currentPublishData.getCurrentSubscription().getId()).add(hostedService);
+        synchronized (currentPublishData) {
+            List<HostedService> services = currentPublishData.getServicesPerSubscription().get(currentPublishData.getCurrentSubscription().getId());
+            // replace previous mock, or service cached by refresh which ran while it was created
+            for (Iterator<HostedService> iterator = services.iterator(); iterator.hasNext(); ) {
+                if (iterator.next().getServiceName().equals(hostedService.getServiceName())) {
+                    iterator.remove();
+                }
+            }
+            services.add(hostedService);
+        }
         return hostedService;
     }
 
     public static StorageService createStorageAccount(StorageAccountCreateParameters accountParameters) throws Exception {
         Subscription subscription = currentPublishData.getCurrentSubscription();
         StorageService storageAccount = WizardCacheManagerUtilMethods.createStorageAccount(accountParameters, currentPublishData, AzurePlugin.prefFilePath);
-        // remove previous mock if existed
-        currentPublishData.getStoragesPerSubscription().get(subscription.getId()).remove(accountParameters.getName());
-        currentPublishData.getStoragesPerSubscription().get(subscription.getId()).add(storageAccount);
+        synchronized (currentPublishData) {
+            // remove previous mock if existed
+            currentPublishData.getStoragesPerSubscription().get(subscription.getId()).remove(accountParameters.getName());
+            currentPublishData.getStoragesPerSubscription().get(subscription.getId()).add(storageAccount);
+        }
         return storageAccount;
     }
 
@@ -264,15 +343,18 @@ public final class WizardCacheManager {
 
     public static StorageService createStorageServiceMock(String storageAccountNameToCreate, String storageAccountLocation, String description) {
         StorageService storageService = WizardCacheManagerUtilMethods.createStorageServiceMock(storageAccountNameToCreate, storageAccountLocation, description);
-
-        currentPublishData.getStoragesPerSubscription().get(currentPublishData.getCurrentSubscription().getId()).add(storageService);
+        synchronized (currentPublishData) {
+            currentPublishData.getStoragesPerSubscription().get(currentPublishData.getCurrentSubscription().getId()).add(storageService);
+        }
         return storageService;
     }
 
     public static HostedService createHostedServiceMock(String hostedServiceNameToCreate, String hostedServiceLocation, String description) {
         Subscription subscription = currentPublishData.getCurrentSubscription();
         HostedService hostedService = WizardCacheManagerUtilMethods.createHostedServiceMock(hostedServiceNameToCreate, hostedServiceLocation, description);
-        currentPublishData.getServicesPerSubscription().get(subscription.getId()).add(hostedService);
+        synchronized (currentPublishData) {
+            currentPublishData.getServicesPerSubscription().get(subscription.getId()).add(hostedService);
+        }
         return hostedService;
     }
 
@@ -338,37 +420,33 @@ public final class WizardCacheManager {
     }
 
     public static void cachePublishData(File publishSettingsFile, PublishData publishData, LoadingAccoutListener listener) throws RestAPIException, IOException {
+        if (loadPublishData(publishSettingsFile, publishData, listener)) {
+            addPublishData(publishData);
+        }
+    }
+
+    /**
+     * Loads subscriptions, hosted services, storage accounts and locations of publish data
+     * without adding it to cache. Safe to call for several publish datas in parallel.
+     *
+     * @return true if publish data was loaded and can be added with {@link #addPublishData}
+     */
+    public static boolean loadPublishData(File publishSettingsFile, PublishData publishData, LoadingAccoutListener listener) throws RestAPIException, IOException {
         boolean canceled = false;
         List<Subscription> subscriptions = null;
-        int OPERATIONS_TIMEOUT = 60 * 5;
 
         if (publishData == null) {
-            return;
+            return false;
         } else {
             subscriptions = publishData.getPublishProfile().getSubscriptions();
         }
 
         if (subscriptions == null) {
-            return;
+            return false;
         }
-        String schemaVer = publishData.getPublishProfile().getSchemaVersion();
-        boolean isNewSchema = schemaVer != null && !schemaVer.isEmpty() && schemaVer.equalsIgnoreCase("2.0");
-        // URL if schema version is 1.0
-        String url = publishData.getPublishProfile().getUrl();
         Map<String, Configuration> configurationPerSubscription = new HashMap<String, Configuration>();
         for (Subscription subscription : subscriptions) {
-            if (isNewSchema) {
-                // publishsetting file is of schema version 2.0
-                url = subscription.getServiceManagementUrl();
-            }
-            if (url == null || url.isEmpty()) {
-                try {
-                    url = PreferenceSetUtil.getManagementURL(PreferenceSetUtil.getSelectedPreferenceSetName(AzurePlugin.prefFilePath), AzurePlugin.prefFilePath);
-                    url = url.substring(0, url.lastIndexOf("/"));
-                } catch (Exception e) {
-                    log(e.getMessage());
-                }
-            }
+            String url = getManagementUrl(publishData, subscription);
             Configuration configuration = (publishSettingsFile == null) ?
                     WindowsAzureRestUtils.loadConfiguration(subscription.getId(), url) :
                     WindowsAzureRestUtils.getConfiguration(publishSettingsFile, subscription.getId());
@@ -390,147 +468,369 @@ public final class WizardCacheManager {
         publishData.setConfigurationPerSubscription(configurationPerSubscription);
 
         if (publishData.isInitialized() == false && publishData.isInitializing().compareAndSet(false, true)) {
+            if (publishSettingsFile == null && SubscriptionSnapshotCache.restore(publishData)) {
+                // show snapshot right away and reload expired resources in background
+                if (publishData.getCurrentSubscription() == null) {
+                    publishData.setCurrentSubscription(subscriptions.get(0));
+                }
+                if (listener != null) {
+                    listener.onLoadedSubscriptions();
+                    listener.onLoadedHostedServices();
+                    listener.onLoadedLocations();
+                    listener.onLoadedStorageServices();
+                }
+                refreshPublishData(publishData, false);
+            } else {
+                canceled = loadPublishDataFromAzure(publishData, listener);
+            }
+        }
 
-            List<Future<?>> loadServicesFutures = null;
-            Future<?> loadSubscriptionsFuture = null;
-            try {
-                List<Subscription> subBackup = publishData.getPublishProfile().getSubscriptions();
+        return publishData.getPublishProfile().getSubscriptions().size() > 0 && !empty(publishData) && !canceled;
+    }
+
+    /**
+     * Loads subscriptions, hosted services, storage accounts and locations using management API
+     * and stores them in snapshot.
+     *
+     * @return true if loading was canceled
+     */
+    private static boolean loadPublishDataFromAzure(PublishData publishData, LoadingAccoutListener listener) {
+        int OPERATIONS_TIMEOUT = 60 * 5;
+        List<Subscription> subscriptions = publishData.getPublishProfile().getSubscriptions();
+        String schemaVer = publishData.getPublishProfile().getSchemaVersion();
+        boolean isNewSchema = schemaVer != null && !schemaVer.isEmpty() && schemaVer.equalsIgnoreCase("2.0");
+        LoadingErrorListener errorListener = new LoadingErrorListener(listener);
 
-                // thread pool size is number of subscriptions
-                ScheduledExecutorService subscriptionThreadPool = Executors.newScheduledThreadPool(subscriptions.size());
+        List<Future<?>> loadServicesFutures = null;
+        Future<?> loadSubscriptionsFuture = null;
+        try {
+            List<Subscription> subBackup = publishData.getPublishProfile().getSubscriptions();
 
-                LoadingSubscriptionTask loadingSubscriptionTask = new LoadingSubscriptionTask(publishData);
-                loadingSubscriptionTask.setSubscriptionIds(subscriptions);
-                if (listener != null) {
-                    loadingSubscriptionTask.addLoadingAccountListener(listener);
-                }
+            AzureExecutor executor = AzureExecutor.getInstance();
 
-                loadSubscriptionsFuture = subscriptionThreadPool.submit(new LoadingTaskRunner(loadingSubscriptionTask));
-                loadSubscriptionsFuture.get(OPERATIONS_TIMEOUT, TimeUnit.SECONDS);
-
-				/*
-                 * add explicitly management URL and certificate which was removed
-				 * Changes are did to support both publish setting schema versions.
-				 */
-                if (isNewSchema) {
-                    for (int i = 0; i < subBackup.size(); i++) {
-                        publishData.getPublishProfile().getSubscriptions().get(i).
-                                setServiceManagementUrl(subBackup.get(i).getServiceManagementUrl());
-                        publishData.getPublishProfile().getSubscriptions().get(i).
-                                setManagementCertificate(subBackup.get(i).getManagementCertificate());
-                    }
-                }
+            LoadingSubscriptionTask loadingSubscriptionTask = new LoadingSubscriptionTask(publishData);
+            loadingSubscriptionTask.setSubscriptionIds(subscriptions);
+            loadingSubscriptionTask.addLoadingAccountListener(errorListener);
+
+            loadSubscriptionsFuture = executor.submit(new LoadingTaskRunner(loadingSubscriptionTask));
+            loadSubscriptionsFuture.get(OPERATIONS_TIMEOUT, TimeUnit.SECONDS);
 
-                if (publishData.getCurrentSubscription() == null && publishData.getPublishProfile().getSubscriptions().size() > 0) {
-                    publishData.setCurrentSubscription(publishData.getPublishProfile().getSubscriptions().get(0));
+			/*
+             * add explicitly management URL and certificate which was removed
+			 * Changes are did to support both publish setting schema versions.
+			 */
+            if (isNewSchema) {
+                for (int i = 0; i < subBackup.size(); i++) {
+                    publishData.getPublishProfile().getSubscriptions().get(i).
+                            setServiceManagementUrl(subBackup.get(i).getServiceManagementUrl());
+                    publishData.getPublishProfile().getSubscriptions().get(i).
+                            setManagementCertificate(subBackup.get(i).getManagementCertificate());
                 }
+            }
 
-                // thread pool size is 3 to load hosted services, locations and storage accounts.
-                ScheduledExecutorService threadPool = Executors.newScheduledThreadPool(3);
-                loadServicesFutures = new ArrayList<Future<?>>();
+            if (publishData.getCurrentSubscription() == null && publishData.getPublishProfile().getSubscriptions().size() > 0) {
+                publishData.setCurrentSubscription(publishData.getPublishProfile().getSubscriptions().get(0));
+            }
 
-                // Hosted services
-                LoadingHostedServicesTask loadingHostedServicesTask = new LoadingHostedServicesTask(publishData);
-                if (listener != null) {
-                    loadingHostedServicesTask.addLoadingAccountListener(listener);
-                }
-                Future<?> submitHostedServices = threadPool.submit(new LoadingTaskRunner(loadingHostedServicesTask));
-                loadServicesFutures.add(submitHostedServices);
+            // load hosted services, locations and storage accounts in parallel
+            loadServicesFutures = new ArrayList<Future<?>>();
+
+            // Hosted services
+            LoadingHostedServicesTask loadingHostedServicesTask = new LoadingHostedServicesTask(publishData);
+            loadingHostedServicesTask.addLoadingAccountListener(errorListener);
+            Future<?> submitHostedServices = executor.submit(new LoadingTaskRunner(loadingHostedServicesTask));
+            loadServicesFutures.add(submitHostedServices);
+
+            // locations
+            LoadingLocationsTask loadingLocationsTask = new LoadingLocationsTask(publishData);
+            loadingLocationsTask.addLoadingAccountListener(errorListener);
+            Future<?> submitLocations = executor.submit(new LoadingTaskRunner(loadingLocationsTask));
+            loadServicesFutures.add(submitLocations);
+
+            // storage accounts
+            LoadingStorageAccountTask loadingStorageAccountTask = new LoadingStorageAccountTask(publishData);
+            loadingStorageAccountTask.addLoadingAccountListener(errorListener);
+            Future<?> submitStorageAccounts = executor.submit(new LoadingTaskRunner(loadingStorageAccountTask));
+            loadServicesFutures.add(submitStorageAccounts);
+
+            for (Future<?> future : loadServicesFutures) {
+                future.get(OPERATIONS_TIMEOUT, TimeUnit.SECONDS);
+            }
 
-                // locations
-                LoadingLocationsTask loadingLocationsTask = new LoadingLocationsTask(publishData);
-                if (listener != null) {
-                    loadingLocationsTask.addLoadingAccountListener(listener);
-                }
-                Future<?> submitLocations = threadPool.submit(new LoadingTaskRunner(loadingLocationsTask));
-                loadServicesFutures.add(submitLocations);
+            useHttpStorageEndpointsForChina(publishData);
 
-                // storage accounts
-                LoadingStorageAccountTask loadingStorageAccountTask = new LoadingStorageAccountTask(publishData);
-                if (listener != null) {
-                    loadingStorageAccountTask.addLoadingAccountListener(listener);
+            if (!errorListener.hasFailed() && publishData.isInitialized()) {
+                SubscriptionSnapshotCache.save(publishData, EnumSet.allOf(SubscriptionSnapshotCache.Resource.class));
+            }
+        } catch (InterruptedException e) {
+            cancelLoading(loadSubscriptionsFuture, loadServicesFutures);
+            return true;
+        } catch (ExecutionException e) {
+        } catch (TimeoutException e) {
+            // do not keep shared executor busy with abandoned tasks
+            cancelLoading(loadSubscriptionsFuture, loadServicesFutures);
+        }
+        return false;
+    }
+
+    /**
+     * Reloads hosted services, storage accounts and locations of publish data in background
+     * and updates snapshot. Publish data is replaced in cache by a copy with reloaded resources,
+     * so readers never see it half updated. Services created in wizard but not published yet are kept.
+     * Registered {@link PublishDataRefreshListener}s are notified on event dispatch thread.
+     *
+     * @param force reload all resources, otherwise only resources older than their time to live are reloaded
+     */
+    public static void refreshPublishData(final PublishData publishData, boolean force) {
+        if (publishData == null || !publishData.isInitialized()) {
+            return;
+        }
+        Set<SubscriptionSnapshotCache.Resource> resources = force ?
+                EnumSet.allOf(SubscriptionSnapshotCache.Resource.class) : SubscriptionSnapshotCache.getExpiredResources(publishData);
+        for (final SubscriptionSnapshotCache.Resource resource : resources) {
+            // never on the calling thread, which may be loading publish datas that wizard waits for
+            AzureExecutor.getInstance().submitInBackground(new Runnable() {
+                @Override
+                public void run() {
+                    refreshResource(publishData, resource);
                 }
-                Future<?> submitStorageAccounts = threadPool.submit(new LoadingTaskRunner(loadingStorageAccountTask));
-                loadServicesFutures.add(submitStorageAccounts);
+            });
+        }
+    }
+
+    private static void refreshResource(final PublishData publishData, SubscriptionSnapshotCache.Resource resource) {
+        // load into a copy, so that wizard keeps showing previous values until loading completes
+        PublishData fresh = new PublishData();
+        fresh.setPublishProfile(publishData.getPublishProfile());
+        fresh.setCurrentSubscription(publishData.getCurrentSubscription());
+        Map<String, Configuration> configurationPerSubscription = new HashMap<String, Configuration>();
+        for (Subscription subscription : publishData.getPublishProfile().getSubscriptions()) {
+            configurationPerSubscription.put(subscription.getId(), publishData.getConfiguration(subscription.getId()));
+        }
+        fresh.setConfigurationPerSubscription(configurationPerSubscription);
+
+        LoadingErrorListener errorListener = new LoadingErrorListener(null);
+        LoadingTask<?> task;
+        switch (resource) {
+            case HOSTED_SERVICES:
+                task = new LoadingHostedServicesTask(fresh);
+                break;
+            case STORAGE_SERVICES:
+                task = new LoadingStorageAccountTask(fresh);
+                break;
+            default:
+                task = new LoadingLocationsTask(fresh);
+        }
+        task.addLoadingAccountListener(errorListener);
+        new LoadingTaskRunner(task).run();
+        if (errorListener.hasFailed()) {
+            // keep serving snapshot, next wizard session will retry
+            return;
+        }
 
-                for (Future<?> future : loadServicesFutures) {
-                    future.get(OPERATIONS_TIMEOUT, TimeUnit.SECONDS);
+        switch (resource) {
+            case HOSTED_SERVICES:
+                if (fresh.getServicesPerSubscription() == null) {
+                    return;
+                }
+                break;
+            case STORAGE_SERVICES:
+                if (fresh.getStoragesPerSubscription() == null) {
+                    return;
                 }
+                useHttpStorageEndpointsForChina(fresh);
+                break;
+            default:
+                if (fresh.getLocationsPerSubscription() == null) {
+                    return;
+                }
+        }
 
-                try {
-                    String chinaMngmntUrl = PreferenceSetUtil.getManagementURL("windowsazure.cn (China)", AzurePlugin.prefFilePath);
-                    chinaMngmntUrl = chinaMngmntUrl.substring(0, chinaMngmntUrl.lastIndexOf("/"));
-                    if (url.equals(chinaMngmntUrl)) {
-                        for (Subscription sub : publishData.getPublishProfile().getSubscriptions()) {
-                            StorageServices services = publishData.getStoragesPerSubscription().get(sub.getId());
-                            for (StorageService strgService : services) {
-                                List<URI> endpoints = strgService.getStorageAccountProperties().getEndpoints();
-                                for (int i = 0; i < endpoints.size(); i++) {
-                                    String uri = endpoints.get(i).toString();
-                                    if (uri.startsWith("https://")) {
-                                        endpoints.set(i, URI.create(uri.replaceFirst("https://", "http://")));
-                                    }
-                                }
-                            }
+        final PublishData previous;
+        final PublishData refreshed;
+        synchronized (WizardCacheManager.class) {
+            // an earlier refresh may have replaced publish data already, this one builds on its copy
+            PublishData registered = PUBLISHS.findPublishDataByProfile(publishData.getPublishProfile());
+            previous = registered != null ? registered : publishData;
+            // never change maps readers may be iterating, publish a copy with new ones instead
+            PublishData copy = PublishDataRegistry.copyOf(previous);
+            synchronized (previous) {
+                switch (resource) {
+                    case HOSTED_SERVICES:
+                        copy.setServicesPerSubscription(mergeServices(previous.getServicesPerSubscription(),
+                                fresh.getServicesPerSubscription()));
+                        break;
+                    case STORAGE_SERVICES:
+                        copy.setStoragesPerSubscription(mergeStorages(previous.getStoragesPerSubscription(),
+                                fresh.getStoragesPerSubscription()));
+                        break;
+                    default:
+                        Map<String, ArrayList<Location>> locations = new HashMap<String, ArrayList<Location>>();
+                        if (previous.getLocationsPerSubscription() != null) {
+                            locations.putAll(previous.getLocationsPerSubscription());
                         }
-                    }
-                } catch (Exception e) {
-                    // Ignore error
+                        locations.putAll(fresh.getLocationsPerSubscription());
+                        copy.setLocationsPerSubscription(locations);
+                }
+            }
+            if (PUBLISHS.replace(previous, copy)) {
+                if (currentPublishData == previous) {
+                    currentPublishData = copy;
+                }
+                refreshed = copy;
+            } else {
+                // not registered yet, so only its loader sees it; maps are swapped, never changed
+                publishData.setServicesPerSubscription(copy.getServicesPerSubscription());
+                publishData.setStoragesPerSubscription(copy.getStoragesPerSubscription());
+                publishData.setLocationsPerSubscription(copy.getLocationsPerSubscription());
+                refreshed = publishData;
+            }
+        }
+        SubscriptionSnapshotCache.save(refreshed, EnumSet.of(resource));
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                for (PublishDataRefreshListener listener : REFRESH_LISTENERS.getListeners(PublishDataRefreshListener.class)) {
+                    listener.onPublishDataRefreshed(previous, refreshed);
                 }
-            } catch (InterruptedException e) {
-                if (loadSubscriptionsFuture != null) {
-                    loadSubscriptionsFuture.cancel(true);
+            }
+        }, ModalityState.any());
+    }
+
+    /**
+     * @return new map with reloaded services, keeping services created in wizard but not published yet
+     */
+    private static Map<String, ArrayList<HostedService>> mergeServices(Map<String, ArrayList<HostedService>> current,
+                                                                       Map<String, ArrayList<HostedService>> fresh) {
+        Map<String, ArrayList<HostedService>> merged = new HashMap<String, ArrayList<HostedService>>();
+        if (current != null) {
+            merged.putAll(current);
+        }
+        for (Map.Entry<String, ArrayList<HostedService>> entry : fresh.entrySet()) {
+            ArrayList<HostedService> services = new ArrayList<HostedService>(entry.getValue());
+            List<HostedService> currentServices = merged.get(entry.getKey());
+            if (currentServices != null) {
+                Set<String> names = new HashSet<String>();
+                for (HostedService service : services) {
+                    names.add(service.getServiceName());
                 }
-                if (loadServicesFutures != null) {
-                    for (Future<?> future : loadServicesFutures) {
-                        future.cancel(true);
+                for (HostedService service : currentServices) {
+                    if (service.getUri() == null && !names.contains(service.getServiceName())) {
+                        services.add(service);
                     }
                 }
-                canceled = true;
-            } catch (ExecutionException e) {
-            } catch (TimeoutException e) {
             }
+            merged.put(entry.getKey(), services);
         }
+        return merged;
+    }
 
-
-        if (publishData.getPublishProfile().getSubscriptions().size() > 0) {
-            if (!empty(publishData) && !canceled) {
-                removeDuplicateSubscriptions(publishData);
-                PUBLISHS.add(publishData);
-                publishData.isInitializing().compareAndSet(true, false);
-                currentPublishData = publishData;
+    /**
+     * @return new map with reloaded storage accounts, keeping accounts created in wizard but not published yet
+     */
+    private static Map<String, StorageServices> mergeStorages(Map<String, StorageServices> current,
+                                                              Map<String, StorageServices> fresh) {
+        Map<String, StorageServices> merged = new HashMap<String, StorageServices>();
+        if (current != null) {
+            merged.putAll(current);
+        }
+        for (Map.Entry<String, StorageServices> entry : fresh.entrySet()) {
+            StorageServices storages = entry.getValue();
+            StorageServices currentStorages = merged.get(entry.getKey());
+            if (currentStorages != null) {
+                Set<String> names = new HashSet<String>();
+                for (StorageService storage : storages) {
+                    names.add(storage.getServiceName());
+                }
+                for (StorageService storage : currentStorages) {
+                    if (storage.getUrl() == null && !names.contains(storage.getServiceName())) {
+                        storages.add(storage);
+                    }
+                }
             }
+            merged.put(entry.getKey(), storages);
         }
+        return merged;
     }
 
-    private static void removeDuplicateSubscriptions(PublishData publishData) {
+    public static void addPublishDataRefreshListener(PublishDataRefreshListener listener) {
+        REFRESH_LISTENERS.add(PublishDataRefreshListener.class, listener);
+    }
 
-        Set<String> subscriptionIdsToRemove = new HashSet<String>();
+    public static void removePublishDataRefreshListener(PublishDataRefreshListener listener) {
+        REFRESH_LISTENERS.remove(PublishDataRefreshListener.class, listener);
+    }
 
-        List<Subscription> subscriptionsOfPublishDataToCache = publishData.getPublishProfile().getSubscriptions();
-        for (Subscription subscriptionOfPublishDataToCache : subscriptionsOfPublishDataToCache) {
-            for (PublishData pd : PUBLISHS) {
-                for (Subscription existingSubscription : pd.getPublishProfile().getSubscriptions()) {
-                    if (existingSubscription.getId().equals(subscriptionOfPublishDataToCache.getId())) {
-                        subscriptionIdsToRemove.add(existingSubscription.getId());
+    private static String getManagementUrl(PublishData publishData, Subscription subscription) {
+        String schemaVer = publishData.getPublishProfile().getSchemaVersion();
+        boolean isNewSchema = schemaVer != null && !schemaVer.isEmpty() && schemaVer.equalsIgnoreCase("2.0");
+        // publishsetting file is of schema version 2.0, otherwise URL is in profile
+        String url = isNewSchema ? subscription.getServiceManagementUrl() : publishData.getPublishProfile().getUrl();
+        if (url == null || url.isEmpty()) {
+            try {
+                url = PreferenceSetUtil.getManagementURL(PreferenceSetUtil.getSelectedPreferenceSetName(AzurePlugin.prefFilePath), AzurePlugin.prefFilePath);
+                url = url.substring(0, url.lastIndexOf("/"));
+            } catch (Exception e) {
+                log(e.getMessage());
+            }
+        }
+        return url;
+    }
+
+    private static void useHttpStorageEndpointsForChina(PublishData publishData) {
+        try {
+            String chinaMngmntUrl = PreferenceSetUtil.getManagementURL("windowsazure.cn (China)", AzurePlugin.prefFilePath);
+            chinaMngmntUrl = chinaMngmntUrl.substring(0, chinaMngmntUrl.lastIndexOf("/"));
+            for (Subscription sub : publishData.getPublishProfile().getSubscriptions()) {
+                if (chinaMngmntUrl.equals(getManagementUrl(publishData, sub))) {
+                    StorageServices services = publishData.getStoragesPerSubscription().get(sub.getId());
+                    for (StorageService strgService : services) {
+                        List<URI> endpoints = strgService.getStorageAccountProperties().getEndpoints();
+                        for (int i = 0; i < endpoints.size(); i++) {
+                            String uri = endpoints.get(i).toString();
+                            if (uri.startsWith("https://")) {
+                                endpoints.set(i, URI.create(uri.replaceFirst("https://", "http://")));
+                            }
+                        }
                     }
                 }
             }
+        } catch (Exception e) {
+            // Ignore error
         }
+    }
 
-        for (String subscriptionId : subscriptionIdsToRemove) {
-            removeSubscription(subscriptionId);
-        }
+    /**
+     * Adds loaded publish data to cache, replacing subscriptions already cached from other publish datas,
+     * and makes it current publish data.
+     */
+    public static void addPublishData(PublishData publishData) {
+        addPublishDatas(Collections.singletonList(publishData));
+    }
 
-        List<PublishData> emptyPublishDatas = new ArrayList<PublishData>();
-        for (PublishData pd : PUBLISHS) {
-            if (pd.getPublishProfile().getSubscriptions().isEmpty()) {
-                emptyPublishDatas.add(pd);
-            }
+    /**
+     * Adds loaded publish datas to cache in one step, later ones replacing subscriptions of earlier ones,
+     * and makes last one current publish data.
+     */
+    public static synchronized void addPublishDatas(List<PublishData> publishDatas) {
+        if (publishDatas.isEmpty()) {
+            return;
+        }
+        PUBLISHS.addAll(publishDatas);
+        for (PublishData publishData : publishDatas) {
+            publishData.isInitializing().compareAndSet(true, false);
         }
+        currentPublishData = publishDatas.get(publishDatas.size() - 1);
+    }
 
-        for (PublishData emptyData : emptyPublishDatas) {
-            PUBLISHS.remove(emptyData);
+    private static void cancelLoading(Future<?> loadSubscriptionsFuture, List<Future<?>> loadServicesFutures) {
+        if (loadSubscriptionsFuture != null) {
+            loadSubscriptionsFuture.cancel(true);
+        }
+        if (loadServicesFutures != null) {
+            for (Future<?> future : loadServicesFutures) {
+                future.cancel(true);
+            }
         }
     }
 
@@ -557,4 +857,65 @@ public final class WizardCacheManager {
     public static void addPublishSettingsPerSubscription(Map<String, String> publishSettingsPerSubscription) {
         publishSettingsPerSubscriptionMap.putAll(publishSettingsPerSubscription);
     }
+
+    /**
+     * Remembers whether any loading task failed and forwards events to optional delegate.
+     */
+    private static class LoadingErrorListener implements LoadingAccoutListener {
+        private final LoadingAccoutListener delegate;
+        private final AtomicBoolean failed = new AtomicBoolean();
+
+        private LoadingErrorListener(LoadingAccoutListener delegate) {
+            this.delegate = delegate;
+        }
+
+        public boolean hasFailed() {
+            return failed.get();
+        }
+
+        @Override
+        public void onLoadedSubscriptions() {
+            if (delegate != null) {
+                delegate.onLoadedSubscriptions();
+            }
+        }
+
+        @Override
+        public void onLoadedStorageServices() {
+            if (delegate != null) {
+                delegate.onLoadedStorageServices();
+            }
+        }
+
+        @Override
+        public void onLoadedHostedServices() {
+            if (delegate != null) {
+                delegate.onLoadedHostedServices();
+            }
+        }
+
+        @Override
+        public void onLoadedLocations() {
+            if (delegate != null) {
+                delegate.onLoadedLocations();
+            }
+        }
+
+        @Override
+        public void onRestAPIError(AccountCachingExceptionEvent e) {
+            failed.set(true);
+            if (delegate != null) {
+                delegate.onRestAPIError(e);
+            } else {
+                log(e.getMessage(), e.getException());
+            }
+        }
+
+        @Override
+        public void setNumberOfAccounts(int num) {
+            if (delegate != null) {
+                delegate.setNumberOfAccounts(num);
+            }
+        }
+    }
 }
@@ -26,25 +26,25 @@ import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
 import com.microsoft.intellij.AzurePlugin;
 import com.microsoft.intellij.deploy.DeploymentManager;
-import com.microsoft.wacommon.utils.WACommonException;
+import com.microsoft.intellij.deploy.DeploymentManager.UndeployTarget;
 import com.microsoftopentechnologies.azurecommons.deploy.DeploymentEventArgs;
 import com.microsoftopentechnologies.azurecommons.deploy.DeploymentEventListener;
-import com.microsoftopentechnologies.azurecommons.exception.RestAPIException;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.List;
+
 import static com.microsoft.intellij.AzurePlugin.log;
 import static com.microsoft.intellij.ui.messages.AzureBundle.message;
 
+/**
+ * Deletes one or more deployments in parallel, progress of the task is the share of deployments done.
+ */
 public class WindowsAzureUndeploymentTask extends Task.Backgroundable {
-    private String serviceName;
-    private String deploymentName;
-    private String deploymentState;
+    private final List<UndeployTarget> targets;
 
-    public WindowsAzureUndeploymentTask(Project project, String serviceName, String deploymentName, String deploymentState) {
+    public WindowsAzureUndeploymentTask(Project project, List<UndeployTarget> targets) {
         super(project, message("deployingToAzure"), true, Backgroundable.DEAF);
-        this.serviceName = serviceName;
-        this.deploymentName = deploymentName;
-        this.deploymentState = deploymentState;
+        this.targets = targets;
     }
 
     @Override
@@ -53,23 +53,27 @@ public class WindowsAzureUndeploymentTask extends Task.Backgroundable {
         DeploymentEventListener undeployListnr = new DeploymentEventListener() {
             @Override
             public void onDeploymentStep(DeploymentEventArgs args) {
-                indicator.setFraction(indicator.getFraction() + args.getDeployCompleteness() / 100.0);
-                indicator.setText(message("undeployWizTitle"));
                 indicator.setText2(args.toString());
             }
         };
         AzurePlugin.addDeploymentEventListener(undeployListnr);
         AzurePlugin.depEveList.add(undeployListnr);
+        indicator.setText(message("undeployWizTitle"));
+        indicator.setFraction(0);
 
         try {
-            DeploymentManager.getInstance().undeploy(serviceName, deploymentName, deploymentState);
-        } catch (RestAPIException e) {
-            log(message("error"), e);
+            int deleted = DeploymentManager.getInstance().undeploy(targets, new DeploymentManager.UndeployListener() {
+                @Override
+                public void undeployed(UndeployTarget target, boolean success, int done, int total) {
+                    indicator.setFraction((double) done / total);
+                    indicator.setText(String.format(message("undeployBatchProgress"), done, total));
+                }
+            });
+            if (deleted < targets.size()) {
+                log(String.format(message("undeployBatchFailed"), targets.size() - deleted, targets.size()));
+            }
         } catch (InterruptedException e) {
             log(message("error"), e);
-        } catch (WACommonException e) {
-            log(message("error"), e);
-            e.printStackTrace();
         }
     }
 }